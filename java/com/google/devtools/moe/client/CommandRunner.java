@@ -16,6 +16,8 @@
 
 package com.google.devtools.moe.client;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.Collections;
 import java.util.List;
 
@@ -70,6 +72,20 @@ public interface CommandRunner {
     }
   }
 
+  /**
+   * Consumes the standard output of a command incrementally, while the command is still running.
+   *
+   * @param <T> the type of the value computed from the output
+   */
+  public interface OutputHandler<T> {
+    /**
+     * Reads a command's stdout and returns a value computed from it. The stream is owned by the
+     * runner: it need not be read to the end nor closed, and any output left unread when this
+     * method returns is discarded.
+     */
+    T handleOutput(InputStream stdout) throws IOException;
+  }
+
   /**
    * Runs a command.
    *
@@ -96,4 +112,21 @@ public interface CommandRunner {
    */
   CommandOutput runCommandWithFullOutput(String cmd, List<String> args, String workingDirectory)
       throws CommandException;
+
+  /**
+   * Runs a command, handing its stdout to {@code handler} as it is produced rather than buffering
+   * it, so that large outputs can be parsed in constant memory and in parallel with the command.
+   *
+   * @param cmd  the binary to invoke. If not a path, it will be resolved.
+   * @param args  the arguments to pass to the binary
+   * @param workingDirectory  the directory to run in
+   * @param handler  the consumer of the command's stdout
+   *
+   * @returns the value computed by {@code handler}
+   * @throws CommandException if the command exits with a non-zero status. Its stdout has already
+   *     been given to {@code handler}, so the exception carries only the stderr and exit status.
+   */
+  <T> T runCommandStreaming(
+      String cmd, List<String> args, String workingDirectory, OutputHandler<T> handler)
+      throws CommandException;
 }
@@ -16,8 +16,16 @@
 
 package com.google.devtools.moe.client;
 
+import com.google.auto.value.AutoValue;
+import com.google.common.io.ByteSink;
+import com.google.common.io.ByteSource;
+import com.google.common.io.FileWriteMode;
+
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -25,6 +33,13 @@ import java.util.Set;
  */
 public interface FileSystem {
 
+  /**
+   * The suffix of the sidecar of a temporary directory, the one file beside it that
+   * {@link #cleanUpTempDirs()} deletes along with it, in which what's known of its contents (such
+   * as the fingerprint of the codebase in it) may be kept.
+   */
+  public static final String SIDECAR_SUFFIX = ".fingerprint";
+
   /**
    * Finds a Temporary Directory starting with prefix that lasts as long as the current task. This
    * is equivalent to calling {@link #getTemporaryDirectory(String, Lifetime)} with
@@ -47,18 +62,33 @@ public interface FileSystem {
 
   /**
    * Deletes files/directories created by {@link #getTemporaryDirectory(String, Lifetime)} whose
-   * {@code Lifetime}s specify deletion at this juncture.
+   * {@code Lifetime}s specify deletion at this juncture, along with the {@link #SIDECAR_SUFFIX
+   * sidecar} of each, if one was kept beside it. Resources given to {@link #closeOnCleanUp}
+   * whose {@code Lifetime}s have ended are closed first.
    *
    * @see #setLifetime(File, Lifetime)
    */
   public void cleanUpTempDirs() throws IOException;
 
+  /**
+   * Closes a resource at the first {@link #cleanUpTempDirs()} at which the given {@code Lifetime}
+   * has ended, such as a process working in a temp dir of that {@code Lifetime}, which mustn't
+   * outlive it.
+   */
+  public void closeOnCleanUp(Lifetime lifetime, Closeable resource);
+
   /**
    * Sets the {@link Lifetime} for a path. The path must have been provided by
    * {@link #getTemporaryDirectory(String, Lifetime)}.
    */
   public void setLifetime(File path, Lifetime lifetime);
 
+  /**
+   * Returns whether a path was provided by {@link #getTemporaryDirectory(String, Lifetime)} and
+   * hasn't yet been cleaned up.
+   */
+  public boolean isTemporaryDirectory(File path);
+
   /**
    * Find the relative names of files under  path.
    *
@@ -66,6 +96,12 @@ public interface FileSystem {
    */
   public Set<File> findFiles(File path);
 
+  /**
+   * Finds the files under path, as {@link #findFiles(File)} does, with the stats read of each as
+   * it was found, so that they needn't be asked for again file by file.
+   */
+  public Map<File, FileStat> findFilesWithStats(File path);
+
   /**
    * Returns an array of files and directories under path.
    */
@@ -112,6 +148,28 @@ public interface FileSystem {
    */
   public void setNonExecutable(File f);
 
+  /**
+   * Makes a file read-only for all users, so that writing it in place fails rather than changing
+   * it and every file linked to it.
+   */
+  public void setReadOnly(File f);
+
+  /**
+   * Returns the length of the file in bytes, or 0 if it doesn't exist.
+   */
+  public long length(File f);
+
+  /**
+   * Returns when the file was last modified, in milliseconds since the epoch, or 0 if it doesn't
+   * exist.
+   */
+  public long lastModified(File f);
+
+  /**
+   * Sets when the file was last modified, in milliseconds since the epoch, where it can be set.
+   */
+  public void setLastModified(File f, long time);
+
   /**
    * Make the parent directory for f exist.
    */
@@ -123,15 +181,36 @@ public interface FileSystem {
   public void makeDirs(File f) throws IOException;
 
   /**
-   * Copy File src's contents into dest.
+   * Copy File src's contents into dest. A file already at dest is replaced, not written through,
+   * so that any file it's linked to is left as it was.
    */
   public void copyFile(File src, File dest) throws IOException;
 
+  /**
+   * Makes dest a file with src's contents and executability, preferably as a hard link to it, or
+   * else as a copy. Neither file may then be written in place, lest the other change with it; a
+   * file to be edited must be copied instead, or replaced, as by {@link #move}.
+   */
+  public void linkOrCopyFile(File src, File dest) throws IOException;
+
   /**
    * Write contents to File f.
    */
   public void write(String contents, File f) throws IOException;
 
+  /**
+   * Moves File src to dest in one step, replacing any file at dest, so that dest is never seen
+   * partly written.
+   */
+  public void move(File src, File dest) throws IOException;
+
+  /**
+   * Blocks until this process holds an exclusive lock on File f, creating it if need be, and
+   * returns a handle which releases the lock when closed. The lock is advisory: it excludes only
+   * other processes taking the same lock, not their reading or writing other files.
+   */
+  public Closeable lock(File f) throws IOException;
+
   /**
    * Deletes a file or directory and all contents recursively.
    */
@@ -151,6 +230,23 @@ public interface FileSystem {
    */
   public String fileToString(File f) throws IOException;
 
+  /**
+   * Returns a source of f's bytes, to read or hash without decoding them.
+   */
+  public ByteSource asByteSource(File f) throws IOException;
+
+  /**
+   * Returns f's contents as a read-only buffer, which may be mapped into memory rather than read,
+   * so that only the parts of it used need be paged in.
+   */
+  public ByteBuffer asByteBuffer(File f) throws IOException;
+
+  /**
+   * Returns a sink that replaces f's contents with bytes, written as they are, or appends them
+   * if the modes include {@link FileWriteMode#APPEND}.
+   */
+  public ByteSink asByteSink(File f, FileWriteMode... modes) throws IOException;
+
   /**
    * A specification of whether a temporary directory should be cleaned up on a call to
    * {@link FileSystem#cleanUpTempDirs()}. On clean-up, each temporary directory's {@code Lifetime}
@@ -165,4 +261,18 @@ public interface FileSystem {
      */
     boolean shouldCleanUp();
   }
+
+  /** What {@link #findFilesWithStats(File)} reads of a file: its length and executability. */
+  @AutoValue
+  public abstract static class FileStat {
+    public static FileStat create(long length, boolean executable) {
+      return new AutoValue_FileSystem_FileStat(length, executable);
+    }
+
+    /** The length of the file in bytes. */
+    public abstract long length();
+
+    /** Whether the file is executable, by its owner. */
+    public abstract boolean executable();
+  }
 }
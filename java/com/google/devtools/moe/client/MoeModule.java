@@ -15,21 +15,30 @@
  */
 package com.google.devtools.moe.client;
 
-import com.google.devtools.moe.client.database.FileDb;
+import com.google.devtools.moe.client.codebase.CodebaseCache;
+import com.google.devtools.moe.client.database.Databases;
 import com.google.devtools.moe.client.directives.DirectivesModule;
+import com.google.devtools.moe.client.dvcs.git.GitMirrorCache;
 import com.google.devtools.moe.client.gson.GsonModule;
 import com.google.devtools.moe.client.options.OptionsModule;
+import com.google.devtools.moe.client.options.OptionsParser;
 import com.google.devtools.moe.client.project.FileReadingProjectContextFactory;
 import com.google.devtools.moe.client.project.ProjectContextFactory;
 import com.google.devtools.moe.client.repositories.Repositories;
+import com.google.devtools.moe.client.repositories.RevisionMetadataCache;
+import com.google.devtools.moe.client.tools.CodebaseDiffer;
 import com.google.devtools.moe.client.tools.FileDifference.ConcreteFileDiffer;
 import com.google.devtools.moe.client.tools.FileDifference.FileDiffer;
+import com.google.devtools.moe.client.tools.JavaFileDiffer;
 
 import com.squareup.okhttp.OkHttpClient;
 
 import dagger.Module;
 import dagger.Provides;
 
+import java.io.File;
+
+import javax.inject.Provider;
 import javax.inject.Singleton;
 
 /**
@@ -40,7 +49,7 @@ import javax.inject.Singleton;
     Repositories.Defaults.class,
     OptionsModule.class,
     DirectivesModule.class,
-    FileDb.Module.class,
+    Databases.Module.class,
     GsonModule.class
   }
 )
@@ -77,8 +86,40 @@ public class MoeModule {
 
   @Provides
   @Singleton
-  FileDiffer fileDiffer(ConcreteFileDiffer cfd) {
-    return cfd;
+  FileDiffer fileDiffer(
+      OptionsParser options, Provider<JavaFileDiffer> jfd, Provider<ConcreteFileDiffer> cfd) {
+    return options.systemDiff() ? cfd.get() : jfd.get();
+  }
+
+  @Provides
+  @Singleton
+  CodebaseDiffer codebaseDiffer(FileDiffer differ, OptionsParser options) {
+    return new CodebaseDiffer(differ, options.jobs());
+  }
+
+  @Provides
+  @Singleton
+  RevisionMetadataCache revisionMetadataCache(OptionsParser options) {
+    return new RevisionMetadataCache(
+        options.cacheDirectory() == null ? null : new File(options.cacheDirectory(), "metadata"));
+  }
+
+  @Provides
+  @Singleton
+  CodebaseCache codebaseCache(FileSystem filesystem, OptionsParser options) {
+    return new CodebaseCache(
+        filesystem,
+        options.cacheDirectory() == null ? null : new File(options.cacheDirectory(), "codebases"),
+        options.codebaseCacheBytes());
+  }
+
+  @Provides
+  @Singleton
+  GitMirrorCache gitMirrorCache(CommandRunner cmd, FileSystem filesystem, OptionsParser options) {
+    return new GitMirrorCache(
+        cmd,
+        filesystem,
+        options.cacheDirectory() == null ? null : new File(options.cacheDirectory(), "git"));
   }
 
   @Provides
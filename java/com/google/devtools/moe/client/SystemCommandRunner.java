@@ -16,16 +16,26 @@
 
 package com.google.devtools.moe.client;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
 import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import dagger.Provides;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.Charset;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -36,85 +46,57 @@ import javax.inject.Singleton;
  */
 @Singleton
 public class SystemCommandRunner implements CommandRunner {
+  /**
+   * Drains the error streams of running processes. Threads are daemons so that a wedged child
+   * process can never keep MOE from exiting, and are reused across the many short-lived commands
+   * a MOE run typically issues.
+   */
+  private static final ExecutorService STREAM_DRAINERS =
+      Executors.newCachedThreadPool(
+          new ThreadFactoryBuilder()
+              .setDaemon(true)
+              .setNameFormat("moe-command-output-%d")
+              .build());
+
   private final Ui ui;
+  private final Charset charset;
 
   @Inject
   public SystemCommandRunner(Ui ui) {
+    this(ui, UTF_8);
+  }
+
+  /**
+   * Creates a runner which decodes the output of commands with the given {@link Charset}.
+   */
+  public SystemCommandRunner(Ui ui, Charset charset) {
     this.ui = ui;
+    this.charset = charset;
   }
 
   @Override
   public CommandOutput runCommandWithFullOutput(
       String cmd, List<String> args, String workingDirectory) throws CommandException {
-    ImmutableList<String> cmdArgs =
-        new ImmutableList.Builder<String>().add(cmd).addAll(args).build();
-
-    ui.debug("%s $ %s", workingDirectory, Joiner.on(" ").join(cmdArgs));
-
-    ProcessBuilder pb = new ProcessBuilder(cmdArgs);
-    if (workingDirectory != null && !workingDirectory.isEmpty()) {
-      pb.directory(new File(workingDirectory));
-    }
-    Process p;
     int returnStatus;
     String stdoutData, stderrData;
+    Process p = startProcess(cmd, args, workingDirectory);
     try {
-      p = pb.start();
-      p.getOutputStream().close();
-      // We need to read data from the output steams.
-      // Why? Because if we don't read from them, then the process we have started will fill the
-      // buffers and block. We will be in a deadlock.
-      // If there were only one stream, we could just do repeated calls to read() until we got
-      // EOF.
-      // But because there are two streams (both stdout and stderr), we have to read from each.
-      // read() is blocking, so we use available().
-
-      Sink stdoutSink = new Sink(p.getInputStream());
-      Sink stderrSink = new Sink(p.getErrorStream());
-
-      // Sleep in longer increments when it's not generating output.
-      // When it is, reset this value.
-      int timeToSleep = 1;
-      while (true) {
-        while (stdoutSink.isAvailable()) {
-          if (stdoutSink.consumeByte()) {
-            timeToSleep = 1;
-          } else {
-            stdoutSink.closeStream();
-          }
-        }
-        while (stderrSink.isAvailable()) {
-          if (stderrSink.consumeByte()) {
-            timeToSleep = 1;
-          } else {
-            stderrSink.closeStream();
-          }
-        }
-        try {
-          returnStatus = p.exitValue();
-          break;
-        } catch (IllegalThreadStateException expected) {
-        }
-        timeToSleep++;
-        // Never sleep more than half a second.
-        if (timeToSleep > 500) {
-          timeToSleep = 500;
-        }
-        Thread.sleep(timeToSleep);
-      }
-      if (stdoutSink.isAvailable()) {
-        while (stdoutSink.consumeByte()) {}
-      }
-      if (stderrSink.isAvailable()) {
-        while (stderrSink.consumeByte()) {}
-      }
-
-      stdoutData = stdoutSink.getData();
-      stderrData = stderrSink.getData();
+      // Both streams have to be read, or the process we have started may fill a pipe buffer and
+      // block, and we will be in a deadlock. Stderr is drained on a pooled thread while stdout is
+      // drained on this one. Each read blocks until data arrives or the process closes the stream
+      // on exit, so there is no polling and no latency added to short commands.
+      Future<byte[]> stderrFuture = STREAM_DRAINERS.submit(new Sink(p.getErrorStream()));
+      byte[] stdoutBytes = new Sink(p.getInputStream()).call();
+      byte[] stderrBytes = getDrainedBytes(stderrFuture);
+      returnStatus = p.waitFor();
+
+      stdoutData = new String(stdoutBytes, charset);
+      stderrData = new String(stderrBytes, charset);
     } catch (IOException e) {
       throw new MoeProblem("Cannot run process: %s", e.getMessage());
     } catch (InterruptedException e) {
-      throw new MoeProblem("Interrupted while running process: %s", cmdArgs);
+      Thread.currentThread().interrupt();
+      throw new MoeProblem("Interrupted while running process: %s %s", cmd, args);
     }
     if (returnStatus == 0) {
       return new CommandOutput(stdoutData, stderrData);
@@ -128,39 +110,103 @@ public class SystemCommandRunner implements CommandRunner {
     return runCommandWithFullOutput(cmd, args, workingDirectory).getStdout();
   }
 
-  private static class Sink {
-    private final List<Byte> bytes = Lists.newArrayList();
-    private InputStream stream;
-
-    Sink(InputStream stream) {
-      this.stream = stream;
+  @Override
+  public <T> T runCommandStreaming(
+      String cmd, List<String> args, String workingDirectory, OutputHandler<T> handler)
+      throws CommandException {
+    int returnStatus;
+    String stderrData;
+    T result = null;
+    IOException handlerError = null;
+    Process p = startProcess(cmd, args, workingDirectory);
+    try {
+      Future<byte[]> stderrFuture = STREAM_DRAINERS.submit(new Sink(p.getErrorStream()));
+      InputStream stdout = p.getInputStream();
+      try {
+        result = handler.handleOutput(stdout);
+      } catch (IOException e) {
+        // Report a failure of the command itself in preference to a failure to parse its output.
+        handlerError = e;
+      } catch (RuntimeException | Error e) {
+        p.destroy();
+        throw e;
+      }
+      // Discard whatever the handler did not read, so that the process can run to completion.
+      ByteStreams.copy(stdout, ByteStreams.nullOutputStream());
+      stdout.close();
+      stderrData = new String(getDrainedBytes(stderrFuture), charset);
+      returnStatus = p.waitFor();
+    } catch (IOException e) {
+      throw new MoeProblem("Cannot run process: %s", e.getMessage());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new MoeProblem("Interrupted while running process: %s %s", cmd, args);
     }
-
-    boolean isAvailable() throws IOException {
-      return stream != null && stream.available() > 0;
+    if (returnStatus != 0) {
+      throw new CommandException(cmd, args, "", stderrData, returnStatus);
     }
+    if (handlerError != null) {
+      throw new MoeProblem(
+          "Error reading output of %s %s: %s", cmd, args, handlerError.getMessage());
+    }
+    return result;
+  }
 
-    void closeStream() {
-      stream = null;
+  private Process startProcess(String cmd, List<String> args, String workingDirectory) {
+    ImmutableList<String> cmdArgs =
+        new ImmutableList.Builder<String>().add(cmd).addAll(args).build();
+
+    ui.debug("%s $ %s", workingDirectory, Joiner.on(" ").join(cmdArgs));
+
+    ProcessBuilder pb = new ProcessBuilder(cmdArgs);
+    if (workingDirectory != null && !workingDirectory.isEmpty()) {
+      pb.directory(new File(workingDirectory));
     }
+    try {
+      Process p = pb.start();
+      p.getOutputStream().close();
+      return p;
+    } catch (IOException e) {
+      throw new MoeProblem("Cannot run process: %s", e.getMessage());
+    }
+  }
 
-    boolean consumeByte() throws IOException {
-      int data = stream.read();
-      if (data == -1) {
-        return false;
-      } else {
-        bytes.add((byte) data);
-        return true;
+  private static byte[] getDrainedBytes(Future<byte[]> drainedStream)
+      throws IOException, InterruptedException {
+    try {
+      return drainedStream.get();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
       }
+      throw new MoeProblem("Error reading process output: %s", e.getCause());
+    }
+  }
+
+  /**
+   * Reads a stream to exhaustion into a growable byte buffer, in blocks rather than bytes.
+   */
+  private static class Sink implements Callable<byte[]> {
+    private static final int BLOCK_SIZE = 8192;
+
+    private final InputStream stream;
+
+    Sink(InputStream stream) {
+      this.stream = stream;
     }
 
-    String getData() {
-      byte[] byteArray = new byte[bytes.size()];
-      int i = 0;
-      for (Byte b : bytes) {
-        byteArray[i++] = b;
+    @Override
+    public byte[] call() throws IOException {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream(BLOCK_SIZE);
+      byte[] block = new byte[BLOCK_SIZE];
+      try {
+        for (int read = stream.read(block); read != -1; read = stream.read(block)) {
+          bytes.write(block, 0, read);
+        }
+      } finally {
+        stream.close();
       }
-      return new String(byteArray);
+      return bytes.toByteArray();
     }
   }
 
@@ -17,24 +17,45 @@
 package com.google.devtools.moe.client;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.Files.newDirectoryStream;
+import static java.nio.file.Files.readAttributes;
 import static java.nio.file.Files.walkFileTree;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.google.common.io.ByteSink;
+import com.google.common.io.ByteSource;
+import com.google.common.io.FileWriteMode;
 import com.google.common.io.Files;
 import com.google.common.io.Resources;
 import dagger.Provides;
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.FileSystemLoopException;
+import java.nio.file.FileVisitOption;
 import java.nio.file.FileVisitResult;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
 import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -50,7 +71,11 @@ import static java.nio.charset.StandardCharsets.UTF_8;
  */
 @Singleton
 public class SystemFileSystem implements FileSystem {
+  private static final boolean POSIX =
+      FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+
   private final Map<File, Lifetime> tempDirLifetimes = Maps.newHashMap();
+  private final Map<Closeable, Lifetime> resourceLifetimes = Maps.newLinkedHashMap();
 
   @Inject
   public SystemFileSystem() {}
@@ -75,16 +100,36 @@ public class SystemFileSystem implements FileSystem {
 
   @Override
   public void cleanUpTempDirs() throws IOException {
+    Iterator<Entry<Closeable, Lifetime>> resourceIterator = resourceLifetimes.entrySet().iterator();
+    while (resourceIterator.hasNext()) {
+      Entry<Closeable, Lifetime> entry = resourceIterator.next();
+      if (entry.getValue().shouldCleanUp()) {
+        resourceIterator.remove();
+        entry.getKey().close();
+      }
+    }
     Iterator<Entry<File, Lifetime>> tempDirIterator = tempDirLifetimes.entrySet().iterator();
     while (tempDirIterator.hasNext()) {
       Entry<File, Lifetime> entry = tempDirIterator.next();
       if (entry.getValue().shouldCleanUp()) {
         deleteRecursively(entry.getKey());
+        deleteSidecar(entry.getKey());
         tempDirIterator.remove();
       }
     }
   }
 
+  /** Deletes the sidecar that may have been kept beside a temp dir. */
+  private void deleteSidecar(File tempDir) throws IOException {
+    java.nio.file.Files.deleteIfExists(
+        new File(tempDir.getAbsolutePath() + SIDECAR_SUFFIX).toPath());
+  }
+
+  @Override
+  public void closeOnCleanUp(Lifetime lifetime, Closeable resource) {
+    resourceLifetimes.put(resource, lifetime);
+  }
+
   @Override
   public void setLifetime(File path, Lifetime lifetime) {
     Preconditions.checkState(
@@ -94,24 +139,102 @@ public class SystemFileSystem implements FileSystem {
     tempDirLifetimes.put(path, lifetime);
   }
 
+  @Override
+  public boolean isTemporaryDirectory(File path) {
+    return tempDirLifetimes.containsKey(path);
+  }
+
   /**
    * Find files under a path.
    */
   @Override
   public Set<File> findFiles(File path) {
-    Set<File> result = Sets.newHashSet();
-    findFilesRecursiveHelper(path, result);
+    final Set<File> result = Sets.newHashSet();
+    if (!path.exists()) {
+      return result;
+    }
+    try {
+      // One pass over each directory, its entries' attributes read with it, where the OS allows.
+      walkFileTree(
+          path.toPath(),
+          EnumSet.of(FileVisitOption.FOLLOW_LINKS),
+          Integer.MAX_VALUE,
+          new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+              result.add(file.toFile());
+              return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) throws IOException {
+              if (e instanceof FileSystemLoopException) {
+                return FileVisitResult.CONTINUE; // A link to a directory it's in.
+              }
+              throw e;
+            }
+          });
+    } catch (IOException e) {
+      throw new MoeProblem("Could not list the files under %s: %s", path, e.getMessage());
+    }
     return result;
   }
 
-  void findFilesRecursiveHelper(File f, Set<File> result) {
-    if (f.exists() && f.isFile()) {
-      result.add(f);
-      return;
+  @Override
+  public Map<File, FileStat> findFilesWithStats(File path) {
+    Map<File, FileStat> result = Maps.newHashMap();
+    if (!POSIX) {
+      for (File file : findFiles(path)) {
+        result.put(file, FileStat.create(file.length(), file.canExecute()));
+      }
+      return result;
     }
+    try {
+      findFilesWithStats(path.toPath(), new HashSet<Object>(), result);
+    } catch (IOException e) {
+      throw new MoeProblem("Could not list the files under %s: %s", path, e.getMessage());
+    }
+    return result;
+  }
 
-    for (File subFile : f.listFiles()) {
-      findFilesRecursiveHelper(subFile, result);
+  /**
+   * Walks the tree under path as {@link #findFiles(File)} does, following links, but reading
+   * each entry's POSIX attributes, whose mode gives the executable bit, in the one stat that
+   * finds its type and length.
+   *
+   * @param ancestors  the keys of the directories being walked, by which loops are skipped
+   */
+  private static void findFilesWithStats(
+      Path path, Set<Object> ancestors, Map<File, FileStat> result) throws IOException {
+    PosixFileAttributes attrs;
+    try {
+      attrs = readAttributes(path, PosixFileAttributes.class);
+    } catch (NoSuchFileException e) {
+      try {
+        attrs = readAttributes(path, PosixFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+      } catch (NoSuchFileException missing) {
+        return;
+      }
+      // A broken link is listed, as it is found, below.
+    }
+    if (!attrs.isDirectory()) {
+      result.put(
+          path.toFile(),
+          FileStat.create(
+              attrs.size(), attrs.permissions().contains(PosixFilePermission.OWNER_EXECUTE)));
+      return;
+    }
+    Object key = attrs.fileKey();
+    if (key != null && !ancestors.add(key)) {
+      return; // A link to a directory it's in.
+    }
+    try (DirectoryStream<Path> entries = newDirectoryStream(path)) {
+      for (Path entry : entries) {
+        findFilesWithStats(entry, ancestors, result);
+      }
+    }
+    if (key != null) {
+      ancestors.remove(key);
     }
   }
 
@@ -160,6 +283,26 @@ public class SystemFileSystem implements FileSystem {
     f.setExecutable(false, false);
   }
 
+  @Override
+  public void setReadOnly(File f) {
+    f.setWritable(false, false);
+  }
+
+  @Override
+  public long length(File f) {
+    return f.length();
+  }
+
+  @Override
+  public long lastModified(File f) {
+    return f.lastModified();
+  }
+
+  @Override
+  public void setLastModified(File f, long time) {
+    f.setLastModified(time);
+  }
+
   @Override
   public void makeDirsForFile(File f) throws IOException {
     Files.createParentDirs(f);
@@ -172,15 +315,59 @@ public class SystemFileSystem implements FileSystem {
 
   @Override
   public void copyFile(File src, File dest) throws IOException {
-    Files.copy(src, dest);
+    if (src.toPath().toAbsolutePath().normalize().equals(
+        dest.toPath().toAbsolutePath().normalize())) {
+      throw new IOException("Cannot copy a file onto itself: " + src);
+    }
+    // Deleted first, in case it's linked to another file, which mustn't change too.
+    java.nio.file.Files.deleteIfExists(dest.toPath());
+    try (FileChannel in = FileChannel.open(src.toPath(), StandardOpenOption.READ);
+        FileChannel out =
+            FileChannel.open(
+                dest.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+      // Transferred between the channels by the OS, where it can, not through a buffer here.
+      long size = in.size();
+      long position = 0;
+      while (position < size) {
+        position += in.transferTo(position, size - position, out);
+      }
+    }
     dest.setExecutable(src.canExecute(), false);
   }
 
+  @Override
+  public void linkOrCopyFile(File src, File dest) throws IOException {
+    try {
+      java.nio.file.Files.createLink(dest.toPath(), src.toPath());
+    } catch (IOException | UnsupportedOperationException e) {
+      // Already there, on another file system, or on one without hard links.
+      copyFile(src, dest);
+    }
+  }
+
   @Override
   public void write(String contents, File f) throws IOException {
     Files.write(contents, f, UTF_8);
   }
 
+  @Override
+  public void move(File src, File dest) throws IOException {
+    java.nio.file.Files.move(src.toPath(), dest.toPath(), StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  @Override
+  public Closeable lock(File f) throws IOException {
+    FileChannel channel =
+        FileChannel.open(f.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    try {
+      channel.lock();
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+    return channel; // Closing the channel releases its locks.
+  }
+
   @Override
   public void deleteRecursively(File file) throws IOException {
     deleteRecursively(file.toPath());
@@ -245,6 +432,24 @@ public class SystemFileSystem implements FileSystem {
     return Files.toString(f, UTF_8);
   }
 
+  @Override
+  public ByteSource asByteSource(File f) {
+    return Files.asByteSource(f);
+  }
+
+  @Override
+  public ByteBuffer asByteBuffer(File f) throws IOException {
+    // The mapping outlives the channel, and is released when the buffer is collected.
+    try (FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+      return channel.map(MapMode.READ_ONLY, 0, channel.size());
+    }
+  }
+
+  @Override
+  public ByteSink asByteSink(File f, FileWriteMode... modes) {
+    return Files.asByteSink(f, modes);
+  }
+
   /** A Dagger module for binding this implementation of {@link FileSystem}. */
   @dagger.Module
   public static class Module {
@@ -0,0 +1,319 @@
+/*
+ * Copyright (c) 2015 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.moe.client;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
+import com.google.common.io.ByteStreams;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+
+import javax.annotation.Nullable;
+
+/**
+ * Extracts tar archives (plain or gzipped, in the ustar, pax or GNU formats) into a directory as
+ * they're read, so that an archive streamed from another process needn't be written to disk
+ * first, nor a tar process forked to unpack it. Regular files, directories, symbolic and hard
+ * links are extracted, and files any of whose executable bits are set are made executable; other
+ * entries (devices, fifos) are skipped.
+ */
+public final class TarExtractor {
+  private static final int BLOCK_SIZE = 512;
+
+  private TarExtractor() {}
+
+  /** Extracts all of the tar read from the given stream into the given directory. */
+  public static void extract(InputStream tar, File directory) throws IOException {
+    extract(tar, directory, Predicates.<CharSequence>alwaysTrue());
+  }
+
+  /**
+   * Extracts the tar read from the given stream into the given directory, skipping files and links
+   * whose paths relative to it don't match the given predicate. The stream is read to its end, but
+   * not closed.
+   *
+   * @throws IOException if the stream isn't a well-formed tar, or names a path outside the
+   *     directory
+   */
+  public static void extract(InputStream tar, File directory, Predicate<CharSequence> filter)
+      throws IOException {
+    InputStream in = new BufferedInputStream(tar, 64 * 1024);
+    in.mark(2);
+    if (in.read() == 0x1f && in.read() == 0x8b) {
+      in.reset();
+      in = new GZIPInputStream(in, 64 * 1024);
+    } else {
+      in.reset();
+    }
+
+    Path root = directory.toPath().toAbsolutePath().normalize();
+    byte[] header = new byte[BLOCK_SIZE];
+    String longName = null;
+    String longLink = null;
+    while (readBlock(in, header) && !isZeros(header)) {
+      checkChecksum(header);
+      long size = parseNumber(header, 124, 12);
+      char type = (char) header[156];
+      if (type == 'x') {
+        // A pax extended header, whose records override those of the next entry.
+        String records = new String(readData(in, size), UTF_8);
+        longName = paxRecord(records, "path", longName);
+        longLink = paxRecord(records, "linkpath", longLink);
+        continue;
+      } else if (type == 'L' || type == 'K') {
+        // GNU long names, which (unlike pax records) are NUL-terminated.
+        String name = parseString(readData(in, size), 0, (int) size);
+        if (type == 'L') {
+          longName = name;
+        } else {
+          longLink = name;
+        }
+        continue;
+      }
+
+      String name = (longName != null) ? longName : entryName(header);
+      String link = (longLink != null) ? longLink : parseString(header, 157, 100);
+      longName = null;
+      longLink = null;
+      String relative = relativePath(name);
+      Path target = resolve(root, relative);
+      switch (type) {
+        case '0':
+        case '\0':
+        case '7':
+          if (!relative.isEmpty() && filter.apply(relative)) {
+            extractFile(in, size, target, (parseNumber(header, 100, 8) & 0111) != 0);
+          } else {
+            skipFully(in, size);
+          }
+          break;
+        case '5':
+          Files.createDirectories(target);
+          skipFully(in, size);
+          break;
+        case '1':
+        case '2':
+          skipFully(in, size);
+          if (!relative.isEmpty() && filter.apply(relative)) {
+            Files.createDirectories(target.getParent());
+            Files.deleteIfExists(target);
+            if (type == '1') {
+              Files.createLink(target, resolve(root, relativePath(link)));
+            } else {
+              Files.createSymbolicLink(target, root.getFileSystem().getPath(link));
+            }
+          }
+          break;
+        default:
+          skipFully(in, size);
+          break;
+      }
+      skipFully(in, padding(size));
+    }
+    // Consume any trailing blocks, so that a process writing the tar isn't left blocked.
+    ByteStreams.copy(in, ByteStreams.nullOutputStream());
+  }
+
+  private static void extractFile(InputStream in, long size, Path target, boolean executable)
+      throws IOException {
+    Files.createDirectories(target.getParent());
+    if (Files.isSymbolicLink(target)) {
+      Files.delete(target);
+    }
+    try (OutputStream out = Files.newOutputStream(target)) {
+      long copied = ByteStreams.copy(ByteStreams.limit(in, size), out);
+      if (copied != size) {
+        throw new EOFException("Tar ended within " + target);
+      }
+    }
+    if (executable) {
+      target.toFile().setExecutable(true, false);
+    }
+  }
+
+  /** Returns an entry's name, joined to the ustar prefix if it has one. */
+  private static String entryName(byte[] header) {
+    String name = parseString(header, 0, 100);
+    if (parseString(header, 257, 5).equals("ustar")) {
+      String prefix = parseString(header, 345, 155);
+      if (!prefix.isEmpty()) {
+        return prefix + "/" + name;
+      }
+    }
+    return name;
+  }
+
+  /** Returns a name in an archive as a relative path, without any leading "./" or trailing "/". */
+  private static String relativePath(String name) throws IOException {
+    String path = name;
+    while (path.startsWith("./")) {
+      path = path.substring(2);
+    }
+    while (path.endsWith("/")) {
+      path = path.substring(0, path.length() - 1);
+    }
+    if (path.equals(".")) {
+      return "";
+    }
+    if (path.startsWith("/")) {
+      throw new IOException("Tar entry has an absolute path: " + name);
+    }
+    return path;
+  }
+
+  /**
+   * Resolves an entry's path against the directory extracted to. Like GNU tar, this refuses paths
+   * that lead through a symbolic link, since an earlier entry could have linked a directory to
+   * anywhere outside the one extracted to.
+   */
+  private static Path resolve(Path root, String relative) throws IOException {
+    Path resolved = root.resolve(relative).normalize();
+    if (!resolved.startsWith(root)) {
+      throw new IOException("Tar entry is outside the directory extracted to: " + relative);
+    }
+    for (Path parent = resolved.getParent();
+        parent != null && !parent.equals(root);
+        parent = parent.getParent()) {
+      if (Files.isSymbolicLink(parent)) {
+        throw new IOException("Tar entry is beneath a symbolic link: " + relative);
+      }
+    }
+    return resolved;
+  }
+
+  /** Returns the value of the last pax record with the given key, or the default if none. */
+  @Nullable
+  private static String paxRecord(String records, String key, @Nullable String defaultValue)
+      throws IOException {
+    String value = defaultValue;
+    // Each record is "<length> <key>=<value>\n", its length counting its own digits, in bytes.
+    byte[] bytes = records.getBytes(UTF_8);
+    int start = 0;
+    while (start < bytes.length) {
+      int space = start;
+      while (space < bytes.length && bytes[space] != ' ') {
+        space++;
+      }
+      int length;
+      try {
+        length = Integer.parseInt(new String(bytes, start, space - start, UTF_8));
+      } catch (NumberFormatException e) {
+        throw new IOException("Malformed pax record in tar: " + e.getMessage());
+      }
+      if (length <= space - start || start + length > bytes.length) {
+        throw new IOException("Malformed pax record in tar");
+      }
+      String record = new String(bytes, space + 1, start + length - space - 2, UTF_8);
+      if (record.startsWith(key + "=")) {
+        value = record.substring(key.length() + 1);
+      }
+      start += length;
+    }
+    return value;
+  }
+
+  private static String parseString(byte[] bytes, int offset, int length) {
+    int end = offset;
+    while (end < offset + length && bytes[end] != 0) {
+      end++;
+    }
+    return new String(bytes, offset, end - offset, UTF_8);
+  }
+
+  /** Parses a numeric header field, in octal, or in base 256 if its high bit is set. */
+  private static long parseNumber(byte[] header, int offset, int length) throws IOException {
+    if ((header[offset] & 0x80) != 0) {
+      long value = header[offset] & 0x7f;
+      for (int i = offset + 1; i < offset + length; i++) {
+        value = (value << 8) | (header[i] & 0xff);
+      }
+      return value;
+    }
+    long value = 0;
+    for (int i = offset; i < offset + length; i++) {
+      byte b = header[i];
+      if (b == 0 || (b == ' ' && value > 0)) {
+        break;
+      } else if (b >= '0' && b <= '7') {
+        value = (value << 3) + (b - '0');
+      } else if (b != ' ') {
+        throw new IOException("Malformed number in tar header: " + (char) b);
+      }
+    }
+    return value;
+  }
+
+  private static void checkChecksum(byte[] header) throws IOException {
+    long sum = 0;
+    for (int i = 0; i < BLOCK_SIZE; i++) {
+      // The checksum field itself is summed as though it were spaces.
+      sum += (i >= 148 && i < 156) ? ' ' : (header[i] & 0xff);
+    }
+    if (sum != parseNumber(header, 148, 8)) {
+      throw new IOException("Not a tar, or corrupt: bad header checksum");
+    }
+  }
+
+  /** Reads a block, returning false if the stream ends before it. */
+  private static boolean readBlock(InputStream in, byte[] block) throws IOException {
+    int read = ByteStreams.read(in, block, 0, block.length);
+    if (read == 0) {
+      return false;
+    } else if (read < block.length) {
+      throw new EOFException("Tar ended within a header");
+    }
+    return true;
+  }
+
+  private static boolean isZeros(byte[] block) {
+    for (byte b : block) {
+      if (b != 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static byte[] readData(InputStream in, long size) throws IOException {
+    if (size > Integer.MAX_VALUE) {
+      throw new IOException("Tar header entry too large: " + size);
+    }
+    byte[] data = new byte[(int) size];
+    ByteStreams.readFully(in, data);
+    skipFully(in, padding(size));
+    return data;
+  }
+
+  private static void skipFully(InputStream in, long count) throws IOException {
+    ByteStreams.skipFully(in, count);
+  }
+
+  /** Returns the padding after an entry's data, to the end of its last block. */
+  private static long padding(long size) {
+    return (BLOCK_SIZE - size % BLOCK_SIZE) % BLOCK_SIZE;
+  }
+}
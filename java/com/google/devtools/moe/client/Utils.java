@@ -27,6 +27,7 @@ import com.google.gson.Gson;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.util.List;
 import java.util.Map;
@@ -103,10 +104,9 @@ public class Utils {
    * type is unsupported.
    * @param inputFile The File to be extracted.
    * @return File pointing to a directory, or null.
-   * @throws CommandException
    * @throws IOException
    */
-  public static File expandToDirectory(File inputFile) throws IOException, CommandException {
+  public static File expandToDirectory(File inputFile) throws IOException {
     // If the specified path already is a directory, return it without modification.
     if (inputFile.isDirectory()) {
       return inputFile;
@@ -122,15 +122,13 @@ public class Utils {
     return null;
   }
 
-  public static File expandTar(File tar) throws IOException, CommandException {
+  /** Expands the given tar, which may be gzipped, into a new temporary directory. */
+  public static File expandTar(File tar) throws IOException {
     File expandedDir = Injector.INSTANCE.fileSystem().getTemporaryDirectory("expanded_tar_");
     Injector.INSTANCE.fileSystem().makeDirs(expandedDir);
-    try {
-      Injector.INSTANCE
-          .cmd()
-          .runCommand(
-              "tar", ImmutableList.of("-xf", tar.getAbsolutePath()), expandedDir.getAbsolutePath());
-    } catch (CommandRunner.CommandException e) {
+    try (InputStream in = Injector.INSTANCE.fileSystem().asByteSource(tar).openStream()) {
+      TarExtractor.extract(in, expandedDir);
+    } catch (IOException e) {
       Injector.INSTANCE.fileSystem().deleteRecursively(expandedDir);
       throw e;
     }
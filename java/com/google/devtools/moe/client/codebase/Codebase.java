@@ -16,13 +16,19 @@
 
 package com.google.devtools.moe.client.codebase;
 
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.ImmutableSortedSet;
 import com.google.devtools.moe.client.FileSystem;
+import com.google.devtools.moe.client.FileSystem.FileStat;
 import com.google.devtools.moe.client.MoeProblem;
 import com.google.devtools.moe.client.Utils;
 import com.google.devtools.moe.client.parser.Expression;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * A Codebase is a set of Files and their contents.
@@ -31,12 +37,16 @@ import java.util.Set;
  * and where it came from.
  */
 public class Codebase {
-
   private final FileSystem filesystem;
   private final File path;
   private final String projectSpace;
   private final Expression expression;
 
+  /** Shared with copies of this Codebase, which have the same files. */
+  private final AtomicReference<CodebaseFingerprint> fingerprint;
+  private final AtomicReference<ImmutableSortedSet<String>> relativeFilenames;
+  private final AtomicReference<ImmutableSortedMap<String, FileStat>> fileStats;
+
   /**
    * Constructs the Codebase.
    *
@@ -51,10 +61,51 @@ public class Codebase {
    *                   Codebase.
    */
   public Codebase(FileSystem filesystem, File path, String projectSpace, Expression expression) {
+    this(
+        filesystem,
+        path,
+        projectSpace,
+        expression,
+        new AtomicReference<CodebaseFingerprint>(),
+        new AtomicReference<ImmutableSortedSet<String>>(),
+        new AtomicReference<ImmutableSortedMap<String, FileStat>>());
+  }
+
+  /**
+   * Constructs a Codebase whose files are known to have the given fingerprint, such as one
+   * restored from a {@link CodebaseCache}, so that it needn't be computed.
+   */
+  Codebase(
+      FileSystem filesystem,
+      File path,
+      String projectSpace,
+      Expression expression,
+      CodebaseFingerprint fingerprint) {
+    this(
+        filesystem,
+        path,
+        projectSpace,
+        expression,
+        new AtomicReference<CodebaseFingerprint>(fingerprint),
+        new AtomicReference<ImmutableSortedSet<String>>(),
+        new AtomicReference<ImmutableSortedMap<String, FileStat>>());
+  }
+
+  private Codebase(
+      FileSystem filesystem,
+      File path,
+      String projectSpace,
+      Expression expression,
+      AtomicReference<CodebaseFingerprint> fingerprint,
+      AtomicReference<ImmutableSortedSet<String>> relativeFilenames,
+      AtomicReference<ImmutableSortedMap<String, FileStat>> fileStats) {
     this.filesystem = filesystem;
     this.path = path;
     this.projectSpace = projectSpace;
     this.expression = expression;
+    this.fingerprint = fingerprint;
+    this.relativeFilenames = relativeFilenames;
+    this.fileStats = fileStats;
   }
 
   /**
@@ -100,10 +151,55 @@ public class Codebase {
 
   /**
    * @return a Set of Strings NB: We return String's instead of File's because these are relative
-   *         and not absolute paths.
+   *         and not absolute paths. They're found on first use, or taken from the fingerprint or
+   *         file stats if known, and as with the fingerprint, the files must not change
+   *         afterwards.
    */
   public Set<String> getRelativeFilenames() {
-    return Utils.makeFilenamesRelative(filesystem.findFiles(path), path);
+    ImmutableSortedSet<String> cached = relativeFilenames.get();
+    if (cached == null) {
+      CodebaseFingerprint knownFingerprint = fingerprint.get();
+      ImmutableSortedMap<String, FileStat> knownStats = fileStats.get();
+      if (knownFingerprint != null) {
+        cached = knownFingerprint.fileNames();
+      } else if (knownStats != null) {
+        cached = knownStats.keySet();
+      } else {
+        cached =
+            ImmutableSortedSet.copyOf(
+                Utils.makeFilenamesRelative(filesystem.findFiles(path), path));
+      }
+      relativeFilenames.compareAndSet(null, cached);
+    }
+    return cached;
+  }
+
+  /**
+   * Returns the length and executability of each of this Codebase's files, by relative name, as
+   * read when they're found on first use. As with the fingerprint, the files must not change
+   * afterwards.
+   */
+  public Map<String, FileStat> getFileStats() {
+    ImmutableSortedMap<String, FileStat> cached = fileStats.get();
+    if (cached == null) {
+      cached = findFileStats(filesystem, path);
+      fileStats.compareAndSet(null, cached);
+    }
+    return cached;
+  }
+
+  /** Finds the files under a directory, with their stats, by relative name. */
+  static ImmutableSortedMap<String, FileStat> findFileStats(FileSystem filesystem, File path) {
+    ImmutableSortedMap.Builder<String, FileStat> stats = ImmutableSortedMap.naturalOrder();
+    String prefix = path.getAbsolutePath() + File.separator;
+    for (Map.Entry<File, FileStat> file : filesystem.findFilesWithStats(path).entrySet()) {
+      String filename = file.getKey().getAbsolutePath();
+      if (!filename.startsWith(prefix)) {
+        throw new MoeProblem("File %s is under %s but does not begin with it", filename, path);
+      }
+      stats.put(filename.substring(prefix.length()), file.getValue());
+    }
+    return stats.build();
   }
 
   /**
@@ -113,6 +209,55 @@ public class Codebase {
     return new File(path, relativeFilename);
   }
 
+  /**
+   * Returns the fingerprint of this Codebase's files, computing it on first use. The files must
+   * not change afterwards.
+   *
+   * <p>The fingerprint of a codebase in one of MOE's temporary directories is also kept beside
+   * it, as the directory's {@link FileSystem#SIDECAR_SUFFIX sidecar}, so as to be read rather
+   * than computed again, and is cleaned up with it.
+   */
+  public CodebaseFingerprint fingerprint() {
+    CodebaseFingerprint cached = fingerprint.get();
+    if (cached == null) {
+      cached = loadOrComputeFingerprint();
+      fingerprint.compareAndSet(null, cached);
+    }
+    return cached;
+  }
+
+  private CodebaseFingerprint loadOrComputeFingerprint() {
+    File sidecar =
+        new File(
+            path.getAbsoluteFile().getParentFile(), path.getName() + FileSystem.SIDECAR_SUFFIX);
+    boolean persisted = filesystem.isTemporaryDirectory(path);
+    if (persisted && filesystem.exists(sidecar)) {
+      try {
+        CodebaseFingerprint loaded = CodebaseFingerprint.parse(filesystem.fileToString(sidecar));
+        if (loaded != null) {
+          return loaded;
+        }
+      } catch (IOException e) {
+        // Compute it again, below.
+      }
+    }
+    CodebaseFingerprint computed;
+    try {
+      computed = CodebaseFingerprint.compute(filesystem, path, getFileStats());
+    } catch (IOException e) {
+      throw new MoeProblem("Could not fingerprint codebase %s: %s", this, e);
+    }
+    String serialized = computed.serialize();
+    if (persisted && serialized != null) {
+      try {
+        filesystem.write(serialized, sidecar);
+      } catch (IOException e) {
+        // It's only a cache; it'll be computed again next time.
+      }
+    }
+    return computed;
+  }
+
   /**
    * Checks the project space in this Codebase is as expected.
    *
@@ -136,7 +281,8 @@ public class Codebase {
    * or translating by "imprinting" them with the EditExpression or TranslateExpression.
    */
   public Codebase copyWithExpression(Expression newExpression) {
-    return new Codebase(filesystem, path, projectSpace, newExpression);
+    return new Codebase(
+        filesystem, path, projectSpace, newExpression, fingerprint, relativeFilenames, fileStats);
   }
 
   /**
@@ -145,6 +291,7 @@ public class Codebase {
    * space it was translated to.
    */
   public Codebase copyWithProjectSpace(String newProjectSpace) {
-    return new Codebase(filesystem, path, newProjectSpace, expression);
+    return new Codebase(
+        filesystem, path, newProjectSpace, expression, fingerprint, relativeFilenames, fileStats);
   }
 }
@@ -0,0 +1,514 @@
+/*
+ * Copyright (c) 2015 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.moe.client.codebase;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.devtools.moe.client.FileSystem;
+import com.google.devtools.moe.client.editors.Editor;
+import com.google.devtools.moe.client.editors.TranslatorPath;
+import com.google.devtools.moe.client.parser.Expression;
+import com.google.devtools.moe.client.parser.RepositoryExpression;
+import com.google.devtools.moe.client.parser.Term;
+import com.google.devtools.moe.client.project.ProjectContext;
+import com.google.devtools.moe.client.project.RepositoryConfig;
+import com.google.devtools.moe.client.repositories.RepositoryType;
+import com.google.devtools.moe.client.repositories.Revision;
+import com.google.devtools.moe.client.repositories.RevisionHistory;
+import com.google.gson.Gson;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import javax.annotation.Nullable;
+
+/**
+ * A cache of the codebases created from repositories, kept in a directory across runs of MOE, so
+ * that a codebase already created at a revision is restored rather than exported again.
+ *
+ * <p>A codebase is cached under a hash of its repository's name and config, and of its creation
+ * options with the revision resolved to the id the repository gives it, which names its contents
+ * immutably, so that a codebase "at head" is cached under head's id at the time. Codebases from a
+ * "localroot", a local working copy, aren't cached.
+ *
+ * <p>The files of cached codebases are kept once each, named by the hash of their contents and
+ * executability, and hard-linked into the codebases restored from the cache (or copied, where
+ * they can't be linked); so, like the files of any codebase, they mustn't be changed in place.
+ * Lest they be anyway, as by an editor run on a codebase handed out, they're made read-only,
+ * along with the files of the codebase they're first stored from, which they're linked to.
+ * Each cached codebase is a snapshot file listing its files, whose time of modification is that
+ * of its last use. When the files kept exceed the cache's size, the least recently used
+ * snapshots, and the files only they list, are deleted.
+ *
+ * <p>The codebases that translators' steps make by editing others are cached alike, keyed by the
+ * fingerprint of the codebase edited, so that translating the same codebase again (as when
+ * bookkeeping revisions already migrated) restores each step's output instead of editing anew.
+ */
+public class CodebaseCache {
+  private static final String SNAPSHOT_HEADER = "moe_codebase_snapshot 1";
+  private static final Gson GSON = new Gson();
+
+  private final FileSystem filesystem;
+  @Nullable private final File directory;
+  private final long maxBytes;
+
+  /**
+   * Creates a cache in the given directory, keeping at most about the given number of bytes of
+   * files, or which caches nothing if the directory is null.
+   */
+  public CodebaseCache(FileSystem filesystem, @Nullable File directory, long maxBytes) {
+    this.filesystem = filesystem;
+    this.directory = directory;
+    this.maxBytes = maxBytes;
+  }
+
+  /** Returns a cache that caches nothing, leaving every repository's codebases as they are. */
+  public static CodebaseCache disabled() {
+    return new CodebaseCache(null, null, 0);
+  }
+
+  /**
+   * Returns the given repository type, with its codebases created through this cache.
+   */
+  public RepositoryType decorate(RepositoryType type, RepositoryConfig config) {
+    if (directory == null || maxBytes <= 0 || config.getUrl() == null) {
+      return type;
+    }
+    return RepositoryType.create(
+        type.name(),
+        type.revisionHistory(),
+        new CachingCodebaseCreator(type.name(), config, type),
+        type.writerCreator());
+  }
+
+  /** Creates codebases through the cache, from a repository's own creator when not cached. */
+  private class CachingCodebaseCreator implements CodebaseCreator {
+    private final String repositoryName;
+    private final String configJson;
+    private final RevisionHistory revisionHistory;
+    private final CodebaseCreator delegate;
+
+    CachingCodebaseCreator(String repositoryName, RepositoryConfig config, RepositoryType type) {
+      this.repositoryName = repositoryName;
+      this.configJson = GSON.toJson(config);
+      this.revisionHistory = type.revisionHistory();
+      this.delegate = type.codebaseCreator();
+    }
+
+    @Override
+    public Codebase create(Map<String, String> options) throws CodebaseCreationError {
+      if (options.containsKey("localroot")) {
+        return delegate.create(options);
+      }
+      Revision revision = revisionHistory.findHighestRevision(options.get("revision"));
+      Map<String, String> resolved = new HashMap<>(options);
+      resolved.put("revision", revision.revId());
+      String key = key(repositoryName, configJson, new Term(repositoryName, resolved).toString());
+
+      RepositoryExpression expression =
+          new RepositoryExpression(new Term(repositoryName, options));
+      Codebase cached = restore(key, expression);
+      if (cached != null) {
+        return cached;
+      }
+      // Created at the resolved revision, lest head move on from what it's cached as.
+      Codebase created = delegate.create(resolved).copyWithExpression(expression);
+      store(key, created);
+      return created;
+    }
+  }
+
+  /**
+   * Returns the given editor, a step of the translator along the given path, with its edits made
+   * through this cache. An edit is cached under a hash of the path, the step's key, the options
+   * it's made with, and the fingerprint of the codebase edited; so the editor must edit the same
+   * files alike each time, depending on nothing else. The key, computed once before the first
+   * edit, covers the step's config and whatever else its edits read, such as the tools it runs.
+   *
+   * <p>If the editor edits each file apart from the others, an edit not cached is made
+   * incrementally from the last one the returned editor made: the editor is run on just the files
+   * that differ from those last edited, and on their former versions, to find which of the files
+   * it output last time are replaced, and the rest are kept. This is how consecutive revisions,
+   * migrated one after another, are translated without editing their unchanged files again.
+   */
+  public Editor decorate(
+      Editor editor, TranslatorPath path, Supplier<String> stepKey, boolean perFile) {
+    if (directory == null || maxBytes <= 0) {
+      return editor;
+    }
+    return new CachingEditor(editor, path, stepKey, perFile);
+  }
+
+  /** Makes edits through the cache, by a translator step's own editor when not cached. */
+  private class CachingEditor implements Editor {
+    private final Editor delegate;
+    private final TranslatorPath path;
+    private final Supplier<String> stepKey;
+    private final boolean perFile;
+
+    // The last edit made, to make the next incrementally from, if the editor is per-file.
+    private Map<String, String> lastOptions;
+    private CodebaseFingerprint lastInput;
+    private CodebaseFingerprint lastOutput;
+
+    CachingEditor(
+        Editor delegate, TranslatorPath path, Supplier<String> stepKey, boolean perFile) {
+      this.delegate = delegate;
+      this.path = path;
+      this.stepKey = Suppliers.memoize(stepKey);
+      this.perFile = perFile;
+    }
+
+    @Override
+    public String getDescription() {
+      return delegate.getDescription();
+    }
+
+    @Override
+    public synchronized Codebase edit(
+        Codebase input, ProjectContext context, Map<String, String> options) {
+      String key =
+          key(
+              path.toString(),
+              stepKey.get(),
+              new TreeMap<>(options).toString(),
+              input.fingerprint().rootHash().toString());
+      // Editors keep the project space and expression of the codebase they edit.
+      Codebase edited = restore(key, input.getExpression());
+      if (edited == null && perFile && lastInput != null && lastOptions.equals(options)) {
+        edited = editIncrementally(input, context, options);
+        if (edited != null) {
+          store(key, edited);
+        }
+      }
+      if (edited == null) {
+        edited = delegate.edit(input, context, options);
+        if (!edited.equals(input)) {
+          store(key, edited);
+        }
+      }
+      if (perFile) {
+        // Kept too, so that the former versions of the files it changes can be found.
+        String inputKey = key("input", input.fingerprint().rootHash().toString());
+        if (!markUsed(inputKey)) {
+          store(inputKey, input);
+        }
+        lastOptions = ImmutableMap.copyOf(options);
+        lastInput = input.fingerprint();
+        lastOutput = edited.fingerprint();
+      }
+      return edited;
+    }
+
+    /**
+     * Edits the files of the given codebase that differ from those last edited, returning the
+     * edited codebase, or null if it can't be made incrementally, or oughtn't to be.
+     */
+    @Nullable
+    private Codebase editIncrementally(
+        Codebase input, ProjectContext context, Map<String, String> options) {
+      CodebaseFingerprint inputFingerprint = input.fingerprint();
+      Set<String> differing = inputFingerprint.differingFiles(lastInput);
+      if (differing.size() > inputFingerprint.fileNames().size() / 2) {
+        return null; // Editing so many apart would be no quicker.
+      }
+      Set<String> formerFiles = new HashSet<>();
+      Set<String> changedFiles = new HashSet<>();
+      for (String name : differing) {
+        if (lastInput.contentHash(name) != null) {
+          formerFiles.add(name);
+        }
+        if (inputFingerprint.contentHash(name) != null) {
+          changedFiles.add(name);
+        }
+      }
+      File output = filesystem.getTemporaryDirectory("codebase_cache_");
+      try {
+        // The files last output from the former versions of those changed are replaced.
+        Set<String> keptFiles = new HashSet<>(lastOutput.fileNames());
+        if (!formerFiles.isEmpty()) {
+          File former = filesystem.getTemporaryDirectory("incremental_former_");
+          if (!linkKept(lastInput, formerFiles, former)) {
+            return null;
+          }
+          keptFiles.removeAll(editPart(former, input, context, options).fingerprint().fileNames());
+        }
+        filesystem.makeDirs(output);
+        if (!linkKept(lastOutput, keptFiles, output)) {
+          return null;
+        }
+        if (!changedFiles.isEmpty()) {
+          File changed = filesystem.getTemporaryDirectory("incremental_changed_");
+          for (String name : changedFiles) {
+            linkOrCopy(input.getFile(name), new File(changed, name));
+          }
+          Codebase changedEdited = editPart(changed, input, context, options);
+          for (String name : changedEdited.fingerprint().fileNames()) {
+            File to = new File(output, name);
+            if (filesystem.exists(to)) {
+              filesystem.deleteRecursively(to);
+            }
+            linkOrCopy(changedEdited.getFile(name), to);
+          }
+        }
+      } catch (IOException e) {
+        return null;
+      }
+      return new Codebase(filesystem, output, input.getProjectSpace(), input.getExpression());
+    }
+
+    /** Edits part of a codebase, the files in the given directory. */
+    private Codebase editPart(
+        File part, Codebase input, ProjectContext context, Map<String, String> options) {
+      return delegate.edit(
+          new Codebase(filesystem, part, input.getProjectSpace(), input.getExpression()),
+          context,
+          options);
+    }
+  }
+
+  /**
+   * Links the kept files of a fingerprinted codebase, those of the given names, into a directory,
+   * returning false if any of them are no longer kept.
+   */
+  @SuppressWarnings("try") // The lock is only held, never referenced.
+  private synchronized boolean linkKept(
+      CodebaseFingerprint fingerprint, Set<String> names, File path) throws IOException {
+    try (Closeable lock = lock()) {
+      for (String name : names) {
+        File blob = blobFile(fingerprint.contentHash(name), fingerprint.isExecutable(name));
+        if (!filesystem.exists(blob)) {
+          return false;
+        }
+        linkOrCopy(blob, new File(path, name));
+      }
+      return true;
+    }
+  }
+
+  /** Returns a hash of the given parts, as a key to cache under. */
+  private static String key(String... parts) {
+    Hasher hasher = Hashing.sha1().newHasher();
+    for (String part : parts) {
+      hasher.putString(part, UTF_8).putByte((byte) 0);
+    }
+    return hasher.hash().toString();
+  }
+
+  /**
+   * Restores the codebase cached under the given key into a new temporary directory, or returns
+   * null if there's none.
+   */
+  @SuppressWarnings("try") // The lock is only held, never referenced.
+  @Nullable
+  private synchronized Codebase restore(String key, Expression expression) {
+    File snapshot = snapshotFile(key);
+    try (Closeable lock = lock()) {
+      if (!filesystem.exists(snapshot)) {
+        return null;
+      }
+      String serialized = filesystem.fileToString(snapshot);
+      List<String> lines = Arrays.asList(serialized.split("\n", 3));
+      CodebaseFingerprint fingerprint =
+          (lines.size() == 3 && lines.get(0).equals(SNAPSHOT_HEADER))
+              ? CodebaseFingerprint.parse(lines.get(2))
+              : null;
+      if (fingerprint == null) {
+        filesystem.deleteRecursively(snapshot);
+        return null;
+      }
+      File path = filesystem.getTemporaryDirectory("codebase_cache_");
+      filesystem.makeDirs(path);
+      for (String name : fingerprint.fileNames()) {
+        File blob =
+            blobFile(fingerprint.contentHash(name), fingerprint.isExecutable(name));
+        if (!filesystem.exists(blob)) {
+          // Deleted from under the cache; it's no use without all its files.
+          filesystem.deleteRecursively(snapshot);
+          return null;
+        }
+        linkOrCopy(blob, new File(path, name));
+      }
+      filesystem.setLastModified(snapshot, System.currentTimeMillis());
+      return new Codebase(filesystem, path, lines.get(1), expression, fingerprint);
+    } catch (IOException e) {
+      // A damaged cache is only a missed opportunity; the codebase will be created instead.
+      return null;
+    }
+  }
+
+  /**
+   * Marks the snapshot cached under the given key as just used, returning false if there's none.
+   */
+  @SuppressWarnings("try") // The lock is only held, never referenced.
+  private synchronized boolean markUsed(String key) {
+    File snapshot = snapshotFile(key);
+    try (Closeable lock = lock()) {
+      if (!filesystem.exists(snapshot)) {
+        return false;
+      }
+      filesystem.setLastModified(snapshot, System.currentTimeMillis());
+      return true;
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  /** Caches a codebase under the given key, then evicts what's needed to keep within size. */
+  @SuppressWarnings("try") // The lock is only held, never referenced.
+  private synchronized void store(String key, Codebase codebase) {
+    CodebaseFingerprint fingerprint = codebase.fingerprint();
+    String serializedFingerprint = fingerprint.serialize();
+    if (serializedFingerprint == null || codebase.getProjectSpace().indexOf('\n') >= 0) {
+      return;
+    }
+    File snapshot = snapshotFile(key);
+    try (Closeable lock = lock()) {
+      for (String name : fingerprint.fileNames()) {
+        File blob =
+            blobFile(fingerprint.contentHash(name), fingerprint.isExecutable(name));
+        if (!filesystem.exists(blob)) {
+          // Linked or copied beside the blob and moved into place, so a partial copy isn't used.
+          File partial = new File(blob.getPath() + ".new");
+          if (filesystem.exists(partial)) {
+            filesystem.deleteRecursively(partial);
+          }
+          linkOrCopy(codebase.getFile(name), partial);
+          filesystem.setReadOnly(partial);
+          filesystem.move(partial, blob);
+        }
+      }
+      File partial = new File(snapshot.getPath() + ".new");
+      filesystem.makeDirsForFile(partial);
+      filesystem.write(
+          SNAPSHOT_HEADER + "\n" + codebase.getProjectSpace() + "\n" + serializedFingerprint,
+          partial);
+      filesystem.move(partial, snapshot);
+      evict();
+    } catch (IOException e) {
+      // It's only a cache; the codebase will be created again next time.
+    }
+  }
+
+  /**
+   * Deletes the least recently used snapshots, until the files the rest list fit in the cache's
+   * size, then the files no snapshot lists.
+   */
+  private void evict() throws IOException {
+    Map<String, Long> blobSizes = new HashMap<>();
+    long totalBytes = 0;
+    for (File blob : blobFiles()) {
+      long size = filesystem.length(blob);
+      blobSizes.put(blob.getName(), size);
+      totalBytes += size;
+    }
+    if (totalBytes <= maxBytes) {
+      return;
+    }
+
+    File[] snapshots = filesystem.listFiles(new File(directory, "snapshots"));
+    List<File> newestFirst = new ArrayList<>(Arrays.asList(snapshots));
+    final Map<File, Long> lastUsed = new HashMap<>();
+    for (File snapshot : newestFirst) {
+      lastUsed.put(snapshot, filesystem.lastModified(snapshot));
+    }
+    Collections.sort(
+        newestFirst,
+        new Comparator<File>() {
+          @Override
+          public int compare(File a, File b) {
+            return Long.compare(lastUsed.get(b), lastUsed.get(a));
+          }
+        });
+
+    Set<String> keptBlobs = new HashSet<>();
+    long keptBytes = 0;
+    for (File snapshot : newestFirst) {
+      Set<String> blobs = new HashSet<>();
+      String[] lines = filesystem.fileToString(snapshot).split("\n", 3);
+      CodebaseFingerprint fingerprint =
+          (lines.length == 3) ? CodebaseFingerprint.parse(lines[2]) : null;
+      if (fingerprint != null) {
+        for (String name : fingerprint.fileNames()) {
+          blobs.add(
+              blobFile(fingerprint.contentHash(name), fingerprint.isExecutable(name)).getName());
+        }
+      }
+      blobs.removeAll(keptBlobs);
+      long bytes = 0;
+      for (String blob : blobs) {
+        Long size = blobSizes.get(blob);
+        bytes += (size == null) ? 0 : size;
+      }
+      if (fingerprint != null && keptBytes + bytes <= maxBytes) {
+        keptBlobs.addAll(blobs);
+        keptBytes += bytes;
+      } else {
+        filesystem.deleteRecursively(snapshot);
+      }
+    }
+    for (File blob : blobFiles()) {
+      if (!keptBlobs.contains(blob.getName())) {
+        filesystem.deleteRecursively(blob);
+      }
+    }
+  }
+
+  private Set<File> blobFiles() {
+    File blobs = new File(directory, "blobs");
+    return filesystem.exists(blobs) ? filesystem.findFiles(blobs) : Collections.<File>emptySet();
+  }
+
+  private Closeable lock() throws IOException {
+    filesystem.makeDirs(directory);
+    return filesystem.lock(new File(directory, "lock"));
+  }
+
+  private File snapshotFile(String key) {
+    return new File(directory, "snapshots/" + key);
+  }
+
+  /** Returns where a file's contents are kept, spread over directories by their hash. */
+  private File blobFile(HashCode contentHash, boolean executable) {
+    String hash = contentHash.toString();
+    return new File(
+        directory, "blobs/" + hash.substring(0, 2) + "/" + hash + (executable ? ".x" : ""));
+  }
+
+  /** Hard-links a file to a new name, or if it can't be, copies it there. */
+  private void linkOrCopy(File from, File to) throws IOException {
+    filesystem.makeDirsForFile(to);
+    filesystem.linkOrCopyFile(from, to);
+  }
+}
@@ -0,0 +1,288 @@
+/*
+ * Copyright (c) 2015 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.moe.client.codebase;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.devtools.moe.client.FileSystem;
+import com.google.devtools.moe.client.FileSystem.FileStat;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import javax.annotation.Nullable;
+
+/**
+ * A Merkle tree of hashes of a {@link Codebase}'s contents: one per file, of its contents and
+ * executability, one per directory, of its entries' names and hashes, and one for the whole
+ * codebase. Two codebases with the same root hash have the same files, and two directories with
+ * the same hash hold the same files, so comparing fingerprints finds the files that may differ
+ * while looking only into the directories that do.
+ *
+ * <p>Directories holding no files contribute nothing, just as they don't to a diff.
+ */
+public final class CodebaseFingerprint {
+  private static final HashFunction HASH = Hashing.sha1();
+  private static final String HEADER = "moe_codebase_fingerprint 1";
+  private static final char EXECUTABLE = 'x';
+  private static final char NOT_EXECUTABLE = '-';
+
+  /** A file, with no entries, or a directory, with at least one. */
+  private static final class Node {
+    final HashCode hash;
+    final SortedMap<String, Node> entries;
+
+    Node(HashCode hash, SortedMap<String, Node> entries) {
+      this.hash = hash;
+      this.entries = entries;
+    }
+
+    boolean isFile() {
+      return entries.isEmpty();
+    }
+  }
+
+  private final Node root;
+  private final SortedMap<String, FileEntry> files;
+
+  /** A file's hash and executability, as given to build the tree, and as written out. */
+  private static final class FileEntry {
+    final HashCode contentHash;
+    final boolean executable;
+
+    FileEntry(HashCode contentHash, boolean executable) {
+      this.contentHash = contentHash;
+      this.executable = executable;
+    }
+  }
+
+  private CodebaseFingerprint(SortedMap<String, FileEntry> files) {
+    this.files = files;
+    this.root = buildTree(files);
+  }
+
+  /**
+   * Computes the fingerprint of the files under a directory, reading each of them.
+   */
+  public static CodebaseFingerprint compute(FileSystem filesystem, File directory)
+      throws IOException {
+    return compute(filesystem, directory, Codebase.findFileStats(filesystem, directory));
+  }
+
+  /**
+   * Computes the fingerprint of the given files under a directory, reading each of them, their
+   * executability as found with them.
+   */
+  static CodebaseFingerprint compute(
+      FileSystem filesystem, File directory, Map<String, FileStat> fileStats) throws IOException {
+    SortedMap<String, FileEntry> files = new TreeMap<>();
+    for (Map.Entry<String, FileStat> file : fileStats.entrySet()) {
+      files.put(
+          file.getKey(),
+          new FileEntry(
+              filesystem.asByteSource(new File(directory, file.getKey())).hash(HASH),
+              file.getValue().executable()));
+    }
+    return new CodebaseFingerprint(files);
+  }
+
+  /** Returns the hash of the whole codebase. */
+  public HashCode rootHash() {
+    return root.hash;
+  }
+
+  /**
+   * Returns the hash of a file's contents and executability, or null if there's no such file.
+   */
+  @Nullable
+  public HashCode fileHash(String relativeFilename) {
+    Node node = root;
+    for (String name : Splitter.on('/').split(relativeFilename)) {
+      node = node.entries.get(name);
+      if (node == null) {
+        return null;
+      }
+    }
+    return node.isFile() ? node.hash : null;
+  }
+
+  /** Returns the relative names of the files fingerprinted, in order. */
+  ImmutableSortedSet<String> fileNames() {
+    return ImmutableSortedSet.copyOf(files.keySet());
+  }
+
+  /** Returns the hash of a file's contents alone, or null if there's no such file. */
+  @Nullable
+  HashCode contentHash(String relativeFilename) {
+    FileEntry file = files.get(relativeFilename);
+    return (file == null) ? null : file.contentHash;
+  }
+
+  /** Returns whether a file is executable, or false if there's no such file. */
+  boolean isExecutable(String relativeFilename) {
+    FileEntry file = files.get(relativeFilename);
+    return file != null && file.executable;
+  }
+
+  /**
+   * Returns the relative names of the files that differ between this codebase and another, in
+   * order: those in only one, or whose contents or executability differ.
+   */
+  public ImmutableSortedSet<String> differingFiles(CodebaseFingerprint other) {
+    ImmutableSortedSet.Builder<String> differing = ImmutableSortedSet.naturalOrder();
+    addDifferingFiles("", root, other.root, differing);
+    return differing.build();
+  }
+
+  private static void addDifferingFiles(
+      String prefix,
+      @Nullable Node node1,
+      @Nullable Node node2,
+      ImmutableSortedSet.Builder<String> differing) {
+    if (node1 != null && node2 != null && node1.hash.equals(node2.hash)) {
+      return;
+    }
+    boolean isRoot = prefix.isEmpty();
+    if (!isRoot && (node1 != null && node1.isFile() || node2 != null && node2.isFile())) {
+      // A file, possibly replaced by a directory, or the other way around.
+      differing.add(prefix.substring(0, prefix.length() - 1));
+    }
+    SortedMap<String, Node> entries = new TreeMap<>();
+    if (node1 != null) {
+      entries.putAll(node1.entries);
+    }
+    if (node2 != null) {
+      entries.putAll(node2.entries);
+    }
+    for (String name : entries.keySet()) {
+      addDifferingFiles(
+          prefix + name + "/",
+          node1 == null ? null : node1.entries.get(name),
+          node2 == null ? null : node2.entries.get(name),
+          differing);
+    }
+  }
+
+  private static Node buildTree(SortedMap<String, FileEntry> files) {
+    // Group files by directory, then hash each directory from its entries', bottom-up.
+    SortedMap<String, Object> tree = new TreeMap<>();
+    for (Map.Entry<String, FileEntry> file : files.entrySet()) {
+      SortedMap<String, Object> directory = tree;
+      List<String> parts = Splitter.on('/').splitToList(file.getKey());
+      for (String part : parts.subList(0, parts.size() - 1)) {
+        @SuppressWarnings("unchecked")
+        SortedMap<String, Object> subdirectory = (SortedMap<String, Object>) directory.get(part);
+        if (subdirectory == null) {
+          subdirectory = new TreeMap<>();
+          directory.put(part, subdirectory);
+        }
+        directory = subdirectory;
+      }
+      directory.put(parts.get(parts.size() - 1), file.getValue());
+    }
+    return directoryNode(tree);
+  }
+
+  private static Node directoryNode(SortedMap<String, Object> directory) {
+    ImmutableSortedMap.Builder<String, Node> entries = ImmutableSortedMap.naturalOrder();
+    Hasher hasher = HASH.newHasher();
+    for (Map.Entry<String, Object> entry : directory.entrySet()) {
+      Node node;
+      if (entry.getValue() instanceof FileEntry) {
+        FileEntry file = (FileEntry) entry.getValue();
+        node =
+            new Node(
+                HASH.newHasher()
+                    .putBoolean(file.executable)
+                    .putBytes(file.contentHash.asBytes())
+                    .hash(),
+                ImmutableSortedMap.<String, Node>of());
+        hasher.putByte((byte) 'f');
+      } else {
+        @SuppressWarnings("unchecked")
+        SortedMap<String, Object> subdirectory = (SortedMap<String, Object>) entry.getValue();
+        node = directoryNode(subdirectory);
+        hasher.putByte((byte) 'd');
+      }
+      hasher.putString(entry.getKey(), UTF_8).putByte((byte) 0).putBytes(node.hash.asBytes());
+      entries.put(entry.getKey(), node);
+    }
+    return new Node(hasher.hash(), entries.build());
+  }
+
+  /**
+   * Returns this fingerprint in a form {@link #parse} reads: a line per file, of its content
+   * hash, executability and name. Returns null if a name can't be written on a line.
+   */
+  @Nullable
+  public String serialize() {
+    StringBuilder out = new StringBuilder(HEADER).append('\n');
+    for (Map.Entry<String, FileEntry> file : files.entrySet()) {
+      if (file.getKey().indexOf('\n') >= 0) {
+        return null;
+      }
+      out.append(file.getValue().contentHash)
+          .append(' ')
+          .append(file.getValue().executable ? EXECUTABLE : NOT_EXECUTABLE)
+          .append(' ')
+          .append(file.getKey())
+          .append('\n');
+    }
+    return out.toString();
+  }
+
+  /**
+   * Reads a fingerprint written by {@link #serialize}, returning null if it's not one.
+   */
+  @Nullable
+  public static CodebaseFingerprint parse(String serialized) {
+    if (!serialized.startsWith(HEADER + "\n") || !serialized.endsWith("\n")) {
+      return null;
+    }
+    SortedMap<String, FileEntry> files = new TreeMap<>();
+    String lines = serialized.substring(HEADER.length() + 1, serialized.length() - 1);
+    if (lines.isEmpty()) {
+      return new CodebaseFingerprint(files);
+    }
+    for (String line : Splitter.on('\n').split(lines)) {
+      List<String> fields = Splitter.on(' ').limit(3).splitToList(line);
+      if (fields.size() != 3 || fields.get(1).length() != 1) {
+        return null;
+      }
+      try {
+        files.put(
+            fields.get(2),
+            new FileEntry(
+                HashCode.fromString(fields.get(0)), fields.get(1).charAt(0) == EXECUTABLE));
+      } catch (IllegalArgumentException e) {
+        return null;
+      }
+    }
+    return new CodebaseFingerprint(files);
+  }
+}
@@ -16,22 +16,32 @@
 
 package com.google.devtools.moe.client.codebase;
 
-import com.google.common.collect.ImmutableList;
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
-import com.google.devtools.moe.client.CommandRunner;
-import com.google.devtools.moe.client.CommandRunner.CommandException;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.devtools.moe.client.FileSystem;
 import com.google.devtools.moe.client.MoeProblem;
 import com.google.devtools.moe.client.Ui;
 import com.google.devtools.moe.client.parser.RepositoryExpression;
 import com.google.devtools.moe.client.parser.Term;
 import com.google.devtools.moe.client.tools.FileDifference.FileDiffer;
+import com.google.devtools.moe.client.tools.LineMerge;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Merges all changes that lead from {@code originalCodebase} to {@code modifiedCodebase} into
@@ -50,9 +60,10 @@ import java.util.Set;
  * }</pre>
  *
  * <p>{@link CodebaseMerger#merge()} performs this type of merge on each file in the three
- * codebases. In {@link CodebaseMerger#merge}, {@code originalCodebase} is analogous to
- * {@code file2}, {@code modifiedCodebase} is analogous to {@code file3}, and
- * {@code destinationCodebase} is analogous to {@code file1}. The output of
+ * codebases, within the JVM (see {@link LineMerge}), and on several files at once. Files that are
+ * the same in all three codebases are copied as they are. In {@link CodebaseMerger#merge},
+ * {@code originalCodebase} is analogous to {@code file2}, {@code modifiedCodebase} is analogous
+ * to {@code file3}, and {@code destinationCodebase} is analogous to {@code file1}. The output of
  * {@link CodebaseMerger#merge()} is a codebase that incorporates the changes that both
  * {@code modifiedCodebase} and {@code destinationCodebase} made on the {@code originalCodebase}.
  * The differences between {@code modifiedCodebase} and the {@code originalCodebase} are brought
@@ -79,25 +90,53 @@ import java.util.Set;
  */
 // TODO(cgruber) AutoFactory or split out a MergeResult object with metadata/reporting.
 public class CodebaseMerger {
+  /** Shards of files per job, so that each job gets several, and they finish together. */
+  private static final int SHARDS_PER_JOB = 4;
+
   private final Ui ui;
   private final FileSystem filesystem;
-  private final CommandRunner cmd;
   private final FileDiffer differ;
+  private final int jobs;
   private final Codebase originalCodebase, destinationCodebase, modifiedCodebase, mergedCodebase;
   private final Set<String> mergedFiles, failedToMergeFiles;
 
+  /**
+   * Creates a merger that merges one file at a time.
+   */
+  public CodebaseMerger(
+      Ui ui,
+      FileSystem filesystem,
+      FileDiffer differ,
+      Codebase originalCodebase,
+      Codebase modifiedCodebase,
+      Codebase destinationCodebase) {
+    this(
+        ui,
+        filesystem,
+        differ,
+        1,
+        originalCodebase,
+        modifiedCodebase,
+        destinationCodebase);
+  }
+
+  /**
+   * Creates a merger that merges up to {@code jobs} files at once. The {@link FileSystem} and
+   * {@link FileDiffer} must be thread-safe.
+   */
   public CodebaseMerger(
       Ui ui,
       FileSystem filesystem,
-      CommandRunner cmd,
       FileDiffer differ,
+      int jobs,
       Codebase originalCodebase,
       Codebase modifiedCodebase,
       Codebase destinationCodebase) {
+    Preconditions.checkArgument(jobs > 0, "jobs must be positive: %s", jobs);
     this.ui = ui;
     this.filesystem = filesystem;
-    this.cmd = cmd;
     this.differ = differ;
+    this.jobs = jobs;
     this.originalCodebase = originalCodebase;
     this.modifiedCodebase = modifiedCodebase;
     this.destinationCodebase = destinationCodebase;
@@ -107,8 +146,8 @@ public class CodebaseMerger {
         new RepositoryExpression(new Term("merged", ImmutableMap.<String, String>of()));
     this.mergedCodebase = new Codebase(filesystem, mergedDir, "merged", mergedExpression);
 
-    mergedFiles = Sets.newHashSet();
-    failedToMergeFiles = Sets.newHashSet();
+    mergedFiles = Sets.newConcurrentHashSet();
+    failedToMergeFiles = Sets.newConcurrentHashSet();
   }
 
   public Set<String> getMergedFiles() {
@@ -121,7 +160,8 @@ public class CodebaseMerger {
 
   /**
    * For each file in the union of the modified and destination codebases, run
-   * generateMergedFile(...) and then report() the results.
+   * generateMergedFile(...), or just copy the file if it's the same in all three codebases, and
+   * then report() the results.
    *
    * @return the merged Codebase
    */
@@ -129,13 +169,70 @@ public class CodebaseMerger {
     Set<String> filesToMerge =
         Sets.union(
             destinationCodebase.getRelativeFilenames(), modifiedCodebase.getRelativeFilenames());
+    CodebaseFingerprint original = originalCodebase.fingerprint();
+    CodebaseFingerprint destination = destinationCodebase.fingerprint();
+    CodebaseFingerprint modified = modifiedCodebase.fingerprint();
+    List<String> changedFiles = new ArrayList<>();
     for (String filename : filesToMerge) {
-      this.generateMergedFile(filename);
+      if (destination.fileHash(filename) != null
+          && Objects.equal(destination.fileHash(filename), original.fileHash(filename))
+          && Objects.equal(destination.fileHash(filename), modified.fileHash(filename))) {
+        File mergedFile =
+            copyToMergedCodebase(filename, destinationCodebase.getFile(filename));
+        mergedFiles.add(mergedFile.getAbsolutePath());
+      } else {
+        changedFiles.add(filename);
+      }
+    }
+    if (jobs == 1 || changedFiles.size() < 2) {
+      generateMergedFiles(changedFiles);
+    } else {
+      generateMergedFilesInParallel(changedFiles);
     }
     this.report();
     return mergedCodebase;
   }
 
+  private void generateMergedFiles(List<String> filenames) {
+    for (String filename : filenames) {
+      generateMergedFile(filename);
+    }
+  }
+
+  private void generateMergedFilesInParallel(List<String> filenames) {
+    int shardSize = Math.max(1, filenames.size() / (jobs * SHARDS_PER_JOB));
+    List<List<String>> shards = Lists.partition(filenames, shardSize);
+    ExecutorService executor =
+        Executors.newFixedThreadPool(
+            Math.min(jobs, shards.size()),
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("moe-merge-%d").build());
+    try {
+      List<Future<Void>> results = new ArrayList<>();
+      for (final List<String> shard : shards) {
+        results.add(
+            executor.submit(
+                new Callable<Void>() {
+                  @Override
+                  public Void call() {
+                    generateMergedFiles(shard);
+                    return null;
+                  }
+                }));
+      }
+      for (Future<Void> result : results) {
+        result.get();
+      }
+    } catch (ExecutionException e) {
+      Throwables.propagateIfPossible(e.getCause());
+      throw new MoeProblem("Error merging into %s: %s", mergedCodebase.getPath(), e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new MoeProblem("Interrupted while merging into %s", mergedCodebase.getPath());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
   /**
    * Print the results of a merge to the UI.
    */
@@ -170,7 +267,7 @@ public class CodebaseMerger {
 
   /**
    * Given a filename, this method finds the file with that name in each of the three codebases.
-   * Using the UNIX merge(1) tool, those three files are merged and the result is placed in the
+   * As the UNIX merge(1) tool would, those three files are merged and the result is placed in the
    * merged codebase. Any conflicts that occurred during merging will appear in the merged codebase
    * file for the user to resolve.
    *
@@ -227,28 +324,31 @@ public class CodebaseMerger {
 
     File mergedFile = copyToMergedCodebase(filename, destFile);
 
+    // Merges the changes that lead from origFile to modFile into mergedFile (which is a copy
+    // of destFile). After, mergedFile will have the combined changes of modFile and destFile.
+    LineMerge.Result result;
     try {
-      // Merges the changes that lead from origFile to modFile into mergedFile (which is a copy
-      // of destFile). After, mergedFile will have the combined changes of modFile and destFile.
-      cmd.runCommand(
-          "merge",
-          ImmutableList.of(
-              mergedFile.getAbsolutePath(), origFile.getAbsolutePath(), modFile.getAbsolutePath()),
-          this.mergedCodebase.getPath().getAbsolutePath());
-      // Return status was 0 and the merge was successful. Note it.
+      result =
+          LineMerge.merge(
+              filesystem.asByteSource(mergedFile).read(),
+              filesystem.asByteSource(origFile).read(),
+              filesystem.asByteSource(modFile).read(),
+              mergedFile.getAbsolutePath(),
+              modFile.getAbsolutePath());
+      filesystem.asByteSink(mergedFile).write(result.merged);
+    } catch (IOException e) {
+      throw new MoeProblem(
+          "Could not merge %s and %s into %s: %s",
+          origFile.getAbsolutePath(),
+          modFile.getAbsolutePath(),
+          mergedFile.getAbsolutePath(),
+          e);
+    }
+    if (result.conflicted) {
+      // A conflict occurred. Make a note of the filepath.
+      failedToMergeFiles.add(mergedFile.getAbsolutePath());
+    } else {
       mergedFiles.add(mergedFile.getAbsolutePath());
-    } catch (CommandException e) {
-      // If merge fails with exit status 1, then a conflict occurred. Make a note of the filepath.
-      if (e.returnStatus == 1) {
-        failedToMergeFiles.add(mergedFile.getAbsolutePath());
-      } else {
-        throw new MoeProblem(
-            "Merge returned with unexpected status %d when trying to run \"merge -p %s %s %s\"",
-            e.returnStatus,
-            destFile.getAbsolutePath(),
-            origFile.getAbsolutePath(),
-            modFile.getAbsolutePath());
-      }
     }
   }
 }
@@ -59,7 +59,7 @@ public interface LocalWorkspace {
   /**
    * Archives this clone. An archive is an unversioned copy (an expanded directory) of the cloned
    * codebase. The clone is archived at the given revision if {@code revId} is non-null, or at
-   * head otherwise.
+   * head otherwise. Files matching the config's ignore_file_res are left out of the archive.
    *
    * @param revId  the revision identifier (e.g. commit id) to archive at, null for head
    * @return the root of the archive
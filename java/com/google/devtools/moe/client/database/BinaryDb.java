@@ -0,0 +1,684 @@
+/*
+ * Copyright (c) 2015 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.moe.client.database;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.BaseEncoding;
+import com.google.common.primitives.UnsignedBytes;
+import com.google.devtools.moe.client.FileSystem;
+import com.google.devtools.moe.client.MoeProblem;
+import com.google.devtools.moe.client.database.Db.HasDbStorage;
+import com.google.devtools.moe.client.project.InvalidProject;
+import com.google.devtools.moe.client.repositories.Revision;
+import com.google.gson.JsonParseException;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+
+/**
+ * A MOE {@link Db} stored as a sorted binary file, which is mapped into memory and searched in
+ * place, so that finding a revision's equivalents takes a binary search, and the database needn't
+ * be read, nor its records held on the heap, to do it.
+ *
+ * <p>Each revision is stored as a fixed-width key: the index of its repository's name in a table
+ * of them, a tag, and its id, as the 20 bytes of a 40-digit hex hash (as git and hg ids are), as
+ * UTF-8 if that fits in 20 bytes (as svn's do), or failing that, as the index of the id in a
+ * sorted table of such long ids. Each equivalence is stored twice, as an entry of the keys of each
+ * of its revisions followed by the other's, and each migration once, as an entry of the keys of
+ * its source and destination revisions. The entries are sorted by their bytes, so the entries for
+ * a revision and another repository are found by binary search on their first 32 bytes.
+ *
+ * <p>The file is big-endian, and laid out as:
+ * <pre>
+ * header:        magic, version, repository count, long id count, long id table offset,
+ *                equivalence entry count, equivalence entries' offset, migration entry count,
+ *                migration entries' offset (9 ints)
+ * repositories:  per repository, sorted: name length (int), UTF-8 name
+ * long id table: per long id, sorted by UTF-8 bytes: the offset of its length (int), UTF-8 id
+ * long ids:      per long id: length (int), UTF-8 id
+ * equivalences:  entries, sorted: key, key (28 bytes each)
+ * migrations:    entries, sorted: source key, destination key
+ * watermarks:    bookkeeping watermark count (int); per watermark, sorted by migration name:
+ *                name length (int), UTF-8 name, key
+ * order:         per equivalence, oldest first: the index of its entry whose first key is the
+ *                lesser (int)
+ * </pre>
+ *
+ * <p>Version 1 files, which have no watermarks section, and version 2 files, which have no order
+ * section, are read too. Their equivalences are read out in the order of their entries, which
+ * says nothing of which are newest, so {@link DbCompactor} refuses them.
+ *
+ * <p>Equivalences and migrations noted after loading are held in memory, and written out along
+ * with those loaded by rewriting the file. {@link Databases} keeps a database this way when its
+ * location ends in {@code .bin}. Being mapped as one buffer, the file can't exceed 2GB, or about
+ * 19 million equivalences.
+ */
+public class BinaryDb implements Db, HasDbStorage {
+  /** The suffix of the locations of databases kept in this form. */
+  public static final String SUFFIX = ".bin";
+
+  private static final int MAGIC = 0x4d4f4544; // "MOED"
+  private static final int VERSION = 3;
+  private static final int HEADER_SIZE = 9 * 4;
+  private static final int ID_SIZE = 20;
+  private static final int KEY_SIZE = 4 + 4 + ID_SIZE;
+  private static final int ENTRY_SIZE = 2 * KEY_SIZE;
+
+  /** Tags of the forms of ids, shifted left 16 bits, and or'd with the length of inline ones. */
+  private static final int HASH = 0;
+  private static final int INLINE = 1;
+  private static final int LONG = 2;
+
+  private static final BaseEncoding HEX = BaseEncoding.base16().lowerCase();
+  private static final CharMatcher HEX_DIGITS = CharMatcher.anyOf("0123456789abcdef");
+  private static final Comparator<byte[]> BYTES = UnsignedBytes.lexicographicalComparator();
+
+  private final String location;
+  private final ByteBuffer buffer;
+  private final ImmutableList<String> repositoryNames;
+  private final ImmutableMap<String, Integer> repositoryIndexes;
+  private final int longIdCount;
+  private final int longIdTableOffset;
+  private final int equivalenceCount;
+  private final int equivalencesOffset;
+  private final int migrationCount;
+  private final int migrationsOffset;
+  private final ImmutableMap<String, Revision> bookkeepingWatermarks;
+  private final int orderOffset; // Or -1, if the file is from before there was an order section.
+
+  /** The equivalences, migrations and bookkeeping watermarks noted since loading. */
+  private final FileDb added = new FileDb(null, new DbStorage());
+
+  /** The revisions in the file's equivalences, filtered when first needed. */
+  private RevisionBloomFilter equivalentRevisions;
+
+  BinaryDb(String location, ByteBuffer buffer) {
+    this.location = location;
+    this.buffer = buffer;
+    if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+      throw new MoeProblem("Not a binary MOE DB: %s", location);
+    }
+    int version = buffer.getInt(4);
+    if (version < 1 || version > VERSION) {
+      throw new MoeProblem(
+          "Binary MOE DB %s is version %d, but only up to %d is supported",
+          location,
+          buffer.getInt(4),
+          VERSION);
+    }
+    int repositoryCount = buffer.getInt(8);
+    longIdCount = buffer.getInt(12);
+    longIdTableOffset = buffer.getInt(16);
+    equivalenceCount = buffer.getInt(20);
+    equivalencesOffset = buffer.getInt(24);
+    migrationCount = buffer.getInt(28);
+    migrationsOffset = buffer.getInt(32);
+
+    ImmutableList.Builder<String> names = ImmutableList.builder();
+    ImmutableMap.Builder<String, Integer> indexes = ImmutableMap.builder();
+    int offset = HEADER_SIZE;
+    for (int i = 0; i < repositoryCount; i++) {
+      String name = stringAt(offset);
+      names.add(name);
+      indexes.put(name, i);
+      offset += 4 + buffer.getInt(offset);
+    }
+    repositoryNames = names.build();
+    repositoryIndexes = indexes.build();
+
+    ImmutableMap.Builder<String, Revision> watermarks = ImmutableMap.builder();
+    if (version > 1) {
+      offset = entryOffset(migrationsOffset, migrationCount);
+      int watermarkCount = buffer.getInt(offset);
+      offset += 4;
+      for (int i = 0; i < watermarkCount; i++) {
+        String migrationName = stringAt(offset);
+        offset += 4 + buffer.getInt(offset);
+        watermarks.put(migrationName, revisionAt(offset));
+        offset += KEY_SIZE;
+      }
+    }
+    bookkeepingWatermarks = watermarks.build();
+    orderOffset = version > 2 ? offset : -1;
+  }
+
+  @Override
+  public String location() {
+    return location;
+  }
+
+  @Override
+  public void noteEquivalence(RepositoryEquivalence equivalence) {
+    Revision[] revisions = revisions(equivalence);
+    if (!contains(equivalencesOffset, equivalenceCount, entry(revisions[0], revisions[1]))) {
+      added.noteEquivalence(equivalence);
+    }
+  }
+
+  @Override
+  public Set<Revision> findEquivalences(Revision revision, String otherRepository) {
+    ImmutableSet.Builder<Revision> equivalents = ImmutableSet.builder();
+    byte[] key = key(revision);
+    Integer otherRepositoryIndex = repositoryIndexes.get(otherRepository);
+    if (key != null && otherRepositoryIndex != null) {
+      byte[] prefix = Arrays.copyOf(key, KEY_SIZE + 4);
+      ByteBuffer.wrap(prefix).putInt(KEY_SIZE, otherRepositoryIndex);
+      for (int i = lowerBound(equivalencesOffset, equivalenceCount, prefix);
+          i < equivalenceCount && compare(entryOffset(equivalencesOffset, i), prefix) == 0;
+          i++) {
+        equivalents.add(revisionAt(entryOffset(equivalencesOffset, i) + KEY_SIZE));
+      }
+    }
+    equivalents.addAll(added.findEquivalences(revision, otherRepository));
+    return equivalents.build();
+  }
+
+  /**
+   * Answers from a Bloom filter of the revisions in the file's equivalences, which is built the
+   * first time it's needed, so that a database loaded only to note records isn't read through, and
+   * from the exact index of those noted since loading.
+   */
+  @Override
+  public boolean mightHaveEquivalences(Revision revision) {
+    if (equivalentRevisions == null) {
+      equivalentRevisions = new RevisionBloomFilter(equivalenceCount);
+      for (int i = 0; i < equivalenceCount; i++) {
+        int offset = entryOffset(equivalencesOffset, i);
+        // Each revision's entries are adjacent, and each equivalence is stored from either side.
+        if (i == 0 || compareKeys(offset - ENTRY_SIZE, offset) != 0) {
+          equivalentRevisions.put(revisionAt(offset));
+        }
+      }
+    }
+    return equivalentRevisions.mightContain(revision) || added.mightHaveEquivalences(revision);
+  }
+
+  @Override
+  public boolean noteMigration(SubmittedMigration migration) {
+    return !contains(
+            migrationsOffset,
+            migrationCount,
+            entry(migration.fromRevision(), migration.toRevision()))
+        && added.noteMigration(migration);
+  }
+
+  @Override
+  @Nullable
+  public Revision findBookkeepingWatermark(String migrationName) {
+    Revision watermark = added.findBookkeepingWatermark(migrationName);
+    return watermark != null ? watermark : bookkeepingWatermarks.get(migrationName);
+  }
+
+  @Override
+  public void noteBookkeepingWatermark(String migrationName, Revision revision) {
+    if (!revision.equals(findBookkeepingWatermark(migrationName))) {
+      added.noteBookkeepingWatermark(migrationName, revision);
+    }
+  }
+
+  /** Returns whether the file records the order its equivalences were noted in. */
+  boolean isOrdered() {
+    return orderOffset >= 0;
+  }
+
+  /**
+   * Returns the database's contents, read out of the file oldest first (or, if it's not
+   * {@link #isOrdered}, in the order of its entries), and followed by those noted since it was
+   * loaded.
+   */
+  @Override
+  public DbStorage getStorage() {
+    DbStorage storage = new DbStorage();
+    if (isOrdered()) {
+      for (int i = 0; i < equivalenceCount / 2; i++) {
+        int offset = entryOffset(equivalencesOffset, buffer.getInt(orderOffset + 4 * i));
+        storage.appendEquivalence(
+            RepositoryEquivalence.create(revisionAt(offset), revisionAt(offset + KEY_SIZE)));
+      }
+    } else {
+      for (int i = 0; i < equivalenceCount; i++) {
+        int offset = entryOffset(equivalencesOffset, i);
+        // Of the two entries for each equivalence, take the one with the lesser key first.
+        if (compareKeys(offset, offset + KEY_SIZE) < 0) {
+          storage.appendEquivalence(
+              RepositoryEquivalence.create(revisionAt(offset), revisionAt(offset + KEY_SIZE)));
+        }
+      }
+    }
+    for (int i = 0; i < migrationCount; i++) {
+      int offset = entryOffset(migrationsOffset, i);
+      storage.appendMigration(
+          SubmittedMigration.create(revisionAt(offset), revisionAt(offset + KEY_SIZE)));
+    }
+    for (RepositoryEquivalence equivalence : added.getStorage().equivalences()) {
+      storage.appendEquivalence(equivalence);
+    }
+    for (SubmittedMigration migration : added.getStorage().migrations()) {
+      storage.appendMigration(migration);
+    }
+    for (Map.Entry<String, Revision> watermark : bookkeepingWatermarks.entrySet()) {
+      storage.setBookkeepingWatermark(watermark.getKey(), watermark.getValue());
+    }
+    for (Map.Entry<String, Revision> watermark :
+        added.getStorage().bookkeepingWatermarks().entrySet()) {
+      storage.setBookkeepingWatermark(watermark.getKey(), watermark.getValue());
+    }
+    return storage;
+  }
+
+  /** Returns the key a revision is stored under, or null if none of the revisions stored has. */
+  @Nullable
+  private byte[] key(Revision revision) {
+    Integer repositoryIndex = repositoryIndexes.get(revision.repositoryName());
+    if (repositoryIndex == null) {
+      return null;
+    }
+    int longIdIndex = -1;
+    if (idForm(revision.revId()) == LONG) {
+      longIdIndex = findLongId(revision.revId().getBytes(UTF_8));
+      if (longIdIndex < 0) {
+        return null;
+      }
+    }
+    return key(repositoryIndex, revision.revId(), longIdIndex);
+  }
+
+  /** Returns the entry two revisions are stored as, or null if either's key isn't stored. */
+  @Nullable
+  private byte[] entry(Revision first, Revision second) {
+    byte[] firstKey = key(first);
+    byte[] secondKey = key(second);
+    if (firstKey == null || secondKey == null) {
+      return null;
+    }
+    return entry(firstKey, secondKey);
+  }
+
+  private boolean contains(int entriesOffset, int count, @Nullable byte[] entry) {
+    if (entry == null) {
+      return false;
+    }
+    int i = lowerBound(entriesOffset, count, entry);
+    return i < count && compare(entryOffset(entriesOffset, i), entry) == 0;
+  }
+
+  /** Returns the index of the first entry whose leading bytes are no less than the given ones. */
+  private int lowerBound(int entriesOffset, int count, byte[] prefix) {
+    int low = 0;
+    int high = count;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (compare(entryOffset(entriesOffset, middle), prefix) < 0) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  private static int entryOffset(int entriesOffset, int index) {
+    return entriesOffset + index * ENTRY_SIZE;
+  }
+
+  /** Compares the bytes at an offset with the given bytes, as unsigned, up to their length. */
+  private int compare(int offset, byte[] bytes) {
+    for (int i = 0; i < bytes.length; i++) {
+      int difference = (buffer.get(offset + i) & 0xff) - (bytes[i] & 0xff);
+      if (difference != 0) {
+        return difference;
+      }
+    }
+    return 0;
+  }
+
+  private int compareKeys(int offset1, int offset2) {
+    for (int i = 0; i < KEY_SIZE; i++) {
+      int difference = (buffer.get(offset1 + i) & 0xff) - (buffer.get(offset2 + i) & 0xff);
+      if (difference != 0) {
+        return difference;
+      }
+    }
+    return 0;
+  }
+
+  /** Returns the index of a long id in the table of them, or -1 if it's not there. */
+  private int findLongId(byte[] id) {
+    int low = 0;
+    int high = longIdCount - 1;
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      int offset = buffer.getInt(longIdTableOffset + middle * 4);
+      int length = buffer.getInt(offset);
+      int difference = 0;
+      for (int i = 0; i < Math.min(length, id.length) && difference == 0; i++) {
+        difference = (buffer.get(offset + 4 + i) & 0xff) - (id[i] & 0xff);
+      }
+      if (difference == 0) {
+        difference = length - id.length;
+      }
+      if (difference < 0) {
+        low = middle + 1;
+      } else if (difference > 0) {
+        high = middle - 1;
+      } else {
+        return middle;
+      }
+    }
+    return -1;
+  }
+
+  private Revision revisionAt(int offset) {
+    String repositoryName = repositoryNames.get(buffer.getInt(offset));
+    int tag = buffer.getInt(offset + 4);
+    byte[] id;
+    switch (tag >>> 16) {
+      case HASH:
+        id = new byte[ID_SIZE];
+        get(offset + 8, id);
+        return Revision.create(HEX.encode(id), repositoryName);
+      case INLINE:
+        id = new byte[tag & 0xffff];
+        get(offset + 8, id);
+        return Revision.create(new String(id, UTF_8), repositoryName);
+      case LONG:
+        int longIdIndex = buffer.getInt(offset + 8);
+        return Revision.create(
+            stringAt(buffer.getInt(longIdTableOffset + longIdIndex * 4)), repositoryName);
+      default:
+        throw new MoeProblem("Corrupt binary MOE DB %s at offset %d", location, offset);
+    }
+  }
+
+  /** Reads a string stored as its length and UTF-8 bytes. */
+  private String stringAt(int offset) {
+    byte[] bytes = new byte[buffer.getInt(offset)];
+    get(offset + 4, bytes);
+    return new String(bytes, UTF_8);
+  }
+
+  private void get(int offset, byte[] bytes) {
+    ByteBuffer view = buffer.duplicate();
+    view.position(offset);
+    view.get(bytes);
+  }
+
+  private static int idForm(String revId) {
+    if (revId.length() == 2 * ID_SIZE && HEX_DIGITS.matchesAllOf(revId)) {
+      return HASH;
+    }
+    return revId.getBytes(UTF_8).length <= ID_SIZE ? INLINE : LONG;
+  }
+
+  private static byte[] key(int repositoryIndex, String revId, int longIdIndex) {
+    ByteBuffer key = ByteBuffer.allocate(KEY_SIZE).putInt(repositoryIndex);
+    switch (idForm(revId)) {
+      case HASH:
+        key.putInt(HASH << 16).put(HEX.decode(revId));
+        break;
+      case INLINE:
+        byte[] id = revId.getBytes(UTF_8);
+        key.putInt(INLINE << 16 | id.length).put(id);
+        break;
+      default:
+        key.putInt(LONG << 16).putInt(longIdIndex);
+    }
+    return key.array();
+  }
+
+  private static byte[] entry(byte[] firstKey, byte[] secondKey) {
+    byte[] entry = Arrays.copyOf(firstKey, ENTRY_SIZE);
+    System.arraycopy(secondKey, 0, entry, KEY_SIZE, KEY_SIZE);
+    return entry;
+  }
+
+  private static Revision[] revisions(RepositoryEquivalence equivalence) {
+    return equivalence.revisions().values().toArray(new Revision[2]);
+  }
+
+  /** Encodes a database's contents in this form, dropping any duplicate records. */
+  static ByteBuffer encode(DbStorage storage) {
+    Set<String> repositoryNames = new TreeSet<>();
+    Map<byte[], Integer> longIds = new TreeMap<>(BYTES);
+    List<Revision> revisions = new ArrayList<>();
+    for (RepositoryEquivalence equivalence : storage.equivalences()) {
+      revisions.addAll(Arrays.asList(revisions(equivalence)));
+    }
+    for (SubmittedMigration migration : storage.migrations()) {
+      revisions.add(migration.fromRevision());
+      revisions.add(migration.toRevision());
+    }
+    revisions.addAll(storage.bookkeepingWatermarks().values());
+    for (Revision revision : revisions) {
+      repositoryNames.add(revision.repositoryName());
+      if (idForm(revision.revId()) == LONG) {
+        longIds.put(revision.revId().getBytes(UTF_8), null);
+      }
+    }
+    Map<String, Integer> repositoryIndexes = new TreeMap<>();
+    for (String name : repositoryNames) {
+      repositoryIndexes.put(name, repositoryIndexes.size());
+    }
+    int longIdIndex = 0;
+    for (Map.Entry<byte[], Integer> longId : longIds.entrySet()) {
+      longId.setValue(longIdIndex++);
+    }
+
+    Set<byte[]> equivalenceEntries = new TreeSet<>(BYTES);
+    // The entries with the lesser key first, one per equivalence, in the order they were noted.
+    Set<byte[]> orderedEntries = new LinkedHashSet<>();
+    for (RepositoryEquivalence equivalence : storage.equivalences()) {
+      Revision[] pair = revisions(equivalence);
+      byte[] key0 = key(pair[0], repositoryIndexes, longIds);
+      byte[] key1 = key(pair[1], repositoryIndexes, longIds);
+      byte[] entry = entry(key0, key1);
+      byte[] reversed = entry(key1, key0);
+      if (equivalenceEntries.add(entry) | equivalenceEntries.add(reversed)) {
+        orderedEntries.add(BYTES.compare(key0, key1) < 0 ? entry : reversed);
+      }
+    }
+    Set<byte[]> migrationEntries = new TreeSet<>(BYTES);
+    for (SubmittedMigration migration : storage.migrations()) {
+      migrationEntries.add(
+          entry(
+              key(migration.fromRevision(), repositoryIndexes, longIds),
+              key(migration.toRevision(), repositoryIndexes, longIds)));
+    }
+
+    long size = HEADER_SIZE;
+    for (String name : repositoryNames) {
+      size += 4 + name.getBytes(UTF_8).length;
+    }
+    long longIdTableOffset = size;
+    size += 4L * longIds.size();
+    for (byte[] longId : longIds.keySet()) {
+      size += 4 + longId.length;
+    }
+    long equivalencesOffset = size;
+    size += (long) ENTRY_SIZE * equivalenceEntries.size();
+    long migrationsOffset = size;
+    size += (long) ENTRY_SIZE * migrationEntries.size();
+    size += 4;
+    for (String migrationName : storage.bookkeepingWatermarks().keySet()) {
+      size += 4 + migrationName.getBytes(UTF_8).length + KEY_SIZE;
+    }
+    size += 4L * orderedEntries.size();
+    if (size > Integer.MAX_VALUE) {
+      throw new MoeProblem("Database too large for the binary form: %d bytes", size);
+    }
+
+    ByteBuffer buffer = ByteBuffer.allocate((int) size);
+    buffer
+        .putInt(MAGIC)
+        .putInt(VERSION)
+        .putInt(repositoryNames.size())
+        .putInt(longIds.size())
+        .putInt((int) longIdTableOffset)
+        .putInt(equivalenceEntries.size())
+        .putInt((int) equivalencesOffset)
+        .putInt(migrationEntries.size())
+        .putInt((int) migrationsOffset);
+    for (String name : repositoryNames) {
+      byte[] bytes = name.getBytes(UTF_8);
+      buffer.putInt(bytes.length).put(bytes);
+    }
+    int longIdOffset = (int) longIdTableOffset + 4 * longIds.size();
+    for (byte[] longId : longIds.keySet()) {
+      buffer.putInt(longIdOffset);
+      longIdOffset += 4 + longId.length;
+    }
+    for (byte[] longId : longIds.keySet()) {
+      buffer.putInt(longId.length).put(longId);
+    }
+    put(buffer, equivalenceEntries);
+    put(buffer, migrationEntries);
+    Map<String, Revision> watermarks = new TreeMap<>(storage.bookkeepingWatermarks());
+    buffer.putInt(watermarks.size());
+    for (Map.Entry<String, Revision> watermark : watermarks.entrySet()) {
+      byte[] name = watermark.getKey().getBytes(UTF_8);
+      buffer.putInt(name.length).put(name);
+      buffer.put(key(watermark.getValue(), repositoryIndexes, longIds));
+    }
+    Map<byte[], Integer> entryIndexes = new TreeMap<>(BYTES);
+    for (byte[] entry : equivalenceEntries) {
+      entryIndexes.put(entry, entryIndexes.size());
+    }
+    for (byte[] entry : orderedEntries) {
+      buffer.putInt(entryIndexes.get(entry));
+    }
+    Preconditions.checkState(!buffer.hasRemaining());
+    buffer.flip();
+    return buffer;
+  }
+
+  private static byte[] key(
+      Revision revision, Map<String, Integer> repositoryIndexes, Map<byte[], Integer> longIds) {
+    Integer longIdIndex = longIds.get(revision.revId().getBytes(UTF_8));
+    return key(
+        repositoryIndexes.get(revision.repositoryName()),
+        revision.revId(),
+        longIdIndex == null ? -1 : longIdIndex);
+  }
+
+  private static void put(ByteBuffer buffer, Collection<byte[]> entries) {
+    for (byte[] entry : entries) {
+      buffer.put(entry);
+    }
+  }
+
+  /** An injectable Factory to produce {@link BinaryDb} instances. */
+  public static class Factory implements Db.Factory {
+    private final FileSystem filesystem;
+
+    @Inject
+    public Factory(FileSystem filesystem) {
+      this.filesystem = filesystem;
+    }
+
+    /** Converts a database from JSON into this form, in memory. */
+    @Override
+    public BinaryDb parseJson(String dbText) throws InvalidProject {
+      try {
+        return new BinaryDb(null, encode(DbStorageReader.read(new StringReader(dbText))));
+      } catch (JsonParseException e) {
+        throw new InvalidProject("Could not parse MOE DB: " + e.getMessage());
+      } catch (IOException e) {
+        throw new AssertionError(e); // A StringReader doesn't fail.
+      }
+    }
+
+    /** Maps the database at the given location into memory, or creates an empty one. */
+    @Override
+    public BinaryDb load(String location) throws MoeProblem {
+      File file = new File(location);
+      if (!filesystem.exists(file)) {
+        return new BinaryDb(location, encode(new DbStorage()));
+      }
+      try {
+        return new BinaryDb(location, filesystem.asByteBuffer(file));
+      } catch (IOException e) {
+        throw new MoeProblem(e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Writes a database implementing {@link HasDbStorage} in this form, replacing the file at its
+   * location in one step.
+   *
+   * <p>A database written back to the location it was loaded from is written holding that
+   * location's {@link FileDb#lockFile}, and with the records another process has written there
+   * since it was loaded merged into it, as {@link FileDb.Writer} does.
+   */
+  public static class Writer implements Db.Writer {
+    private final FileSystem filesystem;
+
+    @Inject
+    public Writer(FileSystem filesystem) {
+      this.filesystem = filesystem;
+    }
+
+    @Override
+    public void write(Db db) {
+      writeToLocation(db.location(), db);
+    }
+
+    @Override
+    @SuppressWarnings("try") // The lock is only held, never referenced.
+    public void writeToLocation(String dbLocation, Db db) {
+      if (!(db instanceof HasDbStorage)) {
+        throw new MoeProblem("Database does not support exporting its internal storage.");
+      }
+      DbStorage storage = ((HasDbStorage) db).getStorage();
+      File file = new File(dbLocation);
+      File newFile = new File(dbLocation + ".new");
+      try (Closeable lock = filesystem.lock(FileDb.lockFile(dbLocation))) {
+        if (dbLocation.equals(db.location()) && filesystem.exists(file)) {
+          storage =
+              FileDb.union(
+                  new BinaryDb(dbLocation, filesystem.asByteBuffer(file)).getStorage(), storage);
+        }
+        filesystem.asByteSink(newFile).write(encode(storage).array());
+        filesystem.move(newFile, file);
+      } catch (IOException e) {
+        throw new MoeProblem("I/O Error writing database: %s", e.getMessage());
+      }
+    }
+  }
+}
@@ -27,8 +27,10 @@ import com.google.devtools.moe.client.parser.RepositoryExpression;
 import com.google.devtools.moe.client.project.ProjectContext;
 import com.google.devtools.moe.client.project.TranslatorConfig;
 import com.google.devtools.moe.client.repositories.Revision;
+import com.google.devtools.moe.client.repositories.RevisionGraph;
 import com.google.devtools.moe.client.repositories.RevisionHistory;
 import com.google.devtools.moe.client.repositories.RevisionHistory.SearchType;
+import com.google.devtools.moe.client.repositories.RevisionMatcher;
 import com.google.devtools.moe.client.repositories.RevisionMetadata;
 import com.google.devtools.moe.client.tools.CodebaseDiffer;
 
@@ -84,7 +86,7 @@ public class Bookkeeper {
     }
 
     Ui.Task t = ui.pushTask("diff_codebases", "Diff codebases '%s' and '%s'", from, to);
-    if (!differ.diffCodebases(from, to).areDifferent()) {
+    if (!differ.areDifferent(from, to)) {
       db.noteEquivalence(RepositoryEquivalence.create(fromHead, toHead));
     }
     ui.popTask(t, "");
@@ -92,25 +94,36 @@ public class Bookkeeper {
 
   /**
    * Find Revisions in toRepository that were the result of a migration, and call
-   * processMigration() on each.
+   * processMigration() on each. The search stops at an equivalence, or at the migration's
+   * bookkeeping watermark, the head this last searched from, as the revisions before it have been
+   * searched already; the watermark is then moved up to the current head.
    */
   private void updateCompletedMigrations(
-      String fromRepository, String toRepository, Db db, ProjectContext context, boolean inverse) {
+      String migrationName,
+      String fromRepository,
+      String toRepository,
+      Db db,
+      ProjectContext context,
+      boolean inverse,
+      int maxRevisionsToSearch) {
 
     RevisionHistory toHistory = context.getRepository(toRepository).revisionHistory();
+    Revision watermark = db.findBookkeepingWatermark(migrationName);
     RepositoryEquivalenceMatcher.Result equivMatch =
         toHistory.findRevisions(
             null /*revision*/,
-            new RepositoryEquivalenceMatcher(fromRepository, db),
-            SearchType.LINEAR);
+            new WatermarkMatcher(new RepositoryEquivalenceMatcher(fromRepository, db), watermark),
+            SearchType.LINEAR,
+            maxRevisionsToSearch);
 
     List<Revision> linearToRevs =
         equivMatch.getRevisionsSinceEquivalence().getBreadthFirstHistory();
     ui.info(
-        "Found %d revisions in %s since equivalence (%s): %s",
+        "Found %d revisions in %s since equivalence (%s) or last bookkeeping (%s): %s",
         linearToRevs.size(),
         toRepository,
         equivMatch.getEquivalences(),
+        watermark,
         Joiner.on(", ").join(linearToRevs));
 
     for (Revision toRev : linearToRevs) {
@@ -119,6 +132,44 @@ public class Bookkeeper {
         processMigration(Revision.create(fromRevId, fromRepository), toRev, db, context, inverse);
       }
     }
+    // Each migration found was noted, whether or not it proved equivalent, and would be skipped by
+    // the next search anyway, so the next needn't search past the head searched from now.
+    if (!linearToRevs.isEmpty()) {
+      db.noteBookkeepingWatermark(migrationName, linearToRevs.get(0));
+    }
+  }
+
+  /**
+   * A {@link RepositoryEquivalenceMatcher} which also matches a bookkeeping watermark, so that a
+   * search stops there too. The watermark needn't be equivalent to anything, and if it isn't,
+   * contributes no equivalence to the result.
+   */
+  private static class WatermarkMatcher
+      implements RevisionMatcher<RepositoryEquivalenceMatcher.Result> {
+    private final RepositoryEquivalenceMatcher equivalenceMatcher;
+    @Nullable private final Revision watermark;
+
+    WatermarkMatcher(
+        RepositoryEquivalenceMatcher equivalenceMatcher, @Nullable Revision watermark) {
+      this.equivalenceMatcher = equivalenceMatcher;
+      this.watermark = watermark;
+    }
+
+    @Override
+    public boolean matches(Revision revision) {
+      return revision.equals(watermark) || equivalenceMatcher.matches(revision);
+    }
+
+    @Override
+    public RepositoryEquivalenceMatcher.Result makeResult(
+        RevisionGraph nonMatching, List<Revision> matching) {
+      return equivalenceMatcher.makeResult(nonMatching, matching);
+    }
+
+    @Override
+    public String toString() {
+      return equivalenceMatcher + " or bookkeeping watermark " + watermark;
+    }
   }
 
   @Nullable
@@ -167,7 +218,7 @@ public class Bookkeeper {
     }
 
     Ui.Task t = ui.pushTask("diff_codebases", "Diff codebases '%s' and '%s'", from, to);
-    if (!differ.diffCodebases(from, to).areDifferent()) {
+    if (!differ.areDifferent(from, to)) {
       RepositoryEquivalence newEquiv = RepositoryEquivalence.create(fromRev, toRev);
       db.noteEquivalence(newEquiv);
       ui.info("Codebases are identical, noted new equivalence: %s", newEquiv);
@@ -229,11 +280,13 @@ public class Bookkeeper {
               config.getFromRepository(),
               config.getToRepository());
       updateCompletedMigrations(
+          config.getName(),
           config.getFromRepository(),
           config.getToRepository(),
           db,
           context,
-          migrationTranslator.isInverse());
+          migrationTranslator.isInverse(),
+          config.getMaxRevisionsToSearch());
       ui.popTask(checkMigrationsTask, "");
 
       // Skip head-equivalence checking for inverse translation -- assume it will be performed via
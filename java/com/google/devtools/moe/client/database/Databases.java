@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2015 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.moe.client.database;
+
+import com.google.devtools.moe.client.MoeProblem;
+import com.google.devtools.moe.client.project.InvalidProject;
+
+import dagger.Provides;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Loads and writes MOE databases in the form their locations name: a {@link JournalDb} for a
+ * location ending in {@value JournalDb#SUFFIX}, a {@link BinaryDb} for one ending in
+ * {@value BinaryDb#SUFFIX}, and otherwise a {@link FileDb}. Writing a database to a location of
+ * another form converts it.
+ */
+public final class Databases {
+  private Databases() {}
+
+  /** An injectable {@link Db.Factory} which loads each location with the matching factory. */
+  public static class Factory implements Db.Factory {
+    private final FileDb.Factory fileDbFactory;
+    private final JournalDb.Factory journalDbFactory;
+    private final BinaryDb.Factory binaryDbFactory;
+
+    @Inject
+    public Factory(
+        FileDb.Factory fileDbFactory,
+        JournalDb.Factory journalDbFactory,
+        BinaryDb.Factory binaryDbFactory) {
+      this.fileDbFactory = fileDbFactory;
+      this.journalDbFactory = journalDbFactory;
+      this.binaryDbFactory = binaryDbFactory;
+    }
+
+    @Override
+    public Db parseJson(String dbText) throws InvalidProject {
+      return fileDbFactory.parseJson(dbText);
+    }
+
+    @Override
+    public Db load(String location) throws MoeProblem {
+      if (location.endsWith(JournalDb.SUFFIX)) {
+        return journalDbFactory.load(location);
+      } else if (location.endsWith(BinaryDb.SUFFIX)) {
+        return binaryDbFactory.load(location);
+      } else {
+        return fileDbFactory.load(location);
+      }
+    }
+  }
+
+  /** An injectable {@link Db.Writer} which writes each location with the matching writer. */
+  public static class Writer implements Db.Writer {
+    private final FileDb.Writer fileDbWriter;
+    private final JournalDb.Writer journalDbWriter;
+    private final BinaryDb.Writer binaryDbWriter;
+
+    @Inject
+    public Writer(
+        FileDb.Writer fileDbWriter,
+        JournalDb.Writer journalDbWriter,
+        BinaryDb.Writer binaryDbWriter) {
+      this.fileDbWriter = fileDbWriter;
+      this.journalDbWriter = journalDbWriter;
+      this.binaryDbWriter = binaryDbWriter;
+    }
+
+    @Override
+    public void write(Db db) {
+      writeToLocation(db.location(), db);
+    }
+
+    @Override
+    public void writeToLocation(String dbLocation, Db db) {
+      if (dbLocation.endsWith(JournalDb.SUFFIX)) {
+        journalDbWriter.writeToLocation(dbLocation, db);
+      } else if (dbLocation.endsWith(BinaryDb.SUFFIX)) {
+        binaryDbWriter.writeToLocation(dbLocation, db);
+      } else {
+        fileDbWriter.writeToLocation(dbLocation, db);
+      }
+    }
+  }
+
+  /** Supplies the bindings to use these databases in a dagger graph. */
+  @dagger.Module
+  public static class Module {
+    @Provides
+    @Singleton
+    Db.Factory dbFactory(Databases.Factory impl) {
+      return impl;
+    }
+
+    @Provides
+    @Singleton
+    Db.Writer dbWriter(Databases.Writer impl) {
+      return impl;
+    }
+  }
+}
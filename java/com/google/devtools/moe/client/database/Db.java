@@ -21,6 +21,8 @@ import com.google.devtools.moe.client.repositories.Revision;
 
 import java.util.Set;
 
+import javax.annotation.Nullable;
+
 /**
  * An abstraction of MOE's database.
  */
@@ -41,6 +43,13 @@ public interface Db {
    */
   Set<Revision> findEquivalences(Revision revision, String otherRepository);
 
+  /**
+   * Returns false if the given Revision is in no Equivalence, and true if it may be in one: a
+   * quick test, which needn't be exact, for a search to rule out a revision before it calls
+   * {@link #findEquivalences}.
+   */
+  boolean mightHaveEquivalences(Revision revision);
+
   /**
    * Stores a SubmittedMigration in this Db. Migrations are stored along with Equivalences to give
    * full historical information for runs of MOE, as not all migrations result in an Equivalence.
@@ -50,6 +59,19 @@ public interface Db {
    */
   boolean noteMigration(SubmittedMigration migration);
 
+  /**
+   * Returns the highest revision in the named migration's to-repository that bookkeeping has
+   * already searched for completed migrations, or null if it hasn't searched any.
+   */
+  @Nullable
+  Revision findBookkeepingWatermark(String migrationName);
+
+  /**
+   * Records the highest revision in the named migration's to-repository that bookkeeping has
+   * searched for completed migrations, so that the next search can stop there.
+   */
+  void noteBookkeepingWatermark(String migrationName, Revision revision);
+
   /**
    * A means by which implementations can supply their internal storage value object.
    *
@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2015 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.moe.client.database;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.Multiset;
+import com.google.common.collect.Ordering;
+import com.google.devtools.moe.client.MoeProblem;
+import com.google.devtools.moe.client.database.Db.HasDbStorage;
+import com.google.devtools.moe.client.repositories.Revision;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.inject.Inject;
+
+/**
+ * Prunes a MOE database of the equivalences lookups no longer need. Bookkeeping only ever walks
+ * back from the heads of a pair of repositories to their most recent equivalence, so of each
+ * pair's equivalences, only the newest few are kept, along with any naming a revision of a
+ * migration that hasn't yet been found equivalent. The rest are moved to an archive beside the
+ * database, a JSON database at its location plus {@value #ARCHIVE_SUFFIX}. Migrations are all
+ * kept, as bookkeeping consults them to skip migrations it has already checked, as are
+ * bookkeeping watermarks.
+ *
+ * <p>The database is rewritten rather than merged into, so other MOE processes shouldn't write it
+ * while it's compacted: a process that loaded it before would, on writing it, merge the archived
+ * equivalences back in (to be pruned again by the next compaction), and records written in the
+ * meantime would be lost.
+ */
+public class DbCompactor {
+  /** The suffix of the archive of a database's pruned equivalences. */
+  public static final String ARCHIVE_SUFFIX = ".archive";
+
+  private final Db.Factory dbFactory;
+  private final Db.Writer dbWriter;
+  private final FileDb.Factory archiveFactory;
+  private final FileDb.Writer archiveWriter;
+
+  @Inject
+  public DbCompactor(
+      Db.Factory dbFactory,
+      Db.Writer dbWriter,
+      FileDb.Factory archiveFactory,
+      FileDb.Writer archiveWriter) {
+    this.dbFactory = dbFactory;
+    this.dbWriter = dbWriter;
+    this.archiveFactory = archiveFactory;
+    this.archiveWriter = archiveWriter;
+  }
+
+  /**
+   * Compacts the database at the given location, archiving the equivalences it prunes.
+   *
+   * @param dbLocation the location of the database, in any form {@link Databases} reads, though
+   *     not a binary database from before they recorded which of their equivalences are newest
+   * @param keep the number of each pair of repositories' newest equivalences to keep
+   * @return the number of equivalences archived
+   */
+  public int compact(String dbLocation, int keep) {
+    Db db = dbFactory.load(dbLocation);
+    if (!(db instanceof HasDbStorage)) {
+      throw new MoeProblem("Database does not support exporting its internal storage.");
+    }
+    if (db instanceof BinaryDb && !((BinaryDb) db).isOrdered()) {
+      throw new MoeProblem(
+          "Binary MOE DB %s doesn't record which of its equivalences are newest, so can't be"
+              + " compacted",
+          dbLocation);
+    }
+    DbStorage archived = new DbStorage();
+    DbStorage kept = prune(((HasDbStorage) db).getStorage(), keep, archived);
+    if (archived.equivalences().isEmpty()) {
+      return 0;
+    }
+    // The archive is written first, so that a failure between the two writes leaves the pruned
+    // equivalences in both places rather than neither.
+    FileDb archive = archiveFactory.loadFile(dbLocation + ARCHIVE_SUFFIX);
+    for (RepositoryEquivalence equivalence : archived.equivalences()) {
+      archive.noteEquivalence(equivalence);
+    }
+    archiveWriter.write(archive);
+    // Written as a database from elsewhere, which replaces what's there rather than merging.
+    dbWriter.writeToLocation(dbLocation, new FileDb(null, kept));
+    return archived.equivalences().size();
+  }
+
+  /**
+   * Returns a copy of the given storage keeping only the {@code keep} newest equivalences of each
+   * pair of repositories, and those naming a revision of an unfinished migration (one with no
+   * equivalence between its revisions), adding the equivalences it drops to {@code archived}.
+   */
+  static DbStorage prune(DbStorage storage, int keep, DbStorage archived) {
+    Preconditions.checkArgument(keep >= 0, "Can't keep %s equivalences", keep);
+    Set<RepositoryEquivalence> equivalences = new HashSet<>(storage.equivalences());
+    Set<Revision> pinned = new HashSet<>();
+    for (SubmittedMigration migration : storage.migrations()) {
+      if (!equivalences.contains(
+          RepositoryEquivalence.create(migration.fromRevision(), migration.toRevision()))) {
+        pinned.add(migration.fromRevision());
+        pinned.add(migration.toRevision());
+      }
+    }
+
+    // Storage is in order from older equivalences to newer, so count back from the end.
+    Multiset<List<String>> seen = HashMultiset.create();
+    boolean[] keeps = new boolean[storage.equivalences().size()];
+    for (int i = keeps.length - 1; i >= 0; i--) {
+      RepositoryEquivalence equivalence = storage.equivalences().get(i);
+      boolean newest = seen.add(pairOf(equivalence), 1) < keep;
+      keeps[i] = newest || isPinned(equivalence, pinned);
+    }
+
+    DbStorage kept = new DbStorage();
+    for (int i = 0; i < keeps.length; i++) {
+      RepositoryEquivalence equivalence = storage.equivalences().get(i);
+      if (keeps[i]) {
+        kept.appendEquivalence(equivalence);
+      } else {
+        archived.appendEquivalence(equivalence);
+      }
+    }
+    for (SubmittedMigration migration : storage.migrations()) {
+      kept.appendMigration(migration);
+    }
+    for (Map.Entry<String, Revision> watermark : storage.bookkeepingWatermarks().entrySet()) {
+      kept.setBookkeepingWatermark(watermark.getKey(), watermark.getValue());
+    }
+    return kept;
+  }
+
+  private static boolean isPinned(RepositoryEquivalence equivalence, Set<Revision> pinned) {
+    for (Revision revision : equivalence.revisions().values()) {
+      if (pinned.contains(revision)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Returns the names of the repositories of an equivalence, in order, as a key for the pair. */
+  private static List<String> pairOf(RepositoryEquivalence equivalence) {
+    return Ordering.<String>natural().sortedCopy(equivalence.revisions().keySet());
+  }
+}
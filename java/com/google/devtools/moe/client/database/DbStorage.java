@@ -16,10 +16,13 @@
 
 package com.google.devtools.moe.client.database;
 
-import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
+import com.google.devtools.moe.client.repositories.Revision;
 
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * MOE's database, storing all Equivalences and SubmittedMigrations in order from those between
@@ -31,18 +34,44 @@ public class DbStorage {
 
   private final List<RepositoryEquivalence> equivalences;
   private final List<SubmittedMigration> migrations;
+  // Null until one is set, so that databases without any are written as they were before.
+  private Map<String, Revision> bookkeepingWatermarks;
 
   public DbStorage() {
     equivalences = Lists.newArrayList();
     migrations = Lists.newArrayList();
   } // Constructed by gson.
 
+  /** Returns an unmodifiable view of the equivalences, in the order they were added. */
   public List<RepositoryEquivalence> equivalences() {
-    return ImmutableList.copyOf(equivalences);
+    return Collections.unmodifiableList(equivalences);
   }
 
+  /** Returns an unmodifiable view of the migrations, in the order they were added. */
   public List<SubmittedMigration> migrations() {
-    return ImmutableList.copyOf(migrations);
+    return Collections.unmodifiableList(migrations);
+  }
+
+  /**
+   * Returns an unmodifiable view of the bookkeeping watermarks: for each migration, by name, the
+   * highest revision in its to-repository that bookkeeping has already searched.
+   */
+  public Map<String, Revision> bookkeepingWatermarks() {
+    return bookkeepingWatermarks == null
+        ? Collections.<String, Revision>emptyMap()
+        : Collections.unmodifiableMap(bookkeepingWatermarks);
+  }
+
+  /**
+   * Sets a migration's bookkeeping watermark.
+   *
+   * @return false if it was already the given revision
+   */
+  public boolean setBookkeepingWatermark(String migrationName, Revision revision) {
+    if (bookkeepingWatermarks == null) {
+      bookkeepingWatermarks = new TreeMap<>();
+    }
+    return !revision.equals(bookkeepingWatermarks.put(migrationName, revision));
   }
 
   public void addEquivalence(RepositoryEquivalence e) {
@@ -59,4 +88,20 @@ public class DbStorage {
   public boolean addMigration(SubmittedMigration m) {
     return !migrations.contains(m) && migrations.add(m);
   }
+
+  /**
+   * Appends an equivalence without checking whether it's already stored, for callers that keep
+   * their own index of what is, such as {@link FileDb}.
+   */
+  void appendEquivalence(RepositoryEquivalence e) {
+    equivalences.add(e);
+  }
+
+  /**
+   * Appends a migration without checking whether it's already stored, for callers that keep
+   * their own index of what is, such as {@link FileDb}.
+   */
+  void appendMigration(SubmittedMigration m) {
+    migrations.add(m);
+  }
 }
@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) 2015 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.moe.client.database;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import com.google.devtools.moe.client.repositories.Revision;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads a {@link DbStorage} from the JSON that MOE's Gson writes it as, a token at a time rather
+ * than by way of a tree of each record, as the Gson deserializers of {@link RepositoryEquivalence},
+ * {@link SubmittedMigration} and {@link Revision} would. It accepts the same legacy field names
+ * they do, and shares a single copy of each repository name among the revisions read.
+ */
+final class DbStorageReader {
+  private final JsonReader in;
+  private final Interner<String> repositoryNames = Interners.newStrongInterner();
+
+  private DbStorageReader(Reader reader) {
+    this.in = new JsonReader(reader);
+    // As lenient as Gson.fromJson, which accepts single-quoted names and strings, for instance.
+    in.setLenient(true);
+  }
+
+  /**
+   * Reads a database's storage.
+   *
+   * @throws JsonParseException if the JSON is malformed, or isn't a database
+   * @throws IOException if the reader fails
+   */
+  static DbStorage read(Reader reader) throws IOException {
+    try {
+      return new DbStorageReader(reader).readStorage();
+    } catch (MalformedJsonException | EOFException | IllegalStateException e) {
+      throw new JsonSyntaxException(e);
+    }
+  }
+
+  private DbStorage readStorage() throws IOException {
+    DbStorage storage = new DbStorage();
+    in.beginObject();
+    while (in.hasNext()) {
+      switch (in.nextName()) {
+        case "equivalences":
+          if (beginArray()) {
+            while (in.hasNext()) {
+              storage.appendEquivalence(readEquivalence());
+            }
+            in.endArray();
+          }
+          break;
+        case "migrations":
+          if (beginArray()) {
+            while (in.hasNext()) {
+              storage.appendMigration(readMigration());
+            }
+            in.endArray();
+          }
+          break;
+        case "bookkeeping_watermarks":
+          if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+          } else {
+            in.beginObject();
+            while (in.hasNext()) {
+              String migrationName = in.nextName();
+              storage.setBookkeepingWatermark(
+                  migrationName,
+                  checkPresent(
+                      readRevision(), "Bookkeeping watermark of " + migrationName, "revision"));
+            }
+            in.endObject();
+          }
+          break;
+        default:
+          in.skipValue();
+      }
+    }
+    in.endObject();
+    return storage;
+  }
+
+  /** Begins reading an array, returning false if it's null instead. */
+  private boolean beginArray() throws IOException {
+    if (in.peek() == JsonToken.NULL) {
+      in.nextNull();
+      return false;
+    }
+    in.beginArray();
+    return true;
+  }
+
+  private RepositoryEquivalence readEquivalence() throws IOException {
+    Revision rev1 = null;
+    Revision rev2 = null;
+    in.beginObject();
+    while (in.hasNext()) {
+      switch (in.nextName()) {
+        case "rev1":
+          rev1 = readRevision();
+          break;
+        case "rev2":
+          rev2 = readRevision();
+          break;
+        default:
+          in.skipValue();
+      }
+    }
+    in.endObject();
+    return RepositoryEquivalence.create(
+        checkPresent(rev1, "RepositoryEquivalence", "rev1"),
+        checkPresent(rev2, "RepositoryEquivalence", "rev2"));
+  }
+
+  private SubmittedMigration readMigration() throws IOException {
+    Revision fromRevision = null;
+    Revision legacyFromRevision = null;
+    Revision toRevision = null;
+    Revision legacyToRevision = null;
+    in.beginObject();
+    while (in.hasNext()) {
+      switch (in.nextName()) {
+        case "from_revision":
+          fromRevision = readRevision();
+          break;
+        case "fromRevision":
+          legacyFromRevision = readRevision();
+          break;
+        case "to_revision":
+          toRevision = readRevision();
+          break;
+        case "toRevision":
+          legacyToRevision = readRevision();
+          break;
+        default:
+          in.skipValue();
+      }
+    }
+    in.endObject();
+    // As in GsonUtil.getPropertyOrLegacy, the legacy name wins.
+    return SubmittedMigration.create(
+        checkPresent(orLegacy(fromRevision, legacyFromRevision), "Revision", "from_revision"),
+        checkPresent(orLegacy(toRevision, legacyToRevision), "Revision", "to_revision"));
+  }
+
+  /** Reads a revision, or null if it's null. */
+  private Revision readRevision() throws IOException {
+    if (in.peek() == JsonToken.NULL) {
+      in.nextNull();
+      return null;
+    }
+    String revId = null;
+    String legacyRevId = null;
+    String repositoryName = null;
+    String legacyRepositoryName = null;
+    in.beginObject();
+    while (in.hasNext()) {
+      switch (in.nextName()) {
+        case "rev_id":
+          revId = readString();
+          break;
+        case "revId":
+          legacyRevId = readString();
+          break;
+        case "repository_name":
+          repositoryName = readString();
+          break;
+        case "repositoryName":
+          legacyRepositoryName = readString();
+          break;
+        default:
+          in.skipValue();
+      }
+    }
+    in.endObject();
+    return Revision.create(
+        checkPresent(orLegacy(revId, legacyRevId), "String", "rev_id"),
+        repositoryNames.intern(
+            checkPresent(
+                orLegacy(repositoryName, legacyRepositoryName), "String", "repository_name")));
+  }
+
+  /** Reads a string, or a number as one, or null if it's null. */
+  private String readString() throws IOException {
+    if (in.peek() == JsonToken.NULL) {
+      in.nextNull();
+      return null;
+    }
+    return in.nextString();
+  }
+
+  private static <T> T orLegacy(T value, T legacyValue) {
+    return legacyValue != null ? legacyValue : value;
+  }
+
+  private static <T> T checkPresent(T value, String type, String name) {
+    if (value == null) {
+      throw new JsonParseException(type + " is missing a " + name);
+    }
+    return value;
+  }
+}
@@ -15,7 +15,11 @@
  */
 package com.google.devtools.moe.client.database;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.LinkedHashMultimap;
+import com.google.common.collect.SetMultimap;
 import com.google.devtools.moe.client.FileSystem;
 import com.google.devtools.moe.client.MoeProblem;
 import com.google.devtools.moe.client.database.Db.HasDbStorage;
@@ -27,25 +31,47 @@ import com.google.gson.JsonParseException;
 
 import dagger.Provides;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
 /**
  * A file-backed implementation of MOE {@link Db}.
+ *
+ * <p>The equivalences and migrations are indexed when the database is created and as they're
+ * noted, so that looking up a revision's equivalents, or whether an entry is already stored,
+ * doesn't scan the whole database. Entries should therefore be added through this class rather
+ * than directly to its {@link DbStorage}.
  */
 public class FileDb implements Db, HasDbStorage {
 
   private final String location;
   private final DbStorage dbStorage;
 
+  /** For each revision, its equivalent revisions, keyed by their repository names. */
+  private final Map<Revision, SetMultimap<String, Revision>> equivalentRevisions =
+      new HashMap<>();
+  private final Set<RepositoryEquivalence> equivalences = new HashSet<>();
+  private final Set<SubmittedMigration> migrations = new HashSet<>();
+
   // TODO(cgruber): Rationalize DbStorage.
   public FileDb(String location, DbStorage dbStorage) {
     this.location = location;
     this.dbStorage = dbStorage;
+    for (RepositoryEquivalence equivalence : dbStorage.equivalences()) {
+      index(equivalence);
+    }
+    migrations.addAll(dbStorage.migrations());
   }
 
   @Override
@@ -62,21 +88,47 @@ public class FileDb implements Db, HasDbStorage {
 
   @Override
   public void noteEquivalence(RepositoryEquivalence equivalence) {
-    dbStorage.addEquivalence(equivalence);
+    addEquivalence(equivalence);
   }
 
-  @Override
-  public Set<Revision> findEquivalences(Revision revision, String otherRepository) {
-    ImmutableSet.Builder<Revision> equivalentToRevision = ImmutableSet.builder();
-    for (RepositoryEquivalence e : dbStorage.equivalences()) {
-      if (e.hasRevision(revision)) {
-        Revision otherRevision = e.getOtherRevision(revision);
-        if (otherRevision.repositoryName().equals(otherRepository)) {
-          equivalentToRevision.add(otherRevision);
-        }
+  /** Notes an equivalence, returning false if it was already in this Db. */
+  boolean addEquivalence(RepositoryEquivalence equivalence) {
+    if (!index(equivalence)) {
+      return false;
+    }
+    dbStorage.appendEquivalence(equivalence);
+    return true;
+  }
+
+  /** Indexes an equivalence, returning false if it already was. */
+  private boolean index(RepositoryEquivalence equivalence) {
+    if (!equivalences.add(equivalence)) {
+      return false;
+    }
+    for (Revision revision : equivalence.revisions().values()) {
+      SetMultimap<String, Revision> equivalents = equivalentRevisions.get(revision);
+      if (equivalents == null) {
+        equivalents = LinkedHashMultimap.create();
+        equivalentRevisions.put(revision, equivalents);
       }
+      Revision otherRevision = equivalence.getOtherRevision(revision);
+      equivalents.put(otherRevision.repositoryName(), otherRevision);
     }
-    return equivalentToRevision.build();
+    return true;
+  }
+
+  @Override
+  public Set<Revision> findEquivalences(Revision revision, String otherRepository) {
+    SetMultimap<String, Revision> equivalents = equivalentRevisions.get(revision);
+    return equivalents == null
+        ? ImmutableSet.<Revision>of()
+        : ImmutableSet.copyOf(equivalents.get(otherRepository));
+  }
+
+  /** Answers exactly, from the index {@link #findEquivalences} uses. */
+  @Override
+  public boolean mightHaveEquivalences(Revision revision) {
+    return equivalentRevisions.containsKey(revision);
   }
 
   /**
@@ -88,7 +140,22 @@ public class FileDb implements Db, HasDbStorage {
 
   @Override
   public boolean noteMigration(SubmittedMigration migration) {
-    return dbStorage.addMigration(migration);
+    if (!migrations.add(migration)) {
+      return false;
+    }
+    dbStorage.appendMigration(migration);
+    return true;
+  }
+
+  @Override
+  @Nullable
+  public Revision findBookkeepingWatermark(String migrationName) {
+    return dbStorage.bookkeepingWatermarks().get(migrationName);
+  }
+
+  @Override
+  public void noteBookkeepingWatermark(String migrationName, Revision revision) {
+    dbStorage.setBookkeepingWatermark(migrationName, revision);
   }
 
   @Override
@@ -96,9 +163,57 @@ public class FileDb implements Db, HasDbStorage {
     return dbStorage;
   }
 
+  /**
+   * Adds to stored records any of the given ones not among them, and returns them, as a database
+   * writer does to keep the records another process has written since it loaded a database. The
+   * given records' bookkeeping watermarks replace the stored ones; either is safe to keep, as
+   * bookkeeping searched every revision since each.
+   */
+  static DbStorage union(DbStorage stored, DbStorage records) {
+    FileDb union = new FileDb(null, stored);
+    for (RepositoryEquivalence equivalence : records.equivalences()) {
+      union.addEquivalence(equivalence);
+    }
+    for (SubmittedMigration migration : records.migrations()) {
+      union.noteMigration(migration);
+    }
+    for (Map.Entry<String, Revision> watermark : records.bookkeepingWatermarks().entrySet()) {
+      union.noteBookkeepingWatermark(watermark.getKey(), watermark.getValue());
+    }
+    return union.getStorage();
+  }
+
+  /**
+   * Returns the file locked while a database at the given location is written, so that
+   * processes writing it at once do so in turn, each keeping what the others wrote.
+   */
+  static File lockFile(String location) {
+    return new File(location + ".lock");
+  }
+
+  /**
+   * Reads the database stored in a file, or an empty one if there's none.
+   *
+   * @throws JsonParseException if the file isn't a database
+   */
+  static DbStorage readStorage(FileSystem filesystem, File file) throws IOException {
+    if (!filesystem.exists(file)) {
+      return new DbStorage();
+    }
+    try (Reader reader = filesystem.asByteSource(file).asCharSource(UTF_8).openBufferedStream()) {
+      return DbStorageReader.read(reader);
+    }
+  }
+
   /**
    * Writes a database implementing {@link HasDbStorage} to the supplied filesystem at a given
    * location, or at the location originally attached to the database.
+   *
+   * <p>Writing a database back to its own location is a read-modify-write cycle, holding the
+   * location's {@link #lockFile}: the records already there, which another process may have
+   * written since this one loaded the database, are read, this database's added to them, and the
+   * whole written to a new file, which is then moved over the old one. So processes may write a
+   * database at once, and one reading it needn't lock it, never seeing it partly written.
    */
   public static class Writer implements Db.Writer {
     private final Gson gson;
@@ -116,13 +231,22 @@ public class FileDb implements Db, HasDbStorage {
     }
 
     @Override
+    @SuppressWarnings("try") // The lock is only held, never referenced.
     public void writeToLocation(String dbLocation, Db db) {
       if (db instanceof HasDbStorage) {
-        try {
+        File file = new File(dbLocation);
+        try (Closeable lock = filesystem.lock(lockFile(dbLocation))) {
           DbStorage storage = ((HasDbStorage) db).getStorage();
-          filesystem.write(gson.toJson(storage), new File(dbLocation));
+          if (dbLocation.equals(db.location())) {
+            storage = union(readStorage(filesystem, file), storage);
+          }
+          File newFile = new File(dbLocation + ".new");
+          filesystem.write(gson.toJson(storage), newFile);
+          filesystem.move(newFile, file);
         } catch (IOException e) {
           throw new MoeProblem("I/O Error writing database: " + e.getMessage());
+        } catch (JsonParseException e) {
+          throw new MoeProblem("Could not parse MOE DB %s: %s", dbLocation, e.getMessage());
         }
       } else {
         throw new MoeProblem("Database does not support exporting its internal storage.");
@@ -130,16 +254,18 @@ public class FileDb implements Db, HasDbStorage {
     }
   }
 
-  /** An injectable Factory to produce {@link FileDb} instances. */
+  /**
+   * An injectable Factory to produce {@link FileDb} instances. Databases are read a record at a
+   * time by {@link DbStorageReader}, rather than all at once by Gson, so that a large one needn't
+   * be held in memory as text, and as a tree of JSON, as well as read.
+   */
   // TODO(cgruber) @AutoFactory?
   public static class Factory implements Db.Factory {
-    private final Gson gson;
     private final FileSystem filesystem;
 
     @Inject
-    public Factory(FileSystem filesystem, Gson gson) {
+    public Factory(FileSystem filesystem) {
       this.filesystem = filesystem;
-      this.gson = gson;
     }
 
     @Override
@@ -149,10 +275,9 @@ public class FileDb implements Db, HasDbStorage {
 
     public Db parseJson(String location, String dbText) throws InvalidProject {
       try {
-        DbStorage dbStorage = gson.fromJson(dbText, DbStorage.class);
-        return new FileDb(location, dbStorage);
-      } catch (JsonParseException e) {
-        throw new InvalidProject("Could not parse MOE DB: " + e.getMessage());
+        return read(location, new StringReader(dbText));
+      } catch (IOException e) {
+        throw new AssertionError(e); // A StringReader doesn't fail.
       }
     }
 
@@ -161,16 +286,26 @@ public class FileDb implements Db, HasDbStorage {
       if (location.equals("dummy")) {
         return new DummyDb(true);
       } else {
-        try {
-          if (filesystem.exists(new File(location))) {
-            String dbText = filesystem.fileToString(new File(location));
-            return parseJson(location, dbText);
-          } else {
-            return new FileDb(location, new DbStorage());
-          }
-        } catch (IOException e) {
-          throw new MoeProblem(e.getMessage());
-        }
+        return loadFile(location);
+      }
+    }
+
+    /** Loads the database in the file at the given location, or an empty one if there's none. */
+    public FileDb loadFile(String location) throws MoeProblem {
+      try {
+        return new FileDb(location, readStorage(filesystem, new File(location)));
+      } catch (IOException e) {
+        throw new MoeProblem(e.getMessage());
+      } catch (JsonParseException e) {
+        throw new InvalidProject("Could not parse MOE DB: " + e.getMessage());
+      }
+    }
+
+    private FileDb read(String location, Reader reader) throws IOException {
+      try {
+        return new FileDb(location, DbStorageReader.read(reader));
+      } catch (JsonParseException e) {
+        throw new InvalidProject("Could not parse MOE DB: " + e.getMessage());
       }
     }
   }
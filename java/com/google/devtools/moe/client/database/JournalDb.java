@@ -0,0 +1,319 @@
+/*
+ * Copyright (c) 2015 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.moe.client.database;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.io.FileWriteMode;
+import com.google.devtools.moe.client.FileSystem;
+import com.google.devtools.moe.client.MoeProblem;
+import com.google.devtools.moe.client.database.Db.HasDbStorage;
+import com.google.devtools.moe.client.project.InvalidProject;
+import com.google.devtools.moe.client.repositories.Revision;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+
+/**
+ * A MOE {@link Db} kept as a snapshot, in the JSON form {@link FileDb} reads and writes, and a
+ * journal of the equivalences and migrations noted since, one JSON record per line. Writing it
+ * appends only the newly noted records to the journal, rather than rewriting the whole database.
+ * Once the journal holds more than {@link #COMPACTION_THRESHOLD} records, they're folded into a
+ * new snapshot, which is written beside the old one and renamed over it, so that neither is ever
+ * seen partly written.
+ *
+ * <p>{@link Databases} keeps a database this way when its location ends in {@code .journal}:
+ * that file is the journal, and the snapshot is the file of the same name without the suffix. So
+ * an existing JSON database at {@code db.json} can be used as it is, as {@code db.json.journal}.
+ * Loading reads the snapshot and replays the journal. A record torn by a crash while appending is
+ * the journal's last, and is ignored, and the journal compacted when next written; a record
+ * replayed after a crash while compacting is already in the snapshot, and is ignored too.
+ */
+public class JournalDb implements Db, HasDbStorage {
+  /** The suffix of the locations of databases kept as journals. */
+  public static final String SUFFIX = ".journal";
+
+  /** The number of records the journal may hold before it's compacted into the snapshot. */
+  static final int COMPACTION_THRESHOLD = 1000;
+
+  private final String location;
+  private final FileDb db;
+  private final List<JournalRecord> unwritten = new ArrayList<>();
+
+  /** A line of the journal, holding an equivalence, a migration, or a bookkeeping watermark. */
+  private static final class JournalRecord {
+    RepositoryEquivalence equivalence;
+    SubmittedMigration migration;
+    String watermarkMigration;
+    Revision watermark;
+
+    static JournalRecord of(RepositoryEquivalence equivalence) {
+      JournalRecord record = new JournalRecord();
+      record.equivalence = equivalence;
+      return record;
+    }
+
+    static JournalRecord of(SubmittedMigration migration) {
+      JournalRecord record = new JournalRecord();
+      record.migration = migration;
+      return record;
+    }
+
+    static JournalRecord of(String watermarkMigration, Revision watermark) {
+      JournalRecord record = new JournalRecord();
+      record.watermarkMigration = watermarkMigration;
+      record.watermark = watermark;
+      return record;
+    }
+  }
+
+  JournalDb(String location, FileDb snapshot) {
+    this.location = location;
+    this.db = snapshot;
+  }
+
+  @Override
+  public String location() {
+    return location;
+  }
+
+  @Override
+  public void noteEquivalence(RepositoryEquivalence equivalence) {
+    if (db.addEquivalence(equivalence)) {
+      unwritten.add(JournalRecord.of(equivalence));
+    }
+  }
+
+  @Override
+  public Set<Revision> findEquivalences(Revision revision, String otherRepository) {
+    return db.findEquivalences(revision, otherRepository);
+  }
+
+  @Override
+  public boolean mightHaveEquivalences(Revision revision) {
+    return db.mightHaveEquivalences(revision);
+  }
+
+  @Override
+  public boolean noteMigration(SubmittedMigration migration) {
+    if (!db.noteMigration(migration)) {
+      return false;
+    }
+    unwritten.add(JournalRecord.of(migration));
+    return true;
+  }
+
+  @Override
+  @Nullable
+  public Revision findBookkeepingWatermark(String migrationName) {
+    return db.findBookkeepingWatermark(migrationName);
+  }
+
+  @Override
+  public void noteBookkeepingWatermark(String migrationName, Revision revision) {
+    if (db.getStorage().setBookkeepingWatermark(migrationName, revision)) {
+      unwritten.add(JournalRecord.of(migrationName, revision));
+    }
+  }
+
+  /**
+   * @return all Equivalences stored in the database
+   */
+  public Set<RepositoryEquivalence> getEquivalences() {
+    return db.getEquivalences();
+  }
+
+  /**
+   * @return all {@link SubmittedMigration} objects stored in the database
+   */
+  public Set<SubmittedMigration> getMigrations() {
+    return db.getMigrations();
+  }
+
+  @Override
+  public DbStorage getStorage() {
+    return db.getStorage();
+  }
+
+  private static File snapshotFile(String location) {
+    return new File(location.substring(0, location.length() - SUFFIX.length()));
+  }
+
+  /** An injectable Factory to produce {@link JournalDb} instances. */
+  public static class Factory implements Db.Factory {
+    private final FileSystem filesystem;
+    private final Gson gson;
+    private final FileDb.Factory fileDbFactory;
+
+    @Inject
+    public Factory(FileSystem filesystem, Gson gson, FileDb.Factory fileDbFactory) {
+      this.filesystem = filesystem;
+      this.gson = gson;
+      this.fileDbFactory = fileDbFactory;
+    }
+
+    @Override
+    public Db parseJson(String dbText) throws InvalidProject {
+      return fileDbFactory.parseJson(dbText);
+    }
+
+    @Override
+    public Db load(String location) throws MoeProblem {
+      Preconditions.checkArgument(location.endsWith(SUFFIX), "Not a journal: %s", location);
+      File journalFile = new File(location);
+      JournalDb db =
+          new JournalDb(location, fileDbFactory.loadFile(snapshotFile(location).getPath()));
+      if (filesystem.exists(journalFile)) {
+        try {
+          db.replay(gson, filesystem.fileToString(journalFile));
+        } catch (IOException e) {
+          throw new MoeProblem(e.getMessage());
+        }
+      }
+      return db;
+    }
+  }
+
+  private void replay(Gson gson, String journal) {
+    List<String> lines = Splitter.on('\n').splitToList(journal);
+    // The last "line" is empty, unless the last record was torn by a crash.
+    for (int i = 0; i < lines.size() - 1; i++) {
+      JournalRecord record;
+      try {
+        record = gson.fromJson(lines.get(i), JournalRecord.class);
+      } catch (JsonParseException e) {
+        throw new MoeProblem(
+            "Could not parse MOE DB journal %s at line %d: %s", location, i + 1, e.getMessage());
+      }
+      if (record != null && record.equivalence != null) {
+        db.addEquivalence(record.equivalence);
+      } else if (record != null && record.migration != null) {
+        db.noteMigration(record.migration);
+      } else if (record != null && record.watermark != null) {
+        db.noteBookkeepingWatermark(record.watermarkMigration, record.watermark);
+      } else {
+        throw new MoeProblem("Empty record in MOE DB journal %s at line %d", location, i + 1);
+      }
+    }
+  }
+
+  /**
+   * Writes a {@link JournalDb} by appending to its journal, and compacting it when it's grown
+   * long enough. Writes any other database implementing {@link HasDbStorage} to a journal's
+   * location as a new snapshot.
+   *
+   * <p>Either is done holding the snapshot's {@link FileDb#lockFile}, so that processes writing a
+   * database at once do so in turn. Whether to compact is decided by the journal on disk, which
+   * the others may have appended to, and compacting folds the journal on disk into the snapshot
+   * along with this database's records, so that theirs are kept.
+   */
+  public static class Writer implements Db.Writer {
+    private final FileSystem filesystem;
+    private final Gson gson;
+
+    @Inject
+    public Writer(FileSystem filesystem, Gson gson) {
+      this.filesystem = filesystem;
+      this.gson = gson;
+    }
+
+    @Override
+    public void write(Db db) {
+      writeToLocation(db.location(), db);
+    }
+
+    @Override
+    @SuppressWarnings("try") // The lock is only held, never referenced.
+    public void writeToLocation(String dbLocation, Db db) {
+      Preconditions.checkArgument(dbLocation.endsWith(SUFFIX), "Not a journal: %s", dbLocation);
+      if (!(db instanceof HasDbStorage)) {
+        throw new MoeProblem("Database does not support exporting its internal storage.");
+      }
+      File snapshotFile = snapshotFile(dbLocation);
+      try (Closeable lock = filesystem.lock(FileDb.lockFile(snapshotFile.getPath()))) {
+        if (db instanceof JournalDb && dbLocation.equals(db.location())) {
+          JournalDb journalDb = (JournalDb) db;
+          File journalFile = new File(dbLocation);
+          String journal =
+              filesystem.exists(journalFile) ? filesystem.fileToString(journalFile) : "";
+          int journalled = CharMatcher.is('\n').countIn(journal);
+          // Appending after a torn record would leave it in the middle of the journal.
+          boolean torn = !journal.isEmpty() && !journal.endsWith("\n");
+          if (torn || journalled + journalDb.unwritten.size() > COMPACTION_THRESHOLD) {
+            JournalDb stored =
+                new JournalDb(
+                    dbLocation,
+                    new FileDb(
+                        snapshotFile.getPath(), FileDb.readStorage(filesystem, snapshotFile)));
+            stored.replay(gson, journal);
+            compact(dbLocation, FileDb.union(stored.getStorage(), journalDb.getStorage()));
+          } else {
+            append(dbLocation, journalDb.unwritten);
+          }
+          journalDb.unwritten.clear();
+        } else {
+          compact(dbLocation, ((HasDbStorage) db).getStorage());
+        }
+      } catch (IOException e) {
+        throw new MoeProblem("I/O Error writing database: %s", e.getMessage());
+      } catch (JsonParseException e) {
+        throw new MoeProblem("Could not parse MOE DB %s: %s", snapshotFile, e.getMessage());
+      }
+    }
+
+    private void append(String dbLocation, List<JournalRecord> records) throws IOException {
+      if (records.isEmpty()) {
+        return;
+      }
+      StringBuilder lines = new StringBuilder();
+      for (JournalRecord record : records) {
+        StringWriter line = new StringWriter();
+        gson.toJson(record, JournalRecord.class, new JsonWriter(line));
+        lines.append(line).append('\n');
+      }
+      // Appended in one write, so that a crash can tear only the last record.
+      filesystem
+          .asByteSink(new File(dbLocation), FileWriteMode.APPEND)
+          .write(lines.toString().getBytes(UTF_8));
+    }
+
+    private void compact(String dbLocation, DbStorage storage) throws IOException {
+      File snapshotFile = snapshotFile(dbLocation);
+      File newSnapshotFile = new File(snapshotFile.getPath() + ".new");
+      filesystem.write(gson.toJson(storage), newSnapshotFile);
+      filesystem.move(newSnapshotFile, snapshotFile);
+      File journalFile = new File(dbLocation);
+      if (filesystem.exists(journalFile)) {
+        filesystem.deleteRecursively(journalFile);
+      }
+    }
+  }
+}
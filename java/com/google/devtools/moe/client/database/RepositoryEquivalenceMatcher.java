@@ -41,9 +41,14 @@ public class RepositoryEquivalenceMatcher
     this.db = db;
   }
 
+  /**
+   * Most revisions a search visits have no equivalence, so the database's quick test rules those
+   * out before any are looked up.
+   */
   @Override
   public boolean matches(Revision revision) {
-    return !db.findEquivalences(revision, repositoryName).isEmpty();
+    return db.mightHaveEquivalences(revision)
+        && !db.findEquivalences(revision, repositoryName).isEmpty();
   }
 
   @Override
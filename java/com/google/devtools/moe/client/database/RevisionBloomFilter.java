@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2015 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.moe.client.database;
+
+import com.google.devtools.moe.client.repositories.Revision;
+
+/**
+ * A Bloom filter of revisions: it may report a revision that was never added as present (about
+ * 1% of the time, if no more were added than it was sized for), but never one that was added as
+ * absent. It hashes a revision by its {@link Revision#hashCode}, so unlike Guava's
+ * {@link com.google.common.hash.BloomFilter}, checking one allocates nothing.
+ */
+final class RevisionBloomFilter {
+  /** Bits per expected revision, and hashes per revision, for a false positive rate of ~1%. */
+  private static final int BITS_PER_REVISION = 10;
+  private static final int HASHES = 7;
+
+  private final long[] bits;
+  private final int bitCount;
+
+  /** Creates an empty filter sized for the given number of revisions. */
+  RevisionBloomFilter(int expectedRevisions) {
+    long wanted = Math.max(64L, (long) BITS_PER_REVISION * expectedRevisions);
+    bits = new long[(int) Math.min((wanted + 63) / 64, Integer.MAX_VALUE / 64)];
+    bitCount = bits.length * 64;
+  }
+
+  void put(Revision revision) {
+    int hash1 = mix(revision.hashCode());
+    int hash2 = mix(hash1) | 1;
+    for (int i = 0; i < HASHES; i++) {
+      int bit = ((hash1 + i * hash2) & Integer.MAX_VALUE) % bitCount;
+      bits[bit >>> 6] |= 1L << bit;
+    }
+  }
+
+  boolean mightContain(Revision revision) {
+    int hash1 = mix(revision.hashCode());
+    int hash2 = mix(hash1) | 1;
+    for (int i = 0; i < HASHES; i++) {
+      int bit = ((hash1 + i * hash2) & Integer.MAX_VALUE) % bitCount;
+      if ((bits[bit >>> 6] & (1L << bit)) == 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Spreads a hash's bits, as the finalizer of murmur3 does. */
+  private static int mix(int hash) {
+    hash ^= hash >>> 16;
+    hash *= 0x85ebca6b;
+    hash ^= hash >>> 13;
+    hash *= 0xc2b2ae35;
+    hash ^= hash >>> 16;
+    return hash;
+  }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2015 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.moe.client.directives;
+
+import com.google.devtools.moe.client.Ui;
+import com.google.devtools.moe.client.database.DbCompactor;
+import com.google.devtools.moe.client.project.ProjectContextFactory;
+
+import org.kohsuke.args4j.Option;
+
+import javax.inject.Inject;
+
+/**
+ * Prunes a MOE database of all but the most recent equivalences between each pair of
+ * repositories, archiving the rest beside it.
+ */
+public class CompactDbDirective extends Directive {
+  @Option(name = "--db", required = true, usage = "Location of MOE database")
+  String dbLocation = "";
+
+  @Option(
+    name = "--keep",
+    usage = "Number of the newest equivalences to keep between each pair of repositories"
+  )
+  int keep = 10;
+
+  private final DbCompactor compactor;
+  private final Ui ui;
+
+  @Inject
+  CompactDbDirective(ProjectContextFactory contextFactory, DbCompactor compactor, Ui ui) {
+    super(contextFactory); // TODO(cgruber) Inject project context, not its factory
+    this.compactor = compactor;
+    this.ui = ui;
+  }
+
+  @Override
+  protected int performDirectiveBehavior() {
+    int archived = compactor.compact(dbLocation, keep);
+    ui.info(
+        "Archived %d equivalences to %s", archived, dbLocation + DbCompactor.ARCHIVE_SUFFIX);
+    return 0;
+  }
+
+  @Override
+  public String getDescription() {
+    return "Archives all but the newest equivalences in a database";
+  }
+}
@@ -71,6 +71,12 @@ public class DirectivesModule {
     return directive;
   }
 
+  @Provides(type = MAP)
+  @StringKey("compact_db")
+  static Directive compactDb(CompactDbDirective directive) {
+    return directive;
+  }
+
   @Provides(type = MAP)
   @StringKey("diff_codebases")
   static Directive diffCodebases(DiffCodebasesDirective directive) {
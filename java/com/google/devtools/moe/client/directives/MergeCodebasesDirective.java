@@ -16,12 +16,12 @@
 
 package com.google.devtools.moe.client.directives;
 
-import com.google.devtools.moe.client.CommandRunner;
 import com.google.devtools.moe.client.FileSystem;
 import com.google.devtools.moe.client.Ui;
 import com.google.devtools.moe.client.codebase.Codebase;
 import com.google.devtools.moe.client.codebase.CodebaseCreationError;
 import com.google.devtools.moe.client.codebase.CodebaseMerger;
+import com.google.devtools.moe.client.options.OptionsParser;
 import com.google.devtools.moe.client.parser.Parser;
 import com.google.devtools.moe.client.parser.Parser.ParseError;
 import com.google.devtools.moe.client.project.ProjectContextFactory;
@@ -59,7 +59,7 @@ public class MergeCodebasesDirective extends Directive {
   private final FileDiffer differ;
   private final Ui ui;
   private final FileSystem filesystem;
-  private final CommandRunner cmd;
+  private final OptionsParser options;
 
   @Inject
   MergeCodebasesDirective(
@@ -67,12 +67,12 @@ public class MergeCodebasesDirective extends Directive {
       FileDiffer differ,
       Ui ui,
       FileSystem filesystem,
-      CommandRunner cmd) {
+      OptionsParser options) {
     super(contextFactory); // TODO(cgruber) Inject project context, not its factory
     this.differ = differ;
     this.ui = ui;
     this.filesystem = filesystem;
-    this.cmd = cmd;
+    this.options = options;
   }
 
   @Override
@@ -90,7 +90,13 @@ public class MergeCodebasesDirective extends Directive {
       return 1;
     }
     new CodebaseMerger(
-            ui, filesystem, cmd, differ, originalCodebase, destinationCodebase, modifiedCodebase)
+            ui,
+            filesystem,
+            differ,
+            options.jobs(),
+            originalCodebase,
+            destinationCodebase,
+            modifiedCodebase)
         .merge();
     return 0;
   }
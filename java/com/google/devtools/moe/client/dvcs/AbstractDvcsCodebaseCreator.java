@@ -16,12 +16,10 @@
 
 package com.google.devtools.moe.client.dvcs;
 
-import com.google.common.base.Predicate;
 import com.google.common.base.Strings;
 import com.google.common.base.Supplier;
 import com.google.devtools.moe.client.CommandRunner;
 import com.google.devtools.moe.client.FileSystem;
-import com.google.devtools.moe.client.Utils;
 import com.google.devtools.moe.client.codebase.Codebase;
 import com.google.devtools.moe.client.codebase.CodebaseCreationError;
 import com.google.devtools.moe.client.codebase.CodebaseCreator;
@@ -93,11 +91,6 @@ public abstract class AbstractDvcsCodebaseCreator implements CodebaseCreator {
       archiveLocation = headClone.archiveAtRevision(null);
     }
 
-    // Filter files in the codebase by RepositoryConfig#ignoreFileRes.
-    Predicate<CharSequence> nonIgnoredFilePred =
-        Utils.nonMatchingPredicateFromRes(headClone.getConfig().getIgnoreFilePatterns());
-    Utils.filterFiles(archiveLocation, nonIgnoredFilePred);
-
     return new Codebase(
         filesystem,
         archiveLocation,
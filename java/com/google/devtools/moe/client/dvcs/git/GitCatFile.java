@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2015 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.moe.client.dvcs.git;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Closeables;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.ProcessBuilder.Redirect;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+/**
+ * A long-lived 'git cat-file --batch' process, through which objects are read from a repository
+ * without forking git for each one. The process is started on first use, and started again if
+ * it has died since.
+ */
+class GitCatFile implements Closeable {
+
+  /** An object read from a git repository. */
+  static final class GitObject {
+    /** The object's full hash ID. */
+    final String hash;
+    /** The object's type, e.g. "commit" or "blob". */
+    final String type;
+    /** The object's raw content. */
+    final byte[] content;
+
+    GitObject(String hash, String type, byte[] content) {
+      this.hash = hash;
+      this.type = type;
+      this.content = content;
+    }
+  }
+
+  private final File repositoryDirectory;
+
+  private Process process;
+  private OutputStream requests;
+  private InputStream responses;
+
+  GitCatFile(File repositoryDirectory) {
+    this.repositoryDirectory = repositoryDirectory;
+  }
+
+  /**
+   * Reads an object from the repository.
+   *
+   * @param objectName  the object to read, named in any way 'git rev-parse' understands, e.g.
+   *     "HEAD^{commit}"
+   * @return the object, or null if the repository has no (unambiguous) object of that name
+   * @throws IOException if the object couldn't be read, even by a freshly started process
+   */
+  @Nullable
+  synchronized GitObject read(String objectName) throws IOException {
+    Preconditions.checkArgument(
+        objectName.indexOf('\n') < 0, "Object name contains a newline: %s", objectName);
+    if (process != null) {
+      try {
+        return query(objectName);
+      } catch (IOException e) {
+        // The process has most likely died. Either way, its output can't be trusted any more.
+        close();
+      }
+    }
+    start();
+    try {
+      return query(objectName);
+    } catch (IOException e) {
+      close();
+      throw e;
+    }
+  }
+
+  /** Stops the process, if running. The next {@link #read} will start another. */
+  @Override
+  public synchronized void close() {
+    if (process != null) {
+      try {
+        Closeables.close(requests, true /* swallowIOException */);
+      } catch (IOException impossible) {
+        throw new AssertionError(impossible);
+      }
+      Closeables.closeQuietly(responses);
+      process.destroy();
+      process = null;
+    }
+  }
+
+  @VisibleForTesting
+  synchronized Process process() {
+    return process;
+  }
+
+  private void start() throws IOException {
+    process =
+        new ProcessBuilder("git", "cat-file", "--batch")
+            .directory(repositoryDirectory)
+            .redirectError(Redirect.INHERIT)
+            .start();
+    requests = new BufferedOutputStream(process.getOutputStream());
+    responses = new BufferedInputStream(process.getInputStream());
+  }
+
+  private GitObject query(String objectName) throws IOException {
+    requests.write((objectName + "\n").getBytes(UTF_8));
+    requests.flush();
+
+    // Either "<hash> <type> <size>", or "<objectName> missing" or "<objectName> ambiguous".
+    String header = readLine();
+    if (header.endsWith(" missing") || header.endsWith(" ambiguous")) {
+      return null;
+    }
+    List<String> fields = Splitter.on(' ').splitToList(header);
+    if (fields.size() != 3) {
+      throw new IOException("Unexpected output from git cat-file: " + header);
+    }
+    byte[] content = new byte[Integer.parseInt(fields.get(2))];
+    ByteStreams.readFully(responses, content);
+    if (responses.read() != '\n') {
+      throw new IOException("Unterminated object from git cat-file: " + header);
+    }
+    return new GitObject(fields.get(0), fields.get(1), content);
+  }
+
+  private String readLine() throws IOException {
+    ByteArrayOutputStream line = new ByteArrayOutputStream(64);
+    for (int b = responses.read(); b != '\n'; b = responses.read()) {
+      if (b == -1) {
+        throw new EOFException("git cat-file exited unexpectedly in " + repositoryDirectory);
+      }
+      line.write(b);
+    }
+    return new String(line.toByteArray(), UTF_8);
+  }
+}
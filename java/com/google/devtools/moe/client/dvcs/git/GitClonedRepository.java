@@ -17,6 +17,7 @@
 package com.google.devtools.moe.client.dvcs.git;
 
 import com.google.common.base.Optional;
+import com.google.common.base.Predicate;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
@@ -26,11 +27,17 @@ import com.google.devtools.moe.client.FileSystem;
 import com.google.devtools.moe.client.FileSystem.Lifetime;
 import com.google.devtools.moe.client.Lifetimes;
 import com.google.devtools.moe.client.MoeProblem;
+import com.google.devtools.moe.client.TarExtractor;
+import com.google.devtools.moe.client.Utils;
 import com.google.devtools.moe.client.codebase.LocalWorkspace;
+import com.google.devtools.moe.client.dvcs.git.GitCatFile.GitObject;
 import com.google.devtools.moe.client.project.RepositoryConfig;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+
+import javax.annotation.Nullable;
 
 /**
  * Git implementation of {@link LocalWorkspace}, i.e. a 'git clone' to local disk.
@@ -54,11 +61,21 @@ public class GitClonedRepository implements LocalWorkspace {
    * the same as repositoryConfig.getUrl(). Otherwise, it will.
    */
   private final String repositoryUrl;
+  /** A local repository to borrow objects from rather than fetch them, or null if none. */
+  @Nullable private final File referenceRepository;
+  /** Whether this is a read-only view of a bare mirror, rather than a clone of its own. */
+  private final boolean mirrored;
+  /** What this clone calls the head of its branch. */
+  private final String headRef;
 
   private File localCloneTempDir;
+  /** How long this clone is kept, which its cat-file process mustn't outlive. */
+  private Lifetime lifetime;
   private boolean clonedLocally;
   /** The revision of this clone, a Git hash ID */
   private String revId;
+  /** Reads objects from this clone, started on first use. */
+  private GitCatFile catFile;
 
   GitClonedRepository(
       CommandRunner cmd,
@@ -74,14 +91,71 @@ public class GitClonedRepository implements LocalWorkspace {
       String repositoryName,
       RepositoryConfig repositoryConfig,
       String repositoryUrl) {
+    this(cmd, filesystem, repositoryName, repositoryConfig, repositoryUrl, null);
+  }
+
+  /**
+   * Creates a clone-to-be which, when cloned, borrows what objects it can from the given local
+   * repository (such as a {@link GitMirrorCache mirror}) rather than fetching them.
+   */
+  GitClonedRepository(
+      CommandRunner cmd,
+      FileSystem filesystem,
+      String repositoryName,
+      RepositoryConfig repositoryConfig,
+      String repositoryUrl,
+      @Nullable File referenceRepository) {
     this.cmd = cmd;
     this.filesystem = filesystem;
     this.repositoryName = repositoryName;
     this.repositoryConfig = repositoryConfig;
     this.repositoryUrl = repositoryUrl;
+    this.referenceRepository = referenceRepository;
+    this.mirrored = false;
+    this.headRef = "HEAD";
     this.clonedLocally = false;
   }
 
+  /** Creates a read-only view of a bare mirror of the configured repository. */
+  private GitClonedRepository(
+      CommandRunner cmd,
+      FileSystem filesystem,
+      String repositoryName,
+      RepositoryConfig repositoryConfig,
+      File mirror,
+      Lifetime lifetime) {
+    this.cmd = cmd;
+    this.filesystem = filesystem;
+    this.repositoryName = repositoryName;
+    this.repositoryConfig = repositoryConfig;
+    this.repositoryUrl = repositoryConfig.getUrl();
+    this.referenceRepository = null;
+    this.mirrored = true;
+    // A mirror's HEAD is the remote's default branch, so name the configured branch instead.
+    Optional<String> branchName = repositoryConfig.getBranch();
+    this.headRef = branchName.isPresent() ? "refs/heads/" + branchName.get() : "HEAD";
+    this.localCloneTempDir = mirror;
+    this.lifetime = lifetime;
+    this.clonedLocally = true;
+    this.revId = headRef;
+  }
+
+  /**
+   * Returns a view of the given bare mirror of the configured repository, which reads history and
+   * archives revisions directly from the mirror, but can't be updated or written to. Any process
+   * it keeps running in the mirror is stopped when the given {@code Lifetime} ends.
+   */
+  static GitClonedRepository atMirror(
+      CommandRunner cmd,
+      FileSystem filesystem,
+      String repositoryName,
+      RepositoryConfig repositoryConfig,
+      File mirror,
+      Lifetime lifetime) {
+    return new GitClonedRepository(
+        cmd, filesystem, repositoryName, repositoryConfig, mirror, lifetime);
+  }
+
   @Override
   public String getRepositoryName() {
     return repositoryName;
@@ -102,12 +176,14 @@ public class GitClonedRepository implements LocalWorkspace {
   @Override
   public void cloneLocallyAtHead(Lifetime cloneLifetime) {
     Preconditions.checkState(!clonedLocally);
+    Preconditions.checkState(!mirrored);
 
     Optional<String> branchName = repositoryConfig.getBranch();
     String tempDirName = branchName.isPresent()
         ? "git_clone_" + repositoryName + "_" + branchName.get() + "_"
         : "git_clone_" + repositoryName + "_";
     localCloneTempDir = filesystem.getTemporaryDirectory(tempDirName, cloneLifetime);
+    lifetime = cloneLifetime;
 
     try {
       ImmutableList.Builder<String> cloneArgs = ImmutableList.<String>builder();
@@ -115,6 +191,9 @@ public class GitClonedRepository implements LocalWorkspace {
       if (branchName.isPresent()) {
         cloneArgs.add("--branch", branchName.get());
       }
+      if (referenceRepository != null) {
+        cloneArgs.add("--reference", referenceRepository.getAbsolutePath());
+      }
       GitRepositoryFactory.runGitCommand(cloneArgs.build(), "" /*workingDirectory*/);
       clonedLocally = true;
       this.revId = "HEAD";
@@ -126,6 +205,7 @@ public class GitClonedRepository implements LocalWorkspace {
   @Override
   public void updateToRevision(String revId) {
     Preconditions.checkState(clonedLocally);
+    Preconditions.checkState(!mirrored, "Can't update a git mirror to a revision");
     Preconditions.checkState("HEAD".equals(this.revId));
     try {
       String headHash = runGitCommand("rev-parse", "HEAD").trim();
@@ -144,42 +224,32 @@ public class GitClonedRepository implements LocalWorkspace {
   @Override
   public File archiveAtRevision(String revId) {
     Preconditions.checkState(clonedLocally);
+    String treeish = Strings.isNullOrEmpty(revId) ? headRef : revId;
     if (Strings.isNullOrEmpty(revId)) {
       revId = "HEAD";
     }
     File archiveLocation =
         filesystem.getTemporaryDirectory(
             String.format("git_archive_%s_%s_", repositoryName, revId), Lifetimes.currentTask());
-    // Using this just to get a filename.
-    String tarballPath =
-        filesystem
-            .getTemporaryDirectory(
-                String.format("git_tarball_%s_%s.tar.", repositoryName, revId),
-                Lifetimes.currentTask())
-            .getAbsolutePath();
+    // Files the config ignores are skipped as the archive is extracted, rather than deleted after.
+    final Predicate<CharSequence> nonIgnoredFilePred =
+        Utils.nonMatchingPredicateFromRes(repositoryConfig.getIgnoreFilePatterns());
+    final File extractTo = archiveLocation;
     try {
-
-      // Git doesn't support archiving to a directory: it only supports
-      // archiving to a tar.  The fastest way to do this would be to pipe the
-      // output directly into tar, however, there's no option for that using
-      // the classes we have. (michaelpb)
-      runGitCommand("archive", "--format=tar", "--output=" + tarballPath, revId);
-
-      // Make the directory to untar into
       filesystem.makeDirs(archiveLocation);
-
-      // Untar the tarball we just made
-      cmd.runCommand(
-          "tar",
-          ImmutableList.<String>of("xf", tarballPath, "-C", archiveLocation.getAbsolutePath()),
-          "");
-
-    } catch (CommandException e) {
-      throw new MoeProblem(
-          "Could not archive git clone at "
-              + localCloneTempDir.getAbsolutePath()
-              + ": "
-              + e.stderr);
+      // Git can only archive to a tar, so rather than have it write one for tar to unpack,
+      // unpack its output as it's written.
+      cmd.runCommandStreaming(
+          "git",
+          ImmutableList.of("archive", "--format=tar", treeish),
+          getLocalTempDir().getAbsolutePath(),
+          new CommandRunner.OutputHandler<Void>() {
+            @Override
+            public Void handleOutput(InputStream tar) throws IOException {
+              TarExtractor.extract(tar, extractTo, nonIgnoredFilePred);
+              return null;
+            }
+          });
     } catch (IOException e) {
       throw new MoeProblem(
           "IOException archiving clone at "
@@ -188,10 +258,21 @@ public class GitClonedRepository implements LocalWorkspace {
               + revId
               + ": "
               + e);
+    } catch (CommandException e) {
+      throw new MoeProblem(
+          "Could not archive git clone at %s: %s", localCloneTempDir.getAbsolutePath(), e.stderr);
     }
     return archiveLocation;
   }
 
+  /**
+   * Returns what this clone calls the head of its configured branch: HEAD for a clone of its own,
+   * or the branch's ref in a mirror.
+   */
+  String headRef() {
+    return headRef;
+  }
+
   /**
    * Runs a git command with the given arguments, in this cloned repository's directory.
    *
@@ -204,4 +285,26 @@ public class GitClonedRepository implements LocalWorkspace {
         ImmutableList.copyOf(args),
         getLocalTempDir().getAbsolutePath() /*workingDirectory*/);
   }
+
+  /**
+   * Reads an object from this cloned repository, through a git process kept running for the life
+   * of this clone rather than forking git for each object. The process is stopped when the clone's
+   * {@code Lifetime} ends, before its temp dir is deleted.
+   *
+   * @param objectName  the object to read, named in any way 'git rev-parse' understands
+   * @return the object, or null if there is no such object
+   */
+  @Nullable
+  synchronized GitObject readObject(String objectName) {
+    if (catFile == null) {
+      catFile = new GitCatFile(getLocalTempDir());
+      filesystem.closeOnCleanUp(lifetime, catFile);
+    }
+    try {
+      return catFile.read(objectName);
+    } catch (IOException e) {
+      throw new MoeProblem(
+          "Could not read %s from git repo at %s: %s", objectName, localCloneTempDir, e);
+    }
+  }
 }
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2015 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.moe.client.dvcs.git;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hashing;
+import com.google.devtools.moe.client.CommandRunner;
+import com.google.devtools.moe.client.CommandRunner.CommandException;
+import com.google.devtools.moe.client.FileSystem;
+import com.google.devtools.moe.client.MoeProblem;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+/**
+ * A directory of bare mirrors of git repositories, one per URL, kept across runs of MOE so that
+ * each run need only fetch what's new rather than clone each repository afresh. A mirror is
+ * fetched at most once per run, the first time it's asked for, holding a lock beside it so that
+ * concurrent runs don't fetch into it at once.
+ */
+public class GitMirrorCache {
+  private final CommandRunner cmd;
+  private final FileSystem filesystem;
+  @Nullable private final File directory;
+  /** The URLs whose mirrors have been brought up to date in this run. */
+  private final Set<String> fetched = new HashSet<>();
+
+  /**
+   * Creates a cache of mirrors in the given directory, or one which mirrors nothing if it's null.
+   */
+  public GitMirrorCache(CommandRunner cmd, FileSystem filesystem, @Nullable File directory) {
+    this.cmd = cmd;
+    this.filesystem = filesystem;
+    this.directory = directory;
+  }
+
+  /** Returns whether this cache keeps mirrors, or else repositories should be cloned as ever. */
+  public boolean isEnabled() {
+    return directory != null;
+  }
+
+  /**
+   * Returns the bare mirror of the repository at the given URL, cloning it if there's none yet,
+   * or else, the first time in this run, fetching into it.
+   */
+  @SuppressWarnings("try") // The lock is only held, never referenced.
+  public synchronized File mirror(String url) {
+    Preconditions.checkState(isEnabled(), "No git mirror directory is configured");
+    File mirror = new File(directory, Hashing.sha1().hashString(url, UTF_8) + ".git");
+    if (fetched.contains(url)) {
+      return mirror;
+    }
+    try {
+      filesystem.makeDirs(directory);
+      try (Closeable lock = filesystem.lock(new File(mirror.getPath() + ".lock"))) {
+        if (filesystem.exists(mirror)) {
+          cmd.runCommand(
+              "git", ImmutableList.of("fetch", "--prune", "origin"), mirror.getAbsolutePath());
+        } else {
+          // Cloned beside the mirror and moved into place, so an interrupted clone isn't mistaken
+          // for a mirror by a later run.
+          File partial = new File(mirror.getPath() + ".new");
+          if (filesystem.exists(partial)) {
+            filesystem.deleteRecursively(partial);
+          }
+          cmd.runCommand(
+              "git", ImmutableList.of("clone", "--mirror", url, partial.getAbsolutePath()), "");
+          filesystem.move(partial, mirror);
+        }
+      }
+    } catch (CommandException e) {
+      throw new MoeProblem("Could not mirror git repo at %s: %s", url, e.stderr);
+    } catch (IOException e) {
+      throw new MoeProblem("Could not mirror git repo at %s in %s: %s", url, directory, e);
+    }
+    fetched.add(url);
+    return mirror;
+  }
+}
@@ -38,11 +38,13 @@ import javax.inject.Inject;
 public class GitRepositoryFactory implements RepositoryType.Factory {
   private final CommandRunner cmd;
   private final FileSystem filesystem;
+  private final GitMirrorCache mirrors;
 
   @Inject
-  GitRepositoryFactory(CommandRunner cmd, FileSystem filesystem) {
+  GitRepositoryFactory(CommandRunner cmd, FileSystem filesystem, GitMirrorCache mirrors) {
     this.cmd = cmd;
     this.filesystem = filesystem;
+    this.mirrors = mirrors;
   }
 
   @Override
@@ -69,19 +71,31 @@ public class GitRepositoryFactory implements RepositoryType.Factory {
         new Supplier<GitClonedRepository>() {
           @Override
           public GitClonedRepository get() {
-            GitClonedRepository headClone = new GitClonedRepository(cmd, filesystem, name, config);
+            // With a mirror at hand, a writer's clone borrows its objects rather than fetch them.
+            GitClonedRepository headClone =
+                new GitClonedRepository(
+                    cmd,
+                    filesystem,
+                    name,
+                    config,
+                    url,
+                    mirrors.isEnabled() ? mirrors.mirror(url) : null);
             headClone.cloneLocallyAtHead(Lifetimes.currentTask());
             return headClone;
           }
         };
 
     // RevisionHistory and CodebaseCreator don't modify their clones, so they can use a shared,
-    // memoized supplier.
+    // memoized supplier, or read the mirror directly if there is one.
     Supplier<GitClonedRepository> memoizedSupplier =
         Suppliers.memoize(
             new Supplier<GitClonedRepository>() {
               @Override
               public GitClonedRepository get() {
+                if (mirrors.isEnabled()) {
+                  return GitClonedRepository.atMirror(
+                      cmd, filesystem, name, config, mirrors.mirror(url), Lifetimes.moeExecution());
+                }
                 GitClonedRepository tipClone =
                     new GitClonedRepository(cmd, filesystem, name, config);
                 tipClone.cloneLocallyAtHead(Lifetimes.moeExecution());
@@ -16,34 +16,39 @@
 
 package com.google.devtools.moe.client.dvcs.git;
 
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
 import com.google.common.annotations.VisibleForTesting;
-import com.google.common.base.Joiner;
 import com.google.common.base.Splitter;
 import com.google.common.base.Strings;
 import com.google.common.base.Supplier;
 import com.google.common.collect.ImmutableList;
-import com.google.devtools.moe.client.CommandRunner.CommandException;
 import com.google.devtools.moe.client.MoeProblem;
+import com.google.devtools.moe.client.dvcs.git.GitCatFile.GitObject;
 import com.google.devtools.moe.client.repositories.AbstractRevisionHistory;
 import com.google.devtools.moe.client.repositories.Revision;
 import com.google.devtools.moe.client.repositories.RevisionMetadata;
 
 import org.joda.time.DateTime;
-import org.joda.time.format.DateTimeFormat;
-import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.DateTimeZone;
 
+import java.nio.charset.Charset;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
- * A Git implementation of {@link AbstractRevisionHistory}.
+ * A Git implementation of {@link AbstractRevisionHistory}. Commits are read through the clone's
+ * long-lived 'git cat-file' process, so searching history doesn't fork git for each revision.
  */
 public class GitRevisionHistory extends AbstractRevisionHistory {
 
-  // Like ISO 8601 format, but without the 'T' character
-  private static final DateTimeFormatter GIT_DATE_FMT =
-      DateTimeFormat.forPattern("yyyy-MM-dd HH:mm:ss Z");
-
-  @VisibleForTesting static final String LOG_DELIMITER = "---@MOE@---";
+  // e.g. "author A. U. Thor <author@example.com> 1341838800 -0700"
+  private static final Pattern AUTHOR_HEADER =
+      Pattern.compile("author (.*?) ?<[^>]*> (\\d+) ([+-])(\\d\\d)(\\d\\d)");
+  private static final Pattern ENCODING_HEADER = Pattern.compile("\nencoding (\\S+)\n");
 
   private final Supplier<GitClonedRepository> headCloneSupplier;
 
@@ -52,32 +57,31 @@ public class GitRevisionHistory extends AbstractRevisionHistory {
   }
 
   /**
-   * Confirm the existence of the given hash ID via 'git log', or pull the most recent
-   * hash ID if none is given.
+   * Confirm the existence of the given hash ID, or find the most recent hash ID if none is given.
    *
    * @param revId a revision ID (or the name of a branch)
    * @return a Revision corresponding to the given revId hash
    */
   @Override
   public Revision findHighestRevision(String revId) {
-    if (Strings.isNullOrEmpty(revId)) {
-      revId = "HEAD";
+    GitClonedRepository headClone = headCloneSupplier.get();
+    if (Strings.isNullOrEmpty(revId) || "HEAD".equals(revId)) {
+      revId = headClone.headRef();
     }
 
-    String hashID;
-    GitClonedRepository headClone = headCloneSupplier.get();
-    try {
-      hashID = headClone.runGitCommand("log", "--max-count=1", "--format=%H", revId).trim();
-    } catch (CommandException e) {
-      throw new MoeProblem("Failed git log run: %d %s %s", e.returnStatus, e.stdout, e.stderr);
+    GitObject commit = headClone.readObject(revId + "^{commit}");
+    if (commit == null) {
+      throw new MoeProblem(
+          "Could not find revision %s in git repo %s", revId, headClone.getRepositoryName());
     }
-    return Revision.create(hashID, headClone.getRepositoryName());
+    return Revision.create(commit.hash, headClone.getRepositoryName());
   }
 
   /**
    * Read the metadata for a given revision in the same repository.
    *
    * @param revision  the revision to parse metadata for
+   * @return the revision's metadata, or null if there is no such revision
    */
   @Override
   public RevisionMetadata getMetadata(Revision revision) {
@@ -90,52 +94,75 @@ public class GitRevisionHistory extends AbstractRevisionHistory {
           headClone.getRepositoryName());
     }
 
-    // Format: hash, author, ISO date, parents, full commit message (subject and body)
-    String format = Joiner.on(LOG_DELIMITER).join("%H", "%an", "%ai", "%P", "%B");
-
-    String log;
-    try {
-      log =
-          headClone.runGitCommand(
-              "log",
-              // Ensure one revision only, to be safe.
-              "--max-count=1",
-              "--format=" + format,
-              "--ignore-missing",
-              revision.revId());
-    } catch (CommandException e) {
-      throw new MoeProblem("Failed git run: %d %s %s", e.returnStatus, e.stdout, e.stderr);
+    GitObject commit = headClone.readObject(revision.revId() + "^{commit}");
+    if (commit == null) {
+      return null;
     }
+    return parseMetadata(commit.hash, decode(commit.content));
+  }
 
-    return parseMetadata(log);
+  /**
+   * Decodes a raw commit object, in the encoding named by its header if any, or else UTF-8.
+   */
+  private static String decode(byte[] commit) {
+    // Headers are ASCII, so can be searched before the encoding is known.
+    String raw = new String(commit, ISO_8859_1);
+    int headersEnd = raw.indexOf("\n\n");
+    Matcher encoding =
+        ENCODING_HEADER.matcher(headersEnd < 0 ? raw : raw.substring(0, headersEnd + 1));
+    if (encoding.find() && Charset.isSupported(encoding.group(1))) {
+      return new String(commit, Charset.forName(encoding.group(1)));
+    }
+    return new String(commit, UTF_8);
   }
 
   /**
-   * Parse the output of Git into RevisionMetadata.
+   * Parse a raw Git commit object into RevisionMetadata.
    *
-   * @param log  the output of getMetadata to parse
+   * @param hash  the commit's hash ID
+   * @param commit  the commit object, as read by 'git cat-file'
    */
   @VisibleForTesting
-  RevisionMetadata parseMetadata(String log) {
-    if (Strings.isNullOrEmpty(log.trim())) {
-      return null;
-    }
-    // Split on the log delimiter. Limit to 5 so that it will act correctly
-    // even if the log delimiter happens to be in the commit message.
-    List<String> split = Splitter.on(LOG_DELIMITER).limit(5).splitToList(log);
+  RevisionMetadata parseMetadata(String hash, String commit) {
+    int headersEnd = commit.indexOf("\n\n");
+    String headers = (headersEnd < 0) ? commit : commit.substring(0, headersEnd);
+    String message = (headersEnd < 0) ? "" : commit.substring(headersEnd + 2);
 
-    // The fourth item contains all of the parents, each separated by a space.
+    String author = null;
+    DateTime date = null;
     ImmutableList.Builder<Revision> parentBuilder = ImmutableList.<Revision>builder();
-    for (String parent : Splitter.on(' ').omitEmptyStrings().split(split.get(3))) {
-      parentBuilder.add(Revision.create(parent, headCloneSupplier.get().getRepositoryName()));
+    // Continuation lines of multi-line headers (e.g. gpgsig) begin with a space, so are skipped.
+    for (String header : Splitter.on('\n').split(headers)) {
+      if (header.startsWith("parent ")) {
+        parentBuilder.add(
+            Revision.create(
+                header.substring("parent ".length()),
+                headCloneSupplier.get().getRepositoryName()));
+      } else if (header.startsWith("author ")) {
+        Matcher m = AUTHOR_HEADER.matcher(header);
+        if (!m.matches()) {
+          throw new MoeProblem("Could not parse git commit %s: %s", hash, header);
+        }
+        author = m.group(1);
+        int offsetMinutes = Integer.parseInt(m.group(4)) * 60 + Integer.parseInt(m.group(5));
+        date =
+            new DateTime(
+                TimeUnit.SECONDS.toMillis(Long.parseLong(m.group(2))),
+                DateTimeZone.forOffsetMillis(
+                    (m.group(3).equals("-") ? -1 : 1)
+                        * (int) TimeUnit.MINUTES.toMillis(offsetMinutes)));
+      }
+    }
+    if (author == null) {
+      throw new MoeProblem("Could not parse git commit %s: no author", hash);
     }
 
-    DateTime date = GIT_DATE_FMT.parseDateTime(split.get(2));
     return new RevisionMetadata(
-        split.get(0), // id
-        split.get(1), // author
+        hash, // id
+        author,
         date,
-        split.get(4), // description
+        // As printed by 'git log --format=%B', which ends the message with another newline.
+        message + "\n", // description
         parentBuilder.build()); // parents
   }
 
@@ -28,6 +28,7 @@ import com.google.devtools.moe.client.FileSystem;
 import com.google.devtools.moe.client.FileSystem.Lifetime;
 import com.google.devtools.moe.client.Lifetimes;
 import com.google.devtools.moe.client.MoeProblem;
+import com.google.devtools.moe.client.Utils;
 import com.google.devtools.moe.client.codebase.LocalWorkspace;
 import com.google.devtools.moe.client.project.RepositoryConfig;
 
@@ -151,6 +152,9 @@ public class HgClonedRepository implements LocalWorkspace {
       }
       HgRepositoryFactory.runHgCommand(archiveArgs.build(), localCloneTempDir.getAbsolutePath());
       filesystem.deleteRecursively(new File(archiveLocation, ".hg_archival.txt"));
+      Utils.filterFiles(
+          archiveLocation,
+          Utils.nonMatchingPredicateFromRes(repositoryConfig.getIgnoreFilePatterns()));
     } catch (CommandException e) {
       throw new MoeProblem(
           "Could not archive hg clone at " + localCloneTempDir.getAbsolutePath() + ": " + e.stderr);
@@ -31,7 +31,9 @@ import org.joda.time.DateTime;
 import org.joda.time.format.DateTimeFormat;
 import org.joda.time.format.DateTimeFormatter;
 
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -44,6 +46,15 @@ public class HgRevisionHistory extends AbstractRevisionHistory {
   private static final DateTimeFormatter HG_DATE_FMT =
       DateTimeFormat.forPattern("yyyy-MM-dd HH:mm Z");
 
+  // Format output as "changesetID < author < date < description < parents".
+  // Since parents is a list, need to use stringify before applying another filter.
+  private static final String METADATA_TEMPLATE =
+      "{node|escape} < {author|escape} < {date|isodate|escape} < "
+          + "{desc|escape} < {parents|stringify|escape}";
+
+  // Ends each entry in a page of log output. Every field is escaped, so cannot contain it.
+  private static final char ENTRY_TERMINATOR = '>';
+
   private final Supplier<HgClonedRepository> tipCloneSupplier;
 
   HgRevisionHistory(Supplier<HgClonedRepository> tipCloneSupplier) {
@@ -105,10 +116,7 @@ public class HgRevisionHistory extends AbstractRevisionHistory {
             "--rev=" + revision.revId(),
             // Ensure one revision only, to be safe.
             "--limit=1",
-            // Format output as "changesetID < author < date < description < parents".
-            // Since parents is a list, need to use stringify before applying another filter.
-            "--template={node|escape} < {author|escape} < {date|isodate|escape} < "
-                + "{desc|escape} < {parents|stringify|escape}",
+            "--template=" + METADATA_TEMPLATE,
             // Use the debug option to get all parents
             "--debug");
     String log;
@@ -121,6 +129,48 @@ public class HgRevisionHistory extends AbstractRevisionHistory {
     return parseMetadata(log);
   }
 
+  /**
+   * Reads the metadata for a revision and its ancestors, newest first, with a single 'hg log'.
+   * Hg has no public revset for first-parent ancestry, so all ancestors are read regardless of
+   * the search type.
+   */
+  @Override
+  public Map<Revision, RevisionMetadata> getMetadataPage(
+      Revision revision, SearchType searchType, int limit) {
+    HgClonedRepository tipClone = tipCloneSupplier.get();
+    if (!tipClone.getRepositoryName().equals(revision.repositoryName())) {
+      throw new MoeProblem(
+          "Could not get metadata: Revision %s is in repository %s instead of %s",
+          revision.revId(),
+          revision.repositoryName(),
+          tipClone.getRepositoryName());
+    }
+    ImmutableList<String> args =
+        ImmutableList.of(
+            "log",
+            "--rev=reverse(ancestors(" + revision.revId() + "))",
+            "--limit=" + limit,
+            "--template=" + METADATA_TEMPLATE + ENTRY_TERMINATOR,
+            // Use the debug option to get all parents
+            "--debug");
+    String log;
+    try {
+      log = HgRepositoryFactory.runHgCommand(args, tipClone.getLocalTempDir().getAbsolutePath());
+    } catch (CommandException e) {
+      throw new MoeProblem("Failed hg run: %s %d %s %s", args, e.returnStatus, e.stdout, e.stderr);
+    }
+
+    Map<Revision, RevisionMetadata> page = new LinkedHashMap<>();
+    for (String entry : Splitter.on(ENTRY_TERMINATOR).omitEmptyStrings().split(log)) {
+      RevisionMetadata metadata = parseMetadata(entry);
+      // The given revision is always logged first, though it may be named by other than its id.
+      page.put(
+          page.isEmpty() ? revision : Revision.create(metadata.id, revision.repositoryName()),
+          metadata);
+    }
+    return page;
+  }
+
   private static final String BEGIN_LOG_PATTERN = "^(.*) < (.*) < (.*) < (.*) < (.*)$";
   private static final Pattern BEGIN_LOG_RE = Pattern.compile(BEGIN_LOG_PATTERN, Pattern.DOTALL);
 
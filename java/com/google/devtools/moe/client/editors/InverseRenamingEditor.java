@@ -127,7 +127,7 @@ public class InverseRenamingEditor implements InverseEditor {
     File destFile = new File(destRoot, destFilename);
     try {
       filesystem.makeDirsForFile(destFile);
-      filesystem.copyFile(inputFile, destFile);
+      filesystem.linkOrCopyFile(inputFile, destFile);
     } catch (IOException e) {
       messenger.error(e, e.getMessage());
       throw new MoeProblem(e.getMessage());
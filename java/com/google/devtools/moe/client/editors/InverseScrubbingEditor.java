@@ -16,7 +16,6 @@
 
 package com.google.devtools.moe.client.editors;
 
-import com.google.devtools.moe.client.CommandRunner;
 import com.google.devtools.moe.client.FileSystem;
 import com.google.devtools.moe.client.Ui;
 import com.google.devtools.moe.client.codebase.Codebase;
@@ -44,16 +43,19 @@ import java.util.Map;
  */
 public class InverseScrubbingEditor implements InverseEditor {
   private final FileDiffer differ;
-  private final CommandRunner cmd;
   private final FileSystem filesystem;
   private final Ui ui;
+  private final int jobs;
 
-  public InverseScrubbingEditor(
-      FileDiffer differ, CommandRunner cmd, FileSystem filesystem, Ui ui) {
+  /**
+   * @param jobs  how many files at once to merge. The {@link FileSystem} and {@link FileDiffer}
+   *     must be thread-safe if more than one.
+   */
+  public InverseScrubbingEditor(FileDiffer differ, FileSystem filesystem, Ui ui, int jobs) {
     this.differ = differ;
-    this.cmd = cmd;
     this.filesystem = filesystem;
     this.ui = ui;
+    this.jobs = jobs;
   }
 
   @Override
@@ -64,7 +66,7 @@ public class InverseScrubbingEditor implements InverseEditor {
       ProjectContext context,
       Map<String, String> options) {
     CodebaseMerger merger =
-        new CodebaseMerger(ui, filesystem, cmd, differ, referenceFrom, input, referenceTo);
+        new CodebaseMerger(ui, filesystem, differ, jobs, referenceFrom, input, referenceTo);
     return merger.merge();
   }
 }
\ No newline at end of file
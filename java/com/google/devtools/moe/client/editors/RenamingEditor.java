@@ -69,7 +69,7 @@ public class RenamingEditor implements Editor {
   }
 
   /**
-   * Recursively copies files from src to dest, changing the filenames as specified
+   * Recursively links (or copies) files from src to dest, changing the filenames as specified
    * in mappings.
    *
    * @param srcFile  the absolute path of a file to rename and copy or a dir to crawl
@@ -88,7 +88,7 @@ public class RenamingEditor implements Editor {
       String relativePath = srcFolder.toURI().relativize(srcFile.toURI()).getPath();
       File renamedFile = new File(destFolder, renameFile(relativePath));
       filesystem.makeDirsForFile(renamedFile);
-      filesystem.copyFile(srcFile, renamedFile);
+      filesystem.linkOrCopyFile(srcFile, renamedFile);
     }
   }
 
@@ -16,9 +16,15 @@
 
 package com.google.devtools.moe.client.editors;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
 import com.google.common.base.Supplier;
 import com.google.common.base.Suppliers;
 import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Resources;
 import com.google.devtools.moe.client.CommandRunner;
 import com.google.devtools.moe.client.FileSystem;
 import com.google.devtools.moe.client.Injector;
@@ -32,12 +38,15 @@ import com.google.devtools.moe.client.project.ScrubberConfig;
 
 import java.io.File;
 import java.io.IOException;
+import java.net.URL;
+import java.util.List;
 import java.util.Map;
 
 /**
  * A ScrubbingEditor invokes the MOE scrubber on a Codebase.
  */
 public class ScrubbingEditor implements Editor {
+  private static final String SCRUBBER_RESOURCE = "/devtools/moe/scrubber/scrubber.par";
 
   private final CommandRunner cmd = Injector.INSTANCE.cmd(); // TODO(cgruber) @Inject
   private final FileSystem filesystem = Injector.INSTANCE.fileSystem(); // TODO(cgruber) @Inject
@@ -59,7 +68,7 @@ public class ScrubbingEditor implements Editor {
                 File scrubberBinary =
                     Injector.INSTANCE
                         .fileSystem()
-                        .getResourceAsFile("/devtools/moe/scrubber/scrubber.par");
+                        .getResourceAsFile(SCRUBBER_RESOURCE);
                 Injector.INSTANCE.fileSystem().setExecutable(scrubberBinary);
                 return scrubberBinary;
               } catch (IOException ioEx) {
@@ -71,10 +80,14 @@ public class ScrubbingEditor implements Editor {
 
   private final String name;
   private final ScrubberConfig scrubberConfig;
+  private final List<File> configuredFiles;
 
   ScrubbingEditor(String editorName, ScrubberConfig scrubberConfig) {
     name = editorName;
     this.scrubberConfig = scrubberConfig;
+    // Listed now, as the config forgets its usernames file once it's read it.
+    configuredFiles =
+        (scrubberConfig == null) ? ImmutableList.<File>of() : scrubberConfig.getConfiguredFiles();
   }
 
   /**
@@ -115,12 +128,33 @@ public class ScrubbingEditor implements Editor {
     File expandedDir = null;
     try {
       expandedDir = Utils.expandTar(outputTar);
-    } catch (IOException | CommandRunner.CommandException e) {
+    } catch (IOException e) {
       throw new MoeProblem(e.getMessage());
     }
     return new Codebase(filesystem, expandedDir, input.getProjectSpace(), input.getExpression());
   }
 
+  /**
+   * Returns a hash of what this editor's edits depend on besides the codebase edited and the
+   * scrubber config itself: the scrubber binary, and the contents of the files the config names.
+   */
+  public HashCode hashDependencies() {
+    Hasher hasher = Hashing.sha1().newHasher();
+    try {
+      URL binary = ScrubbingEditor.class.getResource(SCRUBBER_RESOURCE);
+      if (binary != null) { // Else nothing is scrubbed, nor cached.
+        hasher.putBytes(Resources.asByteSource(binary).hash(Hashing.sha1()).asBytes());
+      }
+      for (File file : configuredFiles) {
+        hasher.putString(file.getPath(), UTF_8).putByte((byte) 0);
+        hasher.putBytes(filesystem.asByteSource(file).hash(Hashing.sha1()).asBytes());
+      }
+    } catch (IOException e) {
+      throw new MoeProblem("Error hashing the scrubber's dependencies: %s", e.getMessage());
+    }
+    return hasher.hash();
+  }
+
   public static ScrubbingEditor makeScrubbingEditor(String editorName, EditorConfig config) {
     return new ScrubbingEditor(editorName, config.scrubberConfig());
   }
@@ -29,6 +29,7 @@ public class MigrationConfig {
   private String fromRepository;
   private String toRepository;
   private MetadataScrubberConfig metadataScrubberConfig;
+  private int maxRevisionsToSearch;
 
   public MigrationConfig() {} // Constructed by gson
 
@@ -59,9 +60,19 @@ public class MigrationConfig {
     return metadataScrubberConfig;
   }
 
+  /**
+   * Returns how many revisions a search of history for equivalences may visit before giving up,
+   * which is unlimited unless max_revisions_to_search is set.
+   */
+  public int getMaxRevisionsToSearch() {
+    return maxRevisionsToSearch == 0 ? Integer.MAX_VALUE : maxRevisionsToSearch;
+  }
+
   public void validate() throws InvalidProject {
     InvalidProject.assertNotEmpty(name, "Missing name in migration");
     InvalidProject.assertNotEmpty(fromRepository, "Missing from_repository in migration");
     InvalidProject.assertNotEmpty(toRepository, "Missing to_repository in migration");
+    InvalidProject.assertTrue(
+        maxRevisionsToSearch >= 0, "Negative max_revisions_to_search in migration");
   }
 }
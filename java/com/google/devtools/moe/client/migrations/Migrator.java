@@ -112,7 +112,11 @@ public class Migrator {
       RepositoryType fromRepo, MigrationConfig migrationConfig, Db db) {
 
     Result equivMatch =
-        matchEquivalences(db, fromRepo.revisionHistory(), migrationConfig.getToRepository());
+        matchEquivalences(
+            db,
+            fromRepo.revisionHistory(),
+            migrationConfig.getToRepository(),
+            migrationConfig.getMaxRevisionsToSearch());
 
     List<Revision> revisionsSinceEquivalence =
         Lists.reverse(equivMatch.getRevisionsSinceEquivalence().getBreadthFirstHistory());
@@ -160,6 +164,15 @@ public class Migrator {
    * Returns a result containing the known/discovered equivalences.
    */
   public Result matchEquivalences(Db db, RevisionHistory history, String toRepository) {
+    return matchEquivalences(db, history, toRepository, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Returns a result containing the known/discovered equivalences, failing rather than search
+   * more than {@code maxRevisionsToSearch} revisions for them.
+   */
+  public Result matchEquivalences(
+      Db db, RevisionHistory history, String toRepository, int maxRevisionsToSearch) {
     // TODO(user): Decide whether to migrate linear or graph history here. Once DVCS Writers
     // support writing a graph of Revisions, we'll need to opt for linear or graph history based
     // on the MigrationConfig (e.g. whether or not the destination repo is linear-only).
@@ -167,7 +180,8 @@ public class Migrator {
         history.findRevisions(
             null, // Start at head.
             new RepositoryEquivalenceMatcher(toRepository, db),
-            SearchType.LINEAR);
+            SearchType.LINEAR,
+            maxRevisionsToSearch);
     return equivMatch;
   }
 
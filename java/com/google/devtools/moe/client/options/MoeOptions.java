@@ -27,6 +27,35 @@ public abstract class MoeOptions extends DebugOptions {
   @Option(name = "--config_file", required = true, usage = "Location of MOE config file")
   protected String configFilename = "";
 
+  // Read before the directive is created, by OptionsParser, but declared so as to be accepted.
+  @Option(
+    name = "--cache_dir",
+    usage = "Directory in which to keep data, such as revision metadata, across runs of MOE."
+  )
+  private String cacheDirectory = "";
+
+  // Read before the directive is created, by OptionsParser, but declared so as to be accepted.
+  @Option(
+    name = "--codebase_cache_mb",
+    usage = "How many megabytes of codebases to keep in the --cache_dir, or 0 to keep none."
+  )
+  private long codebaseCacheMegabytes = OptionsParser.DEFAULT_CODEBASE_CACHE_MEGABYTES;
+
+  // Read before the directive is created, by OptionsParser, but declared so as to be accepted.
+  @Option(
+    name = "--system_diff",
+    handler = BooleanOptionHandler.class,
+    usage = "Compares files by running the diff command, rather than within MOE."
+  )
+  private boolean systemDiff = false;
+
+  // Read before the directive is created, by OptionsParser, but declared so as to be accepted.
+  @Option(
+    name = "--jobs",
+    usage = "How many files to compare or merge at once. Defaults to the number of processors."
+  )
+  private int jobs = 0;
+
   @Option(
     name = "--help",
     handler = BooleanOptionHandler.class,
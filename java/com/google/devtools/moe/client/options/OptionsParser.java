@@ -15,13 +15,20 @@
  */
 package com.google.devtools.moe.client.options;
 
+import com.google.common.primitives.Ints;
+import com.google.common.primitives.Longs;
+import com.google.devtools.moe.client.MoeProblem;
+
 import org.kohsuke.args4j.CmdLineException;
 import org.kohsuke.args4j.CmdLineParser;
 
+import java.io.File;
 import java.util.Arrays;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
@@ -32,8 +39,15 @@ import javax.inject.Singleton;
 public class OptionsParser {
   private static final Logger logger = Logger.getLogger(OptionsParser.class.getName());
 
+  /** The megabytes of codebases cached, unless {@code --codebase_cache_mb} says otherwise. */
+  static final long DEFAULT_CODEBASE_CACHE_MEGABYTES = 2048;
+
   private final String[] preprocessedArgs;
   private final boolean debug;
+  private final File cacheDirectory;
+  private final long codebaseCacheBytes;
+  private final boolean systemDiff;
+  private final int jobs;
 
   /**
    * Creates the OptionsParser
@@ -45,6 +59,10 @@ public class OptionsParser {
   OptionsParser(String[] preprocessedArgs) {
     this.preprocessedArgs = preprocessedArgs;
     this.debug = debugFlagPresent(preprocessedArgs);
+    this.cacheDirectory = cacheDirectoryFlag(preprocessedArgs);
+    this.codebaseCacheBytes = codebaseCacheMegabytesFlag(preprocessedArgs) << 20;
+    this.systemDiff = Arrays.asList(preprocessedArgs).contains("--system_diff");
+    this.jobs = jobsFlag(preprocessedArgs);
   }
 
   /**
@@ -59,6 +77,80 @@ public class OptionsParser {
     return debug;
   }
 
+  /**
+   * Finds the {@code --cache_dir} flag's value, so that caches can be set up along with the graph,
+   * before the directive's own flags are parsed.
+   */
+  @Nullable
+  static File cacheDirectoryFlag(String[] preprocessedArgs) {
+    List<String> args = Arrays.asList(preprocessedArgs);
+    int flag = args.indexOf("--cache_dir");
+    return (flag >= 0 && flag + 1 < args.size() && !args.get(flag + 1).isEmpty())
+        ? new File(args.get(flag + 1))
+        : null;
+  }
+
+  /** The directory given by {@code --cache_dir}, or null if none was given. */
+  @Nullable
+  public File cacheDirectory() {
+    return cacheDirectory;
+  }
+
+  /**
+   * Finds the {@code --codebase_cache_mb} flag's value, defaulting to
+   * {@value #DEFAULT_CODEBASE_CACHE_MEGABYTES}.
+   */
+  static long codebaseCacheMegabytesFlag(String[] preprocessedArgs) {
+    List<String> args = Arrays.asList(preprocessedArgs);
+    int flag = args.indexOf("--codebase_cache_mb");
+    if (flag < 0 || flag + 1 >= args.size()) {
+      return DEFAULT_CODEBASE_CACHE_MEGABYTES;
+    }
+    Long megabytes = Longs.tryParse(args.get(flag + 1));
+    if (megabytes == null || megabytes < 0 || megabytes > Long.MAX_VALUE >> 20) {
+      throw new MoeProblem(
+          "--codebase_cache_mb must be a non-negative number, not: %s", args.get(flag + 1));
+    }
+    return megabytes;
+  }
+
+  /**
+   * How many bytes of codebases to keep in the {@link #cacheDirectory}, given by
+   * {@code --codebase_cache_mb}.
+   */
+  public long codebaseCacheBytes() {
+    return codebaseCacheBytes;
+  }
+
+  /**
+   * Whether {@code --system_diff} was given, to compare files with the diff command, as MOE used
+   * to, rather than within the JVM.
+   */
+  public boolean systemDiff() {
+    return systemDiff;
+  }
+
+  /**
+   * Finds the {@code --jobs} flag's value, defaulting to the number of available processors.
+   */
+  static int jobsFlag(String[] preprocessedArgs) {
+    List<String> args = Arrays.asList(preprocessedArgs);
+    int flag = args.indexOf("--jobs");
+    if (flag < 0 || flag + 1 >= args.size()) {
+      return Runtime.getRuntime().availableProcessors();
+    }
+    Integer jobs = Ints.tryParse(args.get(flag + 1));
+    if (jobs == null || jobs < 1) {
+      throw new MoeProblem("--jobs must be a positive number, not: %s", args.get(flag + 1));
+    }
+    return jobs;
+  }
+
+  /** How many files, per {@code --jobs}, MOE may compare or merge at once. */
+  public int jobs() {
+    return jobs;
+  }
+
   /**
    * Parses command-line flags, returning true if the parse was successful and no flags errors were
    * found.
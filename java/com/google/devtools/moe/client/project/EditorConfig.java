@@ -37,6 +37,13 @@ public abstract class EditorConfig {
 
   public abstract boolean useRegex();
 
+  /**
+   * Whether a scrubber or shell editor edits each file apart from the others, so that it can be
+   * rerun on just the files that changed since the last codebase it edited. A shell editor must
+   * also depend on nothing else, as only then are its edits cached.
+   */
+  public abstract boolean perFile();
+
   void validate() throws InvalidProject {
     InvalidProject.assertNotNull(type(), "Missing type in editor");
   }
@@ -46,7 +53,9 @@ public abstract class EditorConfig {
       ScrubberConfig scrubberConfig,
       String commandString,
       JsonObject mappings,
-      boolean useRegex) {
-    return new AutoValue_EditorConfig(type, scrubberConfig, commandString, mappings, useRegex);
+      boolean useRegex,
+      boolean perFile) {
+    return new AutoValue_EditorConfig(
+        type, scrubberConfig, commandString, mappings, useRegex, perFile);
   }
 }
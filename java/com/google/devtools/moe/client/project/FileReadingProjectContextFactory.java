@@ -22,6 +22,8 @@ import com.google.common.io.Files;
 import com.google.devtools.moe.client.CommandRunner;
 import com.google.devtools.moe.client.FileSystem;
 import com.google.devtools.moe.client.Ui;
+import com.google.devtools.moe.client.codebase.CodebaseCache;
+import com.google.devtools.moe.client.options.OptionsParser;
 import com.google.devtools.moe.client.repositories.Repositories;
 import com.google.devtools.moe.client.tools.FileDifference.FileDiffer;
 
@@ -41,8 +43,10 @@ public class FileReadingProjectContextFactory extends ProjectContextFactory {
       CommandRunner cmd,
       FileSystem filesystem,
       Ui ui,
-      Repositories repositories) {
-    super(differ, cmd, filesystem, ui, repositories);
+      Repositories repositories,
+      CodebaseCache codebaseCache,
+      OptionsParser options) {
+    super(differ, cmd, filesystem, ui, repositories, codebaseCache, options.jobs());
   }
 
   @Override
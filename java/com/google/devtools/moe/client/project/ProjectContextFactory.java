@@ -17,12 +17,15 @@
 package com.google.devtools.moe.client.project;
 
 import com.google.common.base.Preconditions;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.devtools.moe.client.CommandRunner;
 import com.google.devtools.moe.client.FileSystem;
 import com.google.devtools.moe.client.Ui;
+import com.google.devtools.moe.client.codebase.CodebaseCache;
 import com.google.devtools.moe.client.editors.Editor;
 import com.google.devtools.moe.client.editors.ForwardTranslator;
 import com.google.devtools.moe.client.editors.IdentityEditor;
@@ -38,10 +41,12 @@ import com.google.devtools.moe.client.editors.ShellEditor;
 import com.google.devtools.moe.client.editors.Translator;
 import com.google.devtools.moe.client.editors.TranslatorPath;
 import com.google.devtools.moe.client.editors.TranslatorStep;
+import com.google.devtools.moe.client.gson.GsonModule;
 import com.google.devtools.moe.client.migrations.MigrationConfig;
 import com.google.devtools.moe.client.repositories.Repositories;
 import com.google.devtools.moe.client.repositories.RepositoryType;
 import com.google.devtools.moe.client.tools.FileDifference.FileDiffer;
+import com.google.gson.Gson;
 
 import java.util.List;
 import java.util.Map;
@@ -59,6 +64,8 @@ public abstract class ProjectContextFactory {
   private final FileSystem filesystem;
   protected final Ui ui;
   private final Repositories repositories;
+  private final CodebaseCache codebaseCache;
+  private final int jobs;
 
   public ProjectContextFactory(
       FileDiffer differ,
@@ -66,12 +73,29 @@ public abstract class ProjectContextFactory {
       @Nullable FileSystem filesystem,
       Ui ui,
       Repositories repositories) {
+    this(differ, cmd, filesystem, ui, repositories, CodebaseCache.disabled(), 1);
+  }
+
+  /**
+   * Creates a factory whose contexts' editors may work on up to {@code jobs} files at once, as
+   * inverse scrubbers do when merging.
+   */
+  public ProjectContextFactory(
+      FileDiffer differ,
+      CommandRunner cmd,
+      @Nullable FileSystem filesystem,
+      Ui ui,
+      Repositories repositories,
+      CodebaseCache codebaseCache,
+      int jobs) {
     // TODO(cgruber):push nullability back from this point.
     this.differ = differ;
     this.repositories = Preconditions.checkNotNull(repositories);
     this.cmd = cmd;
     this.filesystem = filesystem;
     this.ui = ui;
+    this.codebaseCache = Preconditions.checkNotNull(codebaseCache);
+    this.jobs = jobs;
   }
 
   /**
@@ -165,10 +189,67 @@ public abstract class ProjectContextFactory {
           makeStepsFromConfigs(otherTrans.getSteps()),
           makeInverseStepsFromConfigs(otherTrans.getSteps()));
     } else {
-      return new ForwardTranslator(makeStepsFromConfigs(transConfig.getSteps()));
+      TranslatorPath path =
+          new TranslatorPath(transConfig.getFromProjectSpace(), transConfig.getToProjectSpace());
+      return new ForwardTranslator(makeCachedStepsFromConfigs(path, transConfig.getSteps()));
     }
   }
 
+  /**
+   * Makes the steps of a forward translator, those of whose editors depend only on the codebase
+   * they edit, their config and the files it names making their edits through the codebase cache.
+   * Renamers edit each file apart from the others, as do scrubbers and shell editors configured
+   * "per_file", so they're rerun on just the files changed since the last codebase they edited.
+   * Other shell editors aren't cached, as their commands may read anything.
+   */
+  private List<TranslatorStep> makeCachedStepsFromConfigs(
+      TranslatorPath path, List<StepConfig> stepConfigs) throws InvalidProject {
+    Gson gson = GsonModule.provideGson(); // TODO(cgruber): Eliminate this static reference.
+    ImmutableList.Builder<TranslatorStep> steps = ImmutableList.builder();
+    for (StepConfig sc : stepConfigs) {
+      EditorConfig editorConfig = sc.getEditorConfig();
+      Editor editor = makeEditorFromConfig(sc.getName(), editorConfig);
+      String configJson = gson.toJson(editorConfig);
+      switch (editorConfig.type()) {
+        case scrubber:
+          editor =
+              codebaseCache.decorate(
+                  editor,
+                  path,
+                  scrubberStepKey(configJson, (ScrubbingEditor) editor),
+                  editorConfig.perFile());
+          break;
+        case renamer:
+          editor = codebaseCache.decorate(editor, path, Suppliers.ofInstance(configJson), true);
+          break;
+        case shell:
+          if (editorConfig.perFile()) {
+            editor = codebaseCache.decorate(editor, path, Suppliers.ofInstance(configJson), true);
+          }
+          break;
+        default:
+          // Identity edits are free, and patches are read from files named in the options.
+          break;
+      }
+      steps.add(new TranslatorStep(sc.getName(), editor));
+    }
+    return steps.build();
+  }
+
+  /**
+   * Returns the cache key of a scrubber step, its config and a hash of the scrubber binary and the
+   * files its config names, hashed only when the step first edits.
+   */
+  private static Supplier<String> scrubberStepKey(
+      final String configJson, final ScrubbingEditor scrubber) {
+    return new Supplier<String>() {
+      @Override
+      public String get() {
+        return configJson + "\n" + scrubber.hashDependencies();
+      }
+    };
+  }
+
   private List<TranslatorStep> makeStepsFromConfigs(List<StepConfig> stepConfigs)
       throws InvalidProject {
     ImmutableList.Builder<TranslatorStep> steps = ImmutableList.builder();
@@ -218,7 +299,7 @@ public abstract class ProjectContextFactory {
       case renamer:
         return InverseRenamingEditor.makeInverseRenamingEditor(editorName, originalConfig);
       case scrubber:
-        return new InverseScrubbingEditor(differ, cmd, filesystem, ui);
+        return new InverseScrubbingEditor(differ, filesystem, ui, jobs);
       default:
         throw new InvalidProject("Non-invertible editor type: " + originalConfig.type());
     }
@@ -8,6 +8,7 @@ import com.google.gson.JsonObject;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.regex.Pattern;
@@ -68,6 +69,19 @@ public class ScrubberConfig {
   private ScrubberConfig() { // Instantiated by GSON.
   }
 
+  /**
+   * Returns the files this config names, whose contents the scrubber reads as part of its config.
+   */
+  public List<File> getConfiguredFiles() {
+    List<File> files = new ArrayList<>();
+    for (String file : Arrays.asList(sensitiveStringFile, usernamesFile, cIncludesConfigFile)) {
+      if (file != null) {
+        files.add(new File(file));
+      }
+    }
+    return files;
+  }
+
   /**
    * @param author Author in the format "Name <username@domain>".
    */
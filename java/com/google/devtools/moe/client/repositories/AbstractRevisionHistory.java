@@ -17,23 +17,44 @@
 package com.google.devtools.moe.client.repositories;
 
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Sets;
 import com.google.devtools.moe.client.MoeProblem;
 
 import java.util.ArrayDeque;
+import java.util.Collections;
 import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
 
 /**
  * A skeletal implementation of {@link RevisionHistory} with common logic.
  */
 public abstract class AbstractRevisionHistory implements RevisionHistory {
 
-  private static final int MAX_REVISIONS_TO_SEARCH = 400;
+  /** How many revisions' metadata to read at once while searching history. */
+  private static final int METADATA_PAGE_SIZE = 50;
+
+  /**
+   * Reads only the given revision's metadata. Implementations that can read many revisions in a
+   * single query of their repository should override this.
+   */
+  @Override
+  public Map<Revision, RevisionMetadata> getMetadataPage(
+      Revision revision, SearchType searchType, int limit) {
+    return Collections.singletonMap(revision, getMetadata(revision));
+  }
 
   @Override
   public <T> T findRevisions(Revision revision, RevisionMatcher<T> matcher, SearchType searchType) {
+    return findRevisions(revision, matcher, searchType, Integer.MAX_VALUE);
+  }
+
+  @Override
+  public <T> T findRevisions(
+      Revision revision,
+      RevisionMatcher<T> matcher,
+      SearchType searchType,
+      int maxRevisionsToSearch) {
 
     List<Revision> startingRevisions =
         (revision == null) ? findHeadRevisions() : ImmutableList.of(revision);
@@ -50,33 +71,59 @@ public abstract class AbstractRevisionHistory implements RevisionHistory {
     Deque<Revision> workList = new ArrayDeque<>();
     workList.addAll(startingRevisions);
 
-    // Keep a visited list to make sure we don't visit the same change twice.
-    Set<Revision> visited = Sets.newLinkedHashSet();
-    visited.addAll(startingRevisions);
+    // Keep a visited map, by revision id, to make sure we don't visit the same change twice. Each
+    // visited Revision is then held once, shared by the work list and the graph.
+    Map<String, Revision> visited = new HashMap<>();
+    for (Revision start : startingRevisions) {
+      visited.put(start.revId(), start);
+    }
+
+    // Parents of revisions read ahead of the search, but not yet visited. Only parents are kept;
+    // callers read the full metadata of just those revisions they go on to use.
+    Map<Revision, List<Revision>> readAhead = new HashMap<>();
 
     while (!workList.isEmpty()) {
       Revision current = workList.removeFirst();
       if (!matcher.matches(current)) {
-        RevisionMetadata metadata = getMetadata(current);
-        nonMatchingBuilder.addRevision(current, metadata);
+        List<Revision> parentsToSearch = readAhead.remove(current);
+        if (parentsToSearch == null) {
+          // Drop anything read ahead that the search didn't reach, rather than let it pile up.
+          readAhead.clear();
+          for (Map.Entry<Revision, RevisionMetadata> entry :
+              getMetadataPage(current, searchType, METADATA_PAGE_SIZE).entrySet()) {
+            if (entry.getValue() != null) {
+              readAhead.put(entry.getKey(), entry.getValue().parents);
+            }
+          }
+          parentsToSearch = readAhead.remove(current);
+          if (parentsToSearch == null) {
+            throw new MoeProblem("Could not read the metadata of revision %s", current);
+          }
+        }
 
-        List<Revision> parentsToSearch = metadata.parents;
         if (parentsToSearch.size() > 0 && searchType == SearchType.LINEAR) {
           parentsToSearch = parentsToSearch.subList(0, 1);
         }
+        ImmutableList.Builder<Revision> parents = ImmutableList.builder();
         for (Revision parent : parentsToSearch) {
+          Revision seen = visited.get(parent.revId());
           // Don't add a visited parent to the search queue.
-          if (visited.add(parent)) {
+          if (seen == null) {
+            seen = parent;
+            visited.put(parent.revId(), parent);
             workList.addLast(parent);
           }
+          parents.add(seen);
         }
+        nonMatchingBuilder.addRevision(current, parents.build());
 
-        if (visited.size() > MAX_REVISIONS_TO_SEARCH) {
+        if (visited.size() > maxRevisionsToSearch) {
           throw new MoeProblem(
-              "Couldn't find a matching revision for matcher (%s) from %s within %d revisions.",
+              "Couldn't find a matching revision for matcher (%s) from %s within %d revisions. "
+                  + "The limit can be raised with max_revisions_to_search in the migration config.",
               matcher,
               (revision == null) ? "head" : revision,
-              MAX_REVISIONS_TO_SEARCH);
+              maxRevisionsToSearch);
         }
       } else {
         // Don't search past matching revisions.
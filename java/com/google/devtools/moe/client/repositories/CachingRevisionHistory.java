@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2015 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.moe.client.repositories;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+/**
+ * A {@link RevisionHistory} which reads metadata through a {@link RevisionMetadataCache} before
+ * asking the history it decorates. History searches go through the cache too.
+ */
+class CachingRevisionHistory extends AbstractRevisionHistory {
+  private final AbstractRevisionHistory delegate;
+  private final RevisionMetadataCache cache;
+  private final String repositoryUrl;
+  private final boolean cacheOnlyBelowHead;
+  private Long head;
+
+  CachingRevisionHistory(
+      AbstractRevisionHistory delegate,
+      RevisionMetadataCache cache,
+      String repositoryUrl,
+      boolean cacheOnlyBelowHead) {
+    this.delegate = delegate;
+    this.cache = cache;
+    this.repositoryUrl = repositoryUrl;
+    this.cacheOnlyBelowHead = cacheOnlyBelowHead;
+  }
+
+  @Override
+  public Revision findHighestRevision(@Nullable String revId) {
+    return delegate.findHighestRevision(revId);
+  }
+
+  @Override
+  public RevisionMetadata getMetadata(Revision revision) {
+    RevisionMetadata metadata = cache.get(repositoryUrl, revision);
+    if (metadata == null) {
+      metadata = delegate.getMetadata(revision);
+      cacheIfSettled(revision, metadata);
+    }
+    return metadata;
+  }
+
+  @Override
+  public Map<Revision, RevisionMetadata> getMetadataPage(
+      Revision revision, SearchType searchType, int limit) {
+    RevisionMetadata metadata = cache.get(repositoryUrl, revision);
+    if (metadata != null) {
+      return Collections.singletonMap(revision, metadata);
+    }
+    Map<Revision, RevisionMetadata> page = delegate.getMetadataPage(revision, searchType, limit);
+    for (Map.Entry<Revision, RevisionMetadata> entry : page.entrySet()) {
+      cacheIfSettled(entry.getKey(), entry.getValue());
+    }
+    return page;
+  }
+
+  @Override
+  protected List<Revision> findHeadRevisions() {
+    return delegate.findHeadRevisions();
+  }
+
+  /**
+   * Caches a revision's metadata if the revision was named by its own id (rather than, say, a
+   * branch name) and, if so configured, is below the repository's head.
+   */
+  private void cacheIfSettled(Revision revision, @Nullable RevisionMetadata metadata) {
+    if (metadata == null || !metadata.id.equals(revision.revId())) {
+      return;
+    }
+    if (cacheOnlyBelowHead) {
+      try {
+        if (head == null) {
+          head = Long.parseLong(delegate.findHighestRevision(null).revId());
+        }
+        if (Long.parseLong(revision.revId()) >= head) {
+          return;
+        }
+      } catch (NumberFormatException e) {
+        return;
+      }
+    }
+    cache.put(repositoryUrl, revision, metadata);
+  }
+}
@@ -21,6 +21,7 @@ import static dagger.Provides.Type.SET;
 import com.google.common.base.Function;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableMap;
+import com.google.devtools.moe.client.codebase.CodebaseCache;
 import com.google.devtools.moe.client.dvcs.git.GitRepositoryFactory;
 import com.google.devtools.moe.client.dvcs.hg.HgRepositoryFactory;
 import com.google.devtools.moe.client.project.InvalidProject;
@@ -42,9 +43,20 @@ public class Repositories implements RepositoryType.Factory {
   // TODO(cgruber): Make this less of a holder, and more of a thing (Law of Demeter, folks...)
 
   private final ImmutableMap<String, RepositoryType.Factory> serviceFactories;
+  private final RevisionMetadataCache metadataCache;
+  private final CodebaseCache codebaseCache;
 
-  @Inject
   public Repositories(Set<RepositoryType.Factory> services) {
+    this(services, RevisionMetadataCache.disabled(), CodebaseCache.disabled());
+  }
+
+  @Inject
+  public Repositories(
+      Set<RepositoryType.Factory> services,
+      RevisionMetadataCache metadataCache,
+      CodebaseCache codebaseCache) {
+    this.metadataCache = metadataCache;
+    this.codebaseCache = codebaseCache;
     // A Set of services is expected, and indexed by this class, so that a more dynamic set
     // of Repositories can be dynamically detected, as opposed to using a static map binder
     this.serviceFactories =
@@ -72,7 +84,8 @@ public class Repositories implements RepositoryType.Factory {
     if (factoryForConfig == null) {
       throw new InvalidProject("Invalid repository type: \"" + config.getType() + "\"");
     }
-    return factoryForConfig.create(name, config);
+    return codebaseCache.decorate(
+        metadataCache.decorate(factoryForConfig.create(name, config), config), config);
   }
 
   /**
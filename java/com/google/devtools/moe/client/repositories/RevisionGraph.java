@@ -24,8 +24,10 @@ import com.google.common.collect.Maps;
 import java.util.ArrayDeque;
 import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Stores the Revisions found by crawling a repository history with a {@link RevisionMatcher}.
@@ -33,31 +35,30 @@ import java.util.Map;
 public class RevisionGraph {
 
   private final List<Revision> startingRevisions;
-  private final Map<Revision, RevisionMetadata> matchingRevsAndMetadata;
+  private final Map<Revision, List<Revision>> matchingRevsAndParents;
 
   private RevisionGraph(
-      List<Revision> startingRevisions, Map<Revision, RevisionMetadata> matchingRevsAndMetadata) {
+      List<Revision> startingRevisions, Map<Revision, List<Revision>> matchingRevsAndParents) {
     this.startingRevisions = startingRevisions;
-    this.matchingRevsAndMetadata = matchingRevsAndMetadata;
+    this.matchingRevsAndParents = matchingRevsAndParents;
   }
 
   /**
    * Returns a breadth-first revision history result, from the starting revisions backwards through
-   * all parents not filtered out by the {@code RevisionMatcher}.
+   * all parents not filtered out by the {@code RevisionMatcher}. Each revision appears once, even
+   * if reached through several children.
    */
   // TODO(user): Switch from List to something else? Iterable?
-  // TODO(user): When we start to use getBreadthFirstHistory() legitimately, make sure this
-  // doesn't visit the same parent N times via its N children (unless it suits our implementation).
   public List<Revision> getBreadthFirstHistory() {
     ImmutableList.Builder<Revision> historyBuilder = ImmutableList.builder();
     Deque<Revision> workList = new ArrayDeque<>();
+    Set<Revision> visited = new HashSet<>();
     workList.addAll(startingRevisions);
     while (!workList.isEmpty()) {
       Revision current = workList.removeFirst();
-      if (matchingRevsAndMetadata.containsKey(current)) {
+      if (matchingRevsAndParents.containsKey(current) && visited.add(current)) {
         historyBuilder.add(current);
-        RevisionMetadata metadata = matchingRevsAndMetadata.get(current);
-        workList.addAll(metadata.parents);
+        workList.addAll(matchingRevsAndParents.get(current));
       }
     }
     return historyBuilder.build();
@@ -82,20 +83,27 @@ public class RevisionGraph {
   public static class Builder {
 
     private final List<Revision> startingRevisions;
-    private final HashMap<Revision, RevisionMetadata> matchingRevsAndMetadata = Maps.newHashMap();
+    private final HashMap<Revision, List<Revision>> matchingRevsAndParents = Maps.newHashMap();
 
     private Builder(List<Revision> startingRevisions) {
       this.startingRevisions = ImmutableList.copyOf(startingRevisions);
     }
 
     public Builder addRevision(Revision revision, RevisionMetadata metadata) {
-      Preconditions.checkState(!matchingRevsAndMetadata.containsKey(revision));
-      matchingRevsAndMetadata.put(revision, metadata);
+      return addRevision(revision, metadata.parents);
+    }
+
+    /**
+     * Adds a revision by its parents alone, which is all the graph keeps of its metadata.
+     */
+    public Builder addRevision(Revision revision, List<Revision> parents) {
+      Preconditions.checkState(!matchingRevsAndParents.containsKey(revision));
+      matchingRevsAndParents.put(revision, parents);
       return this;
     }
 
     public RevisionGraph build() {
-      return new RevisionGraph(startingRevisions, ImmutableMap.copyOf(matchingRevsAndMetadata));
+      return new RevisionGraph(startingRevisions, ImmutableMap.copyOf(matchingRevsAndParents));
     }
   }
 }
@@ -16,6 +16,8 @@
 
 package com.google.devtools.moe.client.repositories;
 
+import java.util.Map;
+
 import javax.annotation.Nullable;
 
 /**
@@ -39,6 +41,21 @@ public interface RevisionHistory {
    */
   public RevisionMetadata getMetadata(Revision revision);
 
+  /**
+   * Reads the metadata for a given revision and for as many as {@code limit - 1} of its
+   * ancestors, using as few queries of the underlying repository as it can. History searches read
+   * metadata a page at a time this way, rather than querying the repository once per revision.
+   *
+   * @param revision  the revision to start reading at
+   * @param searchType  whether to read ancestors through first parents only, or through all
+   *     parents
+   * @param limit  the maximum number of revisions to read
+   * @return the metadata read, keyed by revision, iterating from {@code revision} (which is always
+   *     present) to its ancestors
+   */
+  public Map<Revision, RevisionMetadata> getMetadataPage(
+      Revision revision, SearchType searchType, int limit);
+
   /**
    * The type of history search to perform in
    * {@link RevisionHistory#findRevisions(Revision, RevisionMatcher, SearchType)}.
@@ -87,4 +104,15 @@ public interface RevisionHistory {
   //TODO(user): allow specifying multiple Revisions (for case of multiple heads)
   public <T> T findRevisions(
       @Nullable Revision revision, RevisionMatcher<T> matcher, SearchType searchType);
+
+  /**
+   * Searches the revision history as {@link #findRevisions(Revision, RevisionMatcher, SearchType)}
+   * does, but fails with a {@link com.google.devtools.moe.client.MoeProblem} rather than visit
+   * more than {@code maxRevisionsToSearch} revisions.
+   */
+  public <T> T findRevisions(
+      @Nullable Revision revision,
+      RevisionMatcher<T> matcher,
+      SearchType searchType,
+      int maxRevisionsToSearch);
 }
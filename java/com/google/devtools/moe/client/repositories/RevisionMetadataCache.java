@@ -0,0 +1,291 @@
+/*
+ * Copyright (c) 2015 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.moe.client.repositories;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hashing;
+import com.google.common.io.FileWriteMode;
+import com.google.common.io.Files;
+import com.google.devtools.moe.client.MoeProblem;
+import com.google.devtools.moe.client.project.RepositoryConfig;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+/**
+ * A cache of {@link RevisionMetadata}, for revisions whose ids name them immutably (such as git
+ * and hg hashes), so that MOE needn't ask a repository for the same revision's metadata more than
+ * once. Recently used metadata is kept in memory. If given a directory, the cache also persists
+ * metadata there, in one file per repository of JSON objects, one per line, so that later runs
+ * can use it too.
+ */
+public class RevisionMetadataCache {
+  private static final int MEMORY_CACHE_SIZE = 10000;
+  private static final DateTimeFormatter DATE_FORMAT = ISODateTimeFormat.dateTime();
+  private static final DateTimeFormatter DATE_PARSER =
+      ISODateTimeFormat.dateTimeParser().withOffsetParsed();
+  private static final Gson GSON = new Gson();
+
+  private final boolean enabled;
+  @Nullable private final File directory;
+  private final Cache<String, RevisionMetadata> memory =
+      CacheBuilder.newBuilder().maximumSize(MEMORY_CACHE_SIZE).build();
+  private final Map<String, CacheFile> files = new HashMap<>();
+
+  /**
+   * Creates a cache kept in memory, and also in the given directory if non-null.
+   */
+  public RevisionMetadataCache(@Nullable File directory) {
+    this(true, directory);
+  }
+
+  private RevisionMetadataCache(boolean enabled, @Nullable File directory) {
+    this.enabled = enabled;
+    this.directory = directory;
+  }
+
+  /** Returns a cache that caches nothing, leaving every repository's history as it is. */
+  public static RevisionMetadataCache disabled() {
+    return new RevisionMetadataCache(false, null);
+  }
+
+  /**
+   * Returns the given repository type, with its history reading metadata through this cache.
+   */
+  public RepositoryType decorate(RepositoryType type, RepositoryConfig config) {
+    if (!enabled
+        || config.getUrl() == null
+        || !(type.revisionHistory() instanceof AbstractRevisionHistory)) {
+      return type;
+    }
+    // Subversion revision numbers aren't content hashes, so only those below the head are settled.
+    boolean cacheOnlyBelowHead = "svn".equals(config.getType());
+    return RepositoryType.create(
+        type.name(),
+        new CachingRevisionHistory(
+            (AbstractRevisionHistory) type.revisionHistory(),
+            this,
+            config.getUrl(),
+            cacheOnlyBelowHead),
+        type.codebaseCreator(),
+        type.writerCreator());
+  }
+
+  /**
+   * Returns the cached metadata for a revision of the repository at the given URL, or null if
+   * none is cached.
+   */
+  @Nullable
+  synchronized RevisionMetadata get(String repositoryUrl, Revision revision) {
+    String repositoryKey = repositoryKey(revision.repositoryName(), repositoryUrl);
+    String key = repositoryKey + '\0' + revision.revId();
+    RevisionMetadata metadata = memory.getIfPresent(key);
+    if (metadata == null && directory != null) {
+      metadata = file(repositoryKey).read(revision);
+      if (metadata != null) {
+        memory.put(key, metadata);
+      }
+    }
+    return metadata;
+  }
+
+  /**
+   * Caches the metadata of a revision of the repository at the given URL.
+   */
+  synchronized void put(String repositoryUrl, Revision revision, RevisionMetadata metadata) {
+    String repositoryKey = repositoryKey(revision.repositoryName(), repositoryUrl);
+    memory.put(repositoryKey + '\0' + revision.revId(), metadata);
+    if (directory != null) {
+      file(repositoryKey).append(revision, metadata);
+    }
+  }
+
+  private static String repositoryKey(String repositoryName, String repositoryUrl) {
+    return repositoryName + '\0' + repositoryUrl;
+  }
+
+  private CacheFile file(String repositoryKey) {
+    CacheFile file = files.get(repositoryKey);
+    if (file == null) {
+      String fileName =
+          Hashing.sha1().hashString(repositoryKey, UTF_8).toString() + ".revision_metadata";
+      file = new CacheFile(new File(directory, fileName));
+      files.put(repositoryKey, file);
+    }
+    return file;
+  }
+
+  /** The form in which each revision's metadata is written, as one line of JSON. */
+  private static class Entry {
+    String revId;
+    String author;
+    String date;
+    String description;
+    List<String> parents;
+  }
+
+  /**
+   * The cache file of one repository, indexed by the offset of each revision's line when first
+   * read, so only the index is held in memory.
+   */
+  private static class CacheFile {
+    private final File file;
+    private Map<String, Long> offsets;
+
+    CacheFile(File file) {
+      this.file = file;
+    }
+
+    @Nullable
+    RevisionMetadata read(Revision revision) {
+      Long offset = offsets().get(revision.revId());
+      if (offset == null) {
+        return null;
+      }
+      try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+        in.seek(offset);
+        RevisionMetadata metadata = parse(revision.repositoryName(), readLine(in));
+        // Another run may have appended to the file at the same time, displacing an entry.
+        return revision.revId().equals(metadata.id) ? metadata : null;
+      } catch (IOException | RuntimeException e) {
+        // A damaged cache is only a missed opportunity; the repository will be asked instead.
+        offsets.remove(revision.revId());
+        return null;
+      }
+    }
+
+    void append(Revision revision, RevisionMetadata metadata) {
+      Entry entry = new Entry();
+      entry.revId = revision.revId();
+      entry.author = metadata.author;
+      entry.date = DATE_FORMAT.print(metadata.date);
+      entry.description = metadata.description;
+      ImmutableList.Builder<String> parents = ImmutableList.builder();
+      for (Revision parent : metadata.parents) {
+        parents.add(parent.revId());
+      }
+      entry.parents = parents.build();
+      try {
+        Files.createParentDirs(file);
+        long offset = file.length();
+        // Gson escapes newlines within strings, so each entry is exactly one line. Start a new
+        // line first if an interrupted run left one unfinished.
+        String line = GSON.toJson(entry) + "\n";
+        if (offset > 0 && !endsWithNewline()) {
+          line = "\n" + line;
+          offset++;
+        }
+        Files.asByteSink(file, FileWriteMode.APPEND).write(line.getBytes(UTF_8));
+        offsets().put(entry.revId, offset);
+      } catch (IOException e) {
+        throw new MoeProblem("Could not write revision metadata cache %s: %s", file, e);
+      }
+    }
+
+    private boolean endsWithNewline() throws IOException {
+      try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+        in.seek(in.length() - 1);
+        return in.read() == '\n';
+      }
+    }
+
+    private Map<String, Long> offsets() {
+      if (offsets == null) {
+        offsets = new HashMap<>();
+        if (file.exists()) {
+          index();
+        }
+      }
+      return offsets;
+    }
+
+    private void index() {
+      try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        long offset = 0;
+        long lineStart = 0;
+        for (int b = in.read(); b != -1; b = in.read()) {
+          offset++;
+          if (b != '\n') {
+            line.write(b);
+            continue;
+          }
+          try {
+            Entry entry = GSON.fromJson(new String(line.toByteArray(), UTF_8), Entry.class);
+            if (entry != null && entry.revId != null) {
+              offsets.put(entry.revId, lineStart);
+            }
+          } catch (JsonParseException e) {
+            // Skip a damaged line, such as one left partly written by an interrupted run.
+          }
+          line.reset();
+          lineStart = offset;
+        }
+      } catch (IOException e) {
+        throw new MoeProblem("Could not read revision metadata cache %s: %s", file, e);
+      }
+    }
+
+    private static String readLine(RandomAccessFile in) throws IOException {
+      ByteArrayOutputStream line = new ByteArrayOutputStream();
+      byte[] block = new byte[4096];
+      for (int n = in.read(block); n != -1; n = in.read(block)) {
+        for (int i = 0; i < n; i++) {
+          if (block[i] == '\n') {
+            line.write(block, 0, i);
+            return new String(line.toByteArray(), UTF_8);
+          }
+        }
+        line.write(block, 0, n);
+      }
+      throw new IOException("Unterminated cache entry");
+    }
+
+    private static RevisionMetadata parse(String repositoryName, String line) {
+      Entry entry = GSON.fromJson(line, Entry.class);
+      ImmutableList.Builder<Revision> parents = ImmutableList.builder();
+      for (String parent : entry.parents) {
+        parents.add(Revision.create(parent, repositoryName));
+      }
+      return new RevisionMetadata(
+          entry.revId,
+          entry.author,
+          DATE_PARSER.parseDateTime(entry.date),
+          entry.description,
+          parents.build());
+    }
+  }
+}
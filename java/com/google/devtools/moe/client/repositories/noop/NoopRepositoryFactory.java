@@ -63,11 +63,26 @@ public class NoopRepositoryFactory implements RepositoryType.Factory {
       throw new MoeProblem(NOOP_NOT_VALID);
     }
 
+    @Override
+    public Map<Revision, RevisionMetadata> getMetadataPage(
+        Revision revision, SearchType searchType, int limit) {
+      throw new MoeProblem(NOOP_NOT_VALID);
+    }
+
     @Override
     public <T> T findRevisions(
         Revision revision, RevisionMatcher<T> matcher, SearchType searchType) {
       throw new MoeProblem(NOOP_NOT_VALID);
     }
+
+    @Override
+    public <T> T findRevisions(
+        Revision revision,
+        RevisionMatcher<T> matcher,
+        SearchType searchType,
+        int maxRevisionsToSearch) {
+      throw new MoeProblem(NOOP_NOT_VALID);
+    }
   }
 
   @Override
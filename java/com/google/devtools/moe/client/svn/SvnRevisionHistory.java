@@ -31,7 +31,9 @@ import org.w3c.dom.NodeList;
 import org.xml.sax.InputSource;
 
 import java.io.StringReader;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.xml.parsers.DocumentBuilderFactory;
 
@@ -117,6 +119,38 @@ public class SvnRevisionHistory extends AbstractRevisionHistory {
     return metadata.get(0);
   }
 
+  /**
+   * Reads the metadata for a revision and its ancestors with a single 'svn log'. Subversion
+   * history is linear, so the search type makes no difference.
+   */
+  @Override
+  public Map<Revision, RevisionMetadata> getMetadataPage(
+      Revision revision, SearchType searchType, int limit) {
+    if (!name.equals(revision.repositoryName())) {
+      throw new MoeProblem(
+          "Could not get metadata: Revision %s is in repository %s instead of %s",
+          revision.revId(),
+          revision.repositoryName(),
+          name);
+    }
+    String log;
+    try {
+      // Log one extra entry, to learn the parent of the last one returned.
+      log =
+          util.runSvnCommand(
+              "log", "--xml", "-l", String.valueOf(limit + 1), "-r", revision.revId() + ":1", url);
+    } catch (CommandException e) {
+      throw new MoeProblem("Failed svn run: %s", e);
+    }
+    List<RevisionMetadata> metadata = parseMetadata(log);
+    Map<Revision, RevisionMetadata> page = new LinkedHashMap<>();
+    for (RevisionMetadata entry : metadata.subList(0, Math.min(limit, metadata.size()))) {
+      // As in getMetadata(), the first entry stands for the given revision.
+      page.put(page.isEmpty() ? revision : Revision.create(entry.id, name), entry);
+    }
+    return page;
+  }
+
   /**
    * Parse the output of svn log into Metadata
    *
@@ -26,6 +26,8 @@ import com.google.devtools.moe.client.project.InvalidProject;
 import com.google.devtools.moe.client.repositories.Revision;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
 
 import javax.inject.Inject;
@@ -40,11 +42,13 @@ public class DummyDb implements Db {
   public boolean returnEquivalences;
   public ArrayList<RepositoryEquivalence> equivalences;
   public ArrayList<SubmittedMigration> migrations;
+  public Map<String, Revision> bookkeepingWatermarks;
 
   public DummyDb(boolean returnEquivalences) {
     this.returnEquivalences = returnEquivalences;
     this.equivalences = new ArrayList<RepositoryEquivalence>();
     this.migrations = new ArrayList<SubmittedMigration>();
+    this.bookkeepingWatermarks = new HashMap<String, Revision>();
   }
 
   @Override
@@ -67,11 +71,26 @@ public class DummyDb implements Db {
     }
   }
 
+  @Override
+  public boolean mightHaveEquivalences(Revision revision) {
+    return returnEquivalences;
+  }
+
   @Override
   public boolean noteMigration(SubmittedMigration migration) {
     return !migrations.contains(migration) && migrations.add(migration);
   }
 
+  @Override
+  public Revision findBookkeepingWatermark(String migrationName) {
+    return bookkeepingWatermarks.get(migrationName);
+  }
+
+  @Override
+  public void noteBookkeepingWatermark(String migrationName, Revision revision) {
+    bookkeepingWatermarks.put(migrationName, revision);
+  }
+
   /** Creates DummyDb instances */
   public static class Factory implements Db.Factory {
     public boolean returnEquivalences;
@@ -37,7 +37,9 @@ import com.google.devtools.moe.client.writer.WriterCreator;
 
 import org.joda.time.DateTime;
 
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 import javax.annotation.Nullable;
 import javax.inject.Inject;
@@ -177,6 +179,12 @@ public class DummyRepositoryFactory implements RepositoryType.Factory {
       return null;
     }
 
+    @Override
+    public Map<Revision, RevisionMetadata> getMetadataPage(
+        Revision revision, SearchType searchType, int limit) {
+      return Collections.singletonMap(revision, getMetadata(revision));
+    }
+
     @Override
     public <T> T findRevisions(
         Revision revision, RevisionMatcher<T> matcher, SearchType searchType) {
@@ -189,6 +197,15 @@ public class DummyRepositoryFactory implements RepositoryType.Factory {
               .build();
       return matcher.makeResult(revTree, ImmutableList.of(Revision.create(1, name)));
     }
+
+    @Override
+    public <T> T findRevisions(
+        Revision revision,
+        RevisionMatcher<T> matcher,
+        SearchType searchType,
+        int maxRevisionsToSearch) {
+      return findRevisions(revision, matcher, searchType);
+    }
   }
 
   @Override
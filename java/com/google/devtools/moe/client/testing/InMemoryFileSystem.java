@@ -16,17 +16,29 @@
 
 package com.google.devtools.moe.client.testing;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
 import com.google.common.base.Preconditions;
 import com.google.common.base.Splitter;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.google.common.io.ByteSink;
+import com.google.common.io.ByteSource;
+import com.google.common.io.FileWriteMode;
 import com.google.devtools.moe.client.FileSystem;
 import com.google.devtools.moe.client.Lifetimes;
+import com.google.devtools.moe.client.MoeProblem;
 
 import dagger.Provides;
 
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -53,9 +65,13 @@ public class InMemoryFileSystem implements FileSystem {
   // type (file/directory), executable bit, and anything else needed.
   private final Map<String, String> files = Maps.newTreeMap();
 
+  /** Modification times set by {@link #setLastModified}, by path. Other files' times are 0. */
+  private final Map<String, Long> lastModifiedTimes = Maps.newHashMap();
+
   private int tempDirCounter = 0;
 
   private final Map<File, Lifetime> tempDirLifetimes = Maps.newHashMap();
+  private final Map<Closeable, Lifetime> resourceLifetimes = Maps.newLinkedHashMap();
 
   /**
    * Constructs an {@code InMemoryFileSystem} that is initially empty.
@@ -111,16 +127,34 @@ public class InMemoryFileSystem implements FileSystem {
 
   @Override
   public void cleanUpTempDirs() {
+    Iterator<Entry<Closeable, Lifetime>> resourceIterator = resourceLifetimes.entrySet().iterator();
+    while (resourceIterator.hasNext()) {
+      Entry<Closeable, Lifetime> entry = resourceIterator.next();
+      if (entry.getValue().shouldCleanUp()) {
+        resourceIterator.remove();
+        try {
+          entry.getKey().close();
+        } catch (IOException e) {
+          throw new MoeProblem("Could not close %s: %s", entry.getKey(), e);
+        }
+      }
+    }
     Iterator<Entry<File, Lifetime>> tempDirIterator = tempDirLifetimes.entrySet().iterator();
     while (tempDirIterator.hasNext()) {
       Entry<File, Lifetime> entry = tempDirIterator.next();
       if (entry.getValue().shouldCleanUp()) {
         deleteRecursively(entry.getKey());
+        files.remove(entry.getKey().getAbsolutePath() + SIDECAR_SUFFIX);
         tempDirIterator.remove();
       }
     }
   }
 
+  @Override
+  public void closeOnCleanUp(Lifetime lifetime, Closeable resource) {
+    resourceLifetimes.put(resource, lifetime);
+  }
+
   @Override
   public void setLifetime(File path, Lifetime lifetime) {
     // Testing may use a DummyRepository, which doesn't use temp dirs. So don't be stringent about
@@ -130,6 +164,11 @@ public class InMemoryFileSystem implements FileSystem {
     }
   }
 
+  @Override
+  public boolean isTemporaryDirectory(File path) {
+    return tempDirLifetimes.containsKey(path);
+  }
+
   @Override
   public Set<File> findFiles(File path) {
     checkExistentDirectory(path);
@@ -143,6 +182,15 @@ public class InMemoryFileSystem implements FileSystem {
     return foundFiles;
   }
 
+  @Override
+  public Map<File, FileStat> findFilesWithStats(File path) {
+    Map<File, FileStat> result = Maps.newHashMap();
+    for (File file : findFiles(path)) {
+      result.put(file, FileStat.create(length(file), isExecutable(file)));
+    }
+    return result;
+  }
+
   @Override
   public File[] listFiles(File path) {
     checkExistentDirectory(path);
@@ -207,6 +255,31 @@ public class InMemoryFileSystem implements FileSystem {
     throw new UnsupportedOperationException();
   }
 
+  @Override
+  public void setReadOnly(File f) {
+    // Files aren't linked to each other, so can't change another by being written.
+  }
+
+  @Override
+  public long length(File f) {
+    checkAbsolute(f);
+    String contents = files.get(f.getAbsolutePath());
+    return contents == null ? 0 : contents.getBytes(UTF_8).length;
+  }
+
+  @Override
+  public long lastModified(File f) {
+    Long time = exists(f) ? lastModifiedTimes.get(f.getAbsolutePath()) : null;
+    return time == null ? 0 : time;
+  }
+
+  @Override
+  public void setLastModified(File f, long time) {
+    if (exists(f)) {
+      lastModifiedTimes.put(f.getAbsolutePath(), time);
+    }
+  }
+
   @Override
   public void makeDirsForFile(File f) {
     checkAbsolute(f);
@@ -226,6 +299,11 @@ public class InMemoryFileSystem implements FileSystem {
     files.put(dest.getAbsolutePath(), files.get(src.getAbsolutePath()));
   }
 
+  @Override
+  public void linkOrCopyFile(File src, File dest) {
+    copyFile(src, dest);
+  }
+
   @Override
   public void write(String contents, File f) {
     checkNotAnExistentDirectory(f);
@@ -233,6 +311,22 @@ public class InMemoryFileSystem implements FileSystem {
     files.put(f.getAbsolutePath(), contents);
   }
 
+  @Override
+  public void move(File src, File dest) {
+    checkExistentFile(src);
+    checkNotAnExistentDirectory(dest);
+    files.put(dest.getAbsolutePath(), files.remove(src.getAbsolutePath()));
+  }
+
+  /** Returns a handle to a lock that needn't be taken, there being no other processes. */
+  @Override
+  public Closeable lock(File f) {
+    return new Closeable() {
+      @Override
+      public void close() {}
+    };
+  }
+
   @Override
   public void deleteRecursively(File file) {
     checkExistent(file);
@@ -266,6 +360,34 @@ public class InMemoryFileSystem implements FileSystem {
     return files.get(f.getAbsolutePath());
   }
 
+  @Override
+  public ByteSource asByteSource(File f) {
+    return ByteSource.wrap(fileToString(f).getBytes(UTF_8));
+  }
+
+  @Override
+  public ByteBuffer asByteBuffer(File f) {
+    return ByteBuffer.wrap(fileToString(f).getBytes(UTF_8)).asReadOnlyBuffer();
+  }
+
+  @Override
+  public ByteSink asByteSink(final File f, FileWriteMode... modes) {
+    final boolean append = Arrays.asList(modes).contains(FileWriteMode.APPEND);
+    return new ByteSink() {
+      @Override
+      public OutputStream openStream() {
+        return new ByteArrayOutputStream() {
+          @Override
+          public void close() {
+            String written = new String(toByteArray(), UTF_8);
+            InMemoryFileSystem.this.write(
+                append && exists(f) ? fileToString(f) + written : written, f);
+          }
+        };
+      }
+    };
+  }
+
   private static void checkAbsolute(File file) {
     Preconditions.checkArgument(
         file.isAbsolute(), "An absolute path was expected: %s", file.getAbsolutePath());
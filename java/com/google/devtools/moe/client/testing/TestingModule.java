@@ -18,8 +18,10 @@ package com.google.devtools.moe.client.testing;
 import static dagger.Provides.Type.SET;
 
 import com.google.devtools.moe.client.Ui;
+import com.google.devtools.moe.client.codebase.CodebaseCache;
 import com.google.devtools.moe.client.project.ProjectContextFactory;
 import com.google.devtools.moe.client.repositories.RepositoryType;
+import com.google.devtools.moe.client.repositories.RevisionMetadataCache;
 import com.google.devtools.moe.client.tools.FileDifference.ConcreteFileDiffer;
 import com.google.devtools.moe.client.tools.FileDifference.FileDiffer;
 
@@ -51,6 +53,18 @@ public class TestingModule {
     return cfd;
   }
 
+  @Provides
+  @Singleton
+  RevisionMetadataCache revisionMetadataCache() {
+    return RevisionMetadataCache.disabled();
+  }
+
+  @Provides
+  @Singleton
+  CodebaseCache codebaseCache() {
+    return CodebaseCache.disabled();
+  }
+
   @Provides(type = SET)
   RepositoryType.Factory dummyRepository(DummyRepositoryFactory implementation) {
     return implementation;
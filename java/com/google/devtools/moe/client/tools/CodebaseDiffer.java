@@ -15,41 +15,177 @@
  */
 package com.google.devtools.moe.client.tools;
 
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.devtools.moe.client.FileSystem.FileStat;
+import com.google.devtools.moe.client.MoeProblem;
 import com.google.devtools.moe.client.codebase.Codebase;
+import com.google.devtools.moe.client.codebase.CodebaseFingerprint;
 import com.google.devtools.moe.client.tools.FileDifference.FileDiffer;
+import com.google.devtools.moe.client.tools.FileDifference.StatFileDiffer;
 
-import java.util.Set;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 
-/** Performs a difference analysis using an underlying {@code FileDiffer}. */
+/**
+ * Performs a difference analysis using an underlying {@code FileDiffer}, on as many threads as
+ * it's given jobs.
+ */
 public class CodebaseDiffer {
+  /** Shards of files per job, so that each job gets several, and they finish together. */
+  private static final int SHARDS_PER_JOB = 4;
+
   private final FileDiffer differ;
+  private final int jobs;
 
   @Inject
   public CodebaseDiffer(FileDiffer differ) {
+    this(differ, 1);
+  }
+
+  /**
+   * Creates a differ that diffs up to {@code jobs} files at once. The {@link FileDiffer} must be
+   * thread-safe.
+   */
+  public CodebaseDiffer(FileDiffer differ, int jobs) {
+    Preconditions.checkArgument(jobs > 0, "jobs must be positive: %s", jobs);
     this.differ = differ;
+    this.jobs = jobs;
   }
 
   /**
-   * Diff two {@link Codebase} instances with a {@link FileDiffer}.
+   * Diff two {@link Codebase} instances with a {@link FileDiffer}. The differences are listed in
+   * the same order however many jobs diff them. A {@link StatFileDiffer} is given the stats of
+   * every file, as read when the codebases' files are found.
    */
   public CodebaseDifference diffCodebases(Codebase codebase1, Codebase codebase2) {
-    Set<String> filenames =
-        Sets.union(codebase1.getRelativeFilenames(), codebase2.getRelativeFilenames());
+    Map<String, FileStat> stats1 = null;
+    Map<String, FileStat> stats2 = null;
+    List<String> filenames;
+    if (differ instanceof StatFileDiffer) {
+      stats1 = codebase1.getFileStats();
+      stats2 = codebase2.getFileStats();
+      filenames = ImmutableList.copyOf(Sets.union(stats1.keySet(), stats2.keySet()));
+    } else {
+      filenames =
+          ImmutableList.copyOf(
+              Sets.union(codebase1.getRelativeFilenames(), codebase2.getRelativeFilenames()));
+    }
+
+    return new CodebaseDifference(
+        codebase1,
+        codebase2,
+        ImmutableSet.copyOf(diff(codebase1, stats1, codebase2, stats2, filenames)));
+  }
+
+  /**
+   * Returns whether two {@link Codebase} instances differ, as
+   * {@code diffCodebases(codebase1, codebase2).areDifferent()} would, but diffing only the files
+   * whose fingerprints differ, and none if the codebases' root hashes are the same.
+   */
+  public boolean areDifferent(Codebase codebase1, Codebase codebase2) {
+    CodebaseFingerprint fingerprint1 = codebase1.fingerprint();
+    CodebaseFingerprint fingerprint2 = codebase2.fingerprint();
+    if (fingerprint1.rootHash().equals(fingerprint2.rootHash())) {
+      return false;
+    }
+    // The FileDiffer still has the last word on files whose hashes differ.
+    List<String> filenames = fingerprint1.differingFiles(fingerprint2).asList();
+    return !diff(codebase1, null, codebase2, null, filenames).isEmpty();
+  }
 
-    ImmutableSet.Builder<FileDifference> fileDiffs = ImmutableSet.builder();
+  /**
+   * Returns the differences among the given files, with the stats of each codebase's files if
+   * they're to be given to a {@link StatFileDiffer}, or null if not.
+   */
+  private List<FileDifference> diff(
+      Codebase codebase1,
+      @Nullable Map<String, FileStat> stats1,
+      Codebase codebase2,
+      @Nullable Map<String, FileStat> stats2,
+      List<String> filenames) {
+    if (jobs == 1 || filenames.size() < 2) {
+      return diffFiles(codebase1, stats1, codebase2, stats2, filenames);
+    }
+    return diffFilesInParallel(codebase1, stats1, codebase2, stats2, filenames);
+  }
 
+  /** Returns the differences among the given files, in order. */
+  private List<FileDifference> diffFiles(
+      Codebase codebase1,
+      @Nullable Map<String, FileStat> stats1,
+      Codebase codebase2,
+      @Nullable Map<String, FileStat> stats2,
+      List<String> filenames) {
+    List<FileDifference> fileDiffs = new ArrayList<>();
     for (String filename : filenames) {
+      File file1 = codebase1.getFile(filename);
+      File file2 = codebase2.getFile(filename);
       FileDifference fileDiff =
-          differ.diffFiles(filename, codebase1.getFile(filename), codebase2.getFile(filename));
+          (stats1 != null && stats2 != null)
+              ? ((StatFileDiffer) differ)
+                  .diffFiles(filename, file1, stats1.get(filename), file2, stats2.get(filename))
+              : differ.diffFiles(filename, file1, file2);
       if (fileDiff.isDifferent()) {
         fileDiffs.add(fileDiff);
       }
     }
+    return fileDiffs;
+  }
 
-    return new CodebaseDifference(codebase1, codebase2, fileDiffs.build());
+  private List<FileDifference> diffFilesInParallel(
+      final Codebase codebase1,
+      @Nullable final Map<String, FileStat> stats1,
+      final Codebase codebase2,
+      @Nullable final Map<String, FileStat> stats2,
+      List<String> filenames) {
+    int shardSize = Math.max(1, filenames.size() / (jobs * SHARDS_PER_JOB));
+    List<List<String>> shards = Lists.partition(filenames, shardSize);
+    ExecutorService executor =
+        Executors.newFixedThreadPool(
+            Math.min(jobs, shards.size()),
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("moe-diff-%d").build());
+    try {
+      List<Future<List<FileDifference>>> results = new ArrayList<>();
+      for (final List<String> shard : shards) {
+        results.add(
+            executor.submit(
+                new Callable<List<FileDifference>>() {
+                  @Override
+                  public List<FileDifference> call() {
+                    return diffFiles(codebase1, stats1, codebase2, stats2, shard);
+                  }
+                }));
+      }
+      // Shards are merged in order, so the differences are in the order of the filenames.
+      List<FileDifference> fileDiffs = new ArrayList<>();
+      for (Future<List<FileDifference>> result : results) {
+        fileDiffs.addAll(result.get());
+      }
+      return fileDiffs;
+    } catch (ExecutionException e) {
+      Throwables.propagateIfPossible(e.getCause());
+      throw new MoeProblem("Error diffing codebases %s and %s: %s", codebase1, codebase2, e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new MoeProblem("Interrupted while diffing codebases %s and %s", codebase1, codebase2);
+    } finally {
+      executor.shutdownNow();
+    }
   }
 }
@@ -21,6 +21,7 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.devtools.moe.client.CommandRunner;
 import com.google.devtools.moe.client.FileSystem;
+import com.google.devtools.moe.client.FileSystem.FileStat;
 import com.google.devtools.moe.client.MoeProblem;
 
 import java.io.File;
@@ -68,6 +69,8 @@ public abstract class FileDifference {
   /**
    * A FileDiffer diffs files. This exists as an interface instead of as a static function
    * so that we can mock it out.
+   *
+   * <p>Implementations must be thread-safe, as {@link CodebaseDiffer} may diff many files at once.
    */
   public static interface FileDiffer {
     /**
@@ -82,6 +85,25 @@ public abstract class FileDifference {
     public FileDifference diffFiles(String relativeFilename, File file1, File file2);
   }
 
+  /**
+   * A {@link FileDiffer} that can be given the stats of the files it diffs, as read when their
+   * codebases' files were found, rather than reading them again file by file.
+   */
+  public static interface StatFileDiffer extends FileDiffer {
+    /**
+     * Diffs a file in two codebases, as {@link #diffFiles(String, File, File)} does.
+     *
+     * @param stat1  the stats of file1, or null if it doesn't exist
+     * @param stat2  the stats of file2, or null if it doesn't exist
+     */
+    public FileDifference diffFiles(
+        String relativeFilename,
+        File file1,
+        @Nullable FileStat stat1,
+        File file2,
+        @Nullable FileStat stat2);
+  }
+
   /**
    * Error code returned by diff when files are different.
    */
@@ -112,7 +134,8 @@ public abstract class FileDifference {
 
   /**
    * A {@link FileDiffer} implementation backed by a {@link FileSystem} using the {@code diff}
-   * command from a forked command-line.
+   * command from a forked command-line. It is thread-safe if its {@link CommandRunner} and
+   * {@link FileSystem} are.
    */
   public static class ConcreteFileDiffer implements FileDiffer {
     private final CommandRunner cmd;
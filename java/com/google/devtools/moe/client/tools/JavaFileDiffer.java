@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2015 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.moe.client.tools;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.base.Preconditions;
+import com.google.devtools.moe.client.FileSystem;
+import com.google.devtools.moe.client.FileSystem.FileStat;
+import com.google.devtools.moe.client.MoeProblem;
+import com.google.devtools.moe.client.tools.FileDifference.Comparison;
+import com.google.devtools.moe.client.tools.FileDifference.FileDiffer;
+import com.google.devtools.moe.client.tools.FileDifference.StatFileDiffer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+
+/**
+ * A {@link FileDiffer} that compares files within the JVM, rather than forking {@code diff} for
+ * each pair. Files are compared by length, then by contents, and only those whose contents
+ * differ are diffed, into the same output {@code diff -N} would give. Given the files' stats, it
+ * reads only the contents of those of equal length. It keeps no state of its own, so is
+ * thread-safe if its {@link FileSystem} is.
+ */
+public class JavaFileDiffer implements StatFileDiffer {
+  /** As with diff, a file is binary if a NUL byte occurs within its first block. */
+  private static final int BINARY_CHECK_SIZE = 4096;
+
+  private final FileSystem filesystem;
+
+  @Inject
+  public JavaFileDiffer(FileSystem filesystem) {
+    this.filesystem = filesystem;
+  }
+
+  @Override
+  public FileDifference diffFiles(String relativeFilename, File file1, File file2) {
+    return diffFiles(relativeFilename, file1, stat(file1), file2, stat(file2));
+  }
+
+  @Override
+  public FileDifference diffFiles(
+      String relativeFilename,
+      File file1,
+      @Nullable FileStat stat1,
+      File file2,
+      @Nullable FileStat stat2) {
+    Preconditions.checkArgument(
+        stat1 != null || stat2 != null, "Neither file exists: %s, %s", file1, file2);
+
+    Comparison existence = Comparison.diffBools(stat1 != null, stat2 != null);
+    Comparison executability =
+        Comparison.diffBools(
+            stat1 != null && stat1.executable(), stat2 != null && stat2.executable());
+
+    // Like diff -N, treat absent files as empty.
+    File contents1 = (stat1 != null) ? file1 : null;
+    File contents2 = (stat2 != null) ? file2 : null;
+    String contentDiff = null;
+    try {
+      if (!sameContents(contents1, length(stat1), contents2, length(stat2))) {
+        contentDiff =
+            contentDiff(file1, readContents(contents1), file2, readContents(contents2));
+      }
+    } catch (IOException e) {
+      throw new MoeProblem("Could not compare %s and %s: %s", file1, file2, e);
+    }
+
+    return FileDifference.create(
+        relativeFilename, file1, file2, existence, executability, contentDiff);
+  }
+
+  /** Reads the stats of a file not found with its codebase's, or null if it doesn't exist. */
+  @Nullable
+  private FileStat stat(File file) {
+    return filesystem.exists(file)
+        ? FileStat.create(filesystem.length(file), filesystem.isExecutable(file))
+        : null;
+  }
+
+  private static long length(@Nullable FileStat stat) {
+    return (stat == null) ? 0 : stat.length();
+  }
+
+  private boolean sameContents(
+      @Nullable File file1, long length1, @Nullable File file2, long length2)
+      throws IOException {
+    if (length1 != length2) {
+      return false;
+    }
+    if (length1 == 0) {
+      return true;
+    }
+    return filesystem.asByteSource(file1).contentEquals(filesystem.asByteSource(file2));
+  }
+
+  private byte[] readContents(@Nullable File file) throws IOException {
+    return (file == null) ? new byte[0] : filesystem.asByteSource(file).read();
+  }
+
+  /**
+   * Returns the differences between two files' contents, in diff's "normal" format, or as diff
+   * reports binary files, or null if the contents are the same.
+   */
+  @Nullable
+  static String contentDiff(File file1, byte[] contents1, File file2, byte[] contents2) {
+    if (Arrays.equals(contents1, contents2)) {
+      return null;
+    }
+    if (isBinary(contents1) || isBinary(contents2)) {
+      return String.format(
+          "Binary files %s and %s differ\n", file1.getAbsolutePath(), file2.getAbsolutePath());
+    }
+
+    Map<String, Integer> equivalenceClasses = new HashMap<>();
+    List<String> lines1 = LineDiff.splitLines(contents1);
+    List<String> lines2 = LineDiff.splitLines(contents2);
+    List<LineDiff.Change> changes =
+        LineDiff.diff(
+            LineDiff.equivalenceClasses(lines1, equivalenceClasses),
+            LineDiff.equivalenceClasses(lines2, equivalenceClasses));
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (LineDiff.Change change : changes) {
+      StringBuilder header = new StringBuilder();
+      appendRange(header, change.line1, change.deleted);
+      header.append(change.inserted == 0 ? 'd' : change.deleted == 0 ? 'a' : 'c');
+      appendRange(header, change.line2, change.inserted);
+      header.append('\n');
+      write(out, header.toString());
+      for (int i = change.line1; i < change.line1 + change.deleted; i++) {
+        writeLine(out, "< ", lines1.get(i));
+      }
+      if (change.deleted > 0 && change.inserted > 0) {
+        write(out, "---\n");
+      }
+      for (int i = change.line2; i < change.line2 + change.inserted; i++) {
+        writeLine(out, "> ", lines2.get(i));
+      }
+    }
+    return new String(out.toByteArray(), UTF_8);
+  }
+
+  private static boolean isBinary(byte[] contents) {
+    for (int i = 0; i < Math.min(contents.length, BINARY_CHECK_SIZE); i++) {
+      if (contents[i] == 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Appends a range of lines as diff numbers them: from one, or the line before if empty. */
+  private static void appendRange(StringBuilder out, int start, int count) {
+    if (count > 1) {
+      out.append(start + 1).append(',');
+    }
+    out.append(start + count);
+  }
+
+  private static void writeLine(ByteArrayOutputStream out, String prefix, String line) {
+    write(out, prefix);
+    write(out, line);
+    if (!line.endsWith("\n")) {
+      write(out, "\n\\ No newline at end of file\n");
+    }
+  }
+
+  private static void write(ByteArrayOutputStream out, String text) {
+    byte[] bytes = text.getBytes(ISO_8859_1);
+    out.write(bytes, 0, bytes.length);
+  }
+}
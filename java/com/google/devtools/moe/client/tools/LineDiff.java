@@ -0,0 +1,596 @@
+/*
+ * Copyright (c) 2015 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.moe.client.tools;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.primitives.Ints;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds the changes between two sequences of lines, the way GNU diff does: after setting aside
+ * their common prefix and suffix, and lines of one that never occur in the other, it runs Myers'
+ * O(ND) algorithm on what's left, then slides each run of changes to where diff would place it.
+ * So for all but the largest edits (where both fall back to the same heuristic) the changes
+ * found are those diff itself would report.
+ *
+ * <p>Lines are given as equivalence classes: two lines are equal if and only if their classes
+ * are.
+ */
+public final class LineDiff {
+
+  /**
+   * Lines {@code [line1, line1 + deleted)} of the first sequence, replaced by lines
+   * {@code [line2, line2 + inserted)} of the second.
+   */
+  public static final class Change {
+    public final int line1;
+    public final int deleted;
+    public final int line2;
+    public final int inserted;
+
+    Change(int line1, int deleted, int line2, int inserted) {
+      this.line1 = line1;
+      this.deleted = deleted;
+      this.line2 = line2;
+      this.inserted = inserted;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Change)) {
+        return false;
+      }
+      Change that = (Change) o;
+      return line1 == that.line1
+          && deleted == that.deleted
+          && line2 == that.line2
+          && inserted == that.inserted;
+    }
+
+    @Override
+    public int hashCode() {
+      return Arrays.hashCode(new int[] {line1, deleted, line2, inserted});
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%d-%d +%d+%d", line1, deleted, line2, inserted);
+    }
+  }
+
+  private LineDiff() {}
+
+  /**
+   * Returns the changes that turn {@code lines1} into {@code lines2}, in order.
+   */
+  public static List<Change> diff(int[] lines1, int[] lines2) {
+    return diff(lines1, lines2, 0);
+  }
+
+  /**
+   * Returns the changes that turn {@code lines1} into {@code lines2}, in order, keeping up to
+   * {@code horizonLines} lines of their common prefix and suffix in the comparison, as
+   * {@code diff --horizon-lines} does, so that changes may slide into them.
+   */
+  public static List<Change> diff(int[] lines1, int[] lines2, int horizonLines) {
+    int prefix = 0;
+    while (prefix < lines1.length
+        && prefix < lines2.length
+        && lines1[prefix] == lines2[prefix]) {
+      prefix++;
+    }
+    prefix = Math.max(0, prefix - horizonLines);
+    int suffix = 0;
+    while (suffix < lines1.length - prefix
+        && suffix < lines2.length - prefix
+        && lines1[lines1.length - 1 - suffix] == lines2[lines2.length - 1 - suffix]) {
+      suffix++;
+    }
+    suffix = Math.max(0, suffix - horizonLines);
+    int[] equivs1 = Arrays.copyOfRange(lines1, prefix, lines1.length - suffix);
+    int[] equivs2 = Arrays.copyOfRange(lines2, prefix, lines2.length - suffix);
+
+    // changed[i + 1] is whether line i has changed; the first and last elements are sentinels.
+    boolean[] changed1 = new boolean[equivs1.length + 2];
+    boolean[] changed2 = new boolean[equivs2.length + 2];
+    new Comparison(equivs1, equivs2, changed1, changed2).compare();
+    shiftBoundaries(equivs1, changed1, changed2);
+    shiftBoundaries(equivs2, changed2, changed1);
+
+    ImmutableList.Builder<Change> changes = ImmutableList.builder();
+    int i1 = 0;
+    int i2 = 0;
+    while (i1 < equivs1.length || i2 < equivs2.length) {
+      if (changed1[i1 + 1] || changed2[i2 + 1]) {
+        int start1 = i1;
+        int start2 = i2;
+        while (changed1[i1 + 1]) {
+          i1++;
+        }
+        while (changed2[i2 + 1]) {
+          i2++;
+        }
+        changes.add(new Change(prefix + start1, i1 - start1, prefix + start2, i2 - start2));
+      }
+      i1++;
+      i2++;
+    }
+    return changes.build();
+  }
+
+  /**
+   * Moves each run of changed lines as far back as it can go, then as far forward, merging it
+   * with any neighbouring runs on the way, then back again until it lines up with a run of
+   * changes in the other sequence, if it passed one.
+   */
+  private static void shiftBoundaries(int[] equivs, boolean[] changed, boolean[] otherChanged) {
+    int i = 0;
+    int j = 0;
+    int end = equivs.length;
+    while (true) {
+      // Find the start of the next run of changes, and the corresponding point in the other.
+      while (i < end && !changed[i + 1]) {
+        while (otherChanged[++j]) {}
+        i++;
+      }
+      if (i == end) {
+        return;
+      }
+      int start = i;
+      while (changed[++i + 1]) {}
+      while (otherChanged[j + 1]) {
+        j++;
+      }
+
+      int runLength;
+      int corresponding;
+      do {
+        runLength = i - start;
+
+        while (start > 0 && equivs[start - 1] == equivs[i - 1]) {
+          changed[--start + 1] = true;
+          changed[--i + 1] = false;
+          while (changed[start]) {
+            start--;
+          }
+          while (otherChanged[--j + 1]) {}
+        }
+
+        // The end of the run, at the last point it lined up with a run in the other sequence.
+        corresponding = otherChanged[j] ? i : end;
+
+        while (i != end && equivs[start] == equivs[i]) {
+          changed[++start] = false;
+          changed[++i] = true;
+          while (changed[i + 1]) {
+            i++;
+          }
+          while (otherChanged[++j + 1]) {
+            corresponding = i;
+          }
+        }
+      } while (runLength != i - start);
+
+      while (corresponding < i) {
+        changed[--start + 1] = true;
+        changed[--i + 1] = false;
+        while (otherChanged[--j + 1]) {}
+      }
+    }
+  }
+
+  /** The state of a comparison of two sequences, marking the lines of each that changed. */
+  private static final class Comparison {
+    private final int[] equivs1;
+    private final int[] equivs2;
+    private final boolean[] changed1;
+    private final boolean[] changed2;
+
+    /** The lines not discarded before the search, and their indexes in the full sequences. */
+    private int[] xv;
+    private int[] yv;
+    private int[] xIndexes;
+    private int[] yIndexes;
+
+    /** The furthest-reaching paths of the forward and backward searches, by diagonal. */
+    private int[] fdiag;
+    private int[] bdiag;
+    private int diagOffset;
+    private int tooExpensive;
+
+    /** Where {@link #diag} split the problem, and whether each half needs a minimal search. */
+    private int xmid;
+    private int ymid;
+    private boolean loMinimal;
+    private boolean hiMinimal;
+
+    Comparison(int[] equivs1, int[] equivs2, boolean[] changed1, boolean[] changed2) {
+      this.equivs1 = equivs1;
+      this.equivs2 = equivs2;
+      this.changed1 = changed1;
+      this.changed2 = changed2;
+    }
+
+    void compare() {
+      discardConfusingLines();
+
+      int diags = xv.length + yv.length + 3;
+      fdiag = new int[diags];
+      bdiag = new int[diags];
+      diagOffset = yv.length + 1;
+      tooExpensive = 1;
+      for (int d = diags; d != 0; d >>= 2) {
+        tooExpensive <<= 1;
+      }
+      tooExpensive = Math.max(4096, tooExpensive);
+
+      compareSeq(0, xv.length, 0, yv.length, false);
+    }
+
+    /**
+     * Sets aside lines that can't be matched (those absent from the other sequence), and those
+     * matching so often as to mislead the search when they're among many unmatchable lines, by
+     * marking them changed up front. This keeps the search both fast and from aligning sequences
+     * on lines like blanks and braces alone.
+     */
+    private void discardConfusingLines() {
+      int classes = 0;
+      for (int line : equivs1) {
+        classes = Math.max(classes, line + 1);
+      }
+      for (int line : equivs2) {
+        classes = Math.max(classes, line + 1);
+      }
+      int[] counts1 = new int[classes];
+      int[] counts2 = new int[classes];
+      for (int line : equivs1) {
+        counts1[line]++;
+      }
+      for (int line : equivs2) {
+        counts2[line]++;
+      }
+
+      byte[] discards1 = findDiscards(equivs1, counts2);
+      byte[] discards2 = findDiscards(equivs2, counts1);
+      xIndexes = undiscarded(discards1, changed1);
+      yIndexes = undiscarded(discards2, changed2);
+      xv = new int[xIndexes.length];
+      for (int i = 0; i < xv.length; i++) {
+        xv[i] = equivs1[xIndexes[i]];
+      }
+      yv = new int[yIndexes.length];
+      for (int i = 0; i < yv.length; i++) {
+        yv[i] = equivs2[yIndexes[i]];
+      }
+    }
+
+    private static final byte KEEP = 0;
+    private static final byte DISCARD = 1;
+    private static final byte PROVISIONAL = 2;
+
+    private static byte[] findDiscards(int[] equivs, int[] otherCounts) {
+      int end = equivs.length;
+      byte[] discards = new byte[end];
+
+      // Lines matching more than about the square root of the line count are provisional.
+      int many = 5;
+      for (int tem = (end / 64) >> 2; tem > 0; tem >>= 2) {
+        many *= 2;
+      }
+      for (int i = 0; i < end; i++) {
+        int matches = otherCounts[equivs[i]];
+        if (matches == 0) {
+          discards[i] = DISCARD;
+        } else if (matches > many) {
+          discards[i] = PROVISIONAL;
+        }
+      }
+
+      // Discard provisional lines only within a run of discards, between unmatchable lines.
+      for (int i = 0; i < end; i++) {
+        if (discards[i] == PROVISIONAL) {
+          discards[i] = KEEP;
+        } else if (discards[i] != KEEP) {
+          int j;
+          int provisional = 0;
+          for (j = i; j < end && discards[j] != KEEP; j++) {
+            if (discards[j] == PROVISIONAL) {
+              provisional++;
+            }
+          }
+          while (j > i && discards[j - 1] == PROVISIONAL) {
+            discards[--j] = KEEP;
+            provisional--;
+          }
+          int length = j - i;
+
+          if (provisional * 4 > length) {
+            while (j > i) {
+              if (discards[--j] == PROVISIONAL) {
+                discards[j] = KEEP;
+              }
+            }
+          } else {
+            // Keep any subrun of about the square root of a quarter of the run's length.
+            int minimum = 1;
+            for (int tem = length >> 2; (tem >>= 2) > 0; ) {
+              minimum <<= 1;
+            }
+            minimum++;
+            int consecutive = 0;
+            for (j = 0; j < length; j++) {
+              if (discards[i + j] != PROVISIONAL) {
+                consecutive = 0;
+              } else if (minimum == ++consecutive) {
+                j -= consecutive;
+              } else if (minimum < consecutive) {
+                discards[i + j] = KEEP;
+              }
+            }
+
+            // Keep provisionals near either end of the run, up to 3 unmatchable lines in a row.
+            consecutive = 0;
+            for (j = 0; j < length; j++) {
+              if (j >= 8 && discards[i + j] == DISCARD) {
+                break;
+              }
+              if (discards[i + j] == PROVISIONAL) {
+                consecutive = 0;
+                discards[i + j] = KEEP;
+              } else if (discards[i + j] == KEEP) {
+                consecutive = 0;
+              } else {
+                consecutive++;
+              }
+              if (consecutive == 3) {
+                break;
+              }
+            }
+            i += length - 1;
+            consecutive = 0;
+            for (j = 0; j < length; j++) {
+              if (j >= 8 && discards[i - j] == DISCARD) {
+                break;
+              }
+              if (discards[i - j] == PROVISIONAL) {
+                consecutive = 0;
+                discards[i - j] = KEEP;
+              } else if (discards[i - j] == KEEP) {
+                consecutive = 0;
+              } else {
+                consecutive++;
+              }
+              if (consecutive == 3) {
+                break;
+              }
+            }
+          }
+        }
+      }
+      return discards;
+    }
+
+    /** Marks discarded lines changed, returning the indexes of the rest. */
+    private static int[] undiscarded(byte[] discards, boolean[] changed) {
+      int[] indexes = new int[discards.length];
+      int kept = 0;
+      for (int i = 0; i < discards.length; i++) {
+        if (discards[i] == KEEP) {
+          indexes[kept++] = i;
+        } else {
+          changed[i + 1] = true;
+        }
+      }
+      return Arrays.copyOf(indexes, kept);
+    }
+
+    /**
+     * Marks the changes between {@code xv[xoff, xlim)} and {@code yv[yoff, ylim)}, by splitting
+     * them around a point on a shortest edit path, and recursing on each half.
+     */
+    private void compareSeq(int xoff, int xlim, int yoff, int ylim, boolean findMinimal) {
+      while (xoff < xlim && yoff < ylim && xv[xoff] == yv[yoff]) {
+        xoff++;
+        yoff++;
+      }
+      while (xoff < xlim && yoff < ylim && xv[xlim - 1] == yv[ylim - 1]) {
+        xlim--;
+        ylim--;
+      }
+
+      if (xoff == xlim) {
+        for (; yoff < ylim; yoff++) {
+          changed2[yIndexes[yoff] + 1] = true;
+        }
+      } else if (yoff == ylim) {
+        for (; xoff < xlim; xoff++) {
+          changed1[xIndexes[xoff] + 1] = true;
+        }
+      } else {
+        diag(xoff, xlim, yoff, ylim, findMinimal);
+        int x = xmid;
+        int y = ymid;
+        boolean hi = hiMinimal;
+        compareSeq(xoff, x, yoff, y, loMinimal);
+        compareSeq(x, xlim, y, ylim, hi);
+      }
+    }
+
+    /**
+     * Finds the midpoint of a shortest edit path, searching forward from the start and backward
+     * from the end until the two meet. If that costs too much, settles for the point furthest
+     * along either search.
+     */
+    private void diag(int xoff, int xlim, int yoff, int ylim, boolean findMinimal) {
+      int[] fd = fdiag;
+      int[] bd = bdiag;
+      int o = diagOffset;
+      int dmin = xoff - ylim;
+      int dmax = xlim - yoff;
+      int fmid = xoff - yoff;
+      int bmid = xlim - ylim;
+      int fmin = fmid;
+      int fmax = fmid;
+      int bmin = bmid;
+      int bmax = bmid;
+      boolean odd = ((fmid - bmid) & 1) != 0;
+
+      fd[o + fmid] = xoff;
+      bd[o + bmid] = xlim;
+
+      for (int c = 1; ; c++) {
+        if (fmin > dmin) {
+          fd[o + --fmin - 1] = -1;
+        } else {
+          ++fmin;
+        }
+        if (fmax < dmax) {
+          fd[o + ++fmax + 1] = -1;
+        } else {
+          --fmax;
+        }
+        for (int d = fmax; d >= fmin; d -= 2) {
+          int tlo = fd[o + d - 1];
+          int thi = fd[o + d + 1];
+          int x = tlo < thi ? thi : tlo + 1;
+          int y = x - d;
+          while (x < xlim && y < ylim && xv[x] == yv[y]) {
+            x++;
+            y++;
+          }
+          fd[o + d] = x;
+          if (odd && bmin <= d && d <= bmax && bd[o + d] <= x) {
+            split(x, y, true, true);
+            return;
+          }
+        }
+
+        if (bmin > dmin) {
+          bd[o + --bmin - 1] = Integer.MAX_VALUE;
+        } else {
+          ++bmin;
+        }
+        if (bmax < dmax) {
+          bd[o + ++bmax + 1] = Integer.MAX_VALUE;
+        } else {
+          --bmax;
+        }
+        for (int d = bmax; d >= bmin; d -= 2) {
+          int tlo = bd[o + d - 1];
+          int thi = bd[o + d + 1];
+          int x = tlo < thi ? tlo : thi - 1;
+          int y = x - d;
+          while (xoff < x && yoff < y && xv[x - 1] == yv[y - 1]) {
+            x--;
+            y--;
+          }
+          bd[o + d] = x;
+          if (!odd && fmin <= d && d <= fmax && x <= fd[o + d]) {
+            split(x, y, true, true);
+            return;
+          }
+        }
+
+        if (findMinimal || c < tooExpensive) {
+          continue;
+        }
+
+        // Gone well beyond the call of duty: split at the best point either search reached.
+        int fxybest = -1;
+        int fxbest = 0;
+        for (int d = fmax; d >= fmin; d -= 2) {
+          int x = Math.min(fd[o + d], xlim);
+          int y = x - d;
+          if (ylim < y) {
+            x = ylim + d;
+            y = ylim;
+          }
+          if (fxybest < x + y) {
+            fxybest = x + y;
+            fxbest = x;
+          }
+        }
+        int bxybest = Integer.MAX_VALUE;
+        int bxbest = 0;
+        for (int d = bmax; d >= bmin; d -= 2) {
+          int x = Math.max(xoff, bd[o + d]);
+          int y = x - d;
+          if (y < yoff) {
+            x = yoff + d;
+            y = yoff;
+          }
+          if (x + y < bxybest) {
+            bxybest = x + y;
+            bxbest = x;
+          }
+        }
+        if ((xlim + ylim) - bxybest < fxybest - (xoff + yoff)) {
+          split(fxbest, fxybest - fxbest, true, false);
+        } else {
+          split(bxbest, bxybest - bxbest, false, true);
+        }
+        return;
+      }
+    }
+
+    private void split(int x, int y, boolean loMinimal, boolean hiMinimal) {
+      this.xmid = x;
+      this.ymid = y;
+      this.loMinimal = loMinimal;
+      this.hiMinimal = hiMinimal;
+    }
+  }
+
+  /**
+   * Splits contents into lines, each with its newline, if any. The lines are decoded as
+   * ISO-8859-1, byte for byte, so that lines compare equal only if their bytes do.
+   */
+  static List<String> splitLines(byte[] contents) {
+    List<String> lines = new ArrayList<>();
+    int start = 0;
+    for (int i = 0; i < contents.length; i++) {
+      if (contents[i] == '\n') {
+        lines.add(new String(contents, start, i + 1 - start, ISO_8859_1));
+        start = i + 1;
+      }
+    }
+    if (start < contents.length) {
+      lines.add(new String(contents, start, contents.length - start, ISO_8859_1));
+    }
+    return lines;
+  }
+
+  /** Returns the lines' classes, numbering lines not yet in {@code classes} as they come. */
+  static int[] equivalenceClasses(List<String> lines, Map<String, Integer> classes) {
+    List<Integer> equivs = new ArrayList<>(lines.size());
+    for (String line : lines) {
+      Integer equiv = classes.get(line);
+      if (equiv == null) {
+        equiv = classes.size();
+        classes.put(line, equiv);
+      }
+      equivs.add(equiv);
+    }
+    return Ints.toArray(equivs);
+  }
+}
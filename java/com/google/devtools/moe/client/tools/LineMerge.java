@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2015 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.moe.client.tools;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Merges the changes between an original file and a modified one into another modification of
+ * it, as {@code merge(1)} does, by way of {@code diff3 -E -am}. Each file is diffed against the
+ * original with {@link LineDiff}, and the changes from both that overlap or touch are grouped
+ * into blocks. A block changed in only the modified file takes its lines, one changed the same
+ * way in both keeps them, and one changed differently in each is a conflict, written out as:
+ * <pre>
+ * &lt;&lt;&lt;&lt;&lt;&lt;&lt; <i>label of the file merged into</i>
+ * <i>its lines</i>
+ * =======
+ * <i>the modified file's lines</i>
+ * &gt;&gt;&gt;&gt;&gt;&gt;&gt; <i>label of the modified file</i>
+ * </pre>
+ */
+public final class LineMerge {
+
+  /** The merged contents, and whether any changes conflicted. */
+  public static final class Result {
+    public final byte[] merged;
+    public final boolean conflicted;
+
+    Result(byte[] merged, boolean conflicted) {
+      this.merged = merged;
+      this.conflicted = conflicted;
+    }
+  }
+
+  /** The {@code --horizon-lines} diff3 runs diff with. */
+  private static final int HORIZON_LINES = 100;
+
+  private static final int MINE = 0;
+  private static final int YOURS = 1;
+
+  private LineMerge() {}
+
+  /**
+   * Merges the changes from {@code original} to {@code yours} into {@code mine}, labelling any
+   * conflicts with {@code mineLabel} and {@code yoursLabel}.
+   */
+  public static Result merge(
+      byte[] mine, byte[] original, byte[] yours, String mineLabel, String yoursLabel) {
+    Map<String, Integer> classes = new HashMap<>();
+    List<String> originalLines = LineDiff.splitLines(original);
+    int[] originalClasses = LineDiff.equivalenceClasses(originalLines, classes);
+    List<List<String>> lines = Arrays.asList(LineDiff.splitLines(mine), LineDiff.splitLines(yours));
+    int[][] lineClasses = new int[2][];
+    List<List<LineDiff.Change>> changes = new ArrayList<>(2);
+    for (int file = MINE; file <= YOURS; file++) {
+      lineClasses[file] = LineDiff.equivalenceClasses(lines.get(file), classes);
+      // As diff3 does, diff each file against the original rather than the other way around,
+      // and with the same horizon, so that where several alignments would do, the same one is
+      // chosen. So in these changes, the "1" side is the file and the "2" side the original.
+      changes.add(LineDiff.diff(lineClasses[file], originalClasses, HORIZON_LINES));
+    }
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    boolean conflicted = false;
+    int[] next = new int[2];
+    // Where the last block ended, in the original and in each file, to map unchanged ranges.
+    int lastEndOriginal = 0;
+    int[] lastEnd = new int[2];
+    int copied = 0;
+    while (next[MINE] < changes.get(MINE).size() || next[YOURS] < changes.get(YOURS).size()) {
+      // Start a block at the earliest change, then take in changes from the other file that
+      // start before (or right where) the block ends, until none does.
+      LineDiff.Change[] first = new LineDiff.Change[2];
+      LineDiff.Change[] last = new LineDiff.Change[2];
+      int highWaterFile =
+          (next[YOURS] == changes.get(YOURS).size()
+                  || next[MINE] < changes.get(MINE).size()
+                      && changes.get(MINE).get(next[MINE]).line2
+                          <= changes.get(YOURS).get(next[YOURS]).line2)
+              ? MINE
+              : YOURS;
+      LineDiff.Change change = changes.get(highWaterFile).get(next[highWaterFile]++);
+      first[highWaterFile] = last[highWaterFile] = change;
+      int startOriginal = change.line2;
+      int endOriginal = change.line2 + change.inserted;
+      int other = highWaterFile ^ 1;
+      while (next[other] < changes.get(other).size()
+          && changes.get(other).get(next[other]).line2 <= endOriginal) {
+        change = changes.get(other).get(next[other]++);
+        if (first[other] == null) {
+          first[other] = change;
+        }
+        last[other] = change;
+        if (endOriginal < change.line2 + change.inserted) {
+          highWaterFile = other;
+          endOriginal = change.line2 + change.inserted;
+        }
+        other = highWaterFile ^ 1;
+      }
+
+      int[] start = new int[2];
+      int[] end = new int[2];
+      for (int file = MINE; file <= YOURS; file++) {
+        if (first[file] != null) {
+          start[file] = startOriginal - first[file].line2 + first[file].line1;
+          end[file] =
+              endOriginal
+                  - (last[file].line2 + last[file].inserted)
+                  + (last[file].line1 + last[file].deleted);
+        } else {
+          start[file] = startOriginal - lastEndOriginal + lastEnd[file];
+          end[file] = endOriginal - lastEndOriginal + lastEnd[file];
+        }
+      }
+      lastEndOriginal = endOriginal;
+      lastEnd = end;
+
+      if (first[YOURS] == null
+          || first[MINE] != null
+              && Arrays.equals(
+                  Arrays.copyOfRange(lineClasses[MINE], start[MINE], end[MINE]),
+                  Arrays.copyOfRange(lineClasses[YOURS], start[YOURS], end[YOURS]))) {
+        // Only mine changed, or both changed alike: keep mine.
+        continue;
+      }
+      writeLines(out, lines.get(MINE), copied, start[MINE]);
+      boolean conflict = first[MINE] != null;
+      if (conflict) {
+        conflicted = true;
+        write(out, ("<<<<<<< " + mineLabel + "\n").getBytes(UTF_8));
+        writeLines(out, lines.get(MINE), start[MINE], end[MINE]);
+        write(out, "=======\n".getBytes(UTF_8));
+      }
+      writeLines(out, lines.get(YOURS), start[YOURS], end[YOURS]);
+      if (conflict) {
+        write(out, (">>>>>>> " + yoursLabel + "\n").getBytes(UTF_8));
+      }
+      copied = end[MINE];
+    }
+    writeLines(out, lines.get(MINE), copied, lines.get(MINE).size());
+    return new Result(out.toByteArray(), conflicted);
+  }
+
+  private static void writeLines(
+      ByteArrayOutputStream out, List<String> lines, int start, int end) {
+    for (String line : lines.subList(start, end)) {
+      write(out, line.getBytes(ISO_8859_1));
+    }
+  }
+
+  private static void write(ByteArrayOutputStream out, byte[] bytes) {
+    out.write(bytes, 0, bytes.length);
+  }
+}
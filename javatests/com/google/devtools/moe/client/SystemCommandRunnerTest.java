@@ -16,11 +16,20 @@
 
 package com.google.devtools.moe.client;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
 import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
 import com.google.devtools.moe.client.CommandRunner.CommandException;
+import com.google.devtools.moe.client.CommandRunner.OutputHandler;
 
 import junit.framework.TestCase;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
 public class SystemCommandRunnerTest extends TestCase {
 
   SystemCommandRunner c;
@@ -69,4 +78,79 @@ public class SystemCommandRunnerTest extends TestCase {
       assertEquals("stderr length", bytesOutput, expected.stderr.length());
     }
   }
+
+  public void testOutputDecodedAsUtf8() throws Exception {
+    String perlScript = "print \"caf\\xc3\\xa9 \\xe2\\x98\\x83\"";
+    String data = c.runCommand("perl", ImmutableList.of("-e", perlScript), "");
+    assertEquals("caf\u00e9 \u2603", data);
+  }
+
+  public void testEmptyOutput() throws Exception {
+    CommandRunner.CommandOutput output =
+        c.runCommandWithFullOutput("perl", ImmutableList.of("-e", "exit 0"), "");
+    assertEquals("", output.getStdout());
+    assertEquals("", output.getStderr());
+  }
+
+  public void testStreaming() throws Exception {
+    int lines =
+        c.runCommandStreaming(
+            "perl",
+            ImmutableList.of("-e", "print \"line $_\\n\" for 1..100000"),
+            "",
+            new OutputHandler<Integer>() {
+              @Override
+              public Integer handleOutput(InputStream stdout) throws IOException {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(stdout, UTF_8));
+                int count = 0;
+                for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                  assertEquals("line " + ++count, line);
+                }
+                return count;
+              }
+            });
+    assertEquals(100000, lines);
+  }
+
+  /**
+   * Tests that a handler which stops reading early neither deadlocks the process nor loses its
+   * exit status.
+   */
+  public void testStreaming_partialRead() throws Exception {
+    String firstBytes =
+        c.runCommandStreaming(
+            "perl",
+            ImmutableList.of("-e", "print STDOUT ('*' x 1000000); print STDERR ('*' x 1000000)"),
+            "",
+            new OutputHandler<String>() {
+              @Override
+              public String handleOutput(InputStream stdout) throws IOException {
+                byte[] buffer = new byte[3];
+                ByteStreams.readFully(stdout, buffer);
+                return new String(buffer, UTF_8);
+              }
+            });
+    assertEquals("***", firstBytes);
+  }
+
+  public void testStreaming_nonZeroExit() throws Exception {
+    try {
+      c.runCommandStreaming(
+          "perl",
+          ImmutableList.of("-e", "print STDOUT 'out'; print STDERR 'err'; exit 3"),
+          "",
+          new OutputHandler<Void>() {
+            @Override
+            public Void handleOutput(InputStream stdout) throws IOException {
+              assertEquals("out", new String(ByteStreams.toByteArray(stdout), UTF_8));
+              return null;
+            }
+          });
+      fail("Non-zero return code didn't raise CommandException.");
+    } catch (CommandException expected) {
+      assertEquals(3, expected.returnStatus);
+      assertEquals("", expected.stdout);
+      assertEquals("err", expected.stderr);
+    }
+  }
 }
@@ -18,6 +18,7 @@ package com.google.devtools.moe.client;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.io.Files;
 import com.google.devtools.moe.client.Ui.Task;
@@ -25,8 +26,11 @@ import com.google.devtools.moe.client.testing.TestingModule;
 
 import junit.framework.TestCase;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.inject.Singleton;
 
@@ -46,6 +50,50 @@ public class SystemFileSystemTest extends TestCase {
         Utils.makeFilenamesRelative(fs.findFiles(tempDir), tempDir));
   }
 
+  public void testFindFilesFollowsLinks() throws Exception {
+    FileSystem fs = new SystemFileSystem();
+    File tempDir = Files.createTempDir();
+    File baz = new File(tempDir, "bar/baz");
+    Files.createParentDirs(baz);
+    Files.touch(baz);
+    java.nio.file.Files.createSymbolicLink(
+        new File(tempDir, "linked").toPath(), new File("bar").toPath());
+    java.nio.file.Files.createSymbolicLink(
+        new File(tempDir, "bar/loop").toPath(), new File("..").toPath());
+    java.nio.file.Files.createSymbolicLink(
+        new File(tempDir, "broken").toPath(), new File("nowhere").toPath());
+
+    assertEquals(
+        ImmutableSet.of("bar/baz", "linked/baz", "broken"),
+        Utils.makeFilenamesRelative(fs.findFiles(tempDir), tempDir));
+    assertEquals(ImmutableSet.of(), fs.findFiles(new File(tempDir, "missing")));
+  }
+
+  public void testFindFilesWithStats() throws Exception {
+    FileSystem fs = new SystemFileSystem();
+    File tempDir = Files.createTempDir();
+    File foo = new File(tempDir, "foo");
+    Files.write("foo", foo, UTF_8);
+    File run = new File(tempDir, "bar/run.sh");
+    Files.createParentDirs(run);
+    Files.write("#!/bin/sh\n", run, UTF_8);
+    fs.setExecutable(run);
+    java.nio.file.Files.createSymbolicLink(
+        new File(tempDir, "linked").toPath(), new File("bar").toPath());
+    java.nio.file.Files.createSymbolicLink(
+        new File(tempDir, "bar/loop").toPath(), new File("..").toPath());
+    java.nio.file.Files.createSymbolicLink(
+        new File(tempDir, "broken").toPath(), new File("nowhere").toPath());
+
+    Map<File, FileSystem.FileStat> stats = fs.findFilesWithStats(tempDir);
+    assertEquals(fs.findFiles(tempDir), stats.keySet());
+    assertEquals(FileSystem.FileStat.create(3, false), stats.get(foo));
+    assertEquals(FileSystem.FileStat.create(10, true), stats.get(run));
+    assertEquals(
+        FileSystem.FileStat.create(10, true), stats.get(new File(tempDir, "linked/run.sh")));
+    assertEquals(ImmutableMap.of(), fs.findFilesWithStats(new File(tempDir, "missing")));
+  }
+
   public void testListFiles() throws Exception {
     FileSystem fs = new SystemFileSystem();
     File tempDir = Files.createTempDir();
@@ -152,6 +200,50 @@ public class SystemFileSystemTest extends TestCase {
     assertEquals(true, Files.equal(foo, bar));
   }
 
+  public void testCopyReplacesLink() throws Exception {
+    FileSystem fs = new SystemFileSystem();
+    File tempDir = Files.createTempDir();
+    File foo = new File(tempDir, "foo");
+    File bar = new File(tempDir, "bar");
+    File baz = new File(tempDir, "baz");
+    Files.write("Contents!", foo, UTF_8);
+    Files.write("Other contents!", baz, UTF_8);
+    fs.setExecutable(baz);
+    fs.linkOrCopyFile(foo, bar);
+    assertEquals(
+        java.nio.file.Files.getAttribute(foo.toPath(), "unix:ino"),
+        java.nio.file.Files.getAttribute(bar.toPath(), "unix:ino"));
+    fs.copyFile(baz, bar);
+    assertEquals("Other contents!", Files.toString(bar, UTF_8));
+    assertEquals(true, fs.isExecutable(bar));
+    assertEquals("Contents!", Files.toString(foo, UTF_8));
+  }
+
+  public void testCopyOntoItselfFails() throws Exception {
+    FileSystem fs = new SystemFileSystem();
+    File tempDir = Files.createTempDir();
+    File foo = new File(tempDir, "foo");
+    Files.write("Contents!", foo, UTF_8);
+    try {
+      fs.copyFile(foo, new File(tempDir, "./foo"));
+      fail("Copied a file onto itself");
+    } catch (IOException expected) {
+    }
+    assertEquals("Contents!", Files.toString(foo, UTF_8));
+  }
+
+  public void testLengthAndLastModified() throws Exception {
+    FileSystem fs = new SystemFileSystem();
+    File tempDir = Files.createTempDir();
+    File foo = new File(tempDir, "foo");
+    Files.write("Contents!", foo, UTF_8);
+    assertEquals(9, fs.length(foo));
+    fs.setLastModified(foo, 1000L * 1000 * 1000);
+    assertEquals(1000L * 1000 * 1000, fs.lastModified(foo));
+    assertEquals(0, fs.length(new File(tempDir, "bar")));
+    assertEquals(0, fs.lastModified(new File(tempDir, "bar")));
+  }
+
   public void testWrite() throws Exception {
     FileSystem fs = new SystemFileSystem();
     File tempDir = Files.createTempDir();
@@ -236,6 +328,27 @@ public class SystemFileSystemTest extends TestCase {
     assertFalse("taskless", taskless.exists());
   }
 
+  public void testCloseOnCleanUpWithTasks() throws Exception {
+    Injector.INSTANCE = DaggerSystemFileSystemTest_Component.create().context();
+    FileSystem fs = Injector.INSTANCE.fileSystem();
+    final AtomicBoolean closed = new AtomicBoolean();
+    Closeable resource =
+        new Closeable() {
+          @Override
+          public void close() {
+            closed.set(true);
+          }
+        };
+
+    Task task = Injector.INSTANCE.ui().pushTask("task", "task");
+    fs.closeOnCleanUp(Lifetimes.currentTask(), resource);
+    fs.cleanUpTempDirs();
+    assertFalse(closed.get());
+
+    Injector.INSTANCE.ui().popTask(task, "");
+    assertTrue(closed.get());
+  }
+
   public void testMarkAsPersistentWithTasks() throws Exception {
     Injector.INSTANCE = DaggerSystemFileSystemTest_Component.create().context();
     FileSystem fs = Injector.INSTANCE.fileSystem();
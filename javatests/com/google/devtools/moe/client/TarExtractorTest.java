@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2015 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.moe.client;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Tests {@link TarExtractor} against tars written by tar and git.
+ */
+public class TarExtractorTest extends TestCase {
+  private File source;
+  private File tarDir;
+  private File extracted;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    source = Files.createTempDir();
+    tarDir = Files.createTempDir();
+    extracted = Files.createTempDir();
+    write("a.txt", "a\n");
+    write("dir/b.txt", "b\n");
+    write("dir/run.sh", "#!/bin/sh\n");
+    new File(source, "dir/run.sh").setExecutable(true, false);
+    new File(source, "empty").mkdir();
+    java.nio.file.Files.createSymbolicLink(
+        new File(source, "link").toPath(), new File("dir/b.txt").toPath());
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    run(
+        source,
+        "rm",
+        "-rf",
+        source.getAbsolutePath(),
+        tarDir.getAbsolutePath(),
+        extracted.getAbsolutePath());
+    super.tearDown();
+  }
+
+  private void write(String path, String content) throws IOException {
+    File file = new File(source, path);
+    Files.createParentDirs(file);
+    Files.write(content, file, UTF_8);
+  }
+
+  private String read(String path) throws IOException {
+    return Files.toString(new File(extracted, path), UTF_8);
+  }
+
+  private void run(File directory, String... command) throws Exception {
+    Process process = new ProcessBuilder(command).directory(directory).start();
+    ByteStreams.copy(process.getInputStream(), ByteStreams.nullOutputStream());
+    assertEquals("Exit status of " + ImmutableList.copyOf(command), 0, process.waitFor());
+  }
+
+  /** Tars the source directory with the given options, and extracts it with the given filter. */
+  private void tarAndExtract(String options, String... ignoreRes) throws Exception {
+    File tar = new File(tarDir, "source.tar");
+    run(source, "sh", "-c", "tar " + options + " " + tar.getAbsolutePath() + " .");
+    try (InputStream in = new FileInputStream(tar)) {
+      TarExtractor.extract(
+          in, extracted, Utils.nonMatchingPredicateFromRes(ImmutableList.copyOf(ignoreRes)));
+    }
+  }
+
+  public void testExtract() throws Exception {
+    tarAndExtract("-cf");
+    assertEquals("a\n", read("a.txt"));
+    assertEquals("b\n", read("dir/b.txt"));
+    assertTrue(new File(extracted, "dir/run.sh").canExecute());
+    assertFalse(new File(extracted, "dir/b.txt").canExecute());
+    assertTrue(new File(extracted, "empty").isDirectory());
+    assertTrue(java.nio.file.Files.isSymbolicLink(new File(extracted, "link").toPath()));
+    assertEquals("b\n", read("link"));
+  }
+
+  public void testExtractGzipped() throws Exception {
+    tarAndExtract("-czf");
+    assertEquals("b\n", read("dir/b.txt"));
+  }
+
+  public void testFilterSkipsEntries() throws Exception {
+    tarAndExtract("-cf", "^dir/run", "^link$");
+    assertEquals("b\n", read("dir/b.txt"));
+    assertFalse(new File(extracted, "dir/run.sh").exists());
+    assertFalse(new File(extracted, "link").exists());
+  }
+
+  public void testLongNames() throws Exception {
+    String longPath = Strings.repeat("long_directory/", 8) + Strings.repeat("x", 120) + ".txt";
+    write(longPath, "long\n");
+    tarAndExtract("--format=gnu -cf");
+    assertEquals("long\n", read(longPath));
+
+    run(source, "rm", "-rf", extracted.getAbsolutePath());
+    tarAndExtract("--format=pax -cf");
+    assertEquals("long\n", read(longPath));
+  }
+
+  public void testExtractGitArchive() throws Exception {
+    run(source, "git", "init", "-q");
+    run(source, "git", "add", ".");
+    run(
+        source,
+        "git",
+        "-c",
+        "user.name=Foo Bar",
+        "-c",
+        "user.email=foo@example.com",
+        "commit",
+        "-q",
+        "-m",
+        "first");
+    Process git =
+        new ProcessBuilder("git", "archive", "--format=tar", "HEAD").directory(source).start();
+    TarExtractor.extract(git.getInputStream(), extracted);
+    assertEquals(0, git.waitFor());
+    assertEquals("a\n", read("a.txt"));
+    assertTrue(new File(extracted, "dir/run.sh").canExecute());
+  }
+
+  public void testRejectsPathOutsideDirectory() throws Exception {
+    byte[] tar = new byte[2048];
+    putHeader(tar, 0, "../escaped.txt", '0', "");
+    try {
+      TarExtractor.extract(new ByteArrayInputStream(tar), extracted);
+      fail("Extracted a path outside the directory");
+    } catch (IOException expected) {
+      assertThat(expected.getMessage()).contains("../escaped.txt");
+    }
+    assertFalse(new File(extracted.getParentFile(), "escaped.txt").exists());
+  }
+
+  public void testRejectsPathThroughSymbolicLink() throws Exception {
+    byte[] tar = new byte[2560];
+    putHeader(tar, 0, "a", '2', tarDir.getAbsolutePath());
+    putHeader(tar, 512, "a/x", '0', "");
+    try {
+      TarExtractor.extract(new ByteArrayInputStream(tar), extracted);
+      fail("Extracted a path through a symbolic link");
+    } catch (IOException expected) {
+      assertThat(expected.getMessage()).contains("a/x");
+    }
+    assertFalse(new File(tarDir, "x").exists());
+  }
+
+  public void testRejectsNonTar() throws Exception {
+    byte[] notTar = new byte[512];
+    notTar[0] = 'x';
+    try {
+      TarExtractor.extract(new ByteArrayInputStream(notTar), extracted);
+      fail("Extracted something that isn't a tar");
+    } catch (IOException expected) {
+    }
+  }
+
+  /** Writes an empty entry's header into a tar at the given offset. */
+  private static void putHeader(byte[] tar, int offset, String name, char type, String link) {
+    byte[] nameBytes = name.getBytes(UTF_8);
+    System.arraycopy(nameBytes, 0, tar, offset, nameBytes.length);
+    putOctal(tar, offset + 100, 8, 0644);
+    putOctal(tar, offset + 124, 12, 0);
+    tar[offset + 156] = (byte) type;
+    byte[] linkBytes = link.getBytes(UTF_8);
+    System.arraycopy(linkBytes, 0, tar, offset + 157, linkBytes.length);
+    long checksum = 8 * ' ';
+    for (int i = offset; i < offset + 512; i++) {
+      checksum += tar[i] & 0xff;
+    }
+    putOctal(tar, offset + 148, 8, checksum);
+  }
+
+  private static void putOctal(byte[] tar, int offset, int length, long value) {
+    byte[] digits = Strings.padStart(Long.toOctalString(value), length - 1, '0').getBytes(UTF_8);
+    System.arraycopy(digits, 0, tar, offset, length - 1);
+  }
+}
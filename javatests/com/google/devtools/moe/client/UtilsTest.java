@@ -21,6 +21,7 @@ import static org.easymock.EasyMock.expect;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.io.ByteSource;
 import com.google.devtools.moe.client.testing.TestingModule;
 
 import dagger.Provides;
@@ -31,11 +32,12 @@ import org.easymock.EasyMock;
 import org.easymock.IMocksControl;
 
 import java.io.File;
-import java.util.List;
 
 import javax.inject.Singleton;
 
 public class UtilsTest extends TestCase {
+  /** A tar with no entries: just the two zero blocks which end every tar. */
+  private static final byte[] EMPTY_TAR = new byte[1024];
 
   private final IMocksControl control = EasyMock.createControl();
   private final FileSystem fileSystem = control.createMock(FileSystem.class);
@@ -116,11 +118,7 @@ public class UtilsTest extends TestCase {
         .andReturn(new File("/test"));
     fileSystem.makeDirs(EasyMock.<File>anyObject());
     EasyMock.expectLastCall().once();
-    expect(mockcmd.runCommand(
-            EasyMock.<String>anyObject(),
-            EasyMock.<List<String>>anyObject(),
-            EasyMock.<String>anyObject()))
-        .andReturn(null);
+    expect(fileSystem.asByteSource(file)).andReturn(ByteSource.wrap(EMPTY_TAR));
     control.replay();
     // Run the .expandToDirectory method.
     File directory = Utils.expandToDirectory(file);
@@ -148,9 +146,8 @@ public class UtilsTest extends TestCase {
     fileSystem.makeDirs(new File("/dummy/path/45.expanded"));
     expect(fileSystem.getTemporaryDirectory("expanded_tar_"))
         .andReturn(new File("/dummy/path/45.expanded"));
-    expect(mockcmd.runCommand(
-            "tar", ImmutableList.of("-xf", "/dummy/path/45.tar"), "/dummy/path/45.expanded"))
-        .andReturn("");
+    expect(fileSystem.asByteSource(new File("/dummy/path/45.tar")))
+        .andReturn(ByteSource.wrap(EMPTY_TAR));
     control.replay();
     File expanded = Utils.expandTar(new File("/dummy/path/45.tar"));
     assertEquals(new File("/dummy/path/45.expanded"), expanded);
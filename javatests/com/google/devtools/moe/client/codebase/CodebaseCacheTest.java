@@ -0,0 +1,400 @@
+/*
+ * Copyright (c) 2015 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.moe.client.codebase;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.easymock.EasyMock.expect;
+
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.Files;
+import com.google.devtools.moe.client.FileSystem;
+import com.google.devtools.moe.client.Injector;
+import com.google.devtools.moe.client.SystemCommandRunner;
+import com.google.devtools.moe.client.SystemFileSystem;
+import com.google.devtools.moe.client.editors.Editor;
+import com.google.devtools.moe.client.editors.TranslatorPath;
+import com.google.devtools.moe.client.gson.GsonModule;
+import com.google.devtools.moe.client.parser.RepositoryExpression;
+import com.google.devtools.moe.client.parser.Term;
+import com.google.devtools.moe.client.project.ProjectContext;
+import com.google.devtools.moe.client.project.RepositoryConfig;
+import com.google.devtools.moe.client.repositories.RepositoryType;
+import com.google.devtools.moe.client.repositories.Revision;
+import com.google.devtools.moe.client.repositories.RevisionHistory;
+import com.google.devtools.moe.client.testing.RecordingUi;
+import com.google.devtools.moe.client.writer.WriterCreator;
+
+import junit.framework.TestCase;
+
+import org.easymock.EasyMock;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Tests for {@link CodebaseCache}
+ */
+public class CodebaseCacheTest extends TestCase {
+  private final RecordingUi ui = new RecordingUi();
+  private final FileSystem filesystem = new SystemFileSystem();
+  private final RevisionHistory history = EasyMock.createMock(RevisionHistory.class);
+  private final RepositoryConfig config =
+      GsonModule.provideGson()
+          .fromJson("{\"type\":\"dummy\",\"url\":\"http://foo/repo\"}", RepositoryConfig.class);
+  private final WriterCreator writerCreator = EasyMock.createMock(WriterCreator.class);
+  private File cacheDir;
+  private int created;
+  private int edited;
+  private int filesEdited;
+
+  /** Creates a codebase of two files, one executable, whose contents name the revision. */
+  private final CodebaseCreator creator =
+      new CodebaseCreator() {
+        @Override
+        public Codebase create(Map<String, String> options) {
+          created++;
+          String revision = options.get("revision");
+          File path = filesystem.getTemporaryDirectory("created_");
+          try {
+            write(new File(path, "dir/file.txt"), "file at " + revision + "\n");
+            write(new File(path, "run.sh"), "#!/bin/sh\n");
+            filesystem.setExecutable(new File(path, "run.sh"));
+          } catch (IOException e) {
+            throw new AssertionError(e);
+          }
+          return new Codebase(
+              filesystem,
+              path,
+              "public",
+              new RepositoryExpression(new Term("repo", options)));
+        }
+      };
+
+  /** Edits a codebase by upper-casing its file.txt, appending any "suffix" option. */
+  private final Editor editor =
+      new Editor() {
+        @Override
+        public String getDescription() {
+          return "upper";
+        }
+
+        @Override
+        public Codebase edit(Codebase input, ProjectContext context, Map<String, String> options) {
+          edited++;
+          String suffix = options.containsKey("suffix") ? options.get("suffix") : "";
+          File path = filesystem.getTemporaryDirectory("edited_");
+          try {
+            String content = Files.toString(input.getFile("dir/file.txt"), UTF_8);
+            write(new File(path, "dir/file.txt"), content.toUpperCase() + suffix);
+          } catch (IOException e) {
+            throw new AssertionError(e);
+          }
+          return new Codebase(filesystem, path, input.getProjectSpace(), input.getExpression());
+        }
+      };
+
+  /** Edits each file apart, upper-casing it into a file named with ".out" appended. */
+  private final Editor perFileEditor =
+      new Editor() {
+        @Override
+        public String getDescription() {
+          return "per_file";
+        }
+
+        @Override
+        public Codebase edit(Codebase input, ProjectContext context, Map<String, String> options) {
+          File path = filesystem.getTemporaryDirectory("edited_");
+          try {
+            for (String name : input.fingerprint().fileNames()) {
+              filesEdited++;
+              String content = Files.toString(input.getFile(name), UTF_8);
+              write(new File(path, name + ".out"), content.toUpperCase());
+            }
+          } catch (IOException e) {
+            throw new AssertionError(e);
+          }
+          return new Codebase(filesystem, path, input.getProjectSpace(), input.getExpression());
+        }
+      };
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    Injector.INSTANCE = new Injector(filesystem, new SystemCommandRunner(ui), null, ui);
+    ui.pushTask("test", "Testing");
+    cacheDir = Files.createTempDir();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    filesystem.deleteRecursively(cacheDir);
+    filesystem.cleanUpTempDirs();
+    super.tearDown();
+  }
+
+  private static void write(File file, String content) throws IOException {
+    Files.createParentDirs(file);
+    Files.write(content, file, UTF_8);
+  }
+
+  /** Returns a codebase of the given files, named "name=content". */
+  private Codebase codebase(String... files) throws IOException {
+    File path = filesystem.getTemporaryDirectory("codebase_");
+    for (String file : files) {
+      String[] nameAndContent = file.split("=");
+      write(new File(path, nameAndContent[0]), nameAndContent[1]);
+    }
+    return new Codebase(filesystem, path, "public", new RepositoryExpression("repo"));
+  }
+
+  private CodebaseCreator cachingCreator(long maxBytes) {
+    return new CodebaseCache(filesystem, cacheDir, maxBytes)
+        .decorate(RepositoryType.create("repo", history, creator, writerCreator), config)
+        .codebaseCreator();
+  }
+
+  private void expectRevision(String requested, String resolved) {
+    expect(history.findHighestRevision(requested)).andReturn(Revision.create(resolved, "repo"));
+  }
+
+  /**
+   * Creates a codebase at the given revision, then makes every snapshot seem a minute older, so
+   * that the order in which they were used doesn't depend on the resolution of file times.
+   */
+  private void createAged(CodebaseCreator cachingCreator, String revision) throws Exception {
+    cachingCreator.create(ImmutableMap.of("revision", revision));
+    for (File snapshot : filesystem.listFiles(new File(cacheDir, "snapshots"))) {
+      filesystem.setLastModified(snapshot, filesystem.lastModified(snapshot) - 60 * 1000);
+    }
+  }
+
+  public void testRestoresCachedCodebase() throws Exception {
+    expectRevision("r1", "r1");
+    expectRevision("r1", "r1");
+    EasyMock.replay(history);
+
+    Codebase first = cachingCreator(1 << 20).create(ImmutableMap.of("revision", "r1"));
+    // As in a later run, with a new cache.
+    Codebase second = cachingCreator(1 << 20).create(ImmutableMap.of("revision", "r1"));
+    assertEquals(1, created);
+    assertFalse(first.getPath().equals(second.getPath()));
+    assertEquals("repo(revision=r1)", second.getExpression().toString());
+    assertEquals("public", second.getProjectSpace());
+    assertEquals("file at r1\n", Files.toString(second.getFile("dir/file.txt"), UTF_8));
+    assertTrue(filesystem.isExecutable(second.getFile("run.sh")));
+    assertFalse(filesystem.isExecutable(second.getFile("dir/file.txt")));
+    // Linked to the cache's copy, so mustn't be written in place.
+    assertFalse(isWritable(second.getFile("dir/file.txt")));
+    assertFalse(isWritable(first.getFile("dir/file.txt")));
+    assertEquals(
+        first.fingerprint().rootHash(),
+        CodebaseFingerprint.compute(filesystem, second.getPath()).rootHash());
+    EasyMock.verify(history);
+  }
+
+  public void testHeadIsCachedAsItsRevision() throws Exception {
+    expectRevision(null, "r1");
+    expectRevision("r1", "r1");
+    expectRevision(null, "r2");
+    EasyMock.replay(history);
+
+    CodebaseCreator cachingCreator = cachingCreator(1 << 20);
+    Codebase head = cachingCreator.create(ImmutableMap.<String, String>of());
+    assertEquals("repo", head.getExpression().toString());
+    assertEquals("file at r1\n", Files.toString(head.getFile("dir/file.txt"), UTF_8));
+    cachingCreator.create(ImmutableMap.of("revision", "r1"));
+    assertEquals(1, created);
+
+    // Head has moved on.
+    Codebase newHead = cachingCreator.create(ImmutableMap.<String, String>of());
+    assertEquals(2, created);
+    assertEquals("file at r2\n", Files.toString(newHead.getFile("dir/file.txt"), UTF_8));
+    EasyMock.verify(history);
+  }
+
+  public void testLocalRootIsNotCached() throws Exception {
+    EasyMock.replay(history);
+    CodebaseCreator cachingCreator = cachingCreator(1 << 20);
+    cachingCreator.create(ImmutableMap.of("localroot", "/some/clone"));
+    cachingCreator.create(ImmutableMap.of("localroot", "/some/clone"));
+    assertEquals(2, created);
+    EasyMock.verify(history);
+  }
+
+  public void testEvictsLeastRecentlyUsed() throws Exception {
+    for (String revision : new String[] {"r1", "r2", "r1", "r3", "r1", "r2"}) {
+      expectRevision(revision, revision);
+    }
+    EasyMock.replay(history);
+
+    // Room for run.sh and two revisions' file.txt, but not three.
+    long maxBytes = "#!/bin/sh\n".length() + 2 * "file at r1\n".length();
+    CodebaseCreator cachingCreator = cachingCreator(maxBytes);
+    createAged(cachingCreator, "r1");
+    createAged(cachingCreator, "r2");
+    createAged(cachingCreator, "r1");
+    assertEquals(2, created);
+
+    // Evicts r2, which was used less recently than r1.
+    createAged(cachingCreator, "r3");
+    assertEquals(3, created);
+    createAged(cachingCreator, "r1");
+    assertEquals(3, created);
+    createAged(cachingCreator, "r2");
+    assertEquals(4, created);
+    EasyMock.verify(history);
+  }
+
+  public void testEditsAreCachedByCodebaseEdited() throws Exception {
+    Codebase r1 = creator.create(ImmutableMap.of("revision", "r1"));
+    Codebase r1Again = creator.create(ImmutableMap.of("revision", "r1"));
+    Codebase r2 = creator.create(ImmutableMap.of("revision", "r2"));
+
+    TranslatorPath path = new TranslatorPath("internal", "public");
+    Editor cachingEditor =
+        new CodebaseCache(filesystem, cacheDir, 1 << 20)
+            .decorate(editor, path, Suppliers.ofInstance("{}"), false);
+    Map<String, String> noOptions = ImmutableMap.of();
+    cachingEditor.edit(r1, null, noOptions);
+    // The same files, at another path, are edited alike.
+    Codebase restored = cachingEditor.edit(r1Again, null, noOptions);
+    assertEquals(1, edited);
+    assertEquals("FILE AT R1\n", Files.toString(restored.getFile("dir/file.txt"), UTF_8));
+    assertEquals(r1Again.getExpression(), restored.getExpression());
+    assertEquals("public", restored.getProjectSpace());
+
+    cachingEditor.edit(r2, null, noOptions);
+    assertEquals(2, edited);
+    Codebase suffixed = cachingEditor.edit(r1, null, ImmutableMap.of("suffix", "!"));
+    assertEquals(3, edited);
+    assertEquals("FILE AT R1\n!", Files.toString(suffixed.getFile("dir/file.txt"), UTF_8));
+    new CodebaseCache(filesystem, cacheDir, 1 << 20)
+        .decorate(editor, path, Suppliers.ofInstance("{\"type\":\"shell\"}"), false)
+        .edit(r1, null, noOptions);
+    assertEquals(4, edited);
+  }
+
+  public void testStepKeyIsComputedOnceWhenFirstNeeded() throws Exception {
+    final int[] computed = new int[1];
+    Supplier<String> stepKey =
+        new Supplier<String>() {
+          @Override
+          public String get() {
+            computed[0]++;
+            return "{\"scrubber_binary\":\"hash\"}";
+          }
+        };
+    Editor cachingEditor =
+        new CodebaseCache(filesystem, cacheDir, 1 << 20)
+            .decorate(editor, new TranslatorPath("internal", "public"), stepKey, false);
+    assertEquals(0, computed[0]);
+
+    Map<String, String> noOptions = ImmutableMap.of();
+    cachingEditor.edit(creator.create(ImmutableMap.of("revision", "r1")), null, noOptions);
+    cachingEditor.edit(creator.create(ImmutableMap.of("revision", "r1")), null, noOptions);
+    assertEquals(1, edited);
+    assertEquals(1, computed[0]);
+
+    CodebaseCache.disabled()
+        .decorate(editor, new TranslatorPath("internal", "public"), stepKey, false)
+        .edit(creator.create(ImmutableMap.of("revision", "r1")), null, noOptions);
+    assertEquals(1, computed[0]);
+  }
+
+  public void testPerFileEditsAreIncremental() throws Exception {
+    Editor cachingEditor =
+        new CodebaseCache(filesystem, cacheDir, 1 << 20)
+            .decorate(
+                perFileEditor,
+                new TranslatorPath("internal", "public"),
+                Suppliers.ofInstance("{}"),
+                true);
+    Map<String, String> noOptions = ImmutableMap.of();
+    cachingEditor.edit(
+        codebase("a.txt=a", "b.txt=b", "c.txt=c", "d/d.txt=d", "d/e.txt=e", "f.txt=f"),
+        null,
+        noOptions);
+    assertEquals(6, filesEdited);
+
+    // a.txt changed, f.txt deleted and g.txt added.
+    Codebase next =
+        codebase("a.txt=a2", "b.txt=b", "c.txt=c", "d/d.txt=d", "d/e.txt=e", "g.txt=g");
+    Codebase incremental = cachingEditor.edit(next, null, noOptions);
+    // The former and changed versions of a.txt, the former f.txt, and g.txt.
+    assertEquals(10, filesEdited);
+    assertEquals(
+        CodebaseFingerprint.compute(
+                filesystem, perFileEditor.edit(next, null, noOptions).getPath())
+            .rootHash(),
+        CodebaseFingerprint.compute(filesystem, incremental.getPath()).rootHash());
+    assertEquals("A2", Files.toString(incremental.getFile("a.txt.out"), UTF_8));
+    assertFalse(incremental.getFile("f.txt.out").exists());
+
+    // Mostly changed, so edited in full.
+    filesEdited = 0;
+    cachingEditor.edit(
+        codebase("a.txt=a3", "b.txt=b3", "c.txt=c3", "d/d.txt=d3", "d/e.txt=e", "g.txt=g"),
+        null,
+        noOptions);
+    assertEquals(6, filesEdited);
+  }
+
+  public void testPerFileEditKeepsAKnownInputWithoutRewritingIt() throws Exception {
+    Editor cachingEditor =
+        new CodebaseCache(filesystem, cacheDir, 1 << 20)
+            .decorate(
+                perFileEditor,
+                new TranslatorPath("internal", "public"),
+                Suppliers.ofInstance("{}"),
+                true);
+    Map<String, String> noOptions = ImmutableMap.of();
+    cachingEditor.edit(codebase("a.txt=a", "b.txt=b"), null, noOptions);
+    Map<File, Object> snapshotFileKeys = new HashMap<>();
+    for (File snapshot : filesystem.listFiles(new File(cacheDir, "snapshots"))) {
+      snapshotFileKeys.put(snapshot, fileKey(snapshot));
+    }
+    // The input and output snapshots.
+    assertEquals(2, snapshotFileKeys.size());
+
+    cachingEditor.edit(codebase("a.txt=a", "b.txt=b"), null, noOptions);
+    assertEquals(2, filesEdited);
+    for (File snapshot : filesystem.listFiles(new File(cacheDir, "snapshots"))) {
+      assertEquals(snapshotFileKeys.get(snapshot), fileKey(snapshot));
+    }
+  }
+
+  /** Returns whether a file's permissions let anyone write it (which root may regardless). */
+  private static boolean isWritable(File file) throws IOException {
+    Set<PosixFilePermission> permissions =
+        java.nio.file.Files.getPosixFilePermissions(file.toPath());
+    return permissions.contains(PosixFilePermission.OWNER_WRITE)
+        || permissions.contains(PosixFilePermission.GROUP_WRITE)
+        || permissions.contains(PosixFilePermission.OTHERS_WRITE);
+  }
+
+  /** Returns what identifies a file itself, which changes when it's replaced by another. */
+  private static Object fileKey(File file) throws IOException {
+    return java.nio.file.Files.readAttributes(file.toPath(), BasicFileAttributes.class).fileKey();
+  }
+}
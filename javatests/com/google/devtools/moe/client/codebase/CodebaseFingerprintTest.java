@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2015 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.moe.client.codebase;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.io.Files;
+import com.google.devtools.moe.client.FileSystem;
+import com.google.devtools.moe.client.FileSystem.Lifetime;
+import com.google.devtools.moe.client.SystemFileSystem;
+import com.google.devtools.moe.client.parser.RepositoryExpression;
+import com.google.devtools.moe.client.testing.InMemoryFileSystem;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+
+/**
+ * Tests for {@link CodebaseFingerprint}
+ */
+public class CodebaseFingerprintTest extends TestCase {
+  private final InMemoryFileSystem filesystem =
+      new InMemoryFileSystem(
+          new ImmutableMap.Builder<String, String>()
+              .put("/a/README", "readme")
+              .put("/a/src/Foo.java", "foo")
+              .put("/a/src/bar/Bar.java", "bar")
+              .put("/a/lib/Baz.java", "baz")
+              .put("/b/README", "readme")
+              .put("/b/src/Foo.java", "foo")
+              .put("/b/src/bar/Bar.java", "bar")
+              .put("/b/lib/Baz.java", "baz")
+              .put("/b/empty/", "")
+              .put("/c/README", "readme")
+              .put("/c/src/Foo.java", "foo")
+              .put("/c/src/bar/Bar.java", "BAR")
+              .put("/c/lib/Baz.java/Qux.java", "baz")
+              .put("/c/new/New.java", "new")
+              .build());
+
+  private CodebaseFingerprint fingerprint(String path) throws Exception {
+    return CodebaseFingerprint.compute(filesystem, new File(path));
+  }
+
+  public void testSameFilesSameRootHash() throws Exception {
+    // Empty directories don't count, as they don't in a diff.
+    assertEquals(fingerprint("/a").rootHash(), fingerprint("/b").rootHash());
+    assertEquals(ImmutableSortedSet.of(), fingerprint("/a").differingFiles(fingerprint("/b")));
+  }
+
+  public void testDifferingFiles() throws Exception {
+    CodebaseFingerprint a = fingerprint("/a");
+    CodebaseFingerprint c = fingerprint("/c");
+    assertFalse(a.rootHash().equals(c.rootHash()));
+    ImmutableSortedSet<String> expected =
+        ImmutableSortedSet.of(
+            "lib/Baz.java", "lib/Baz.java/Qux.java", "new/New.java", "src/bar/Bar.java");
+    assertEquals(expected, a.differingFiles(c));
+    assertEquals(expected, c.differingFiles(a));
+  }
+
+  public void testExecutableBit() throws Exception {
+    File dir = Files.createTempDir();
+    try {
+      File file = new File(dir, "run.sh");
+      Files.write("echo hi\n", file, UTF_8);
+      file.setExecutable(false);
+      FileSystem system = new SystemFileSystem();
+      CodebaseFingerprint before = CodebaseFingerprint.compute(system, dir);
+      file.setExecutable(true);
+      CodebaseFingerprint after = CodebaseFingerprint.compute(system, dir);
+      assertFalse(before.rootHash().equals(after.rootHash()));
+      assertEquals(ImmutableSortedSet.of("run.sh"), before.differingFiles(after));
+    } finally {
+      new SystemFileSystem().deleteRecursively(dir);
+    }
+  }
+
+  public void testSerializeAndParse() throws Exception {
+    CodebaseFingerprint c = fingerprint("/c");
+    CodebaseFingerprint parsed = CodebaseFingerprint.parse(c.serialize());
+    assertEquals(c.rootHash(), parsed.rootHash());
+    assertEquals(ImmutableSortedSet.of(), c.differingFiles(parsed));
+    assertNull(CodebaseFingerprint.parse("not a fingerprint\n"));
+  }
+
+  public void testCodebaseKeepsFingerprintBesideTemporaryDirectory() throws Exception {
+    File tempDir =
+        filesystem.getTemporaryDirectory(
+            "codebase_",
+            new Lifetime() {
+              @Override
+              public boolean shouldCleanUp() {
+                return true;
+              }
+            });
+    filesystem.write("contents", new File(tempDir, "file"));
+    Codebase codebase =
+        new Codebase(filesystem, tempDir, "public", new RepositoryExpression("foo"));
+    File sidecar = new File(tempDir.getPath() + ".fingerprint");
+
+    CodebaseFingerprint fingerprint = codebase.fingerprint();
+    assertEquals(fingerprint.serialize(), filesystem.fileToString(sidecar));
+    assertSame(fingerprint, codebase.copyWithProjectSpace("internal").fingerprint());
+
+    // A fresh Codebase reads the fingerprint rather than the files.
+    filesystem.write("changed", new File(tempDir, "file"));
+    Codebase again = new Codebase(filesystem, tempDir, "public", new RepositoryExpression("foo"));
+    assertEquals(fingerprint.rootHash(), again.fingerprint().rootHash());
+
+    filesystem.cleanUpTempDirs();
+    assertFalse(filesystem.exists(sidecar));
+  }
+
+  public void testCodebaseOutsideTemporaryDirectoryKeepsNothing() throws Exception {
+    new Codebase(filesystem, new File("/a"), "public", new RepositoryExpression("foo"))
+        .fingerprint();
+    assertFalse(filesystem.exists(new File("/a.fingerprint")));
+  }
+}
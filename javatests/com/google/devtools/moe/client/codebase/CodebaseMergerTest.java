@@ -17,9 +17,12 @@
 package com.google.devtools.moe.client.codebase;
 
 import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.easymock.EasyMock.expect;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteSink;
+import com.google.common.io.ByteSource;
 import com.google.common.collect.ImmutableSet;
 import com.google.devtools.moe.client.CommandRunner;
 import com.google.devtools.moe.client.FileSystem;
@@ -38,8 +41,10 @@ import junit.framework.TestCase;
 import org.easymock.EasyMock;
 import org.easymock.IMocksControl;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.util.List;
+import java.io.IOException;
+import java.io.OutputStream;
 
 /**
  * Unit tests for the CodebaseMerger class.
@@ -86,6 +91,31 @@ public class CodebaseMergerTest extends TestCase {
     mod = control.createMock(Codebase.class);
   }
 
+  /**
+   * Expects the merge of the given contents of the three files, returning where the merged
+   * contents are written.
+   */
+  private ByteArrayOutputStream expectMerge(
+      File mergedFile, String destContents, File origFile, String origContents, File modFile,
+      String modContents) throws IOException {
+    expect(fileSystem.asByteSource(mergedFile))
+        .andReturn(ByteSource.wrap(destContents.getBytes(UTF_8)));
+    expect(fileSystem.asByteSource(origFile))
+        .andReturn(ByteSource.wrap(origContents.getBytes(UTF_8)));
+    expect(fileSystem.asByteSource(modFile))
+        .andReturn(ByteSource.wrap(modContents.getBytes(UTF_8)));
+    final ByteArrayOutputStream merged = new ByteArrayOutputStream();
+    expect(fileSystem.asByteSink(mergedFile))
+        .andReturn(
+            new ByteSink() {
+              @Override
+              public OutputStream openStream() {
+                return merged;
+              }
+            });
+    return merged;
+  }
+
   /**
    * Test generateMergedFile(...) in the case where the file exists in orig and mod but not dest.
    * In this case, the file is unchanged in orig and mod, so the file is not placed in the
@@ -119,7 +149,7 @@ public class CodebaseMergerTest extends TestCase {
 
     control.replay();
 
-    CodebaseMerger merger = new CodebaseMerger(ui, fileSystem, cmd, fileDiffer, orig, mod, dest);
+    CodebaseMerger merger = new CodebaseMerger(ui, fileSystem, fileDiffer, orig, mod, dest);
     merger.generateMergedFile("foo");
 
     control.verify();
@@ -151,7 +181,7 @@ public class CodebaseMergerTest extends TestCase {
 
     control.replay();
 
-    CodebaseMerger merger = new CodebaseMerger(ui, fileSystem, cmd, null, orig, mod, dest);
+    CodebaseMerger merger = new CodebaseMerger(ui, fileSystem, null, orig, mod, dest);
     merger.generateMergedFile("foo");
 
     control.verify();
@@ -186,7 +216,7 @@ public class CodebaseMergerTest extends TestCase {
 
     control.replay();
 
-    CodebaseMerger merger = new CodebaseMerger(ui, fileSystem, cmd, null, orig, mod, dest);
+    CodebaseMerger merger = new CodebaseMerger(ui, fileSystem, null, orig, mod, dest);
     merger.generateMergedFile("foo");
 
     control.verify();
@@ -219,22 +249,20 @@ public class CodebaseMergerTest extends TestCase {
     fileSystem.makeDirsForFile(mergedFile);
     fileSystem.copyFile(destFile, mergedFile);
 
-    List<String> mergeArgs =
-        ImmutableList.of(
-            mergedFile.getAbsolutePath(), origFile.getAbsolutePath(), modFile.getAbsolutePath());
-
-    expect(cmd.runCommand("merge", mergeArgs, mergedCodebaseLocation.getAbsolutePath()))
-        .andReturn("");
+    ByteArrayOutputStream merged =
+        expectMerge(
+            mergedFile, "a\nB\nc\nd\n", origFile, "a\nb\nc\nd\n", modFile, "a\nb\nc\nD\n");
 
     control.replay();
 
-    CodebaseMerger merger = new CodebaseMerger(ui, fileSystem, cmd, null, orig, mod, dest);
+    CodebaseMerger merger = new CodebaseMerger(ui, fileSystem, null, orig, mod, dest);
     merger.generateMergedFile("foo");
 
     control.verify();
 
     assertThat(merger.getFailedToMergeFiles()).isEmpty();
     assertThat(merger.getMergedFiles()).contains(mergedFile.getAbsolutePath());
+    assertEquals("a\nB\nc\nD\n", merged.toString(UTF_8.name()));
   }
 
   /**
@@ -261,22 +289,22 @@ public class CodebaseMergerTest extends TestCase {
     fileSystem.makeDirsForFile(mergedFile);
     fileSystem.copyFile(destFile, mergedFile);
 
-    List<String> mergeArgs =
-        ImmutableList.of(
-            mergedFile.getAbsolutePath(), origFile.getAbsolutePath(), modFile.getAbsolutePath());
-
-    expect(cmd.runCommand("merge", mergeArgs, mergedCodebaseLocation.getAbsolutePath()))
-        .andThrow(new CommandRunner.CommandException("merge", mergeArgs, "", "", 1));
+    ByteArrayOutputStream merged =
+        expectMerge(mergedFile, "a\nX\nc\n", origFile, "a\nb\nc\n", modFile, "a\nY\nc\n");
 
     control.replay();
 
-    CodebaseMerger merger = new CodebaseMerger(ui, fileSystem, cmd, null, orig, mod, dest);
+    CodebaseMerger merger = new CodebaseMerger(ui, fileSystem, null, orig, mod, dest);
     merger.generateMergedFile("foo");
 
     control.verify();
 
     assertThat(merger.getMergedFiles()).isEmpty();
     assertThat(merger.getFailedToMergeFiles()).contains(mergedFile.getAbsolutePath());
+    assertEquals(
+        "a\n<<<<<<< " + mergedFile.getAbsolutePath() + "\nX\n=======\nY\n>>>>>>> "
+            + modFile.getAbsolutePath() + "\nc\n",
+        merged.toString(UTF_8.name()));
   }
 
   /**
@@ -305,7 +333,7 @@ public class CodebaseMergerTest extends TestCase {
 
     control.replay();
 
-    CodebaseMerger merger = new CodebaseMerger(ui, fileSystem, cmd, null, orig, mod, dest);
+    CodebaseMerger merger = new CodebaseMerger(ui, fileSystem, null, orig, mod, dest);
     merger.generateMergedFile("foo");
 
     control.verify();
@@ -340,22 +368,19 @@ public class CodebaseMergerTest extends TestCase {
     fileSystem.makeDirsForFile(mergedFile);
     fileSystem.copyFile(destFile, mergedFile);
 
-    List<String> mergeArgs =
-        ImmutableList.of(
-            mergedFile.getAbsolutePath(), origFile.getAbsolutePath(), modFile.getAbsolutePath());
-
-    expect(cmd.runCommand("merge", mergeArgs, mergedCodebaseLocation.getAbsolutePath()))
-        .andReturn("");
+    ByteArrayOutputStream merged =
+        expectMerge(mergedFile, "foo\n", origFile, "", modFile, "foo\n");
 
     control.replay();
 
-    CodebaseMerger merger = new CodebaseMerger(ui, fileSystem, cmd, null, orig, mod, dest);
+    CodebaseMerger merger = new CodebaseMerger(ui, fileSystem, null, orig, mod, dest);
     merger.generateMergedFile("foo");
 
     control.verify();
 
     assertThat(merger.getFailedToMergeFiles()).isEmpty();
     assertTrue(merger.getMergedFiles().contains(mergedFile.getAbsolutePath()));
+    assertEquals("foo\n", merged.toString(UTF_8.name()));
   }
 
   /**
@@ -384,22 +409,22 @@ public class CodebaseMergerTest extends TestCase {
     fileSystem.makeDirsForFile(mergedFile);
     fileSystem.copyFile(destFile, mergedFile);
 
-    List<String> mergeArgs =
-        ImmutableList.of(
-            mergedFile.getAbsolutePath(), origFile.getAbsolutePath(), modFile.getAbsolutePath());
-
-    expect(cmd.runCommand("merge", mergeArgs, mergedCodebaseLocation.getAbsolutePath()))
-        .andThrow(new CommandRunner.CommandException("merge", mergeArgs, "", "", 1));
+    ByteArrayOutputStream merged =
+        expectMerge(mergedFile, "foo\n", origFile, "", modFile, "bar\n");
 
     control.replay();
 
-    CodebaseMerger merger = new CodebaseMerger(ui, fileSystem, cmd, null, orig, mod, dest);
+    CodebaseMerger merger = new CodebaseMerger(ui, fileSystem, null, orig, mod, dest);
     merger.generateMergedFile("foo");
 
     control.verify();
 
     assertEquals(0, merger.getMergedFiles().size());
     assertTrue(merger.getFailedToMergeFiles().contains(mergedFile.getAbsolutePath()));
+    assertEquals(
+        "<<<<<<< " + mergedFile.getAbsolutePath() + "\nfoo\n=======\nbar\n>>>>>>> "
+            + modFile.getAbsolutePath() + "\n",
+        merged.toString(UTF_8.name()));
   }
 
   /**
@@ -412,8 +437,18 @@ public class CodebaseMergerTest extends TestCase {
     File mergedCodebaseLocation = new File("merged_codebase_7");
     expect(fileSystem.getTemporaryDirectory("merged_codebase_")).andReturn(mergedCodebaseLocation);
 
-    expect(dest.getRelativeFilenames()).andReturn(ImmutableSet.of("foo"));
-    expect(mod.getRelativeFilenames()).andReturn(ImmutableSet.of("foo", "bar"));
+    expect(dest.getRelativeFilenames()).andReturn(ImmutableSet.of("foo", "baz"));
+    expect(mod.getRelativeFilenames()).andReturn(ImmutableSet.of("foo", "bar", "baz"));
+
+    // baz is the same in all three codebases, so is copied rather than merged.
+    expect(orig.fingerprint()).andReturn(fingerprint("foo", 1, "bar", 4, "baz", 3));
+    expect(dest.fingerprint()).andReturn(fingerprint("foo", 1, "bar", 4, "baz", 3));
+    expect(mod.fingerprint()).andReturn(fingerprint("foo", 2, "baz", 3));
+    File bazFile = new File("dest/baz");
+    expect(dest.getFile("baz")).andReturn(bazFile);
+    File mergedBazFile = new File("merged_codebase_7/baz");
+    fileSystem.makeDirsForFile(mergedBazFile);
+    fileSystem.copyFile(bazFile, mergedBazFile);
 
     // generateMergedFile(...) on foo
     File origFile = new File("orig/foo");
@@ -432,12 +467,9 @@ public class CodebaseMergerTest extends TestCase {
     fileSystem.makeDirsForFile(mergedFile);
     fileSystem.copyFile(destFile, mergedFile);
 
-    List<String> mergeArgs =
-        ImmutableList.of(
-            mergedFile.getAbsolutePath(), origFile.getAbsolutePath(), modFile.getAbsolutePath());
-
-    expect(cmd.runCommand("merge", mergeArgs, mergedCodebaseLocation.getAbsolutePath()))
-        .andReturn("");
+    ByteArrayOutputStream merged =
+        expectMerge(
+            mergedFile, "a\nB\nc\nd\n", origFile, "a\nb\nc\nd\n", modFile, "a\nb\nc\nD\n");
 
     // generateMergedFile(...) on bar
     origFile = new File("orig/bar");
@@ -460,18 +492,33 @@ public class CodebaseMergerTest extends TestCase {
     ui.info(
         "%d files merged successfully\n"
             + "%d files have merge conflicts. Edit the following files to resolve conflicts:\n%s",
-        1,
+        2,
         0,
         ImmutableSet.of());
 
     control.replay();
 
-    CodebaseMerger merger = new CodebaseMerger(ui, fileSystem, cmd, null, orig, mod, dest);
+    CodebaseMerger merger = new CodebaseMerger(ui, fileSystem, null, orig, mod, dest);
     merger.merge();
 
     control.verify();
 
-    assertThat(merger.getMergedFiles()).contains(mergedFile.getAbsolutePath());
+    assertThat(merger.getMergedFiles())
+        .containsExactly(mergedFile.getAbsolutePath(), mergedBazFile.getAbsolutePath());
     assertThat(merger.getFailedToMergeFiles()).isEmpty();
+    assertEquals("a\nB\nc\nD\n", merged.toString(UTF_8.name()));
+  }
+
+  /**
+   * Returns a fingerprint of files, given as pairs of names and numbers standing in for their
+   * contents.
+   */
+  private static CodebaseFingerprint fingerprint(Object... filesAndContents) {
+    StringBuilder serialized = new StringBuilder("moe_codebase_fingerprint 1\n");
+    for (int i = 0; i < filesAndContents.length; i += 2) {
+      serialized.append(
+          String.format("%040x - %s\n", filesAndContents[i + 1], filesAndContents[i]));
+    }
+    return CodebaseFingerprint.parse(serialized.toString());
   }
 }
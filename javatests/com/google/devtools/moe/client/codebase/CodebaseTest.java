@@ -17,13 +17,18 @@
 package com.google.devtools.moe.client.codebase;
 
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.devtools.moe.client.FileSystem;
 import com.google.devtools.moe.client.MoeProblem;
 import com.google.devtools.moe.client.parser.RepositoryExpression;
 import com.google.devtools.moe.client.parser.Term;
 
 import junit.framework.TestCase;
 
+import org.easymock.EasyMock;
+
 import java.io.File;
+import java.util.Set;
 
 /**
  * Tests for {@link Codebase}
@@ -50,4 +55,24 @@ public class CodebaseTest extends TestCase {
     } catch (MoeProblem expected) {
     }
   }
+
+  public void testRelativeFilenamesAreFoundOnce() throws Exception {
+    FileSystem filesystem = EasyMock.createMock(FileSystem.class);
+    File path = new File("/foo");
+    EasyMock.expect(filesystem.findFiles(path))
+        .andReturn(ImmutableSet.of(new File("/foo/a.txt"), new File("/foo/bar/b.txt")));
+    EasyMock.replay(filesystem);
+
+    Codebase c =
+        new Codebase(
+            filesystem,
+            path,
+            "internal",
+            new RepositoryExpression(new Term("foo", ImmutableMap.<String, String>of())));
+    Set<String> expected = ImmutableSet.of("a.txt", "bar/b.txt");
+    assertEquals(expected, c.getRelativeFilenames());
+    assertEquals(expected, c.getRelativeFilenames());
+    assertEquals(expected, c.copyWithProjectSpace("public").getRelativeFilenames());
+    EasyMock.verify(filesystem);
+  }
 }
@@ -20,6 +20,7 @@ import static org.easymock.EasyMock.expect;
 
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.io.ByteSource;
 import com.google.devtools.moe.client.CommandRunner;
 import com.google.devtools.moe.client.CommandRunner.CommandException;
 import com.google.devtools.moe.client.FileSystem;
@@ -40,7 +41,6 @@ import org.easymock.IMocksControl;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.List;
 
 /**
  * Tests for the FileCodebaseCreator class.
@@ -182,13 +182,10 @@ public class FileCodebaseCreatorTest extends TestCase {
     expect(mockfs.getTemporaryDirectory(EasyMock.<String>anyObject())).andReturn(new File("sth"));
     mockfs.makeDirs(EasyMock.<File>anyObject());
     EasyMock.expectLastCall().atLeastOnce();
+    // A tar with no entries, just the two zero blocks which end every tar.
+    expect(mockfs.asByteSource(fileFolder)).andReturn(ByteSource.wrap(new byte[1024]));
 
     CommandRunner mockcmd = EasyMock.createMock(CommandRunner.class);
-    expect(mockcmd.runCommand(
-            EasyMock.<String>anyObject(),
-            EasyMock.<List<String>>anyObject(),
-            EasyMock.<String>anyObject()))
-        .andReturn(null);
     EasyMock.replay(mockcmd);
     Injector.INSTANCE = new Injector(mockfs, mockcmd, contextFactory, ui);
 
@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2015 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.moe.client.database;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Files;
+import com.google.devtools.moe.client.FileSystem;
+import com.google.devtools.moe.client.MoeProblem;
+import com.google.devtools.moe.client.SystemFileSystem;
+import com.google.devtools.moe.client.gson.GsonModule;
+import com.google.devtools.moe.client.repositories.Revision;
+import com.google.gson.Gson;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+
+/**
+ * Tests for {@link BinaryDb}
+ */
+public class BinaryDbTest extends TestCase {
+  private static final Revision GIT1 =
+      Revision.create("0123456789abcdef0123456789abcdef01234567", "git");
+  private static final Revision GIT2 =
+      Revision.create("fedcba9876543210fedcba9876543210fedcba98", "git");
+  private static final Revision SVN1 = Revision.create("1234", "svn");
+  private static final Revision SVN2 = Revision.create("1240", "svn");
+  private static final Revision LONG =
+      Revision.create("a revision id too long to store inline", "other");
+
+  private final Gson gson = GsonModule.provideGson();
+  private final FileSystem filesystem = new SystemFileSystem();
+  private final BinaryDb.Factory factory = new BinaryDb.Factory(filesystem);
+  private final Db.Writer writer = new BinaryDb.Writer(filesystem);
+  private File dir;
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    dir = Files.createTempDir();
+  }
+
+  @Override
+  public void tearDown() throws Exception {
+    filesystem.deleteRecursively(dir);
+    super.tearDown();
+  }
+
+  private static DbStorage storage() {
+    DbStorage storage = new DbStorage();
+    storage.addEquivalence(RepositoryEquivalence.create(SVN1, GIT1));
+    storage.addEquivalence(RepositoryEquivalence.create(SVN2, GIT2));
+    storage.addEquivalence(RepositoryEquivalence.create(SVN2, LONG));
+    storage.addMigration(SubmittedMigration.create(SVN2, GIT2));
+    return storage;
+  }
+
+  private static void assertSameContents(DbStorage expected, DbStorage actual) {
+    assertEquals(
+        ImmutableSet.copyOf(expected.equivalences()), ImmutableSet.copyOf(actual.equivalences()));
+    assertEquals(
+        ImmutableSet.copyOf(expected.migrations()), ImmutableSet.copyOf(actual.migrations()));
+  }
+
+  public void testFindEquivalences() throws Exception {
+    BinaryDb db = factory.parseJson(gson.toJson(storage()));
+    assertEquals(ImmutableSet.of(GIT1), db.findEquivalences(SVN1, "git"));
+    assertEquals(ImmutableSet.of(SVN2), db.findEquivalences(GIT2, "svn"));
+    assertEquals(ImmutableSet.of(LONG), db.findEquivalences(SVN2, "other"));
+    assertEquals(ImmutableSet.of(SVN2), db.findEquivalences(LONG, "svn"));
+    assertThat(db.findEquivalences(SVN1, "other")).isEmpty();
+    assertThat(db.findEquivalences(Revision.create("1235", "svn"), "git")).isEmpty();
+    assertThat(db.findEquivalences(Revision.create("another long revision id", "other"), "svn"))
+        .isEmpty();
+    assertThat(db.findEquivalences(Revision.create("1234", "hg"), "git")).isEmpty();
+  }
+
+  public void testMightHaveEquivalences() throws Exception {
+    BinaryDb db = factory.parseJson(gson.toJson(storage()));
+    for (Revision revision : ImmutableSet.of(GIT1, GIT2, SVN1, SVN2, LONG)) {
+      assertTrue(db.mightHaveEquivalences(revision));
+    }
+    int falsePositives = 0;
+    for (int i = 0; i < 100; i++) {
+      if (db.mightHaveEquivalences(Revision.create(i, "svn"))) {
+        falsePositives++;
+      }
+    }
+    assertThat(falsePositives).isLessThan(10);
+
+    Revision svn3 = Revision.create("1250", "svn");
+    db.noteEquivalence(RepositoryEquivalence.create(svn3, GIT1));
+    assertTrue(db.mightHaveEquivalences(svn3));
+  }
+
+  public void testConvertsToAndFromJson() throws Exception {
+    DbStorage storage = storage();
+    BinaryDb db = factory.parseJson(gson.toJson(storage));
+    assertSameContents(storage, db.getStorage());
+
+    File jsonFile = new File(dir, "db.json");
+    new FileDb.Writer(gson, filesystem).writeToLocation(jsonFile.getPath(), db);
+    FileDb json = new FileDb.Factory(filesystem).loadFile(jsonFile.getPath());
+    assertSameContents(storage, json.getStorage());
+  }
+
+  public void testWriteAndLoad() throws Exception {
+    String location = new File(dir, "db.bin").getPath();
+    BinaryDb db = factory.load(location);
+    assertThat(db.getStorage().equivalences()).isEmpty();
+    writer.writeToLocation(location, factory.parseJson(gson.toJson(storage())));
+
+    db = factory.load(location);
+    assertSameContents(storage(), db.getStorage());
+    assertFalse(db.noteMigration(SubmittedMigration.create(SVN2, GIT2)));
+    assertTrue(db.noteMigration(SubmittedMigration.create(SVN1, GIT1)));
+    db.noteEquivalence(RepositoryEquivalence.create(GIT1, SVN1));
+    Revision svn3 = Revision.create("1250", "svn");
+    db.noteEquivalence(RepositoryEquivalence.create(svn3, LONG));
+    assertEquals(ImmutableSet.of(SVN2, svn3), db.findEquivalences(LONG, "svn"));
+    writer.write(db);
+    assertFalse(new File(location + ".new").exists());
+
+    DbStorage expected = storage();
+    expected.addMigration(SubmittedMigration.create(SVN1, GIT1));
+    expected.addEquivalence(RepositoryEquivalence.create(svn3, LONG));
+    assertSameContents(expected, factory.load(location).getStorage());
+    assertEquals(4, factory.load(location).getStorage().equivalences().size());
+  }
+
+  public void testConcurrentWritesAreMerged() throws Exception {
+    String location = new File(dir, "db.bin").getPath();
+    writer.writeToLocation(location, factory.parseJson(gson.toJson(storage())));
+    BinaryDb first = factory.load(location);
+    BinaryDb second = factory.load(location);
+    Revision svn3 = Revision.create("1250", "svn");
+    first.noteEquivalence(RepositoryEquivalence.create(svn3, GIT1));
+    second.noteMigration(SubmittedMigration.create(SVN1, GIT1));
+    writer.write(first);
+    writer.write(second);
+
+    DbStorage expected = storage();
+    expected.addEquivalence(RepositoryEquivalence.create(svn3, GIT1));
+    expected.addMigration(SubmittedMigration.create(SVN1, GIT1));
+    assertSameContents(expected, factory.load(location).getStorage());
+  }
+
+  public void testBookkeepingWatermarks() throws Exception {
+    DbStorage storage = storage();
+    storage.setBookkeepingWatermark("svn to git", GIT2);
+    storage.setBookkeepingWatermark("git to other", LONG);
+    String location = new File(dir, "db.bin").getPath();
+    writer.writeToLocation(location, factory.parseJson(gson.toJson(storage)));
+
+    BinaryDb db = factory.load(location);
+    assertEquals(GIT2, db.findBookkeepingWatermark("svn to git"));
+    assertEquals(LONG, db.findBookkeepingWatermark("git to other"));
+    assertNull(db.findBookkeepingWatermark("git to svn"));
+    db.noteBookkeepingWatermark("svn to git", GIT1);
+    db.noteBookkeepingWatermark("git to svn", SVN2);
+    assertEquals(GIT1, db.findBookkeepingWatermark("svn to git"));
+    writer.write(db);
+
+    assertEquals(
+        ImmutableMap.of("git to other", LONG, "git to svn", SVN2, "svn to git", GIT1),
+        factory.load(location).getStorage().bookkeepingWatermarks());
+  }
+
+  public void testNotABinaryDb() throws Exception {
+    File file = new File(dir, "db.bin");
+    filesystem.write("{}", file);
+    try {
+      factory.load(file.getPath());
+      fail("Expected a MoeProblem");
+    } catch (MoeProblem expected) {
+      assertThat(expected.getMessage()).startsWith("Not a binary MOE DB");
+    }
+  }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2015 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.moe.client.database;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.devtools.moe.client.CommandRunner;
+import com.google.devtools.moe.client.FileSystem;
+import com.google.devtools.moe.client.Injector;
+import com.google.devtools.moe.client.project.ProjectContext;
+import com.google.devtools.moe.client.project.RepositoryConfig;
+import com.google.devtools.moe.client.repositories.AbstractRevisionHistory;
+import com.google.devtools.moe.client.repositories.Repositories;
+import com.google.devtools.moe.client.repositories.RepositoryType;
+import com.google.devtools.moe.client.repositories.Revision;
+import com.google.devtools.moe.client.repositories.RevisionMetadata;
+import com.google.devtools.moe.client.testing.DummyCodebaseCreator;
+import com.google.devtools.moe.client.testing.DummyDb;
+import com.google.devtools.moe.client.testing.InMemoryFileSystem;
+import com.google.devtools.moe.client.testing.InMemoryProjectContextFactory;
+import com.google.devtools.moe.client.testing.RecordingUi;
+import com.google.devtools.moe.client.tools.CodebaseDiffer;
+import com.google.devtools.moe.client.tools.FileDifference.ConcreteFileDiffer;
+import com.google.devtools.moe.client.tools.FileDifference.FileDiffer;
+import com.google.devtools.moe.client.writer.WriterCreator;
+
+import junit.framework.TestCase;
+
+import org.easymock.EasyMock;
+import org.joda.time.DateTime;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests that {@link Bookkeeper} searches a migration's to-repository only as far back as its
+ * bookkeeping watermark.
+ */
+public class BookkeeperTest extends TestCase {
+  private final RecordingUi ui = new RecordingUi();
+  // Only runs diff, whose output is ignored as the codebases differ in which files they have.
+  private final CommandRunner cmd = EasyMock.createNiceMock(CommandRunner.class);
+  // The heads that bookkeeping diffs are never equivalent, so its searches can't stop at them.
+  private final FileSystem filesystem =
+      new InMemoryFileSystem(
+          ImmutableMap.of(
+              "/dummy/codebase/int/1/file", "1",
+              "/dummy/codebase/pub/20/", "empty dir (different)",
+              "/dummy/codebase/pub/23/", "empty dir (different)"));
+  private final Map<String, FakeRevisionHistory> histories = new HashMap<>();
+
+  private Bookkeeper bookkeeper;
+  private ProjectContext context;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    EasyMock.replay(cmd);
+    histories.put("int", new FakeRevisionHistory("int"));
+    histories.put("pub", new FakeRevisionHistory("pub"));
+    FileDiffer fileDiffer = new ConcreteFileDiffer(cmd, filesystem);
+    Repositories repositories =
+        new Repositories(ImmutableSet.<RepositoryType.Factory>of(new FakeRepositoryFactory()));
+    InMemoryProjectContextFactory contextFactory =
+        new InMemoryProjectContextFactory(fileDiffer, cmd, filesystem, ui, repositories);
+    contextFactory.projectConfigs.put(
+        "moe_config.txt",
+        "{\"name\":\"foo\",\"repositories\":{"
+            + "\"int\":{\"type\":\"fake\",\"project_space\":\"internal\"},"
+            + "\"pub\":{\"type\":\"fake\"}},"
+            + "\"translators\":[{\"from_project_space\":\"internal\","
+            + "\"to_project_space\":\"public\",\"steps\":[{\"name\":\"id_step\","
+            + "\"editor\":{\"type\":\"identity\"}}]}],"
+            + "\"migrations\":[{\"name\":\"test\",\"from_repository\":\"int\","
+            + "\"to_repository\":\"pub\"}]}");
+    Injector.INSTANCE = new Injector(filesystem, cmd, contextFactory, ui);
+    context = contextFactory.create("moe_config.txt");
+    bookkeeper = new Bookkeeper(new CodebaseDiffer(fileDiffer), new DummyDb.Writer(ui), ui);
+  }
+
+  public void testSecondBookkeepingStopsAtWatermark() throws Exception {
+    FakeRevisionHistory pub = histories.get("pub");
+    histories.get("int").commit(1);
+    pub.commit(20);
+    DummyDb db = new DummyDb(false);
+
+    assertEquals(0, bookkeeper.bookkeep(db, context));
+    // Each revision is read once by the search, and once more for its MOE_MIGRATED_REVID.
+    assertEquals(40, pub.metadataReads);
+    assertEquals(Revision.create("20", "pub"), db.findBookkeepingWatermark("test"));
+
+    pub.metadataReads = 0;
+    pub.commit(3);
+    assertEquals(0, bookkeeper.bookkeep(db, context));
+    assertEquals(6, pub.metadataReads);
+    assertEquals(Revision.create("23", "pub"), db.findBookkeepingWatermark("test"));
+
+    pub.metadataReads = 0;
+    assertEquals(0, bookkeeper.bookkeep(db, context));
+    assertEquals(0, pub.metadataReads);
+    assertEquals(Revision.create("23", "pub"), db.findBookkeepingWatermark("test"));
+  }
+
+  /** A linear history of revisions numbered from 1, none of which are migrations. */
+  private static class FakeRevisionHistory extends AbstractRevisionHistory {
+    private final String name;
+    private int head;
+    int metadataReads;
+
+    FakeRevisionHistory(String name) {
+      this.name = name;
+    }
+
+    void commit(int count) {
+      head += count;
+    }
+
+    @Override
+    public Revision findHighestRevision(String revId) {
+      return Revision.create(Strings.isNullOrEmpty(revId) ? String.valueOf(head) : revId, name);
+    }
+
+    @Override
+    public RevisionMetadata getMetadata(Revision revision) {
+      metadataReads++;
+      int number = Integer.parseInt(revision.revId());
+      List<Revision> parents = new ArrayList<>();
+      if (number > 1) {
+        parents.add(Revision.create(number - 1, name));
+      }
+      return new RevisionMetadata(
+          revision.revId(), "author", new DateTime(1L), "description " + number, parents);
+    }
+
+    @Override
+    protected List<Revision> findHeadRevisions() {
+      return ImmutableList.of(findHighestRevision(null));
+    }
+  }
+
+  /** Creates repositories with the fake histories, and dummy codebases. */
+  private class FakeRepositoryFactory implements RepositoryType.Factory {
+    @Override
+    public String type() {
+      return "fake";
+    }
+
+    @Override
+    public RepositoryType create(String name, RepositoryConfig config) {
+      String projectSpace = config.getProjectSpace() != null ? config.getProjectSpace() : "public";
+      return RepositoryType.create(
+          name,
+          histories.get(name),
+          new DummyCodebaseCreator(filesystem, name, projectSpace),
+          EasyMock.createMock(WriterCreator.class));
+    }
+  }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2015 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.moe.client.database;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.devtools.moe.client.gson.GsonModule;
+import com.google.devtools.moe.client.repositories.Revision;
+import com.google.devtools.moe.client.testing.DummyDb;
+import com.google.devtools.moe.client.testing.InMemoryFileSystem;
+import com.google.gson.Gson;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+
+/**
+ * Tests for {@link Databases}
+ */
+public class DatabasesTest extends TestCase {
+  private final Gson gson = GsonModule.provideGson();
+  private final InMemoryFileSystem filesystem = new InMemoryFileSystem();
+  private final FileDb.Factory fileDbFactory = new FileDb.Factory(filesystem);
+  private final Db.Factory factory =
+      new Databases.Factory(
+          fileDbFactory,
+          new JournalDb.Factory(filesystem, gson, fileDbFactory),
+          new BinaryDb.Factory(filesystem));
+  private final Db.Writer writer =
+      new Databases.Writer(
+          new FileDb.Writer(gson, filesystem),
+          new JournalDb.Writer(filesystem, gson),
+          new BinaryDb.Writer(filesystem));
+
+  public void testLoadsTheFormTheLocationNames() throws Exception {
+    assertThat(factory.load("/path/to/db.json")).isInstanceOf(FileDb.class);
+    assertThat(factory.load("/path/to/db.json.journal")).isInstanceOf(JournalDb.class);
+    assertThat(factory.load("/path/to/db.bin")).isInstanceOf(BinaryDb.class);
+    assertThat(factory.load("dummy")).isInstanceOf(DummyDb.class);
+  }
+
+  public void testWritesTheFormTheLocationNames() throws Exception {
+    Db db = factory.load("/path/to/db.json.journal");
+    db.noteEquivalence(
+        RepositoryEquivalence.create(
+            Revision.create("r1", "name1"), Revision.create("r2", "name2")));
+    writer.write(db);
+    assertTrue(filesystem.exists(new File("/path/to/db.json.journal")));
+    assertFalse(filesystem.exists(new File("/path/to/db.json")));
+
+    writer.writeToLocation("/path/to/db.json", db);
+    assertThat(((FileDb) factory.load("/path/to/db.json")).getEquivalences()).hasSize(1);
+  }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2015 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.moe.client.database;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Files;
+import com.google.devtools.moe.client.FileSystem;
+import com.google.devtools.moe.client.SystemFileSystem;
+import com.google.devtools.moe.client.gson.GsonModule;
+import com.google.devtools.moe.client.repositories.Revision;
+import com.google.devtools.moe.client.testing.InMemoryFileSystem;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+
+/**
+ * Tests for {@link DbCompactor}
+ */
+public class DbCompactorTest extends TestCase {
+  private static final String DB = "/path/to/db.json";
+
+  private final InMemoryFileSystem filesystem = new InMemoryFileSystem();
+  private final FileDb.Factory factory = new FileDb.Factory(filesystem);
+  private final FileDb.Writer writer = new FileDb.Writer(GsonModule.provideGson(), filesystem);
+  private final DbCompactor compactor = new DbCompactor(factory, writer, factory, writer);
+
+  private static RepositoryEquivalence equivalence(int internal, int external, String repo) {
+    return RepositoryEquivalence.create(
+        Revision.create("" + internal, "internal"), Revision.create("" + external, repo));
+  }
+
+  public void testPruneKeepsNewestOfEachPair() throws Exception {
+    DbStorage storage = new DbStorage();
+    for (int i = 1; i <= 4; i++) {
+      storage.addEquivalence(equivalence(i, i + 100, "public"));
+      storage.addEquivalence(equivalence(i, i + 200, "other"));
+    }
+    storage.addMigration(
+        SubmittedMigration.create(
+            Revision.create("1", "internal"), Revision.create("101", "public")));
+
+    DbStorage archived = new DbStorage();
+    DbStorage kept = DbCompactor.prune(storage, 2, archived);
+    assertEquals(
+        ImmutableList.of(
+            equivalence(3, 103, "public"),
+            equivalence(3, 203, "other"),
+            equivalence(4, 104, "public"),
+            equivalence(4, 204, "other")),
+        kept.equivalences());
+    assertEquals(storage.migrations(), kept.migrations());
+    assertThat(archived.equivalences()).hasSize(4);
+  }
+
+  public void testPruneKeepsEquivalencesOfUnfinishedMigrations() throws Exception {
+    DbStorage storage = new DbStorage();
+    for (int i = 1; i <= 4; i++) {
+      storage.addEquivalence(equivalence(i, i + 100, "public"));
+    }
+    // Migrated, but not (yet) found equivalent.
+    storage.addMigration(
+        SubmittedMigration.create(
+            Revision.create("2", "internal"), Revision.create("150", "public")));
+    // Migrated and found equivalent, so finished.
+    storage.addMigration(
+        SubmittedMigration.create(
+            Revision.create("1", "internal"), Revision.create("101", "public")));
+
+    DbStorage archived = new DbStorage();
+    DbStorage kept = DbCompactor.prune(storage, 1, archived);
+    assertEquals(
+        ImmutableList.of(equivalence(2, 102, "public"), equivalence(4, 104, "public")),
+        kept.equivalences());
+    assertEquals(
+        ImmutableList.of(equivalence(1, 101, "public"), equivalence(3, 103, "public")),
+        archived.equivalences());
+  }
+
+  public void testCompactArchivesPrunedEquivalences() throws Exception {
+    FileDb db = factory.loadFile(DB);
+    for (int i = 1; i <= 3; i++) {
+      db.noteEquivalence(equivalence(i, i + 100, "public"));
+    }
+    writer.write(db);
+
+    assertEquals(2, compactor.compact(DB, 1));
+    assertEquals(
+        ImmutableSet.of(equivalence(3, 103, "public")), factory.loadFile(DB).getEquivalences());
+    assertEquals(
+        ImmutableSet.of(equivalence(1, 101, "public"), equivalence(2, 102, "public")),
+        factory.loadFile(DB + DbCompactor.ARCHIVE_SUFFIX).getEquivalences());
+
+    // Compacting again archives nothing more, and doesn't touch the archive.
+    assertEquals(0, compactor.compact(DB, 1));
+    assertThat(factory.loadFile(DB + DbCompactor.ARCHIVE_SUFFIX).getEquivalences()).hasSize(2);
+    assertFalse(filesystem.exists(new File(DB + ".new")));
+  }
+
+  public void testCompactKeepsNewestOfBinaryDb() throws Exception {
+    // A real file system, as the in-memory one keeps files as text.
+    FileSystem systemFilesystem = new SystemFileSystem();
+    File dir = Files.createTempDir();
+    try {
+      String location = new File(dir, "db.bin").getPath();
+      BinaryDb.Factory binaryFactory = new BinaryDb.Factory(systemFilesystem);
+      BinaryDb.Writer binaryWriter = new BinaryDb.Writer(systemFilesystem);
+      FileDb.Factory archiveFactory = new FileDb.Factory(systemFilesystem);
+      // Noted in the reverse of the order their entries sort in, and across two writes.
+      BinaryDb db = binaryFactory.load(location);
+      db.noteEquivalence(equivalence(3, 103, "public"));
+      db.noteEquivalence(equivalence(2, 102, "public"));
+      binaryWriter.write(db);
+      db = binaryFactory.load(location);
+      db.noteEquivalence(equivalence(1, 101, "public"));
+      binaryWriter.write(db);
+
+      DbCompactor binaryCompactor =
+          new DbCompactor(
+              binaryFactory,
+              binaryWriter,
+              archiveFactory,
+              new FileDb.Writer(GsonModule.provideGson(), systemFilesystem));
+      assertEquals(2, binaryCompactor.compact(location, 1));
+      assertEquals(
+          ImmutableList.of(equivalence(1, 101, "public")),
+          binaryFactory.load(location).getStorage().equivalences());
+      assertEquals(
+          ImmutableSet.of(equivalence(2, 102, "public"), equivalence(3, 103, "public")),
+          archiveFactory.loadFile(location + DbCompactor.ARCHIVE_SUFFIX).getEquivalences());
+    } finally {
+      systemFilesystem.deleteRecursively(dir);
+    }
+  }
+}
@@ -17,11 +17,14 @@
 package com.google.devtools.moe.client.database;
 
 import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.easymock.EasyMock.expect;
 
 import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.io.ByteSource;
+import com.google.common.io.Files;
 import com.google.devtools.moe.client.FileSystem;
 import com.google.devtools.moe.client.Injector;
 import com.google.devtools.moe.client.SystemCommandRunner;
@@ -40,6 +43,7 @@ import junit.framework.TestCase;
 import org.easymock.EasyMock;
 import org.easymock.IMocksControl;
 
+import java.io.Closeable;
 import java.io.File;
 
 /**
@@ -53,7 +57,7 @@ public class FileDbTest extends TestCase {
   private final InMemoryProjectContextFactory contextFactory =
       new InMemoryProjectContextFactory(null, cmd, null, ui, repositories);
   private final FileSystem filesystem = new SystemFileSystem();
-  private final Db.Factory factory = new FileDb.Factory(filesystem, GsonModule.provideGson());
+  private final Db.Factory factory = new FileDb.Factory(filesystem);
 
   @Override
   public void setUp() throws Exception {
@@ -147,10 +151,78 @@ public class FileDbTest extends TestCase {
         ImmutableSet.of(Revision.create("r2", "name2"), Revision.create("r3", "name2")));
   }
 
+  public void testNotedEquivalencesAreFoundAndStoredOnce() throws Exception {
+    FileDb db = (FileDb) factory.parseJson("{}");
+    Revision r1 = Revision.create("r1", "name1");
+    Revision r2 = Revision.create("r2", "name2");
+    Revision r3 = Revision.create("r3", "name3");
+    assertThat(db.findEquivalences(r1, "name2")).isEmpty();
+    assertFalse(db.mightHaveEquivalences(r1));
+
+    db.noteEquivalence(RepositoryEquivalence.create(r1, r2));
+    db.noteEquivalence(RepositoryEquivalence.create(r2, r1));
+    db.noteEquivalence(RepositoryEquivalence.create(r3, r1));
+    assertEquals(ImmutableSet.of(r2), db.findEquivalences(r1, "name2"));
+    assertEquals(ImmutableSet.of(r3), db.findEquivalences(r1, "name3"));
+    assertEquals(ImmutableSet.of(r1), db.findEquivalences(r2, "name1"));
+    assertThat(db.findEquivalences(r2, "name3")).isEmpty();
+    assertTrue(db.mightHaveEquivalences(r3));
+    assertFalse(db.mightHaveEquivalences(Revision.create("r4", "name1")));
+    assertEquals(2, db.getStorage().equivalences().size());
+  }
+
+  public void testLoadedMigrationsAreNotNotedAgain() throws Exception {
+    FileDb db = (FileDb) factory.parseJson("{}");
+    SubmittedMigration migration =
+        SubmittedMigration.create(Revision.create("r1", "name1"), Revision.create("r2", "name2"));
+    db.noteMigration(migration);
+    String dbText = GsonModule.provideGson().toJson(db.getStorage());
+
+    FileDb loaded = (FileDb) factory.parseJson(dbText);
+    assertFalse(loaded.noteMigration(migration));
+    assertEquals(1, loaded.getStorage().migrations().size());
+  }
+
+  public void testParseWrittenDbSharesRepositoryNames() throws Exception {
+    FileDb db = (FileDb) factory.parseJson("{}");
+    db.noteEquivalence(
+        RepositoryEquivalence.create(
+            Revision.create("r1", new String("name1")), Revision.create("r2", "name2")));
+    db.noteMigration(
+        SubmittedMigration.create(
+            Revision.create("r3", new String("name1")), Revision.create("r4", "name2")));
+
+    FileDb parsed = (FileDb) factory.parseJson(GsonModule.provideGson().toJson(db.getStorage()));
+    assertEquals(db.getEquivalences(), parsed.getEquivalences());
+    assertEquals(db.getMigrations(), parsed.getMigrations());
+    assertSame(
+        Iterables.getOnlyElement(parsed.getEquivalences())
+            .getRevisionForRepository("name1")
+            .repositoryName(),
+        Iterables.getOnlyElement(parsed.getMigrations()).fromRevision().repositoryName());
+  }
+
+  public void testParseInvalidDb() throws Exception {
+    for (String dbText :
+        new String[] {
+          "{'equivalences': [{'rev1': {'revId': 'r1'}}]}",
+          "{'migrations': [{'fromRevision': {'revId': 'r1', 'repositoryName': 'name1'}}]}",
+          "{'equivalences': {}}",
+          "{'equivalences': [",
+        }) {
+      try {
+        factory.parseJson(dbText);
+        fail("Expected InvalidProject parsing " + dbText);
+      } catch (InvalidProject expected) {
+        assertThat(expected.getMessage()).startsWith("Could not parse MOE DB: ");
+      }
+    }
+  }
+
   public void testMakeDbFromFile() throws Exception {
     IMocksControl control = EasyMock.createControl();
     FileSystem filesystem = control.createMock(FileSystem.class);
-    FileDb.Factory factory = new FileDb.Factory(filesystem, GsonModule.provideGson());
+    FileDb.Factory factory = new FileDb.Factory(filesystem);
     File dbFile = new File("/path/to/db");
     String dbText =
         Joiner.on("\n")
@@ -171,7 +243,8 @@ public class FileDbTest extends TestCase {
                 "}",
                 "");
 
-    expect(filesystem.fileToString(dbFile)).andReturn(dbText);
+    expect(filesystem.asByteSource(dbFile))
+        .andReturn(ByteSource.wrap(dbText.getBytes(UTF_8)));
     expect(filesystem.exists(dbFile)).andReturn(true);
 
     control.replay();
@@ -188,14 +261,48 @@ public class FileDbTest extends TestCase {
     File dbFile = new File("/path/to/db");
     String dbText = "{\n  \"equivalences\": [],\n  \"migrations\": []\n}";
     Db db = factory.parseJson(dbText);
-    filesystem.write(dbText, dbFile);
-    EasyMock.expectLastCall();
+    File newFile = new File("/path/to/db.new");
+    // Written elsewhere than it was loaded from, so nothing is merged into it.
+    EasyMock.expect(filesystem.lock(new File("/path/to/db.lock")))
+        .andReturn(
+            new Closeable() {
+              @Override
+              public void close() {}
+            });
+    filesystem.write(dbText, newFile);
+    filesystem.move(newFile, dbFile);
     control.replay();
     writer.writeToLocation(dbFile.getPath(), db);
     control.verify();
   }
 
 
+  public void testConcurrentWritesAreMerged() throws Exception {
+    File dir = Files.createTempDir();
+    try {
+      String location = new File(dir, "db.json").getPath();
+      Db.Writer writer = new FileDb.Writer(GsonModule.provideGson(), filesystem);
+      Db first = factory.load(location);
+      Db second = factory.load(location);
+      RepositoryEquivalence equivalence =
+          RepositoryEquivalence.create(
+              Revision.create("r1", "name1"), Revision.create("r2", "name2"));
+      SubmittedMigration migration =
+          SubmittedMigration.create(Revision.create("r3", "name1"), Revision.create("r4", "name2"));
+      first.noteEquivalence(equivalence);
+      second.noteMigration(migration);
+      writer.write(first);
+      writer.write(second);
+
+      FileDb merged = (FileDb) factory.load(location);
+      assertEquals(ImmutableSet.of(equivalence), merged.getEquivalences());
+      assertEquals(ImmutableSet.of(migration), merged.getMigrations());
+      assertFalse(new File(location + ".new").exists());
+    } finally {
+      filesystem.deleteRecursively(dir);
+    }
+  }
+
   public void testSerialization() throws InvalidProject {
     String dbText =
         Joiner.on("\n")
@@ -237,4 +344,17 @@ public class FileDbTest extends TestCase {
     assertEquals("name2", migration.toRevision().repositoryName());
     assertEquals("r2", migration.toRevision().revId());
   }
+
+  public void testBookkeepingWatermarksAreWrittenAndRead() throws Exception {
+    FileDb db = (FileDb) factory.parseJson("{}");
+    assertNull(db.findBookkeepingWatermark("migration"));
+    // A database without watermarks is written as it was before there were any.
+    assertFalse(GsonModule.provideGson().toJson(db.getStorage()).contains("watermark"));
+
+    Revision watermark = Revision.create("r2", "name2");
+    db.noteBookkeepingWatermark("migration", watermark);
+    FileDb parsed = (FileDb) factory.parseJson(GsonModule.provideGson().toJson(db.getStorage()));
+    assertEquals(watermark, parsed.findBookkeepingWatermark("migration"));
+    assertNull(parsed.findBookkeepingWatermark("other migration"));
+  }
 }
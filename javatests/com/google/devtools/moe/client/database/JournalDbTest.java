@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2015 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.moe.client.database;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.devtools.moe.client.MoeProblem;
+import com.google.devtools.moe.client.gson.GsonModule;
+import com.google.devtools.moe.client.repositories.Revision;
+import com.google.devtools.moe.client.testing.InMemoryFileSystem;
+import com.google.gson.Gson;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+
+/**
+ * Tests for {@link JournalDb}
+ */
+public class JournalDbTest extends TestCase {
+  private static final String SNAPSHOT = "/path/to/db.json";
+  private static final String JOURNAL = "/path/to/db.json.journal";
+  private static final Revision R1 = Revision.create("r1", "name1");
+  private static final Revision R2 = Revision.create("r2", "name2");
+  private static final RepositoryEquivalence EQUIVALENCE = RepositoryEquivalence.create(R1, R2);
+  private static final SubmittedMigration MIGRATION = SubmittedMigration.create(R1, R2);
+
+  private final Gson gson = GsonModule.provideGson();
+  private final InMemoryFileSystem filesystem = new InMemoryFileSystem();
+  private final FileDb.Factory fileDbFactory = new FileDb.Factory(filesystem);
+  private final Db.Factory factory = new JournalDb.Factory(filesystem, gson, fileDbFactory);
+  private final Db.Writer writer = new JournalDb.Writer(filesystem, gson);
+
+  public void testWriteAppendsToJournal() throws Exception {
+    JournalDb db = (JournalDb) factory.load(JOURNAL);
+    db.noteEquivalence(EQUIVALENCE);
+    db.noteEquivalence(EQUIVALENCE);
+    assertTrue(db.noteMigration(MIGRATION));
+    writer.write(db);
+    assertFalse(filesystem.exists(new File(SNAPSHOT)));
+    assertThat(filesystem.fileToString(new File(JOURNAL)).split("\n")).hasLength(2);
+
+    // Nothing new, nothing appended.
+    writer.write(db);
+    assertThat(filesystem.fileToString(new File(JOURNAL)).split("\n")).hasLength(2);
+
+    JournalDb loaded = (JournalDb) factory.load(JOURNAL);
+    assertEquals(ImmutableSet.of(EQUIVALENCE), loaded.getEquivalences());
+    assertEquals(ImmutableSet.of(R2), loaded.findEquivalences(R1, "name2"));
+    assertFalse(loaded.noteMigration(MIGRATION));
+  }
+
+  public void testJsonDbIsTheSnapshot() throws Exception {
+    FileDb json = (FileDb) fileDbFactory.parseJson("{}");
+    json.noteEquivalence(EQUIVALENCE);
+    filesystem.write(gson.toJson(json.getStorage()), new File(SNAPSHOT));
+
+    JournalDb db = (JournalDb) factory.load(JOURNAL);
+    assertEquals(ImmutableSet.of(R2), db.findEquivalences(R1, "name2"));
+  }
+
+  public void testWriteOtherDbToJournalLocationWritesSnapshot() throws Exception {
+    filesystem.write("{\"equivalence\":{}}\n", new File(JOURNAL));
+    FileDb json = (FileDb) fileDbFactory.parseJson("{}");
+    json.noteMigration(MIGRATION);
+    writer.writeToLocation(JOURNAL, json);
+    assertFalse(filesystem.exists(new File(JOURNAL)));
+    assertEquals(
+        ImmutableSet.of(MIGRATION), ((JournalDb) factory.load(JOURNAL)).getMigrations());
+  }
+
+  public void testCompactsLongJournal() throws Exception {
+    JournalDb db = (JournalDb) factory.load(JOURNAL);
+    for (int i = 0; i <= JournalDb.COMPACTION_THRESHOLD; i++) {
+      db.noteEquivalence(
+          RepositoryEquivalence.create(
+              Revision.create("r" + i, "name1"), Revision.create("s" + i, "name2")));
+    }
+    writer.write(db);
+    assertFalse(filesystem.exists(new File(JOURNAL)));
+    assertFalse(filesystem.exists(new File(SNAPSHOT + ".new")));
+
+    db.noteMigration(MIGRATION);
+    writer.write(db);
+    assertThat(filesystem.fileToString(new File(JOURNAL)).split("\n")).hasLength(1);
+
+    JournalDb loaded = (JournalDb) factory.load(JOURNAL);
+    assertThat(loaded.getEquivalences()).hasSize(JournalDb.COMPACTION_THRESHOLD + 1);
+    assertEquals(ImmutableSet.of(MIGRATION), loaded.getMigrations());
+  }
+
+  public void testTornRecordIsIgnoredAndCompactedAway() throws Exception {
+    JournalDb db = (JournalDb) factory.load(JOURNAL);
+    db.noteEquivalence(EQUIVALENCE);
+    writer.write(db);
+    String journal = filesystem.fileToString(new File(JOURNAL));
+    filesystem.write(journal + "{\"migration\":{\"from_rev", new File(JOURNAL));
+
+    JournalDb loaded = (JournalDb) factory.load(JOURNAL);
+    assertEquals(ImmutableSet.of(EQUIVALENCE), loaded.getEquivalences());
+    assertThat(loaded.getMigrations()).isEmpty();
+    loaded.noteMigration(MIGRATION);
+    writer.write(loaded);
+    assertFalse(filesystem.exists(new File(JOURNAL)));
+    assertEquals(ImmutableSet.of(MIGRATION), ((JournalDb) factory.load(JOURNAL)).getMigrations());
+  }
+
+  public void testConcurrentWritesAreMerged() throws Exception {
+    JournalDb first = (JournalDb) factory.load(JOURNAL);
+    JournalDb second = (JournalDb) factory.load(JOURNAL);
+    first.noteEquivalence(EQUIVALENCE);
+    second.noteMigration(MIGRATION);
+    writer.write(first);
+    writer.write(second);
+
+    JournalDb loaded = (JournalDb) factory.load(JOURNAL);
+    assertEquals(ImmutableSet.of(EQUIVALENCE), loaded.getEquivalences());
+    assertEquals(ImmutableSet.of(MIGRATION), loaded.getMigrations());
+  }
+
+  public void testCompactionKeepsOtherWritersRecords() throws Exception {
+    JournalDb first = (JournalDb) factory.load(JOURNAL);
+    JournalDb second = (JournalDb) factory.load(JOURNAL);
+    first.noteMigration(MIGRATION);
+    writer.write(first);
+    for (int i = 0; i < JournalDb.COMPACTION_THRESHOLD; i++) {
+      second.noteEquivalence(
+          RepositoryEquivalence.create(
+              Revision.create("r" + i, "name1"), Revision.create("s" + i, "name2")));
+    }
+    // The journal on disk now holds one record too many, so this write compacts it.
+    writer.write(second);
+    assertFalse(filesystem.exists(new File(JOURNAL)));
+
+    JournalDb loaded = (JournalDb) factory.load(JOURNAL);
+    assertThat(loaded.getEquivalences()).hasSize(JournalDb.COMPACTION_THRESHOLD);
+    assertEquals(ImmutableSet.of(MIGRATION), loaded.getMigrations());
+  }
+
+  public void testBookkeepingWatermarkIsJournalled() throws Exception {
+    JournalDb db = (JournalDb) factory.load(JOURNAL);
+    db.noteBookkeepingWatermark("migration", R1);
+    db.noteBookkeepingWatermark("migration", R2);
+    db.noteBookkeepingWatermark("migration", R2);
+    writer.write(db);
+    assertThat(filesystem.fileToString(new File(JOURNAL)).split("\n")).hasLength(2);
+    assertEquals(R2, factory.load(JOURNAL).findBookkeepingWatermark("migration"));
+  }
+
+  public void testCorruptRecordFailsLoad() throws Exception {
+    filesystem.write("not json\n{}\n", new File(JOURNAL));
+    try {
+      factory.load(JOURNAL);
+      fail("Expected a MoeProblem");
+    } catch (MoeProblem expected) {
+      assertThat(expected.getMessage()).contains("line 1");
+    }
+  }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2015 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.moe.client.database;
+
+import com.google.devtools.moe.client.repositories.Revision;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link RevisionBloomFilter}
+ */
+public class RevisionBloomFilterTest extends TestCase {
+  private static final int SIZE = 10000;
+
+  public void testHasNoFalseNegatives() throws Exception {
+    RevisionBloomFilter filter = new RevisionBloomFilter(SIZE);
+    for (int i = 0; i < SIZE; i++) {
+      filter.put(Revision.create(i, "internal"));
+    }
+    for (int i = 0; i < SIZE; i++) {
+      assertTrue(filter.mightContain(Revision.create(i, "internal")));
+    }
+  }
+
+  public void testHasFewFalsePositives() throws Exception {
+    RevisionBloomFilter filter = new RevisionBloomFilter(SIZE);
+    for (int i = 0; i < SIZE; i++) {
+      filter.put(Revision.create(i, "internal"));
+    }
+    int falsePositives = 0;
+    for (int i = 0; i < SIZE; i++) {
+      if (filter.mightContain(Revision.create(i, "public"))) {
+        falsePositives++;
+      }
+      if (filter.mightContain(Revision.create(SIZE + i, "internal"))) {
+        falsePositives++;
+      }
+    }
+    // About 1% is expected; allow for some bad luck.
+    assertTrue("false positives: " + falsePositives, falsePositives < 2 * SIZE / 50);
+  }
+
+  public void testEmptyFilterContainsNothing() throws Exception {
+    RevisionBloomFilter filter = new RevisionBloomFilter(0);
+    assertFalse(filter.mightContain(Revision.create(1, "internal")));
+  }
+}
@@ -113,7 +113,7 @@ public class BookkeepingDirectiveTest extends TestCase {
     InMemoryProjectContextFactory contextFactory =
         init(new InMemoryProjectContextFactory(fileDiffer, cmd, filesystem, ui, repositories));
     Injector.INSTANCE = new Injector(filesystem, cmd, contextFactory, ui);
-    Db.Factory dbFactory = new FileDb.Factory(filesystem, GsonModule.provideGson());
+    Db.Factory dbFactory = new FileDb.Factory(filesystem);
     Db.Writer dbWriter = new FileDb.Writer(GsonModule.provideGson(), filesystem);
     BookkeepingDirective d =
         new BookkeepingDirective(
@@ -134,6 +134,7 @@ public class BookkeepingDirectiveTest extends TestCase {
     expectedDb.addMigration(
         SubmittedMigration.create(
             Revision.create("migrated_from", "int"), Revision.create("migrated_to", "pub")));
+    expectedDb.setBookkeepingWatermark("test", Revision.create("migrated_to", "pub"));
 
     assertEquals(GsonModule.provideGson().toJson(expectedDb), filesystem.fileToString(DB_FILE));
   }
@@ -158,7 +159,7 @@ public class BookkeepingDirectiveTest extends TestCase {
     InMemoryProjectContextFactory contextFactory =
         init(new InMemoryProjectContextFactory(fileDiffer, cmd, filesystem, ui, repositories));
     Injector.INSTANCE = new Injector(filesystem, cmd, contextFactory, ui);
-    Db.Factory dbFactory = new FileDb.Factory(filesystem, GsonModule.provideGson());
+    Db.Factory dbFactory = new FileDb.Factory(filesystem);
     Db.Writer dbWriter = new FileDb.Writer(GsonModule.provideGson(), filesystem);
     BookkeepingDirective d =
         new BookkeepingDirective(
@@ -177,6 +178,7 @@ public class BookkeepingDirectiveTest extends TestCase {
     expectedDb.addMigration(
         SubmittedMigration.create(
             Revision.create("migrated_from", "int"), Revision.create("migrated_to", "pub")));
+    expectedDb.setBookkeepingWatermark("test", Revision.create("migrated_to", "pub"));
 
     assertEquals(GsonModule.provideGson().toJson(expectedDb), filesystem.fileToString(DB_FILE));
   }
@@ -201,7 +203,7 @@ public class BookkeepingDirectiveTest extends TestCase {
     InMemoryProjectContextFactory contextFactory =
         init(new InMemoryProjectContextFactory(fileDiffer, cmd, filesystem, ui, repositories));
     Injector.INSTANCE = new Injector(filesystem, cmd, contextFactory, ui);
-    Db.Factory dbFactory = new FileDb.Factory(filesystem, GsonModule.provideGson());
+    Db.Factory dbFactory = new FileDb.Factory(filesystem);
     Db.Writer dbWriter = new FileDb.Writer(GsonModule.provideGson(), filesystem);
     BookkeepingDirective d =
         new BookkeepingDirective(
@@ -223,6 +225,7 @@ public class BookkeepingDirectiveTest extends TestCase {
     expectedDb.addMigration(
         SubmittedMigration.create(
             Revision.create("migrated_from", "int"), Revision.create("migrated_to", "pub")));
+    expectedDb.setBookkeepingWatermark("test", Revision.create("migrated_to", "pub"));
 
     assertEquals(GsonModule.provideGson().toJson(expectedDb), filesystem.fileToString(DB_FILE));
   }
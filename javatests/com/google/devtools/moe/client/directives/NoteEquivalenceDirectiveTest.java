@@ -16,10 +16,12 @@
 
 package com.google.devtools.moe.client.directives;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.easymock.EasyMock.expect;
 
 import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.io.ByteSource;
 import com.google.devtools.moe.client.FileSystem;
 import com.google.devtools.moe.client.Injector;
 import com.google.devtools.moe.client.MoeProblem;
@@ -38,9 +40,16 @@ import junit.framework.TestCase;
 import org.easymock.EasyMock;
 import org.easymock.IMocksControl;
 
+import java.io.Closeable;
 import java.io.File;
 
 public class NoteEquivalenceDirectiveTest extends TestCase {
+  private static final Closeable NO_LOCK =
+      new Closeable() {
+        @Override
+        public void close() {}
+      };
+
   public final RecordingUi ui = new RecordingUi();
   private final IMocksControl control = EasyMock.createControl();
   private final FileSystem mockFs = control.createMock(FileSystem.class);
@@ -49,7 +58,7 @@ public class NoteEquivalenceDirectiveTest extends TestCase {
       new Repositories(ImmutableSet.<RepositoryType.Factory>of(new DummyRepositoryFactory(mockFs)));
   private final InMemoryProjectContextFactory contextFactory =
       new InMemoryProjectContextFactory(null, cmd, mockFs, ui, repositories);
-  private final Db.Factory dbFactory = new FileDb.Factory(mockFs, GsonModule.provideGson());
+  private final Db.Factory dbFactory = new FileDb.Factory(mockFs);
   private final Db.Writer dbWriter = new FileDb.Writer(GsonModule.provideGson(), mockFs);
 
   NoteEquivalenceDirective d;
@@ -93,7 +102,9 @@ public class NoteEquivalenceDirectiveTest extends TestCase {
     d.repo1 = "internal(revision=1)";
     d.repo2 = "public(revision=4)";
 
-    expect(mockFs.exists(new File("/foo/db.txt"))).andReturn(false);
+    // Once loading the db, and again writing it, under its lock.
+    expect(mockFs.exists(new File("/foo/db.txt"))).andReturn(false).times(2);
+    expect(mockFs.lock(new File("/foo/db.txt.lock"))).andReturn(NO_LOCK);
     mockFs.write(
         Joiner.on('\n')
             .join(
@@ -113,7 +124,8 @@ public class NoteEquivalenceDirectiveTest extends TestCase {
                 "  'migrations': []",
                 "}")
             .replace('\'', '"'),
-        new File("/foo/db.txt"));
+        new File("/foo/db.txt.new"));
+    mockFs.move(new File("/foo/db.txt.new"), new File("/foo/db.txt"));
 
     control.replay();
     int result = d.perform();
@@ -146,9 +158,13 @@ public class NoteEquivalenceDirectiveTest extends TestCase {
                 "}")
             .replace('\'', '"');
 
-    expect(mockFs.exists(new File("/foo/db.txt"))).andReturn(true);
-    expect(mockFs.fileToString(new File("/foo/db.txt"))).andReturn(dbString);
-    mockFs.write(dbString, new File("/foo/db.txt"));
+    expect(mockFs.exists(new File("/foo/db.txt"))).andReturn(true).times(2);
+    expect(mockFs.asByteSource(new File("/foo/db.txt")))
+        .andReturn(ByteSource.wrap(dbString.getBytes(UTF_8)))
+        .times(2);
+    expect(mockFs.lock(new File("/foo/db.txt.lock"))).andReturn(NO_LOCK);
+    mockFs.write(dbString, new File("/foo/db.txt.new"));
+    mockFs.move(new File("/foo/db.txt.new"), new File("/foo/db.txt"));
 
     control.replay();
     int result = d.perform();
@@ -200,9 +216,13 @@ public class NoteEquivalenceDirectiveTest extends TestCase {
                         "    }"))
             .replace('\'', '"');
 
-    expect(mockFs.exists(new File("/foo/db.txt"))).andReturn(true);
-    expect(mockFs.fileToString(new File("/foo/db.txt"))).andReturn(oldDbString);
-    mockFs.write(newDbString, new File("/foo/db.txt"));
+    expect(mockFs.exists(new File("/foo/db.txt"))).andReturn(true).times(2);
+    expect(mockFs.asByteSource(new File("/foo/db.txt")))
+        .andReturn(ByteSource.wrap(oldDbString.getBytes(UTF_8)))
+        .times(2);
+    expect(mockFs.lock(new File("/foo/db.txt.lock"))).andReturn(NO_LOCK);
+    mockFs.write(newDbString, new File("/foo/db.txt.new"));
+    mockFs.move(new File("/foo/db.txt.new"), new File("/foo/db.txt"));
 
     control.replay();
     int result = d.perform();
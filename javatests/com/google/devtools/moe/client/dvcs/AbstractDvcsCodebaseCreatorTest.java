@@ -19,9 +19,7 @@ package com.google.devtools.moe.client.dvcs;
 import static org.easymock.EasyMock.expect;
 
 import com.google.common.base.Suppliers;
-import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.ImmutableSet;
 import com.google.devtools.moe.client.FileSystem;
 import com.google.devtools.moe.client.Injector;
 import com.google.devtools.moe.client.SystemCommandRunner;
@@ -87,15 +85,11 @@ public class AbstractDvcsCodebaseCreatorTest extends TestCase {
             .context();
 
     expect(mockRepo.getConfig()).andReturn(mockRepoConfig).anyTimes();
-    expect(mockRepoConfig.getIgnoreFilePatterns()).andReturn(ImmutableList.<String>of());
     expect(mockRepo.getRepositoryName()).andReturn(MOCK_REPO_NAME);
   }
 
   public void testCreate_noGivenRev() throws Exception {
     String archiveTempDir = "/tmp/git_archive_mockrepo_head";
-    // Short-circuit Utils.filterFilesByPredicate(ignore_files_re).
-    expect(Injector.INSTANCE.fileSystem().findFiles(new File(archiveTempDir)))
-        .andReturn(ImmutableSet.<File>of());
 
     expect(mockRevHistory.findHighestRevision(null))
         .andReturn(Revision.create("mock head changeset ID", MOCK_REPO_NAME));
@@ -116,9 +110,6 @@ public class AbstractDvcsCodebaseCreatorTest extends TestCase {
   public void testCreate_givenRev() throws Exception {
     String givenRev = "givenrev";
     String archiveTempDir = "/tmp/git_reclone_mockrepo_head_" + givenRev;
-    // Short-circuit Utils.filterFilesByPredicate(ignore_files_re).
-    expect(Injector.INSTANCE.fileSystem().findFiles(new File(archiveTempDir)))
-        .andReturn(ImmutableSet.<File>of());
 
     expect(mockRevHistory.findHighestRevision(givenRev))
         .andReturn(Revision.create(givenRev, MOCK_REPO_NAME));
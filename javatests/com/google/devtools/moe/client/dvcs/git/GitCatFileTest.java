@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2015 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.moe.client.dvcs.git;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Sets;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+import com.google.devtools.moe.client.dvcs.git.GitCatFile.GitObject;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.util.Set;
+
+/**
+ * Tests {@link GitCatFile} against a real, local git repository.
+ */
+public class GitCatFileTest extends TestCase {
+  private File repo;
+  private GitCatFile catFile;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    repo = Files.createTempDir();
+    run("git", "init", "-q");
+    Files.write("hello\n", new File(repo, "a.txt"), UTF_8);
+    run("git", "add", "a.txt");
+    run(
+        "git",
+        "-c",
+        "user.name=Foo Bar",
+        "-c",
+        "user.email=foo@example.com",
+        "commit",
+        "-q",
+        "-m",
+        "first");
+    catFile = new GitCatFile(repo);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    catFile.close();
+    run("rm", "-rf", repo.getAbsolutePath());
+    super.tearDown();
+  }
+
+  private String run(String... command) throws Exception {
+    Process process = new ProcessBuilder(command).directory(repo).start();
+    String output = new String(ByteStreams.toByteArray(process.getInputStream()), UTF_8);
+    assertEquals("Exit status of " + ImmutableList.copyOf(command), 0, process.waitFor());
+    return output;
+  }
+
+  public void testReadCommit() throws Exception {
+    GitObject commit = catFile.read("HEAD^{commit}");
+    assertEquals(run("git", "rev-parse", "HEAD").trim(), commit.hash);
+    assertEquals("commit", commit.type);
+    String content = new String(commit.content, UTF_8);
+    assertThat(content).startsWith("tree ");
+    assertThat(content).contains("\nauthor Foo Bar <foo@example.com> ");
+    assertThat(content).endsWith("\n\nfirst\n");
+  }
+
+  public void testReadBlob() throws Exception {
+    GitObject blob = catFile.read("HEAD:a.txt");
+    assertEquals("blob", blob.type);
+    assertEquals("hello\n", new String(blob.content, UTF_8));
+  }
+
+  public void testReadMissing() throws Exception {
+    assertNull(catFile.read("no_such_branch"));
+    // The process is still usable afterward.
+    assertEquals("blob", catFile.read("HEAD:a.txt").type);
+  }
+
+  public void testReadManyReusesOneProcess() throws Exception {
+    Set<Process> processes = Sets.newHashSet();
+    for (int i = 0; i < 100; i++) {
+      catFile.read("HEAD^{commit}");
+      processes.add(catFile.process());
+    }
+    assertThat(processes).hasSize(1);
+  }
+
+  public void testRestartsAfterProcessDies() throws Exception {
+    catFile.read("HEAD^{commit}");
+    Process first = catFile.process();
+    first.destroy();
+    first.waitFor();
+
+    GitObject commit = catFile.read("HEAD^{commit}");
+    assertEquals("commit", commit.type);
+    assertNotSame(first, catFile.process());
+  }
+
+  public void testReadAfterClose() throws Exception {
+    catFile.read("HEAD^{commit}");
+    catFile.close();
+    assertNull(catFile.process());
+    assertEquals("commit", catFile.read("HEAD^{commit}").type);
+  }
+}
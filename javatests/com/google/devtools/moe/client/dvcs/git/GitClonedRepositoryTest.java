@@ -16,15 +16,20 @@
 
 package com.google.devtools.moe.client.dvcs.git;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.easymock.EasyMock.expect;
 
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
 import com.google.devtools.moe.client.CommandRunner;
+import com.google.devtools.moe.client.CommandRunner.OutputHandler;
 import com.google.devtools.moe.client.FileSystem;
 import com.google.devtools.moe.client.FileSystem.Lifetime;
 import com.google.devtools.moe.client.Injector;
 import com.google.devtools.moe.client.Lifetimes;
+import com.google.devtools.moe.client.SystemFileSystem;
 import com.google.devtools.moe.client.project.RepositoryConfig;
 import com.google.devtools.moe.client.testing.TestingModule;
 
@@ -33,8 +38,10 @@ import dagger.Provides;
 import junit.framework.TestCase;
 
 import org.easymock.EasyMock;
+import org.easymock.IAnswer;
 import org.easymock.IMocksControl;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 
 import javax.inject.Singleton;
@@ -149,6 +156,61 @@ public class GitClonedRepositoryTest extends TestCase {
     control.verify();
   }
 
+  public void testCloneLocally_reference() throws Exception {
+    expect(mockFS.getTemporaryDirectory(
+              EasyMock.eq("git_clone_" + repositoryName + "_"), EasyMock.<Lifetime>anyObject()))
+        .andReturn(new File(localCloneTempDir));
+
+    expect(cmd.runCommand(
+              "git",
+              ImmutableList.of(
+                  "clone", repositoryURL, localCloneTempDir, "--reference", "/cache/mirror.git"),
+              "" /*workingDirectory*/))
+        .andReturn("git clone ok (mock output)");
+
+    control.replay();
+    GitClonedRepository repo =
+        new GitClonedRepository(
+            cmd,
+            mockFS,
+            repositoryName,
+            repositoryConfig,
+            repositoryURL,
+            new File("/cache/mirror.git"));
+    repo.cloneLocallyAtHead(Lifetimes.persistent());
+    assertEquals(localCloneTempDir, repo.getLocalTempDir().getAbsolutePath());
+    control.verify();
+  }
+
+  public void testMirrorCantBeUpdated() throws Exception {
+    EasyMock.reset(repositoryConfig);
+    expect(repositoryConfig.getUrl()).andReturn(repositoryURL).anyTimes();
+    expect(repositoryConfig.getBranch()).andReturn(Optional.of("mybranch")).anyTimes();
+
+    control.replay();
+    GitClonedRepository repo =
+        GitClonedRepository.atMirror(
+            cmd,
+            mockFS,
+            repositoryName,
+            repositoryConfig,
+            new File("/cache/mirror.git"),
+            Lifetimes.persistent());
+    assertEquals("refs/heads/mybranch", repo.headRef());
+    assertEquals("/cache/mirror.git", repo.getLocalTempDir().getAbsolutePath());
+    try {
+      repo.updateToRevision("head");
+      fail("Updating a mirror succeeded unexpectedly.");
+    } catch (IllegalStateException expected) {
+    }
+    try {
+      repo.cloneLocallyAtHead(Lifetimes.persistent());
+      fail("Cloning a mirror succeeded unexpectedly.");
+    } catch (IllegalStateException expected) {
+    }
+    control.verify();
+  }
+
   public void testUpdateToRevId_nonHeadRevId() throws Exception {
     String updateRevId = "notHead";
     String headRevId = "head";
@@ -195,4 +257,49 @@ public class GitClonedRepositoryTest extends TestCase {
     repo.updateToRevision(updateRevId);
     control.verify();
   }
+
+  public void testArchiveAtRevision() throws Exception {
+    File source = Files.createTempDir();
+    File archiveDir = Files.createTempDir();
+    Files.write("a\n", new File(source, "a.txt"), UTF_8);
+    Files.write("ignored\n", new File(source, "ignored.txt"), UTF_8);
+    Process tarProcess = new ProcessBuilder("tar", "-cf", "-", ".").directory(source).start();
+    final byte[] tar = ByteStreams.toByteArray(tarProcess.getInputStream());
+    assertEquals(0, tarProcess.waitFor());
+
+    expectCloneLocally();
+    expect(repositoryConfig.getIgnoreFilePatterns()).andReturn(ImmutableList.of("^ignored"));
+    expect(mockFS.getTemporaryDirectory(
+              EasyMock.eq("git_archive_" + repositoryName + "_rev1_"),
+              EasyMock.<Lifetime>anyObject()))
+        .andReturn(archiveDir);
+    mockFS.makeDirs(archiveDir);
+    expect(cmd.runCommandStreaming(
+              EasyMock.eq("git"),
+              EasyMock.eq(ImmutableList.of("archive", "--format=tar", "rev1")),
+              EasyMock.eq(localCloneTempDir),
+              EasyMock.<OutputHandler<Void>>anyObject()))
+        .andAnswer(
+            new IAnswer<Void>() {
+              @Override
+              public Void answer() throws Throwable {
+                OutputHandler<?> handler = (OutputHandler<?>) EasyMock.getCurrentArguments()[3];
+                handler.handleOutput(new ByteArrayInputStream(tar));
+                return null;
+              }
+            });
+
+    control.replay();
+    GitClonedRepository repo =
+        new GitClonedRepository(cmd, mockFS, repositoryName, repositoryConfig);
+    repo.cloneLocallyAtHead(Lifetimes.persistent());
+    Injector.INSTANCE.ui().pushTask("archive", "Archiving");
+    assertEquals(archiveDir, repo.archiveAtRevision("rev1"));
+    control.verify();
+    assertEquals("a\n", Files.toString(new File(archiveDir, "a.txt"), UTF_8));
+    assertFalse(new File(archiveDir, "ignored.txt").exists());
+
+    new SystemFileSystem().deleteRecursively(source);
+    new SystemFileSystem().deleteRecursively(archiveDir);
+  }
 }
@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2015 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.moe.client.dvcs.git;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.easymock.EasyMock.expect;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+import com.google.devtools.moe.client.FileSystem;
+import com.google.devtools.moe.client.FileSystem.Lifetime;
+import com.google.devtools.moe.client.SystemCommandRunner;
+import com.google.devtools.moe.client.SystemFileSystem;
+import com.google.devtools.moe.client.project.RepositoryConfig;
+import com.google.devtools.moe.client.testing.RecordingUi;
+
+import junit.framework.TestCase;
+
+import org.easymock.EasyMock;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Tests {@link GitMirrorCache} against a real git repository, cloned through a file:// URL.
+ */
+public class GitMirrorCacheTest extends TestCase {
+  private final SystemCommandRunner cmd = new SystemCommandRunner(new RecordingUi());
+  private final FileSystem filesystem = new SystemFileSystem();
+  private File origin;
+  private File cacheDir;
+  private String url;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    origin = Files.createTempDir();
+    cacheDir = Files.createTempDir();
+    url = "file://" + origin.getAbsolutePath();
+    run(origin, "git", "init", "-q");
+    commit("first");
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    run(origin, "rm", "-rf", origin.getAbsolutePath(), cacheDir.getAbsolutePath());
+    super.tearDown();
+  }
+
+  private String run(File directory, String... command) throws Exception {
+    Process process = new ProcessBuilder(command).directory(directory).start();
+    String output = new String(ByteStreams.toByteArray(process.getInputStream()), UTF_8);
+    assertEquals("Exit status of " + ImmutableList.copyOf(command), 0, process.waitFor());
+    return output;
+  }
+
+  /** Commits a change to the origin repository, returning its hash. */
+  private String commit(String message) throws Exception {
+    Files.write(message + "\n", new File(origin, "a.txt"), UTF_8);
+    run(origin, "git", "add", "a.txt");
+    run(
+        origin,
+        "git",
+        "-c",
+        "user.name=Foo Bar",
+        "-c",
+        "user.email=foo@example.com",
+        "commit",
+        "-q",
+        "-m",
+        message);
+    return run(origin, "git", "rev-parse", "HEAD").trim();
+  }
+
+  public void testMirrorIsClonedThenFetchedOncePerRun() throws Exception {
+    String first = commit("second");
+    GitMirrorCache cache = new GitMirrorCache(cmd, filesystem, cacheDir);
+    File mirror = cache.mirror(url);
+    assertEquals("true", run(mirror, "git", "rev-parse", "--is-bare-repository").trim());
+    assertEquals(first, run(mirror, "git", "rev-parse", "HEAD").trim());
+
+    // Already up to date in this run, so not fetched again.
+    String second = commit("third");
+    assertEquals(mirror, cache.mirror(url));
+    assertEquals(first, run(mirror, "git", "rev-parse", "HEAD").trim());
+
+    // A later run fetches into the same mirror.
+    assertEquals(mirror, new GitMirrorCache(cmd, filesystem, cacheDir).mirror(url));
+    assertEquals(second, run(mirror, "git", "rev-parse", "HEAD").trim());
+  }
+
+  public void testReadsFromMirror() throws Exception {
+    String head = run(origin, "git", "rev-parse", "HEAD").trim();
+    RepositoryConfig config = EasyMock.createMock(RepositoryConfig.class);
+    expect(config.getUrl()).andReturn(url).anyTimes();
+    expect(config.getBranch()).andReturn(Optional.<String>absent()).anyTimes();
+    EasyMock.replay(config);
+
+    GitMirrorCache cache = new GitMirrorCache(cmd, filesystem, cacheDir);
+    final AtomicBoolean ended = new AtomicBoolean();
+    Lifetime lifetime =
+        new Lifetime() {
+          @Override
+          public boolean shouldCleanUp() {
+            return ended.get();
+          }
+        };
+    GitClonedRepository mirrored =
+        GitClonedRepository.atMirror(cmd, filesystem, "repo", config, cache.mirror(url), lifetime);
+    GitRevisionHistory history = new GitRevisionHistory(Suppliers.ofInstance(mirrored));
+    assertEquals(head, history.findHighestRevision(null).revId());
+    assertEquals("first\n", new String(mirrored.readObject("HEAD:a.txt").content, UTF_8));
+
+    // Stops the clone's cat-file process.
+    ended.set(true);
+    filesystem.cleanUpTempDirs();
+  }
+
+  public void testDisabled() throws Exception {
+    GitMirrorCache cache = new GitMirrorCache(cmd, filesystem, null);
+    assertFalse(cache.isEnabled());
+    try {
+      cache.mirror(url);
+      fail("Mirrored without a directory");
+    } catch (IllegalStateException expected) {
+    }
+  }
+}
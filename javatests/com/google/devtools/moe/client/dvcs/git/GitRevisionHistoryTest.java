@@ -18,13 +18,12 @@ package com.google.devtools.moe.client.dvcs.git;
 
 import static com.google.common.truth.Truth.assertThat;
 import static com.google.devtools.moe.client.repositories.RevisionHistory.SearchType.BRANCHED;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.easymock.EasyMock.expect;
 
-import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
 import com.google.common.base.Suppliers;
-import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
-import com.google.devtools.moe.client.CommandRunner.CommandException;
 import com.google.devtools.moe.client.Injector;
 import com.google.devtools.moe.client.MoeProblem;
 import com.google.devtools.moe.client.NullFileSystemModule;
@@ -34,6 +33,7 @@ import com.google.devtools.moe.client.database.FileDb;
 import com.google.devtools.moe.client.database.RepositoryEquivalence;
 import com.google.devtools.moe.client.database.RepositoryEquivalenceMatcher;
 import com.google.devtools.moe.client.database.RepositoryEquivalenceMatcher.Result;
+import com.google.devtools.moe.client.dvcs.git.GitCatFile.GitObject;
 import com.google.devtools.moe.client.gson.GsonModule;
 import com.google.devtools.moe.client.project.RepositoryConfig;
 import com.google.devtools.moe.client.repositories.Revision;
@@ -59,16 +59,11 @@ import javax.inject.Singleton;
  * Unit tests for GitRevisionHistory.
  */
 public class GitRevisionHistoryTest extends TestCase {
-  private static final String GIT_COMMIT_DATE = "2012-07-09 06:00:00 -0700";
+  private static final String GIT_COMMIT_TIME = "1341838800 -0700";
   private static final DateTime DATE =
       // 2012/7/9, 6am
       new DateTime(2012, 7, 9, 6, 0, DateTimeZone.forOffsetHours(-7));
 
-  private static final String LOG_FORMAT_COMMIT_ID = "%H";
-  private static final Joiner METADATA_JOINER = Joiner.on(GitRevisionHistory.LOG_DELIMITER);
-  private static final String LOG_FORMAT_ALL_METADATA =
-      METADATA_JOINER.join("%H", "%an", "%ai", "%P", "%B");
-
   private final IMocksControl control = EasyMock.createControl();
   private final String repositoryName = "mockrepo";
   private final String localCloneTempDir = "/tmp/git_tipclone_mockrepo_12345";
@@ -95,25 +90,35 @@ public class GitRevisionHistoryTest extends TestCase {
 
     expect(mockRepo.getRepositoryName()).andReturn(repoName).anyTimes();
     expect(mockRepo.getConfig()).andReturn(repositoryConfig).anyTimes();
+    expect(mockRepo.headRef()).andReturn("HEAD").anyTimes();
     return mockRepo;
   }
 
-  private IExpectationSetters<String> expectLogCommandIgnoringMissing(
-      GitClonedRepository mockRepo, String logFormat, String revName) throws CommandException {
-    return expect(
-        mockRepo.runGitCommand(
-            "log", "--max-count=1", "--format=" + logFormat, "--ignore-missing", revName));
+  private IExpectationSetters<GitObject> expectReadCommit(
+      GitClonedRepository mockRepo, String revName) {
+    return expect(mockRepo.readObject(revName + "^{commit}"));
   }
 
-  private IExpectationSetters<String> expectLogCommand(
-      GitClonedRepository mockRepo, String logFormat, String revName) throws CommandException {
-    return expect(mockRepo.runGitCommand("log", "--max-count=1", "--format=" + logFormat, revName));
+  /** Returns a commit object with the given hash, author and parents, authored at DATE. */
+  private static GitObject commit(String hash, String author, String parents, String message) {
+    StringBuilder commit = new StringBuilder("tree 4b825dc642cb6eb9a060e54bf8d69288fbee4904\n");
+    for (String parent : Splitter.on(' ').omitEmptyStrings().split(parents)) {
+      commit.append("parent ").append(parent).append('\n');
+    }
+    commit
+        .append("author ").append(author).append(" <").append(author).append("> ")
+        .append(GIT_COMMIT_TIME).append('\n')
+        .append("committer committer <committer@google.com> 1 +0000\n")
+        .append('\n')
+        .append(message);
+    return new GitObject(hash, "commit", commit.toString().getBytes(UTF_8));
   }
 
   public void testFindHighestRevision() throws Exception {
     GitClonedRepository mockRepo = mockClonedRepo(repositoryName);
 
-    expectLogCommand(mockRepo, LOG_FORMAT_COMMIT_ID, "HEAD").andReturn("mockHashID");
+    expectReadCommit(mockRepo, "HEAD")
+        .andReturn(commit("mockHashID", "uid", "", "description\n"));
 
     control.replay();
 
@@ -128,14 +133,7 @@ public class GitRevisionHistoryTest extends TestCase {
   public void testFindHighestRevision_nonExistentHashThrows() throws Exception {
     GitClonedRepository mockRepo = mockClonedRepo(repositoryName);
 
-    expectLogCommand(mockRepo, LOG_FORMAT_COMMIT_ID, "bogusHash")
-        .andThrow(
-            new CommandException(
-                "git",
-                ImmutableList.<String>of("mock args"),
-                "mock stdout",
-                "mock stderr: unknown revision",
-                1));
+    expectReadCommit(mockRepo, "bogusHash").andReturn(null);
 
     control.replay();
 
@@ -152,9 +150,8 @@ public class GitRevisionHistoryTest extends TestCase {
   public void testGetMetadata() throws Exception {
     GitClonedRepository mockRepo = mockClonedRepo(repositoryName);
 
-    expectLogCommandIgnoringMissing(mockRepo, LOG_FORMAT_ALL_METADATA, "1")
-        .andReturn(
-            METADATA_JOINER.join("1", "foo@google.com", GIT_COMMIT_DATE, "2 3", "description\n"));
+    expectReadCommit(mockRepo, "1")
+        .andReturn(commit("1", "foo@google.com", "2 3", "description\n"));
 
     control.replay();
 
@@ -163,7 +160,8 @@ public class GitRevisionHistoryTest extends TestCase {
     assertEquals("1", result.id);
     assertEquals("foo@google.com", result.author);
     assertThat(result.date).isEquivalentAccordingToCompareTo(DATE);
-    assertEquals("description\n", result.description);
+    // As printed by 'git log --format=%B', with a newline after the message's own.
+    assertEquals("description\n\n", result.description);
     assertThat(result.parents)
         .containsExactly(Revision.create(2, repositoryName), Revision.create(3, repositoryName))
         .inOrder();
@@ -178,30 +176,54 @@ public class GitRevisionHistoryTest extends TestCase {
     control.replay();
     RevisionMetadata rm =
         rh.parseMetadata(
-            METADATA_JOINER.join(
-                "1",
-                "foo@google.com",
-                GIT_COMMIT_DATE,
-                "2 3",
-                "desc with \n\nmultiple lines\n"));
+            "1",
+            "tree 4b825dc642cb6eb9a060e54bf8d69288fbee4904\n"
+                + "parent 2\n"
+                + "parent 3\n"
+                + "author Foo Bar <foo@google.com> " + GIT_COMMIT_TIME + "\n"
+                + "committer Foo Bar <foo@google.com> " + GIT_COMMIT_TIME + "\n"
+                + "gpgsig -----BEGIN PGP SIGNATURE-----\n"
+                + " parent 4\n"
+                + " -----END PGP SIGNATURE-----\n"
+                + "\n"
+                + "desc with \n\nmultiple lines\n");
     control.verify();
 
     assertEquals("1", rm.id);
-    assertEquals("foo@google.com", rm.author);
+    assertEquals("Foo Bar", rm.author);
     assertThat(rm.date).isEquivalentAccordingToCompareTo(DATE);
-    assertEquals("desc with \n\nmultiple lines\n", rm.description);
+    assertEquals("desc with \n\nmultiple lines\n\n", rm.description);
     assertThat(rm.parents)
         .containsExactly(Revision.create(2, repositoryName), Revision.create(3, repositoryName))
         .inOrder();
   }
 
+  public void testParseMetadata_timeZoneWithMinutes() {
+    GitRevisionHistory rh =
+        new GitRevisionHistory(Suppliers.ofInstance(mockClonedRepo(repositoryName)));
+
+    control.replay();
+    RevisionMetadata rm =
+        rh.parseMetadata(
+            "1",
+            "tree 4b825dc642cb6eb9a060e54bf8d69288fbee4904\n"
+                + "author foo <foo@google.com> 1341838800 -0930\n"
+                + "\n"
+                + "description\n");
+    control.verify();
+
+    assertThat(rm.date).isEqualTo(DATE.withZone(DateTimeZone.forOffsetHoursMinutes(-9, -30)));
+    assertThat(rm.parents).isEmpty();
+  }
+
   /**
    * Mocks most of gh.findHeadRevisions(). Used by both of the next tests.
    *
    * @param mockRepo the mock repository to use
    */
-  private void mockFindHeadRevisions(GitClonedRepository mockRepo) throws CommandException {
-    expectLogCommand(mockRepo, LOG_FORMAT_COMMIT_ID, "HEAD").andReturn("head");
+  private void mockFindHeadRevisions(GitClonedRepository mockRepo) {
+    expectReadCommit(mockRepo, "HEAD")
+        .andReturn(commit("head", "uid@google.com", "parent1 parent2", "description\n"));
   }
 
   public void testFindNewRevisions_all() throws Exception {
@@ -210,18 +232,14 @@ public class GitRevisionHistoryTest extends TestCase {
     DummyDb db = new DummyDb(false);
 
     // Breadth-first search order.
-    expectLogCommandIgnoringMissing(mockRepo, LOG_FORMAT_ALL_METADATA, "head")
-        .andReturn(
-            METADATA_JOINER.join(
-                "head", "uid@google.com", GIT_COMMIT_DATE, "parent1 parent2", "description"));
+    expectReadCommit(mockRepo, "head")
+        .andReturn(commit("head", "uid@google.com", "parent1 parent2", "description\n"));
 
-    expectLogCommandIgnoringMissing(mockRepo, LOG_FORMAT_ALL_METADATA, "parent1")
-        .andReturn(
-            METADATA_JOINER.join("parent1", "uid@google.com", GIT_COMMIT_DATE, "", "description"));
+    expectReadCommit(mockRepo, "parent1")
+        .andReturn(commit("parent1", "uid@google.com", "", "description\n"));
 
-    expectLogCommandIgnoringMissing(mockRepo, LOG_FORMAT_ALL_METADATA, "parent2")
-        .andReturn(
-            METADATA_JOINER.join("parent2", "uid@google.com", GIT_COMMIT_DATE, "", "description"));
+    expectReadCommit(mockRepo, "parent2")
+        .andReturn(commit("parent2", "uid@google.com", "", "description\n"));
 
     control.replay();
 
@@ -261,14 +279,11 @@ public class GitRevisionHistoryTest extends TestCase {
         };
 
     // Breadth-first search order.
-    expectLogCommandIgnoringMissing(mockRepo, LOG_FORMAT_ALL_METADATA, "head")
-        .andReturn(
-            METADATA_JOINER.join(
-                "head", "uid@google.com", GIT_COMMIT_DATE, "parent1 parent2", "description"));
+    expectReadCommit(mockRepo, "head")
+        .andReturn(commit("head", "uid@google.com", "parent1 parent2", "description\n"));
 
-    expectLogCommandIgnoringMissing(mockRepo, LOG_FORMAT_ALL_METADATA, "parent2")
-        .andReturn(
-            METADATA_JOINER.join("parent2", "uid@google.com", GIT_COMMIT_DATE, "", "description"));
+    expectReadCommit(mockRepo, "parent2")
+        .andReturn(commit("parent2", "uid@google.com", "", "description\n"));
 
     control.replay();
 
@@ -325,14 +340,14 @@ public class GitRevisionHistoryTest extends TestCase {
   public void testFindLastEquivalence() throws Exception {
     GitClonedRepository mockRepo = mockClonedRepo("repo2");
 
-    expectLogCommandIgnoringMissing(mockRepo, LOG_FORMAT_ALL_METADATA, "4")
-        .andReturn(METADATA_JOINER.join("4", "author", GIT_COMMIT_DATE, "3a 3b", "description"));
+    expectReadCommit(mockRepo, "4")
+        .andReturn(commit("4", "author", "3a 3b", "description\n"));
 
-    expectLogCommandIgnoringMissing(mockRepo, LOG_FORMAT_ALL_METADATA, "3a")
-        .andReturn(METADATA_JOINER.join("3a", "author", GIT_COMMIT_DATE, "2", "description"));
+    expectReadCommit(mockRepo, "3a")
+        .andReturn(commit("3a", "author", "2", "description\n"));
 
-    expectLogCommandIgnoringMissing(mockRepo, LOG_FORMAT_ALL_METADATA, "3b")
-        .andReturn(METADATA_JOINER.join("3b", "author", GIT_COMMIT_DATE, "2", "description"));
+    expectReadCommit(mockRepo, "3b")
+        .andReturn(commit("3b", "author", "2", "description\n"));
 
     control.replay();
 
@@ -402,17 +417,17 @@ public class GitRevisionHistoryTest extends TestCase {
   public void testFindLastEquivalenceNull() throws Exception {
     GitClonedRepository mockRepo = mockClonedRepo("repo2");
 
-    expectLogCommandIgnoringMissing(mockRepo, LOG_FORMAT_ALL_METADATA, "4")
-        .andReturn(METADATA_JOINER.join("4", "author", GIT_COMMIT_DATE, "3a 3b", "description"));
+    expectReadCommit(mockRepo, "4")
+        .andReturn(commit("4", "author", "3a 3b", "description\n"));
 
-    expectLogCommandIgnoringMissing(mockRepo, LOG_FORMAT_ALL_METADATA, "3a")
-        .andReturn(METADATA_JOINER.join("3a", "author", GIT_COMMIT_DATE, "2", "description"));
+    expectReadCommit(mockRepo, "3a")
+        .andReturn(commit("3a", "author", "2", "description\n"));
 
-    expectLogCommandIgnoringMissing(mockRepo, LOG_FORMAT_ALL_METADATA, "3b")
-        .andReturn(METADATA_JOINER.join("3b", "author", GIT_COMMIT_DATE, "2", "description"));
+    expectReadCommit(mockRepo, "3b")
+        .andReturn(commit("3b", "author", "2", "description\n"));
 
-    expectLogCommandIgnoringMissing(mockRepo, LOG_FORMAT_ALL_METADATA, "2")
-        .andReturn(METADATA_JOINER.join("2", "author", GIT_COMMIT_DATE, "", "description"));
+    expectReadCommit(mockRepo, "2")
+        .andReturn(commit("2", "author", "", "description\n"));
 
     control.replay();
 
@@ -463,11 +478,11 @@ public class GitRevisionHistoryTest extends TestCase {
   public void testFindLastEquivalence_linearSearch() throws Exception {
     GitClonedRepository mockRepo = mockClonedRepo("repo2");
 
-    expectLogCommandIgnoringMissing(mockRepo, LOG_FORMAT_ALL_METADATA, "4")
-        .andReturn(METADATA_JOINER.join("4", "author", GIT_COMMIT_DATE, "3a 3b", "description"));
+    expectReadCommit(mockRepo, "4")
+        .andReturn(commit("4", "author", "3a 3b", "description\n"));
 
-    expectLogCommandIgnoringMissing(mockRepo, LOG_FORMAT_ALL_METADATA, "3a")
-        .andReturn(METADATA_JOINER.join("3a", "author", GIT_COMMIT_DATE, "2", "description"));
+    expectReadCommit(mockRepo, "3a")
+        .andReturn(commit("3a", "author", "2", "description\n"));
 
     // Note revision 3b is <em>not</em> expected here for a linear history search.
 
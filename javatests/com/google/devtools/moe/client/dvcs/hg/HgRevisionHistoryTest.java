@@ -44,6 +44,7 @@ import dagger.Provides;
 import junit.framework.TestCase;
 
 import org.easymock.EasyMock;
+import org.easymock.IExpectationSetters;
 import org.easymock.IMocksControl;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
@@ -97,6 +98,21 @@ public class HgRevisionHistoryTest extends TestCase {
     return mockRepo;
   }
 
+  private IExpectationSetters<String> expectLogPageCommand(String revName)
+      throws CommandException {
+    return expect(
+        cmd.runCommand(
+            "hg",
+            ImmutableList.of(
+                "log",
+                "--rev=reverse(ancestors(" + revName + "))",
+                "--limit=50",
+                "--template={node|escape} < {author|escape} < {date|isodate|escape} < "
+                    + "{desc|escape} < {parents|stringify|escape}>",
+                "--debug"),
+            CLONE_TEMP_DIR /*workingDirectory*/));
+  }
+
   public void testFindHighestRevision() throws Exception {
     HgClonedRepository mockRepo = mockClonedRepo(MOCK_REPO_NAME);
 
@@ -267,34 +283,10 @@ public class HgRevisionHistoryTest extends TestCase {
                 CLONE_TEMP_DIR /*workingDirectory*/))
         .andReturn("mockChangesetID default\n");
 
-    expect(
-            cmd.runCommand(
-                "hg",
-                ImmutableList.<String>of(
-                    "log",
-                    "--rev=mockChangesetID",
-                    "--limit=1",
-                    "--template={node|escape} < {author|escape} < "
-                        + "{date|isodate|escape} < {desc|escape} < "
-                        + "{parents|stringify|escape}",
-                    "--debug"),
-                CLONE_TEMP_DIR /*workingDirectory*/))
+    expectLogPageCommand("mockChangesetID")
         .andReturn(
-            "mockChangesetID < uid@google.com < " + HG_COMMIT_DATE + " < description < 1:parent");
-
-    expect(
-            cmd.runCommand(
-                "hg",
-                ImmutableList.<String>of(
-                    "log",
-                    "--rev=parent",
-                    "--limit=1",
-                    "--template={node|escape} < {author|escape} < "
-                        + "{date|isodate|escape} < {desc|escape} < "
-                        + "{parents|stringify|escape}",
-                    "--debug"),
-                CLONE_TEMP_DIR /*workingDirectory*/))
-        .andReturn("parent < uid@google.com < " + HG_COMMIT_DATE + " < description < ");
+            "mockChangesetID < uid@google.com < " + HG_COMMIT_DATE + " < description < 1:parent>"
+                + "parent < uid@google.com < " + HG_COMMIT_DATE + " < description < >");
 
     control.replay();
 
@@ -360,44 +352,12 @@ public class HgRevisionHistoryTest extends TestCase {
                 CLONE_TEMP_DIR /*workingDirectory*/))
         .andReturn("4 default\n");
 
-    expect(
-            cmd.runCommand(
-                "hg",
-                ImmutableList.of(
-                    "log",
-                    "--rev=4",
-                    "--limit=1",
-                    "--template={node|escape} < {author|escape} < {date|isodate|escape} < "
-                        + "{desc|escape} < {parents|stringify|escape}",
-                    "--debug"),
-                CLONE_TEMP_DIR /*workingDirectory*/))
-        .andReturn("4 < author < " + HG_COMMIT_DATE + " < description < par1:3a par2:3b");
-
-    expect(
-            cmd.runCommand(
-                "hg",
-                ImmutableList.of(
-                    "log",
-                    "--rev=3a",
-                    "--limit=1",
-                    "--template={node|escape} < {author|escape} < {date|isodate|escape} < "
-                        + "{desc|escape} < {parents|stringify|escape}",
-                    "--debug"),
-                CLONE_TEMP_DIR /*workingDirectory*/))
-        .andReturn("3a < author < " + HG_COMMIT_DATE + " < description < par1:2 -1:0");
-
-    expect(
-            cmd.runCommand(
-                "hg",
-                ImmutableList.of(
-                    "log",
-                    "--rev=3b",
-                    "--limit=1",
-                    "--template={node|escape} < {author|escape} < {date|isodate|escape} < "
-                        + "{desc|escape} < {parents|stringify|escape}",
-                    "--debug"),
-                CLONE_TEMP_DIR /*workingDirectory*/))
-        .andReturn("3b < author < " + HG_COMMIT_DATE + " < description < par1:2 -1:0");
+    expectLogPageCommand("4")
+        .andReturn(
+            "4 < author < " + HG_COMMIT_DATE + " < description < par1:3a par2:3b>"
+                + "3b < author < " + HG_COMMIT_DATE + " < description < par1:2 -1:0>"
+                + "3a < author < " + HG_COMMIT_DATE + " < description < par1:2 -1:0>"
+                + "2 < author < " + HG_COMMIT_DATE + " < description < -1:0 -1:0>");
 
     control.replay();
 
@@ -464,57 +424,12 @@ public class HgRevisionHistoryTest extends TestCase {
     // Mock cloned repo
     HgClonedRepository mockRepo = mockClonedRepo("repo2");
 
-    expect(
-            cmd.runCommand(
-                "hg",
-                ImmutableList.of(
-                    "log",
-                    "--rev=4",
-                    "--limit=1",
-                    "--template={node|escape} < {author|escape} < {date|isodate|escape} < "
-                        + "{desc|escape} < {parents|stringify|escape}",
-                    "--debug"),
-                CLONE_TEMP_DIR /*workingDirectory*/))
-        .andReturn("4 < author < " + HG_COMMIT_DATE + " < description < par1:3a par2:3b");
-
-    expect(
-            cmd.runCommand(
-                "hg",
-                ImmutableList.of(
-                    "log",
-                    "--rev=3a",
-                    "--limit=1",
-                    "--template={node|escape} < {author|escape} < {date|isodate|escape} < "
-                        + "{desc|escape} < {parents|stringify|escape}",
-                    "--debug"),
-                CLONE_TEMP_DIR /*workingDirectory*/))
-        .andReturn("3a < author < " + HG_COMMIT_DATE + " < description < par1:2 -1:0");
-
-    expect(
-            cmd.runCommand(
-                "hg",
-                ImmutableList.of(
-                    "log",
-                    "--rev=3b",
-                    "--limit=1",
-                    "--template={node|escape} < {author|escape} < {date|isodate|escape} < "
-                        + "{desc|escape} < {parents|stringify|escape}",
-                    "--debug"),
-                CLONE_TEMP_DIR /*workingDirectory*/))
-        .andReturn("3b < author < " + HG_COMMIT_DATE + " < description < par1:2 -1:0");
-
-    expect(
-            cmd.runCommand(
-                "hg",
-                ImmutableList.of(
-                    "log",
-                    "--rev=2",
-                    "--limit=1",
-                    "--template={node|escape} < {author|escape} < {date|isodate|escape} < "
-                        + "{desc|escape} < {parents|stringify|escape}",
-                    "--debug"),
-                CLONE_TEMP_DIR /*workingDirectory*/))
-        .andReturn("2 < author < " + HG_COMMIT_DATE + " < description < -1:0 -1:0");
+    expectLogPageCommand("4")
+        .andReturn(
+            "4 < author < " + HG_COMMIT_DATE + " < description < par1:3a par2:3b>"
+                + "3b < author < " + HG_COMMIT_DATE + " < description < par1:2 -1:0>"
+                + "3a < author < " + HG_COMMIT_DATE + " < description < par1:2 -1:0>"
+                + "2 < author < " + HG_COMMIT_DATE + " < description < -1:0 -1:0>");
 
     control.replay();
 
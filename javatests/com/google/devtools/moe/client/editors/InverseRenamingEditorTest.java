@@ -95,10 +95,10 @@ public class InverseRenamingEditorTest extends TestCase {
     expect(mockFs.findFiles(new File("/destination")))
         .andReturn(ImmutableSet.of(new File("/destination/internal_root/1.txt")));
 
-    expectCopy(mockFs, "/input/toplevel.txt", "/output/toplevel.txt");
-    expectCopy(mockFs, "/input/public_root/1.txt", "/output/internal_root/1.txt");
-    expectCopy(mockFs, "/input/public_root/new.txt", "/output/internal_root/new.txt");
-    expectCopy(
+    expectLinkOrCopy(mockFs, "/input/toplevel.txt", "/output/toplevel.txt");
+    expectLinkOrCopy(mockFs, "/input/public_root/1.txt", "/output/internal_root/1.txt");
+    expectLinkOrCopy(mockFs, "/input/public_root/new.txt", "/output/internal_root/new.txt");
+    expectLinkOrCopy(
         mockFs,
         "/input/public_root/inner1/inner2/innernew.txt",
         "/output/internal_root/inner1/inner2/innernew.txt");
@@ -111,8 +111,9 @@ public class InverseRenamingEditorTest extends TestCase {
     control.verify();
   }
 
-  private void expectCopy(FileSystem mockFs, String srcPath, String destPath) throws IOException {
+  private void expectLinkOrCopy(FileSystem mockFs, String srcPath, String destPath)
+      throws IOException {
     mockFs.makeDirsForFile(new File(destPath));
-    mockFs.copyFile(new File(srcPath), new File(destPath));
+    mockFs.linkOrCopyFile(new File(srcPath), new File(destPath));
   }
 }
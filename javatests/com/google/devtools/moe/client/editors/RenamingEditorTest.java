@@ -128,11 +128,11 @@ public class RenamingEditorTest extends TestCase {
 
     expect(fileSystem.isDirectory(new File("/src/olddummy/file1"))).andReturn(false);
     fileSystem.makeDirsForFile(new File("/dest/newdummy/file1"));
-    fileSystem.copyFile(srcContents, new File("/dest/newdummy/file1"));
+    fileSystem.linkOrCopyFile(srcContents, new File("/dest/newdummy/file1"));
 
     expect(fileSystem.isDirectory(new File("/src/olddummy/file2"))).andReturn(false);
     fileSystem.makeDirsForFile(new File("/dest/newdummy/file2"));
-    fileSystem.copyFile(srcContents2, new File("/dest/newdummy/file2"));
+    fileSystem.linkOrCopyFile(srcContents2, new File("/dest/newdummy/file2"));
 
     control.replay();
     renamer.copyDirectoryAndRename(src, src, dest);
@@ -158,7 +158,7 @@ public class RenamingEditorTest extends TestCase {
     expect(fileSystem.listFiles(codebaseFile)).andReturn(new File[] {oldSubFile});
     expect(fileSystem.isDirectory(oldSubFile)).andReturn(false);
     fileSystem.makeDirsForFile(newSubFile);
-    fileSystem.copyFile(oldSubFile, newSubFile);
+    fileSystem.linkOrCopyFile(oldSubFile, newSubFile);
 
     control.replay();
 
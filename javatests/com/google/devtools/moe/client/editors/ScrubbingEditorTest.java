@@ -21,12 +21,15 @@ import static org.easymock.EasyMock.expect;
 import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteSource;
 import com.google.devtools.moe.client.CommandRunner;
 import com.google.devtools.moe.client.FileSystem;
 import com.google.devtools.moe.client.Injector;
 import com.google.devtools.moe.client.codebase.Codebase;
 import com.google.devtools.moe.client.gson.GsonModule;
 import com.google.devtools.moe.client.project.ScrubberConfig;
+import com.google.devtools.moe.client.testing.InMemoryFileSystem;
+import com.google.devtools.moe.client.testing.RecordingUi;
 import com.google.devtools.moe.client.testing.TestingModule;
 
 import dagger.Provides;
@@ -118,12 +121,9 @@ public class ScrubbingEditorTest extends TestCase {
 
     expect(fileSystem.getTemporaryDirectory("expanded_tar_")).andReturn(expandedDir);
     fileSystem.makeDirs(expandedDir);
-    expect(
-            cmd.runCommand(
-                "tar",
-                ImmutableList.of("-xf", "/scrubber_run_foo/scrubbed.tar"),
-                "/expanded_tar_foo"))
-        .andReturn("");
+    // A tar with no entries, just the two zero blocks which end every tar.
+    expect(fileSystem.asByteSource(new File("/scrubber_run_foo/scrubbed.tar")))
+        .andReturn(ByteSource.wrap(new byte[1024]));
     control.replay();
 
 
@@ -139,4 +139,31 @@ public class ScrubbingEditorTest extends TestCase {
             ImmutableMap.<String, String>of() /* this edit doesn't require options */);
     control.verify();
   }
+
+  public void testDependencyHashCoversConfiguredFiles() throws Exception {
+    InMemoryFileSystem filesystem =
+        new InMemoryFileSystem(
+            ImmutableMap.of(
+                "/config/sensitive.txt", "secret",
+                "/config/usernames.json", "{\"scrubbable_usernames\":[\"jdoe\"]}"));
+    Injector.INSTANCE = new Injector(filesystem, cmd, null, new RecordingUi());
+    ScrubberConfig scrubberConfig =
+        GsonModule.provideGson()
+            .fromJson(
+                "{\"sensitive_string_file\":\"/config/sensitive.txt\","
+                    + "\"usernames_file\":\"/config/usernames.json\"}",
+                ScrubberConfig.class);
+    ScrubbingEditor editor = new ScrubbingEditor("scrubber", scrubberConfig);
+    String hash = editor.hashDependencies().toString();
+    assertEquals(hash, editor.hashDependencies().toString());
+
+    filesystem.write("secret too", new File("/config/sensitive.txt"));
+    String changedHash = editor.hashDependencies().toString();
+    assertFalse(hash.equals(changedHash));
+
+    // Still covered once the config has read, and forgotten, its usernames file.
+    scrubberConfig.shouldScrubAuthor("Jane Doe <jdoe@example.com>");
+    filesystem.write("{}", new File("/config/usernames.json"));
+    assertFalse(changedHash.equals(editor.hashDependencies().toString()));
+  }
 }
@@ -18,6 +18,8 @@ package com.google.devtools.moe.client.project;
 
 import junit.framework.TestCase;
 
+import java.util.List;
+
 public class ProjectConfigTest extends TestCase {
 
   public void testValidConfig() throws Exception {
@@ -152,4 +154,24 @@ public class ProjectConfigTest extends TestCase {
     assertEquals(1, p.repositories().size());
     assertNotNull(p.getRepositoryConfig("internal"));
   }
+
+  public void testConfigWithPerFileSteps() throws Exception {
+    ProjectConfig p =
+        ProjectConfig.parse(
+            "{\"name\": \"foo\","
+                + " \"repositories\": {\"internal\": {\"type\":\"svn\"}},"
+                + " \"translators\": [{\"from_project_space\": \"internal\","
+                + " \"to_project_space\": \"public\", \"steps\": ["
+                + " {\"name\": \"scrub\", \"editor\": {\"type\": \"scrubber\","
+                + " \"per_file\": true}},"
+                + " {\"name\": \"format\", \"editor\": {\"type\": \"shell\","
+                + " \"command_string\": \"fmt\", \"per_file\": true}},"
+                + " {\"name\": \"package\", \"editor\": {\"type\": \"shell\","
+                + " \"command_string\": \"pack\"}}]}]"
+                + "}");
+    List<StepConfig> steps = p.translators().get(0).getSteps();
+    assertTrue(steps.get(0).getEditorConfig().perFile());
+    assertTrue(steps.get(1).getEditorConfig().perFile());
+    assertFalse(steps.get(2).getEditorConfig().perFile());
+  }
 }
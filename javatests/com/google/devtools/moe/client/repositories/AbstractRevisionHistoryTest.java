@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2015 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.moe.client.repositories;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.devtools.moe.client.MoeProblem;
+import com.google.devtools.moe.client.repositories.RevisionHistory.SearchType;
+
+import junit.framework.TestCase;
+
+import org.joda.time.DateTime;
+
+import java.util.List;
+
+public class AbstractRevisionHistoryTest extends TestCase {
+
+  /** A history whose parents are given by a multimap, from each revision id to its parents'. */
+  private static class FakeHistory extends AbstractRevisionHistory {
+    private final ImmutableListMultimap<String, String> parents;
+    int reads;
+
+    FakeHistory(ImmutableListMultimap<String, String> parents) {
+      this.parents = parents;
+    }
+
+    @Override
+    public Revision findHighestRevision(String revId) {
+      return Revision.create(revId, "repo");
+    }
+
+    @Override
+    public RevisionMetadata getMetadata(Revision revision) {
+      reads++;
+      ImmutableList.Builder<Revision> parentRevisions = ImmutableList.builder();
+      for (String parent : parents.get(revision.revId())) {
+        parentRevisions.add(Revision.create(parent, "repo"));
+      }
+      return new RevisionMetadata(
+          revision.revId(), "author", new DateTime(0L), "description", parentRevisions.build());
+    }
+
+    @Override
+    protected List<Revision> findHeadRevisions() {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  /** A linear history of the given length, from "1" (the root) up to its length as head. */
+  private static FakeHistory linearHistory(int length) {
+    ImmutableListMultimap.Builder<String, String> parents = ImmutableListMultimap.builder();
+    for (int i = 2; i <= length; i++) {
+      parents.put(Integer.toString(i), Integer.toString(i - 1));
+    }
+    return new FakeHistory(parents.build());
+  }
+
+  public void testSearchesDeepHistory() {
+    FakeHistory history = linearHistory(2000);
+
+    List<Revision> found =
+        history
+            .findRevisions(
+                Revision.create("2000", "repo"),
+                new ExactRevisionMatcher(Revision.create("1", "repo")),
+                SearchType.LINEAR)
+            .revisions()
+            .getBreadthFirstHistory();
+
+    assertThat(found).hasSize(1999);
+    assertEquals(Revision.create("2", "repo"), found.get(1998));
+    assertEquals(1999, history.reads);
+  }
+
+  public void testFailsBeyondMaxRevisionsToSearch() {
+    FakeHistory history = linearHistory(100);
+    try {
+      history.findRevisions(
+          Revision.create("100", "repo"),
+          new ExactRevisionMatcher(Revision.create("1", "repo")),
+          SearchType.LINEAR,
+          50);
+      fail("Expected MoeProblem");
+    } catch (MoeProblem expected) {
+      assertThat(expected.getMessage()).contains("within 50 revisions");
+    }
+  }
+
+  public void testVisitsMergedHistoryOnce() {
+    // 4 merges 2 and 3, both children of 1.
+    FakeHistory history =
+        new FakeHistory(
+            ImmutableListMultimap.of("4", "2", "4", "3", "2", "1", "3", "1", "1", "0"));
+
+    List<Revision> found =
+        history
+            .findRevisions(
+                Revision.create("4", "repo"),
+                new ExactRevisionMatcher(Revision.create("0", "repo")),
+                SearchType.BRANCHED)
+            .revisions()
+            .getBreadthFirstHistory();
+
+    assertThat(found)
+        .containsExactly(
+            Revision.create("4", "repo"),
+            Revision.create("2", "repo"),
+            Revision.create("3", "repo"),
+            Revision.create("1", "repo"))
+        .inOrder();
+    assertEquals(4, history.reads);
+  }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2015 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.moe.client.repositories;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.FileWriteMode;
+import com.google.common.io.Files;
+import com.google.devtools.moe.client.repositories.RevisionHistory.SearchType;
+
+import junit.framework.TestCase;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+public class RevisionMetadataCacheTest extends TestCase {
+  private static final String URL = "http://example.com/repo";
+
+  private File directory;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    directory = Files.createTempDir();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    for (File file : directory.listFiles()) {
+      file.delete();
+    }
+    directory.delete();
+    super.tearDown();
+  }
+
+  /** A linear history, c3 -> c2 -> c1, recording which revisions' metadata it is asked for. */
+  private static class FakeHistory extends AbstractRevisionHistory {
+    final List<String> reads = new ArrayList<>();
+    final Map<String, String> parents = ImmutableMap.of("c3", "c2", "c2", "c1");
+
+    @Override
+    public Revision findHighestRevision(String revId) {
+      return Revision.create("c3", "repo");
+    }
+
+    @Override
+    public RevisionMetadata getMetadata(Revision revision) {
+      reads.add(revision.revId());
+      String id = revision.revId().equals("HEAD") ? "c3" : revision.revId();
+      return new RevisionMetadata(
+          id,
+          "author <author@example.com>",
+          new DateTime(2015, 3, 4, 5, 6, DateTimeZone.forOffsetHoursMinutes(-9, -30)),
+          "Description of " + id + "\n\nwith \"details\"\n",
+          parents.containsKey(id)
+              ? ImmutableList.of(Revision.create(parents.get(id), "repo"))
+              : ImmutableList.<Revision>of());
+    }
+
+    @Override
+    protected List<Revision> findHeadRevisions() {
+      return ImmutableList.of(findHighestRevision(null));
+    }
+  }
+
+  public void testReadsEachRevisionOnce() {
+    FakeHistory history = new FakeHistory();
+    RevisionHistory cached =
+        new CachingRevisionHistory(history, new RevisionMetadataCache(null), URL, false);
+
+    RevisionMetadata first = cached.getMetadata(Revision.create("c2", "repo"));
+    assertEquals(first, cached.getMetadata(Revision.create("c2", "repo")));
+    assertThat(history.reads).containsExactly("c2");
+  }
+
+  public void testPersistsAcrossRuns() {
+    FakeHistory history = new FakeHistory();
+    RevisionMetadata expected = history.getMetadata(Revision.create("c2", "repo"));
+    new CachingRevisionHistory(history, new RevisionMetadataCache(directory), URL, false)
+        .getMetadata(Revision.create("c2", "repo"));
+
+    FakeHistory nextRun = new FakeHistory();
+    RevisionMetadata metadata =
+        new CachingRevisionHistory(nextRun, new RevisionMetadataCache(directory), URL, false)
+            .getMetadata(Revision.create("c2", "repo"));
+
+    assertEquals(expected, metadata);
+    assertEquals(expected.date.getZone(), metadata.date.getZone());
+    assertThat(nextRun.reads).isEmpty();
+  }
+
+  public void testKeyedByRepositoryUrl() {
+    new CachingRevisionHistory(new FakeHistory(), new RevisionMetadataCache(directory), URL, false)
+        .getMetadata(Revision.create("c2", "repo"));
+
+    FakeHistory otherUrl = new FakeHistory();
+    new CachingRevisionHistory(
+            otherUrl, new RevisionMetadataCache(directory), "http://example.com/other", false)
+        .getMetadata(Revision.create("c2", "repo"));
+
+    assertThat(otherUrl.reads).containsExactly("c2");
+  }
+
+  public void testRevisionsNotNamedByIdAreNotCached() {
+    FakeHistory history = new FakeHistory();
+    RevisionHistory cached =
+        new CachingRevisionHistory(history, new RevisionMetadataCache(directory), URL, false);
+
+    cached.getMetadata(Revision.create("HEAD", "repo"));
+    cached.getMetadata(Revision.create("HEAD", "repo"));
+    assertThat(history.reads).containsExactly("HEAD", "HEAD");
+  }
+
+  public void testCacheOnlyBelowHead() {
+    FakeHistory history =
+        new FakeHistory() {
+          @Override
+          public Revision findHighestRevision(String revId) {
+            return Revision.create("3", "repo");
+          }
+        };
+    RevisionHistory cached =
+        new CachingRevisionHistory(history, new RevisionMetadataCache(directory), URL, true);
+
+    for (int i = 0; i < 2; i++) {
+      cached.getMetadata(Revision.create("2", "repo"));
+      cached.getMetadata(Revision.create("3", "repo"));
+    }
+    assertThat(history.reads).containsExactly("2", "3", "3").inOrder();
+  }
+
+  public void testSearchesReadThroughCache() {
+    FakeHistory history = new FakeHistory();
+    RevisionMetadataCache cache = new RevisionMetadataCache(directory);
+    Revision c2 = Revision.create("c2", "repo");
+    cache.put(URL, c2, history.getMetadata(c2));
+    history.reads.clear();
+
+    List<Revision> found =
+        new CachingRevisionHistory(history, cache, URL, false)
+            .findRevisions(
+                Revision.create("c3", "repo"),
+                new ExactRevisionMatcher(Revision.create("c1", "repo")),
+                SearchType.LINEAR)
+            .revisions()
+            .getBreadthFirstHistory();
+
+    assertThat(found)
+        .containsExactly(Revision.create("c3", "repo"), Revision.create("c2", "repo"))
+        .inOrder();
+    assertThat(history.reads).containsExactly("c3");
+  }
+
+  public void testSkipsDamagedEntries() throws Exception {
+    FakeHistory history = new FakeHistory();
+    new CachingRevisionHistory(history, new RevisionMetadataCache(directory), URL, false)
+        .getMetadata(Revision.create("c2", "repo"));
+    File cacheFile = directory.listFiles()[0];
+    Files.asCharSink(cacheFile, UTF_8, FileWriteMode.APPEND).write("{\"revId\":\"c1\", \"auth");
+
+    FakeHistory nextRun = new FakeHistory();
+    RevisionHistory cached =
+        new CachingRevisionHistory(nextRun, new RevisionMetadataCache(directory), URL, false);
+    cached.getMetadata(Revision.create("c1", "repo"));
+    cached.getMetadata(Revision.create("c2", "repo"));
+
+    assertThat(nextRun.reads).containsExactly("c1");
+
+    // The entry written after the damaged one is intact.
+    FakeHistory lastRun = new FakeHistory();
+    new CachingRevisionHistory(lastRun, new RevisionMetadataCache(directory), URL, false)
+        .getMetadata(Revision.create("c1", "repo"));
+    assertThat(lastRun.reads).isEmpty();
+  }
+}
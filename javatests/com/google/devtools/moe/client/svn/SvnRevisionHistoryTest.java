@@ -48,6 +48,7 @@ import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 
 import java.util.List;
+import java.util.Map;
 
 import javax.inject.Singleton;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -282,7 +283,7 @@ public class SvnRevisionHistoryTest extends TestCase {
       throw new RuntimeException(e);
     }
 
-    // revision 3 metadata
+    // metadata for revision 3 and its ancestors
     try {
       expect(
               cmd.runCommand(
@@ -292,7 +293,7 @@ public class SvnRevisionHistoryTest extends TestCase {
                       "log",
                       "--xml",
                       "-l",
-                      "2",
+                      "51",
                       "-r",
                       "3:1",
                       "http://foo/svn/trunk/"),
@@ -314,32 +315,6 @@ public class SvnRevisionHistoryTest extends TestCase {
       throw new RuntimeException(e);
     }
 
-    // revision 2 metadata
-    try {
-      expect(
-              cmd.runCommand(
-                  "svn",
-                  ImmutableList.of(
-                      "--no-auth-cache",
-                      "log",
-                      "--xml",
-                      "-l",
-                      "2",
-                      "-r",
-                      "2:1",
-                      "http://foo/svn/trunk/"),
-                  ""))
-          .andReturn(
-              "<log><logentry revision=\"2\">"
-                  + "<author>uid@google.com</author>"
-                  + "<date>"
-                  + SVN_COMMIT_DATE
-                  + "</date>"
-                  + "<msg>description</msg></logentry></log>");
-    } catch (CommandException e) {
-      throw new RuntimeException(e);
-    }
-
     control.replay();
     SvnRevisionHistory history =
         new SvnRevisionHistory("internal_svn", "http://foo/svn/trunk/", util);
@@ -401,7 +376,7 @@ public class SvnRevisionHistoryTest extends TestCase {
                     "log",
                     "--xml",
                     "-l",
-                    "2",
+                    "51",
                     "-r",
                     "4:1",
                     "http://foo/svn/trunk/"),
@@ -418,28 +393,7 @@ public class SvnRevisionHistoryTest extends TestCase {
                 + "<date>"
                 + SVN_COMMIT_DATE
                 + "</date>"
-                + "<msg>description</msg></logentry></log>");
-
-    expect(
-            cmd.runCommand(
-                "svn",
-                ImmutableList.of(
-                    "--no-auth-cache",
-                    "log",
-                    "--xml",
-                    "-l",
-                    "2",
-                    "-r",
-                    "3:1",
-                    "http://foo/svn/trunk/"),
-                ""))
-        .andReturn(
-            "<log><logentry revision=\"3\">"
-                + "<author>uid@google.com</author>"
-                + "<date>"
-                + SVN_COMMIT_DATE
-                + "</date>"
-                + "<msg>message</msg></logentry>"
+                + "<msg>description</msg></logentry>"
                 + "<logentry revision =\"2\">"
                 + "<author>user@google.com</author>"
                 + "<date>"
@@ -513,7 +467,7 @@ public class SvnRevisionHistoryTest extends TestCase {
                     "log",
                     "--xml",
                     "-l",
-                    "2",
+                    "51",
                     "-r",
                     "2:1",
                     "http://foo/svn/trunk/"),
@@ -532,6 +486,23 @@ public class SvnRevisionHistoryTest extends TestCase {
                 + "</date>"
                 + "<msg>description</msg></logentry></log>");
 
+    control.replay();
+
+    FileDb database = new FileDb(null, GsonModule.provideGson().fromJson(testDb2, DbStorage.class));
+    SvnRevisionHistory history = new SvnRevisionHistory("repo2", "http://foo/svn/trunk/", util);
+
+    Result result =
+        history.findRevisions(
+            Revision.create(2, "repo2"),
+            new RepositoryEquivalenceMatcher("repo1", database),
+            SearchType.LINEAR);
+
+    control.verify();
+
+    assertEquals(0, result.getEquivalences().size());
+  }
+
+  public void testGetMetadataPage_dropsEntryWithUnknownParent() throws Exception {
     expect(
             cmd.runCommand(
                 "svn",
@@ -540,32 +511,28 @@ public class SvnRevisionHistoryTest extends TestCase {
                     "log",
                     "--xml",
                     "-l",
-                    "2",
+                    "3",
                     "-r",
-                    "1:1",
+                    "3:1",
                     "http://foo/svn/trunk/"),
                 ""))
         .andReturn(
-            "<log><logentry revision=\"1\">"
-                + "<author>uid@google.com</author>"
-                + "<date>"
-                + SVN_COMMIT_DATE
-                + "</date>"
-                + "<msg>message</msg></logentry></log>");
+            "<log><logentry revision=\"3\"><msg>third</msg></logentry>"
+                + "<logentry revision=\"2\"><msg>second</msg></logentry>"
+                + "<logentry revision=\"1\"><msg>first</msg></logentry></log>");
 
     control.replay();
 
-    FileDb database = new FileDb(null, GsonModule.provideGson().fromJson(testDb2, DbStorage.class));
-    SvnRevisionHistory history = new SvnRevisionHistory("repo2", "http://foo/svn/trunk/", util);
-
-    Result result =
-        history.findRevisions(
-            Revision.create(2, "repo2"),
-            new RepositoryEquivalenceMatcher("repo1", database),
-            SearchType.LINEAR);
+    SvnRevisionHistory history = new SvnRevisionHistory("repo", "http://foo/svn/trunk/", util);
+    Map<Revision, RevisionMetadata> page =
+        history.getMetadataPage(Revision.create(3, "repo"), SearchType.LINEAR, 2);
 
     control.verify();
 
-    assertEquals(0, result.getEquivalences().size());
+    assertThat(page.keySet())
+        .containsExactly(Revision.create(3, "repo"), Revision.create(2, "repo"))
+        .inOrder();
+    assertThat(page.get(Revision.create(2, "repo")).parents)
+        .containsExactly(Revision.create(1, "repo"));
   }
 }
@@ -183,6 +183,16 @@ public class InMemoryFileSystemTest extends TestCase {
     assertTrue(fs.isDirectory(new File("/a/b/c/d")));
   }
 
+  public void testLengthAndLastModified() throws Exception {
+    InMemoryFileSystem fs = new InMemoryFileSystem(ImmutableMap.of("/src", "contents"));
+    assertEquals(8, fs.length(new File("/src")));
+    assertEquals(0, fs.lastModified(new File("/src")));
+    fs.setLastModified(new File("/src"), 1000L);
+    assertEquals(1000L, fs.lastModified(new File("/src")));
+    assertEquals(0, fs.length(new File("/missing")));
+    assertEquals(0, fs.lastModified(new File("/missing")));
+  }
+
   public void testCopyFile() throws Exception {
     InMemoryFileSystem fs = new InMemoryFileSystem(ImmutableMap.of("/src", "contents"));
     fs.copyFile(new File("/src"), new File("/dest"));
@@ -16,11 +16,19 @@
 
 package com.google.devtools.moe.client.tools;
 
+import static com.google.common.truth.Truth.assertThat;
 import static org.easymock.EasyMock.expect;
 
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+import com.google.devtools.moe.client.FileSystem.FileStat;
+import com.google.devtools.moe.client.MoeProblem;
 import com.google.devtools.moe.client.codebase.Codebase;
+import com.google.devtools.moe.client.testing.InMemoryFileSystem;
 import com.google.devtools.moe.client.tools.FileDifference.Comparison;
+import com.google.devtools.moe.client.tools.FileDifference.FileDiffer;
+import com.google.devtools.moe.client.tools.FileDifference.StatFileDiffer;
 
 import junit.framework.TestCase;
 
@@ -28,6 +36,9 @@ import org.easymock.EasyMock;
 import org.easymock.IMocksControl;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
 
 public class CodebaseDifferenceTest extends TestCase {
 
@@ -74,4 +85,124 @@ public class CodebaseDifferenceTest extends TestCase {
 
     assertEquals(true, d.areDifferent());
   }
+
+  /** A FileDiffer under which every file with an odd number in its name differs. */
+  private static class OddFilesDiffer implements FileDiffer {
+    final Set<String> threads = Sets.newConcurrentHashSet();
+
+    @Override
+    public FileDifference diffFiles(String relativeFilename, File file1, File file2) {
+      threads.add(Thread.currentThread().getName());
+      boolean odd = Integer.parseInt(relativeFilename.substring(1)) % 2 == 1;
+      return FileDifference.create(
+          relativeFilename,
+          file1,
+          file2,
+          Comparison.SAME,
+          odd ? Comparison.ONLY1 : Comparison.SAME,
+          null);
+    }
+  }
+
+  public void testParallelDiffKeepsOrder() throws Exception {
+    ImmutableSet.Builder<String> filenames = ImmutableSet.builder();
+    List<String> expected = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      filenames.add("f" + i);
+      if (i % 2 == 1) {
+        expected.add("f" + i);
+      }
+    }
+    Codebase c1 = codebase("/1", filenames.build());
+    Codebase c2 = codebase("/2", ImmutableSet.of("f1000", "f1001"));
+    expected.add("f1001");
+
+    OddFilesDiffer fileDiffer = new OddFilesDiffer();
+    CodebaseDifference d = new CodebaseDiffer(fileDiffer, 4).diffCodebases(c1, c2);
+
+    List<String> differing = new ArrayList<>();
+    for (FileDifference fileDiff : d.fileDiffs) {
+      differing.add(fileDiff.relativeFilename());
+    }
+    assertEquals(expected, differing);
+    assertThat(fileDiffer.threads.size()).isGreaterThan(1);
+  }
+
+  public void testParallelDiffPropagatesFailure() throws Exception {
+    Codebase c1 = codebase("/1", ImmutableSet.of("f1", "f2", "f3", "f4"));
+    FileDiffer failing =
+        new FileDiffer() {
+          @Override
+          public FileDifference diffFiles(String relativeFilename, File file1, File file2) {
+            throw new MoeProblem("Could not diff %s", relativeFilename);
+          }
+        };
+    try {
+      new CodebaseDiffer(failing, 2).diffCodebases(c1, c1);
+      fail("Expected MoeProblem");
+    } catch (MoeProblem expected) {
+      assertThat(expected.getMessage()).startsWith("Could not diff f");
+    }
+  }
+
+  public void testAreDifferentDiffsOnlyFilesWhoseHashesDiffer() throws Exception {
+    InMemoryFileSystem filesystem =
+        new InMemoryFileSystem(
+            ImmutableMap.of(
+                "/1/same", "same",
+                "/1/changed", "1",
+                "/2/same", "same",
+                "/2/changed", "1 (equivalent)"));
+    Codebase c1 = new Codebase(filesystem, new File("/1"), "public", null);
+    Codebase c2 = new Codebase(filesystem, new File("/2"), "public", null);
+
+    IMocksControl control = EasyMock.createControl();
+    FileDiffer fileDiffer = control.createMock(FileDiffer.class);
+    expect(fileDiffer.diffFiles("changed", new File("/1/changed"), new File("/2/changed")))
+        .andReturn(
+            FileDifference.create(
+                "changed",
+                new File("/1/changed"),
+                new File("/2/changed"),
+                Comparison.SAME,
+                Comparison.SAME,
+                null));
+    control.replay();
+    CodebaseDiffer differ = new CodebaseDiffer(fileDiffer);
+    assertFalse(differ.areDifferent(c1, c2));
+    // Identical codebases aren't diffed at all.
+    assertFalse(differ.areDifferent(c1, c1));
+    control.verify();
+  }
+
+  public void testGivesStatsFoundWithTheFilesToStatFileDiffer() throws Exception {
+    InMemoryFileSystem filesystem =
+        new InMemoryFileSystem(ImmutableMap.of("/1/foo", "foo", "/2/foo", "foo!"));
+    Codebase c1 = new Codebase(filesystem, new File("/1"), "public", null);
+    Codebase c2 = new Codebase(filesystem, new File("/2"), "public", null);
+    File f1 = new File("/1/foo");
+    File f2 = new File("/2/foo");
+
+    IMocksControl control = EasyMock.createControl();
+    StatFileDiffer fileDiffer = control.createMock(StatFileDiffer.class);
+    expect(
+            fileDiffer.diffFiles(
+                "foo", f1, FileStat.create(3, true), f2, FileStat.create(4, true)))
+        .andReturn(
+            FileDifference.create("foo", f1, f2, Comparison.SAME, Comparison.SAME, "diff"));
+    control.replay();
+    CodebaseDifference d = new CodebaseDiffer(fileDiffer).diffCodebases(c1, c2);
+    control.verify();
+
+    assertTrue(d.areDifferent());
+  }
+
+  private static Codebase codebase(String path, final Set<String> filenames) {
+    return new Codebase(null, new File(path), "public", null) {
+      @Override
+      public Set<String> getRelativeFilenames() {
+        return filenames;
+      }
+    };
+  }
 }
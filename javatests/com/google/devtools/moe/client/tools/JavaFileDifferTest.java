@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2015 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.moe.client.tools;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.io.Files;
+import com.google.devtools.moe.client.FileSystem.FileStat;
+import com.google.devtools.moe.client.SystemFileSystem;
+import com.google.devtools.moe.client.tools.FileDifference.Comparison;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Tests {@link JavaFileDiffer} against files on disk, with the output expected of
+ * {@code diff -N}.
+ */
+public class JavaFileDifferTest extends TestCase {
+  private final JavaFileDiffer differ = new JavaFileDiffer(new SystemFileSystem());
+  private File dir;
+  private File file1;
+  private File file2;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    dir = Files.createTempDir();
+    file1 = new File(dir, "1");
+    file2 = new File(dir, "2");
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    file1.delete();
+    file2.delete();
+    dir.delete();
+    super.tearDown();
+  }
+
+  private String diff(String contents1, String contents2) throws Exception {
+    Files.write(contents1, file1, UTF_8);
+    Files.write(contents2, file2, UTF_8);
+    return differ.diffFiles("foo", file1, file2).contentDiff();
+  }
+
+  public void testIdentical() throws Exception {
+    assertNull(diff("a\nb\n", "a\nb\n"));
+  }
+
+  public void testChange() throws Exception {
+    assertEquals("2c2\n< b\n---\n> B\n", diff("a\nb\nc\n", "a\nB\nc\n"));
+  }
+
+  public void testAddAndDelete() throws Exception {
+    assertEquals("0a1,2\n> x\n> y\n3d4\n< c\n", diff("a\nb\nc\nd\n", "x\ny\na\nb\nd\n"));
+  }
+
+  public void testMultilineChange() throws Exception {
+    assertEquals("2,3c2\n< b\n< c\n---\n> B\n", diff("a\nb\nc\nd\n", "a\nB\nd\n"));
+  }
+
+  public void testNoNewlineAtEndOfFile() throws Exception {
+    assertEquals("1c1\n< a\n---\n> a\n\\ No newline at end of file\n", diff("a\n", "a"));
+  }
+
+  public void testChangesAlignedAsDiffAlignsThem() throws Exception {
+    // Either "a" could be the one deleted; diff reports the last.
+    assertEquals("2d1\n< a\n", diff("a\na\n", "a\n"));
+    // A run of changes slides to line up with a run in the other file.
+    assertEquals("2,3c2\n< x\n< b\n---\n> y\n", diff("a\nx\nb\nb\n", "a\ny\nb\n"));
+  }
+
+  public void testNonAsciiLines() throws Exception {
+    assertEquals("1c1\n< caf\u00e9\n---\n> cafe\n", diff("caf\u00e9\n", "cafe\n"));
+  }
+
+  public void testBinary() throws Exception {
+    assertEquals(
+        "Binary files " + file1.getAbsolutePath() + " and " + file2.getAbsolutePath()
+            + " differ\n",
+        diff("a\u0000b\n", "a\u0000c\n"));
+  }
+
+  public void testMissingFileTreatedAsEmpty() throws Exception {
+    Files.write("a\nb\n", file1, UTF_8);
+    FileDifference d = differ.diffFiles("foo", file1, file2);
+    assertEquals(Comparison.ONLY1, d.existence());
+    assertEquals("1,2d0\n< a\n< b\n", d.contentDiff());
+
+    Files.write("", file2, UTF_8);
+    file1.delete();
+    d = differ.diffFiles("foo", file1, file2);
+    assertEquals(Comparison.ONLY2, d.existence());
+    assertNull(d.contentDiff());
+    assertTrue(d.isDifferent());
+  }
+
+  public void testExecutability() throws Exception {
+    Files.write("a\n", file1, UTF_8);
+    Files.write("a\n", file2, UTF_8);
+    file2.setExecutable(true);
+    FileDifference d = differ.diffFiles("foo", file1, file2);
+    assertEquals(Comparison.ONLY2, d.executability());
+    assertNull(d.contentDiff());
+  }
+
+  public void testGivenStatsAreNotReadAgain() throws Exception {
+    Files.write("a\n", file1, UTF_8);
+    Files.write("b\n", file2, UTF_8);
+    FileDifference d =
+        differ.diffFiles(
+            "foo", file1, FileStat.create(2, true), file2, FileStat.create(2, false));
+    assertEquals(Comparison.SAME, d.existence());
+    assertEquals(Comparison.ONLY1, d.executability());
+    assertEquals("1c1\n< a\n---\n> b\n", d.contentDiff());
+
+    d = differ.diffFiles("foo", file1, null, file2, FileStat.create(2, false));
+    assertEquals(Comparison.ONLY2, d.existence());
+    assertEquals("0a1\n> b\n", d.contentDiff());
+  }
+
+  public void testLargeFilesDifferingInLastBlock() throws Exception {
+    StringBuilder contents = new StringBuilder();
+    for (int i = 0; i < 20000; i++) {
+      contents.append("line ").append(i).append('\n');
+    }
+    assertNull(diff(contents.toString(), contents.toString()));
+    assertEquals(
+        "20000c20000\n< line 19999\n---\n> line 19999!\n",
+        diff(contents.toString(), contents.toString().replace("line 19999\n", "line 19999!\n")));
+  }
+
+  public void testThreadSafe() throws Exception {
+    final File[] files = new File[8];
+    for (int i = 0; i < files.length; i++) {
+      files[i] = new File(dir, "f" + i);
+      Files.write("shared\nline " + i + "\n", files[i], UTF_8);
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<String>> diffs = new ArrayList<>();
+      for (int n = 0; n < 200; n++) {
+        final int i = n % files.length;
+        final int j = (n + 1) % files.length;
+        diffs.add(
+            executor.submit(
+                new Callable<String>() {
+                  @Override
+                  public String call() {
+                    return differ.diffFiles("f", files[i], files[j]).contentDiff();
+                  }
+                }));
+      }
+      for (int n = 0; n < diffs.size(); n++) {
+        int i = n % files.length;
+        int j = (n + 1) % files.length;
+        assertEquals(
+            String.format("2c2\n< line %d\n---\n> line %d\n", i, j), diffs.get(n).get());
+      }
+    } finally {
+      executor.shutdown();
+      for (File file : files) {
+        file.delete();
+      }
+    }
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2015 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.devtools.moe.client.tools;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests {@link LineMerge}, with the output expected of {@code merge mine original yours}.
+ */
+public class LineMergeTest extends TestCase {
+  private LineMerge.Result result;
+
+  private String merge(String mine, String original, String yours) {
+    result =
+        LineMerge.merge(
+            mine.getBytes(UTF_8), original.getBytes(UTF_8), yours.getBytes(UTF_8), "mine", "yours");
+    return new String(result.merged, UTF_8);
+  }
+
+  public void testNoChanges() {
+    assertEquals("a\nb\n", merge("a\nb\n", "a\nb\n", "a\nb\n"));
+    assertFalse(result.conflicted);
+  }
+
+  public void testChangesFromEither() {
+    assertEquals("A\nb\nc\n", merge("A\nb\nc\n", "a\nb\nc\n", "a\nb\nc\n"));
+    assertEquals("A\nb\nc\n", merge("a\nb\nc\n", "a\nb\nc\n", "A\nb\nc\n"));
+    assertEquals("A\nb\nC\n", merge("A\nb\nc\n", "a\nb\nc\n", "a\nb\nC\n"));
+    assertFalse(result.conflicted);
+  }
+
+  public void testInsertionsAndDeletions() {
+    assertEquals("x\na\nc\nd\ny\n", merge("x\na\nb\nc\nd\n", "a\nb\nc\nd\n", "a\nc\nd\ny\n"));
+    assertFalse(result.conflicted);
+  }
+
+  public void testSameChangeInBoth() {
+    assertEquals("a\nB\nc\n", merge("a\nB\nc\n", "a\nb\nc\n", "a\nB\nc\n"));
+    assertFalse(result.conflicted);
+  }
+
+  public void testConflict() {
+    assertEquals(
+        "a\n<<<<<<< mine\nX\n=======\nY\n>>>>>>> yours\nc\n",
+        merge("a\nX\nc\n", "a\nb\nc\n", "a\nY\nc\n"));
+    assertTrue(result.conflicted);
+  }
+
+  public void testAdjacentChangesConflict() {
+    assertEquals(
+        "a\n<<<<<<< mine\nB\nc\n=======\nb\nC\n>>>>>>> yours\nd\n",
+        merge("a\nB\nc\nd\n", "a\nb\nc\nd\n", "a\nb\nC\nd\n"));
+    assertTrue(result.conflicted);
+  }
+
+  public void testAddedInBoth() {
+    assertEquals("a\n", merge("a\n", "", "a\n"));
+    assertFalse(result.conflicted);
+    assertEquals("<<<<<<< mine\na\n=======\nb\n>>>>>>> yours\n", merge("a\n", "", "b\n"));
+    assertTrue(result.conflicted);
+  }
+
+  public void testNoNewlineAtEndOfFile() {
+    assertEquals("A\nb", merge("A\nb", "a\nb", "a\nb"));
+    assertEquals("a\nb", merge("a\nb\n", "a\nb\n", "a\nb"));
+    assertEquals("<<<<<<< mine\na=======\nb>>>>>>> yours\n", merge("a", "", "b"));
+  }
+
+  public void testRunsOfRepeatedLinesAlignAsDiff3AlignsThem() {
+    // Mine drops one of two l1s in a row. As diff3 does, it's taken to be the second, which
+    // touches yours' change, so they conflict.
+    assertEquals(
+        "l4\nl1\nl0\n<<<<<<< mine\nl1\n=======\nl6\nl1\n>>>>>>> yours\nl0\n",
+        merge("l4\nl1\nl0\nl1\nl0\n", "l1\nl0\nl1\nl1\nl0\n", "l1\nl0\nl6\nl1\nl0\n"));
+  }
+}